@@ -0,0 +1,149 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which networks may connect to a route, as allow and deny rules on CIDR blocks (IPv4 and IPv6). The most specific
+ * block containing the client decides, clients outside every block get the default. See RouteTo.withAccessList(...)
+ */
+public class AccessList {
+    private final List<Rule> rules = new ArrayList<>();
+    private Access otherwise = Access.ALLOW;
+
+    public AccessList() {
+    }
+
+    public AccessList(AccessList other) {
+        this.rules.addAll(other.rules);
+        this.otherwise = other.otherwise;
+    }
+
+    /**
+     * @param cidr - i.e. 10.0.0.0/8 or 2001:db8::/32, a single address without a prefix length
+     */
+    public AccessList allow(String cidr) {
+        return add(Access.ALLOW, cidr);
+    }
+
+    /**
+     * @param cidr - i.e. 10.0.0.0/8 or 2001:db8::/32, a single address without a prefix length
+     */
+    public AccessList deny(String cidr) {
+        return add(Access.DENY, cidr);
+    }
+
+    /**
+     * @param access - what happens to the clients outside every block, ALLOW unless told otherwise
+     */
+    public AccessList otherwise(Access access) {
+        if (access == null) {
+            throw new IllegalArgumentException("The default access is required");
+        }
+        this.otherwise = access;
+        return this;
+    }
+
+    public List<Rule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    public Access getOtherwise() {
+        return otherwise;
+    }
+
+    private AccessList add(Access access, String cidr) {
+        Rule rule = Rule.parse(access, cidr);
+        for (Rule existing : rules) {
+            if (existing.getPrefixLength() == rule.getPrefixLength() && existing.getNetwork().equals(rule.getNetwork())) {
+                throw new IllegalArgumentException("The CIDR block " + rule.getCidr() + " is already in the list");
+            }
+        }
+        rules.add(rule);
+        return this;
+    }
+
+    public enum Access {
+        ALLOW,
+        DENY
+    }
+
+    /**
+     * A single CIDR block, with the bits past the prefix length cleared
+     */
+    public static final class Rule {
+        private final Access access;
+        private final InetAddress network;
+        private final int prefixLength;
+
+        private Rule(Access access, InetAddress network, int prefixLength) {
+            this.access = access;
+            this.network = network;
+            this.prefixLength = prefixLength;
+        }
+
+        private static Rule parse(Access access, String cidr) {
+            // only literals, a host name would be looked up
+            if (cidr == null || !(cidr.matches("[0-9]{1,3}(\\.[0-9]{1,3}){3}(/[0-9]{1,2})?") || cidr.matches("[0-9a-fA-F:.]*:[0-9a-fA-F:.]*(/[0-9]{1,3})?"))) {
+                throw new IllegalArgumentException("Not a CIDR block: " + cidr);
+            }
+            int slash = cidr.indexOf('/');
+            byte[] address;
+            try {
+                address = InetAddress.getByName(slash == -1 ? cidr : cidr.substring(0, slash)).getAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Not a CIDR block: " + cidr);
+            }
+            int prefixLength = slash == -1 ? address.length * 8 : Integer.parseInt(cidr.substring(slash + 1));
+            if (prefixLength > address.length * 8) {
+                throw new IllegalArgumentException("Not a CIDR block: " + cidr);
+            }
+            for (int bit = prefixLength; bit < address.length * 8; bit++) {
+                address[bit / 8] &= (byte) ~(0x80 >>> (bit % 8));
+            }
+            try {
+                return new Rule(access, InetAddress.getByAddress(address), prefixLength);
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Not a CIDR block: " + cidr);
+            }
+        }
+
+        public Access getAccess() {
+            return access;
+        }
+
+        public InetAddress getNetwork() {
+            return network;
+        }
+
+        public int getPrefixLength() {
+            return prefixLength;
+        }
+
+        /**
+         * @return the block in CIDR notation, i.e. 10.0.0.0/8
+         */
+        public String getCidr() {
+            return network.getHostAddress() + "/" + prefixLength;
+        }
+
+        public String toString() {
+            return access + " " + getCidr();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.util.Optional;
+
+/**
+ * How often a rule of a route's access list decided on a client, see MoxyServer.getAccessStats(...)
+ */
+public interface AccessRuleStats {
+    /**
+     * @return the rule, empty for the default of the clients outside every block
+     */
+    Optional<AccessList.Rule> getRule();
+
+    /**
+     * @return what the rule does to the clients it decides on
+     */
+    AccessList.Access getAccess();
+
+    /**
+     * @return how many connections the rule decided on since the list was put in place
+     */
+    long getMatches();
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * What a traffic stream does with the chunks a subscriber has not asked for yet
+ */
+public final class Backpressure {
+    public enum Policy {
+        /**
+         * Hold on to the chunks up to the limit, anything after that is dropped
+         */
+        BUFFER,
+        /**
+         * Hold on to a single chunk the subscriber has not asked for yet, anything after that is dropped
+         */
+        DROP,
+        /**
+         * Hold on to the chunks up to the limit, after that the relay waits for the subscriber to catch up for up to the
+         * maximum wait before dropping the chunk
+         */
+        BLOCK
+    }
+
+    public static final long DEFAULT_MAX_WAIT_IN_MILLIS = 30_000;
+    private final Policy policy;
+    private final int maxBufferedChunks;
+    private final long maxWaitInMillis;
+
+    private Backpressure(Policy policy, int maxBufferedChunks, long maxWaitInMillis) {
+        if (maxBufferedChunks < 1) {
+            throw new IllegalArgumentException("Need to buffer at least 1 chunk, but was given: " + maxBufferedChunks);
+        }
+        if (maxWaitInMillis < 0) {
+            throw new IllegalArgumentException("The maximum wait can not be negative, but was given: " + maxWaitInMillis);
+        }
+        this.policy = policy;
+        this.maxBufferedChunks = maxBufferedChunks;
+        this.maxWaitInMillis = maxWaitInMillis;
+    }
+
+    /**
+     * Buffer up to the given number of chunks per subscriber (rounded up to a power of two) and drop the rest
+     */
+    public static Backpressure buffer(int maxBufferedChunks) {
+        return new Backpressure(Policy.BUFFER, maxBufferedChunks, 0);
+    }
+
+    /**
+     * Drop whatever the subscriber is not ready for, apart from the one chunk the stream always holds on to for it
+     */
+    public static Backpressure drop() {
+        return new Backpressure(Policy.DROP, 1, 0);
+    }
+
+    /**
+     * Buffer up to the given number of chunks per subscriber (rounded up to a power of two) and then slow the relay
+     * down to the pace of the slowest subscriber, for up to DEFAULT_MAX_WAIT_IN_MILLIS per chunk
+     */
+    public static Backpressure block(int maxBufferedChunks) {
+        return block(maxBufferedChunks, DEFAULT_MAX_WAIT_IN_MILLIS);
+    }
+
+    /**
+     * @param maxWaitInMillis - how long the relay waits on a subscriber for each chunk before dropping it for that
+     *                        subscriber, the wait is cut short when the server stops
+     */
+    public static Backpressure block(int maxBufferedChunks, long maxWaitInMillis) {
+        return new Backpressure(Policy.BLOCK, maxBufferedChunks, maxWaitInMillis);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxBufferedChunks() {
+        return maxBufferedChunks;
+    }
+
+    public long getMaxWaitInMillis() {
+        return maxWaitInMillis;
+    }
+
+    public String toString() {
+        return policy + "(" + maxBufferedChunks + ")";
+    }
+}
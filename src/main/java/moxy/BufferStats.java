@@ -0,0 +1,48 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * The buffers the relays read into, see MoxyServer.useDirectBuffers(...). All zero while the relays use heap buffers.
+ */
+public interface BufferStats {
+    /**
+     * @return the most direct memory the slabs may take up
+     */
+    long getMaxBytes();
+
+    /**
+     * @return how much direct memory has been allocated for slabs so far, slabs are kept for reuse once allocated
+     */
+    long getReservedBytes();
+
+    /**
+     * @return how much of the slabs is handed out right now
+     */
+    long getUsedBytes();
+
+    /**
+     * @return how many buffers were handed out from the slabs
+     */
+    long getAllocations();
+
+    /**
+     * @return how many times the slabs were all in use and a heap buffer was handed out instead
+     */
+    long getFallbacks();
+
+    /**
+     * @return how many buffers were garbage collected without being released, only counted with leak detection on
+     */
+    long getLeaks();
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.net.SocketAddress;
+
+/**
+ * A piece of data relayed over a connection, as handed out by MoxyServer.traffic(...)
+ */
+public final class Chunk {
+    private final long connectionId;
+    private final int listenPort;
+    private final SocketAddress remoteAddress;
+    private final Direction direction;
+    private final byte[] data;
+
+    public Chunk(long connectionId, int listenPort, SocketAddress remoteAddress, Direction direction, byte[] data) {
+        this.connectionId = connectionId;
+        this.listenPort = listenPort;
+        this.remoteAddress = remoteAddress;
+        this.direction = direction;
+        this.data = data;
+    }
+
+    /**
+     * @return the id of the connection, unique for the lifetime of the MoxyServer
+     */
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    public int getListenPort() {
+        return listenPort;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return the data, this is shared with every other subscriber so do not modify it
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public String toString() {
+        return "Chunk{connectionId=" + connectionId + ", listenPort=" + listenPort + ", remoteAddress=" + remoteAddress
+                + ", direction=" + direction + ", length=" + data.length + "}";
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * Limits on how fast and how many connections a single client address may make to a route, connections over a limit
+ * are closed right after being accepted without connecting to the route server, see RouteTo.withClientLimits(...)
+ */
+public class ClientLimits {
+    public static final int DEFAULT_MAX_TRACKED_CLIENTS = 64 * 1024;
+    public static final long DEFAULT_IDLE_EXPIRY_IN_MILLIS = 60_000;
+    private double connectionsPerSecond;
+    private int burst;
+    private int maxConcurrentConnections;
+    private int maxTrackedClients = DEFAULT_MAX_TRACKED_CLIENTS;
+    private long idleExpiryInMillis = DEFAULT_IDLE_EXPIRY_IN_MILLIS;
+
+    public ClientLimits() {
+    }
+
+    public ClientLimits(ClientLimits other) {
+        this.connectionsPerSecond = other.connectionsPerSecond;
+        this.burst = other.burst;
+        this.maxConcurrentConnections = other.maxConcurrentConnections;
+        this.maxTrackedClients = other.maxTrackedClients;
+        this.idleExpiryInMillis = other.idleExpiryInMillis;
+    }
+
+    /**
+     * @param connectionsPerSecond - how many new connections a client may make each second on average
+     * @param burst                - how many connections a client that was quiet for a while may make at once
+     */
+    public ClientLimits withConnectionRate(double connectionsPerSecond, int burst) {
+        if (!(connectionsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("The connection rate needs to be above 0 with a burst of at least 1, but was given: "
+                    + connectionsPerSecond + "/s with a burst of " + burst);
+        }
+        this.connectionsPerSecond = connectionsPerSecond;
+        this.burst = burst;
+        return this;
+    }
+
+    /**
+     * @param connections - how many connections of a client may be relayed at the same time
+     */
+    public ClientLimits withMaxConcurrentConnections(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("At least one concurrent connection is required, but was given: " + connections);
+        }
+        this.maxConcurrentConnections = connections;
+        return this;
+    }
+
+    /**
+     * @param clients            - how many client addresses are remembered at most, the least recently seen are
+     *                           forgotten first (and start over with a full bucket)
+     * @param idleExpiryInMillis - how long a client without connections is remembered after it was last seen
+     */
+    public ClientLimits withTracking(int clients, long idleExpiryInMillis) {
+        if (clients < 1 || idleExpiryInMillis < 1) {
+            throw new IllegalArgumentException("At least one client needs to be tracked for at least 1ms, but was given: "
+                    + clients + " clients for " + idleExpiryInMillis + "ms");
+        }
+        this.maxTrackedClients = clients;
+        this.idleExpiryInMillis = idleExpiryInMillis;
+        return this;
+    }
+
+    /**
+     * @return 0 when the rate is not limited
+     */
+    public double getConnectionsPerSecond() {
+        return connectionsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return 0 when the concurrent connections are not limited
+     */
+    public int getMaxConcurrentConnections() {
+        return maxConcurrentConnections;
+    }
+
+    public int getMaxTrackedClients() {
+        return maxTrackedClients;
+    }
+
+    public long getIdleExpiryInMillis() {
+        return idleExpiryInMillis;
+    }
+}
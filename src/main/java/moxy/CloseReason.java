@@ -0,0 +1,51 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * Why a relayed connection was closed, the first reason to happen wins
+ */
+public enum CloseReason {
+    /**
+     * The client closed its side of the connection
+     */
+    CLIENT_CLOSED,
+    /**
+     * The route server closed its side of the connection
+     */
+    SERVER_CLOSED,
+    /**
+     * One of the route's timeouts passed, see MoxyListener.connectionTimedOut(...)
+     */
+    TIMED_OUT,
+    /**
+     * The network conditions of the route reset the connection
+     */
+    RESET,
+    /**
+     * Could not connect (or send the request) to the route server
+     */
+    CONNECT_FAILED,
+    /**
+     * None of the content based routes matched the connection
+     */
+    NO_ROUTE,
+    /**
+     * The route or the MoxyServer was stopped
+     */
+    STOPPED,
+    /**
+     * Anything else that went wrong while relaying
+     */
+    ERROR
+}
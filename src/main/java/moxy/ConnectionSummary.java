@@ -0,0 +1,85 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Where the time of a relayed connection went, handed to MoxyListener.connectionClosed(...)
+ */
+public final class ConnectionSummary {
+    private final Instant acceptedAt;
+    private final Duration upstreamConnect;
+    private final Duration[] timeToFirstByte;
+    private final long[] bytes;
+    private final Duration totalDuration;
+    private final CloseReason closeReason;
+
+    /**
+     * @param upstreamConnect - null when no connection to the route server was made
+     * @param timeToFirstByte - per Direction ordinal, null when nothing was relayed in that direction
+     * @param bytes           - per Direction ordinal
+     */
+    public ConnectionSummary(Instant acceptedAt, Duration upstreamConnect, Duration[] timeToFirstByte, long[] bytes,
+                             Duration totalDuration, CloseReason closeReason) {
+        this.acceptedAt = acceptedAt;
+        this.upstreamConnect = upstreamConnect;
+        this.timeToFirstByte = timeToFirstByte.clone();
+        this.bytes = bytes.clone();
+        this.totalDuration = totalDuration;
+        this.closeReason = closeReason;
+    }
+
+    public Instant getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    /**
+     * @return how long connecting to the route server took, empty when no connection was made (HTTP routes report
+     * how long it took to get a pooled connection for the first request)
+     */
+    public Optional<Duration> getUpstreamConnect() {
+        return Optional.ofNullable(upstreamConnect);
+    }
+
+    /**
+     * @return the time between accepting the connection and the first byte being relayed in the direction, empty
+     * when nothing was
+     */
+    public Optional<Duration> getTimeToFirstByte(Direction direction) {
+        return Optional.ofNullable(timeToFirstByte[direction.ordinal()]);
+    }
+
+    public long getBytes(Direction direction) {
+        return bytes[direction.ordinal()];
+    }
+
+    /**
+     * @return the time between accepting and closing the connection
+     */
+    public Duration getTotalDuration() {
+        return totalDuration;
+    }
+
+    public CloseReason getCloseReason() {
+        return closeReason;
+    }
+
+    public String toString() {
+        return "ConnectionSummary{acceptedAt=" + acceptedAt + ", upstreamConnect=" + upstreamConnect
+                + ", timeToFirstByte=" + getTimeToFirstByte(Direction.CLIENT_TO_SERVER).orElse(null) + "/" + getTimeToFirstByte(Direction.SERVER_TO_CLIENT).orElse(null)
+                + ", bytes=" + bytes[0] + "/" + bytes[1] + ", totalDuration=" + totalDuration + ", closeReason=" + closeReason + "}";
+    }
+}
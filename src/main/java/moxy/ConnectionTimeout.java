@@ -0,0 +1,31 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * Why moxy closed a connection on its own
+ */
+public enum ConnectionTimeout {
+    /**
+     * Neither the client nor the route server sent anything for too long
+     */
+    IDLE_READ,
+    /**
+     * Data could not be written because the other end stopped reading it for too long
+     */
+    IDLE_WRITE,
+    /**
+     * The connection was open longer than its route allows
+     */
+    MAX_LIFETIME
+}
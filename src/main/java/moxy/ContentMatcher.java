@@ -0,0 +1,34 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Decides where a connection should be routed by looking at the first bytes the client sent
+ */
+public interface ContentMatcher {
+    /**
+     * @param firstBytes - a read only view of the bytes the client has sent so far
+     * @return the address to route the connection to or null if this matcher does not apply
+     */
+    SocketAddress match(ByteBuffer firstBytes);
+
+    /**
+     * @return how many bytes need to have arrived before this matcher can make up its mind
+     */
+    default int minimumBytes() {
+        return 1;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import moxy.impl.SocketChannels;
+import moxy.impl.sniff.ContentRouter;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The rules for routing connections arriving on a single listening address to different route servers based on
+ * the first bytes each client sends
+ * <p>
+ * Host names may start with a wildcard (i.e. *.example.com) to match any of its sub-domains
+ */
+public class ContentRoutes {
+    public static final long DEFAULT_SNIFF_TIMEOUT_IN_MILLIS = 1000L;
+    private final List<Consumer<ContentRouter>> rules = new ArrayList<>();
+    private SocketAddress fallback;
+    private long sniffTimeoutInMillis = DEFAULT_SNIFF_TIMEOUT_IN_MILLIS;
+
+    /**
+     * Route HTTP/1.x requests by their Host header
+     */
+    public ContentRoutes whenHttpHost(String hostName, SocketAddress routeTo) {
+        assertHostName(hostName);
+        SocketAddress address = assertRouteTo(routeTo);
+        rules.add((router) -> router.addHttpHost(hostName, address));
+        return this;
+    }
+
+    /**
+     * Route TLS connections by the server name (SNI) of the ClientHello, the TLS traffic itself is relayed untouched
+     */
+    public ContentRoutes whenTlsServerName(String serverName, SocketAddress routeTo) {
+        assertHostName(serverName);
+        SocketAddress address = assertRouteTo(routeTo);
+        rules.add((router) -> router.addTlsServerName(serverName, address));
+        return this;
+    }
+
+    /**
+     * Route connections that start with the given bytes (i.e. a protocol's magic number)
+     */
+    public ContentRoutes whenStartsWith(byte[] prefix, SocketAddress routeTo) {
+        if (prefix == null || prefix.length == 0 || prefix.length > ContentRouter.MAX_SNIFF_BYTES) {
+            throw new IllegalArgumentException("A prefix needs between 1 and " + ContentRouter.MAX_SNIFF_BYTES + " bytes");
+        }
+        byte[] copy = prefix.clone();
+        SocketAddress address = assertRouteTo(routeTo);
+        rules.add((router) -> router.addPrefix(copy, address));
+        return this;
+    }
+
+    /**
+     * Route connections with a custom matcher, these are asked after all the other kinds of rules
+     */
+    public ContentRoutes when(ContentMatcher matcher) {
+        if (matcher == null) {
+            throw new IllegalArgumentException("A matcher is required");
+        }
+        rules.add((router) -> router.addMatcher(matcher));
+        return this;
+    }
+
+    /**
+     * Where to route connections that no rule matched, or that did not send anything before the sniff timeout
+     * (i.e. protocols where the server speaks first). Without one those connections are closed.
+     */
+    public ContentRoutes otherwise(SocketAddress routeTo) {
+        fallback = assertRouteTo(routeTo);
+        return this;
+    }
+
+    public ContentRoutes otherwise(String hostNameOrIpAddress, int portNumber) {
+        return otherwise(new InetSocketAddress(hostNameOrIpAddress, portNumber));
+    }
+
+    /**
+     * @param millis - how long to wait for a client to send enough bytes to be routed
+     */
+    public ContentRoutes sniffingFor(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("The sniff timeout needs to be at least 1 millisecond, but was given: " + millis);
+        }
+        sniffTimeoutInMillis = millis;
+        return this;
+    }
+
+    ContentRouter compile() {
+        ContentRouter router = new ContentRouter(sniffTimeoutInMillis);
+        rules.forEach((rule) -> rule.accept(router));
+        router.setFallback(fallback);
+        return router;
+    }
+
+    private static void assertHostName(String hostName) {
+        if (hostName == null || hostName.trim().isEmpty()) {
+            throw new IllegalArgumentException("A host name is required");
+        }
+    }
+
+    private static SocketAddress assertRouteTo(SocketAddress routeTo) {
+        if (routeTo == null) {
+            throw new IllegalArgumentException("An address to route to is required");
+        }
+        SocketChannels.assertSupported(routeTo);
+        return routeTo;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * Have the relays read into direct (off heap) memory handed out from a fixed set of slabs instead of allocating a new
+ * heap buffer for every connection, see MoxyServer.useDirectBuffers(...)
+ */
+public class DirectBuffers {
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+    private final long maxBytes;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int slabSize = DEFAULT_SLAB_SIZE;
+    private boolean leakDetection;
+
+    /**
+     * @param maxBytes - the most direct memory the slabs may take up together, once it is all in use the relays fall
+     *                 back to heap buffers
+     */
+    public DirectBuffers(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The direct buffers need at least 1 byte, but were given: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public DirectBuffers(DirectBuffers other) {
+        this.maxBytes = other.maxBytes;
+        this.chunkSize = other.chunkSize;
+        this.slabSize = other.slabSize;
+        this.leakDetection = other.leakDetection;
+    }
+
+    /**
+     * @param chunkSize - how big each buffer handed out is
+     * @param slabSize  - how much direct memory is allocated at once, to be cut up into chunks
+     */
+    public DirectBuffers withSlabs(int chunkSize, int slabSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunks need to be at least 1 byte, but were given: " + chunkSize);
+        }
+        if (slabSize < chunkSize || slabSize % chunkSize != 0) {
+            throw new IllegalArgumentException("A slab needs to hold a whole number of chunks, but was given: " + slabSize + " for chunks of " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.slabSize = slabSize;
+        return this;
+    }
+
+    /**
+     * Remember where every buffer was handed out and log the ones that are garbage collected without being released,
+     * this costs a stack trace per buffer so it is meant for tests and troubleshooting
+     */
+    public DirectBuffers withLeakDetection() {
+        this.leakDetection = true;
+        return this;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * Which way data is flowing through a route
+ */
+public enum Direction {
+    /**
+     * From the client that connected to moxy to the route server, reported to listeners as sent data
+     */
+    CLIENT_TO_SERVER,
+    /**
+     * From the route server back to the client, reported to listeners as received data
+     */
+    SERVER_TO_CLIENT
+}
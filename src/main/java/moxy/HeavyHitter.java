@@ -0,0 +1,54 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * A client address that is responsible for a large share of a route's connections or bytes, the numbers are estimates
+ * that never undercount and decay over time, see RouteTo.withHeavyHitters(...)
+ */
+public final class HeavyHitter {
+    private final String address;
+    private final long connections;
+    private final long bytes;
+
+    public HeavyHitter(String address, long connections, long bytes) {
+        this.address = address;
+        this.connections = connections;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the IP address of the client
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return about how many connections the client made lately
+     */
+    public long getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return about how many bytes were relayed to and from the client lately
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public String toString() {
+        return address + " (" + connections + " connections, " + bytes + " bytes)";
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.util.List;
+
+/**
+ * The heavy hitters of a route as seen over JMX, registered as moxy:type=HeavyHitters,port=[listen port] while the
+ * route is listening
+ */
+public interface HeavyHittersMXBean {
+    /**
+     * @return the clients with the most connections, most first
+     */
+    List<HeavyHitter> getByConnections();
+
+    /**
+     * @return the clients with the most bytes relayed, most first
+     */
+    List<HeavyHitter> getByBytes();
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Rewrites the data of one direction of a connection on its way through the relay, i.e. to replace host names, mask
+ * fields or inject bytes. Each connection gets its own instance (see RouteTo.withInterceptor(...)) which is only ever
+ * called from one thread, so it can keep state without locking.
+ */
+public interface Interceptor {
+    /**
+     * @param data - the data as read, from its position to its limit. It can be edited in place (or sliced), but it is
+     *             reused for the next read once this returns so copy whatever needs to be held on to
+     * @param next - the rest of the chain, pass the data on once, in pieces (split), or not at all (hold or drop)
+     */
+    void intercept(ByteBuffer data, Next next) throws IOException;
+
+    /**
+     * Nothing more is waiting to be read right now, pass on anything that was held back to be sent in bigger batches
+     */
+    default void flush(Next next) throws IOException {
+
+    }
+
+    /**
+     * The other side is done sending, pass on anything that was held back
+     */
+    default void finish(Next next) throws IOException {
+
+    }
+
+    interface Next {
+        /**
+         * @param data - from its position to its limit, it is fully consumed once this returns
+         */
+        void send(ByteBuffer data) throws IOException;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * A point in time view of how long chunks spent inside Moxy, from being read to being written
+ */
+public interface LatencySnapshot {
+    /**
+     * @return how many chunks were recorded
+     */
+    long getCount();
+
+    long getMinNanos();
+
+    long getMaxNanos();
+
+    double getMeanNanos();
+
+    /**
+     * @param percentile - between 0.0 and 100.0, i.e. 99.9
+     * @return the latency the given percentage of chunks stayed at or below, within 2% of the recorded values
+     */
+    long getPercentileNanos(double percentile);
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * A server wide budget for the data Moxy holds on to, see MoxyServer.useMemoryBudget(...). Only two kinds of data are
+ * counted against it: the writes delayed by network conditions and the chunks queued for traffic stream subscribers.
+ * The relays' read buffers, HTTP messages being relayed, the response cache (it has a limit of its own), the chunks
+ * queued on multiplexed streams and the TLS buffers are not counted.
+ * <p>
+ * Once the counted data goes over the high watermark, connections and routes holding data stop reading until what they
+ * hold is written (or delivered), or until the total is back under the low watermark. Connections holding nothing keep
+ * reading.
+ * <p>
+ * Note: the budget is a soft limit, the watermarks are worked out from the maximum but nothing stops the counted data
+ * from going past it. Whatever was already read when the pressure started is still held, at most a read per
+ * connection (or a chunk per traffic stream subscriber) on top of the high watermark.
+ */
+public class MemoryBudget {
+    public static final double DEFAULT_HIGH_WATERMARK = 0.8;
+    public static final double DEFAULT_LOW_WATERMARK = 0.5;
+    private final long maxBytes;
+    private double highWatermark = DEFAULT_HIGH_WATERMARK;
+    private double lowWatermark = DEFAULT_LOW_WATERMARK;
+
+    /**
+     * @param maxBytes - what the watermarks are fractions of, not a hard limit on the data held
+     */
+    public MemoryBudget(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The memory budget needs at least 1 byte, but was given: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public MemoryBudget(MemoryBudget other) {
+        this.maxBytes = other.maxBytes;
+        this.highWatermark = other.highWatermark;
+        this.lowWatermark = other.lowWatermark;
+    }
+
+    /**
+     * @param high - the fraction of the budget at which reading stops for whoever holds data (0 to 1]
+     * @param low  - the fraction of the budget at which reading starts again for everyone [0 to high)
+     */
+    public MemoryBudget withWatermarks(double high, double low) {
+        if (high <= 0 || high > 1 || low < 0 || low >= high) {
+            throw new IllegalArgumentException("The watermarks need 0 <= low < high <= 1, but were given: high " + high + ", low " + low);
+        }
+        this.highWatermark = high;
+        this.lowWatermark = low;
+        return this;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHighWatermarkBytes() {
+        return (long) (maxBytes * highWatermark);
+    }
+
+    public long getLowWatermarkBytes() {
+        return (long) (maxBytes * lowWatermark);
+    }
+}
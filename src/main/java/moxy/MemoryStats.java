@@ -0,0 +1,43 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * The data held across the server, see MoxyServer.useMemoryBudget(...)
+ */
+public interface MemoryStats {
+    /**
+     * @return the budget the watermarks are worked out from, 0 while there is none (the held bytes can go past it)
+     */
+    long getMaxBytes();
+
+    /**
+     * @return how much data is held right now
+     */
+    long getHeldBytes();
+
+    /**
+     * @return the most data held at once
+     */
+    long getPeakHeldBytes();
+
+    /**
+     * @return how many times a connection stopped reading because the budget was running out
+     */
+    long getPauses();
+
+    /**
+     * @return how many times a connection started reading again, short of the pauses still going on
+     */
+    long getResumes();
+}
@@ -14,16 +14,59 @@ package moxy;
 
 import java.net.SocketAddress;
 
+/**
+ * Callbacks for the traffic flowing through a MoxyServer
+ * <p>
+ * Every callback comes in two flavors, the ones with a connection id default to the ones without. The id is unique
+ * for the lifetime of the MoxyServer and ties the events of a single connection together.
+ * <p>
+ * Note: routes listening on a Unix domain socket report a listen port of -1
+ */
 public abstract class MoxyListener {
     public void connectionMade(int listenerPort, SocketAddress remoteAddress) {
 
     }
 
+    public void connectionMade(long connectionId, int listenPort, SocketAddress remoteAddress) {
+        connectionMade(listenPort, remoteAddress);
+    }
+
     public void sentData(int listenPort, SocketAddress remoteAddress, byte[] data) {
 
     }
 
+    public void sentData(long connectionId, int listenPort, SocketAddress remoteAddress, byte[] data) {
+        sentData(listenPort, remoteAddress, data);
+    }
+
     public void receivedData(int listenPort, SocketAddress remoteAddress, byte[] data) {
 
     }
+
+    public void receivedData(long connectionId, int listenPort, SocketAddress remoteAddress, byte[] data) {
+        receivedData(listenPort, remoteAddress, data);
+    }
+
+    /**
+     * The connection is being closed because one of its route's timeouts passed
+     *
+     * @param remoteAddress - the route server the connection was relayed to, or null if it was not decided yet
+     */
+    public void connectionTimedOut(int listenPort, SocketAddress remoteAddress, ConnectionTimeout timeout) {
+
+    }
+
+    public void connectionTimedOut(long connectionId, int listenPort, SocketAddress remoteAddress, ConnectionTimeout timeout) {
+        connectionTimedOut(listenPort, remoteAddress, timeout);
+    }
+
+    /**
+     * The connection is done, there will be no more events for it
+     *
+     * @param remoteAddress - the route server the connection was relayed to, or null if it was never decided
+     * @param summary       - the timings, byte counts and why the connection was closed
+     */
+    public void connectionClosed(long connectionId, int listenPort, SocketAddress remoteAddress, ConnectionSummary summary) {
+
+    }
 }
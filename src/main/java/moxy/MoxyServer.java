@@ -14,18 +14,50 @@ package moxy;
 
 import moxy.impl.ConnectTo;
 import moxy.impl.DispatchListener;
+import moxy.impl.InFlightBudget;
+import moxy.impl.RestartableExecutor;
+import moxy.impl.Route;
+import moxy.impl.SharedBandwidth;
+import moxy.impl.RouteOptions;
+import moxy.impl.TimerWheel;
+import moxy.impl.TrafficPublisher;
+import moxy.impl.buffer.BufferAllocator;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class MoxyServer {
     private Log log = Log.get(getClass());
     private AtomicBoolean started = new AtomicBoolean(false);
-    private Map<Integer, ConnectTo> listenOnPortToRemote = Collections.synchronizedMap(new LinkedHashMap<>());
+    private AtomicReference<Map<SocketAddress, ConnectTo>> listenOnAddressToRemote = new AtomicReference<>(Collections.emptyMap());
     private DispatchListener dispatchListener = new DispatchListener();
+    private TimerWheel timerWheel = new TimerWheel();
+    private BufferAllocator buffers = new BufferAllocator();
+    private InFlightBudget memory = new InFlightBudget();
+    private SharedBandwidth bandwidth = new SharedBandwidth();
+    private RestartableExecutor delivery = new RestartableExecutor(TrafficPublisher::newDeliveryExecutor);
+    private RestartableExecutor lifecycle = new RestartableExecutor(MoxyServer::newLifecycleExecutor);
 
     /**
      * Provide what local port you would like to listen on
@@ -34,16 +66,175 @@ public class MoxyServer {
      * @return the instance of the RouteTo to tell where to route the traffic
      */
     public RouteTo listenOn(int portToListenOn) {
+        return listenOn(new InetSocketAddress(portToListenOn));
+    }
+
+    /**
+     * Provide what Unix domain socket file you would like to listen on
+     * <p>
+     * Note: listeners are notified with a listen port of -1 for connections made on a Unix domain socket
+     *
+     * @param socketFile - the path of the socket file to create and begin listening for incoming connections
+     * @return the instance of the RouteTo to tell where to route the traffic
+     */
+    public RouteTo listenOn(Path socketFile) {
+        return listenOn(UnixDomainSocketAddress.of(socketFile));
+    }
+
+    private RouteTo listenOn(SocketAddress addressToListenOn) {
+        return routeTo(1, (route) -> addRoute(new ConnectTo(addressToListenOn, route, dispatchListener, timerWheel, buffers, memory, bandwidth)));
+    }
+
+    /**
+     * Listen on every port from firstPort to lastPort (inclusive) as a single route, all the ports are accepted on by one
+     * thread. Use RouteTo.andConnectToRange(...) to send every port to its own route server port, or andConnectTo(...)
+     * to send them all to the same one.
+     * <p>
+     * Note: the ports share their stats, reroute(...), stopListeningOn(...) and removeListenerOn(...) given any port of
+     * the range apply to the whole range
+     *
+     * @param firstPort - the first local port to listen on
+     * @param lastPort  - the last local port to listen on
+     * @return the instance of the RouteTo to tell where to route the traffic
+     */
+    public RouteTo listenOnRange(int firstPort, int lastPort) {
+        if (firstPort < 1 || lastPort > 65535 || firstPort > lastPort) {
+            throw new IllegalArgumentException("The port range needs to be within 1-65535 and start before it ends, but was given: " + firstPort + "-" + lastPort);
+        }
+        InetSocketAddress first = new InetSocketAddress(firstPort);
+        int ports = lastPort - firstPort + 1;
+        return routeTo(ports, (route) -> addRoute(new ConnectTo(first, ports, route, dispatchListener, timerWheel, buffers, memory, bandwidth)));
+    }
+
+    /**
+     * Change where the route listening on the provided port sends new connections, without rebinding the port.
+     * Connections already being relayed keep going to the route server they were connected to.
+     * <p>
+     * Note: the new route replaces the whole configuration of the old one (i.e. asHttp(...) needs to be given again)
+     *
+     * @param portNumber - the local port of an existing route
+     * @return the instance of the RouteTo to tell where to route the traffic from now on
+     */
+    public RouteTo reroute(int portNumber) {
+        return reroute(new InetSocketAddress(portNumber));
+    }
+
+    /**
+     * Change where the route listening on the provided Unix domain socket sends new connections, see reroute(int)
+     *
+     * @param socketFile - the socket file of an existing route
+     * @return the instance of the RouteTo to tell where to route the traffic from now on
+     */
+    public RouteTo reroute(Path socketFile) {
+        return reroute(UnixDomainSocketAddress.of(socketFile));
+    }
+
+    private RouteTo reroute(SocketAddress addressToListenOn) {
+        ConnectTo existing = findRoute(addressToListenOn);
+        return routeTo(existing.getAddressesToListenOn().size(), (route) -> {
+            ConnectTo connectTo = findRoute(addressToListenOn);
+            log.info("Rerouting [" + addressToListenOn + "] to " + route);
+            connectTo.reroute(route);
+            return connectTo.whenListening();
+        });
+    }
+
+    private RouteTo routeTo(int ports, Function<Route, CompletableFuture<Void>> routeBuilt) {
+        RouteOptions options = new RouteOptions();
         return new RouteTo() {
-            public void andConnectTo(InetSocketAddress socketAddress) {
-                assertPortIsNotAlreadySetup(portToListenOn);
+            public RouteTo asHttp(int maxUpstreamConnections) {
+                options.setMaxHttpUpstreamConnections(maxUpstreamConnections);
+                return this;
+            }
 
-                ConnectTo connectTo = new ConnectTo(portToListenOn, socketAddress, dispatchListener);
-                listenOnPortToRemote.put(portToListenOn, connectTo);
+            public RouteTo withResponseCache(long maxBytes) {
+                options.setResponseCacheMaxBytes(maxBytes);
+                return this;
+            }
+
+            public RouteTo withIdleReadTimeout(long millis) {
+                options.setIdleReadTimeoutInMillis(millis);
+                return this;
+            }
+
+            public RouteTo withIdleWriteTimeout(long millis) {
+                options.setIdleWriteTimeoutInMillis(millis);
+                return this;
+            }
+
+            public RouteTo withMaxLifetime(long millis) {
+                options.setMaxLifetimeInMillis(millis);
+                return this;
+            }
+
+            public RouteTo withNetworkConditions(Direction direction, NetworkConditions conditions) {
+                options.setNetworkConditions(direction, conditions);
+                return this;
+            }
+
+            public RouteTo withAccessList(AccessList accessList) {
+                options.setAccessList(accessList);
+                return this;
+            }
+
+            public RouteTo withClientLimits(ClientLimits limits) {
+                options.setClientLimits(limits);
+                return this;
+            }
+
+            public RouteTo withHeavyHitters(int topK, long windowInMillis) {
+                options.setHeavyHitters(topK, windowInMillis);
+                return this;
+            }
+
+            public RouteTo withPriority(Priority priority) {
+                options.setPriority(priority);
+                return this;
+            }
 
-                if (started.get()) {
-                    connectTo.startListenOn();
+            public RouteTo withQuota(int bytesPerTurn) {
+                options.setQuotaBytes(bytesPerTurn);
+                return this;
+            }
+
+            public RouteTo asTunnel(Tunnel end) {
+                options.setTunnel(end);
+                return this;
+            }
+
+            public RouteTo withTlsTermination(Tls tls) {
+                options.setTlsTermination(tls);
+                return this;
+            }
+
+            public RouteTo withTlsOrigination(Tls tls) {
+                options.setTlsOrigination(tls);
+                return this;
+            }
+
+            public RouteTo multiplexedOver(int connections) {
+                options.setMultiplexedConnections(connections);
+                return this;
+            }
+
+            public RouteTo withInterceptor(Direction direction, Supplier<? extends Interceptor> interceptor) {
+                options.addInterceptor(direction, interceptor);
+                return this;
+            }
+
+            public CompletableFuture<Void> andConnectTo(SocketAddress socketAddress) {
+                return routeBuilt.apply(Route.to(socketAddress, options));
+            }
+
+            public CompletableFuture<Void> andConnectToRange(String hostNameOrIpAddress, int firstPortNumber) {
+                if (firstPortNumber < 1 || firstPortNumber + ports - 1 > 65535) {
+                    throw new IllegalArgumentException("The route server ports need to be within 1-65535, but " + ports + " ports starting at " + firstPortNumber + " are not");
                 }
+                return routeBuilt.apply(Route.toRange(new InetSocketAddress(hostNameOrIpAddress, firstPortNumber), options));
+            }
+
+            public CompletableFuture<Void> andRouteBy(ContentRoutes routes) {
+                return routeBuilt.apply(Route.by(routes.compile(), options));
             }
         };
     }
@@ -52,29 +243,96 @@ public class MoxyServer {
      * Tell the server to bind and start listening for incoming connections
      */
     public void start() {
-        if (started.get()) {
+        try {
+            startAsync().join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Same as start(), but all the routes bind their addresses at the same time and this returns right away
+     * <p>
+     * Note: when any address fails to bind the server is stopped again, the IllegalStateException the future fails with
+     * carries every address that failed (the others as suppressed exceptions)
+     *
+     * @return completes once every route is listening
+     */
+    public CompletableFuture<Void> startAsync() {
+        if (!started.compareAndSet(false, true)) {
             log.warn("Server already started");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         log.info("Starting...");
-        try {
-            for (Map.Entry<Integer, ConnectTo> info : listenOnPortToRemote.entrySet()) {
-                info.getValue().startListenOn();
+        List<CompletableFuture<Void>> bindings = new ArrayList<>();
+        for (ConnectTo connectTo : allRoutes()) {
+            bindings.add(connectTo.startListenOnAsync());
+        }
+        // stop() waits for the acceptor threads, so it can not run on the one that failed to bind
+        return CompletableFuture.allOf(bindings.toArray(new CompletableFuture<?>[0])).handleAsync((ignored, error) -> {
+            if (error == null) {
+                return null;
             }
-            started.set(true);
-        } catch (RuntimeException e) {
             stop();
-            throw e;
+            throw bindFailureOf(bindings);
+        }, lifecycle);
+    }
+
+    private static ExecutorService newLifecycleExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (task) -> {
+            Thread thread = new Thread(task, "MOXY-lifecycle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static RuntimeException bindFailureOf(List<CompletableFuture<Void>> bindings) {
+        RuntimeException failure = null;
+        for (CompletableFuture<Void> binding : bindings) {
+            try {
+                binding.join();
+            } catch (CompletionException e) {
+                RuntimeException cause = (RuntimeException) e.getCause();
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
         }
+        return failure;
     }
 
     /**
-     * Tell the server to disconnect any connections and stop listening for any new connections
+     * @param portNumber - the local port of an existing route
+     * @return completes once the route is listening, i.e. after startAsync() or a listenOn(...) on a started server
+     * (which does not wait for the route to be listening)
+     */
+    public CompletableFuture<Void> whenListeningOn(int portNumber) {
+        return findRoute(new InetSocketAddress(portNumber)).whenListening();
+    }
+
+    /**
+     * See whenListeningOn(int)
+     */
+    public CompletableFuture<Void> whenListeningOn(Path socketFile) {
+        return findRoute(UnixDomainSocketAddress.of(socketFile)).whenListening();
+    }
+
+    /**
+     * Tell the server to disconnect any connections and stop listening for any new connections, the threads it
+     * started are let go of (starting it again starts new ones)
      */
     public void stop() {
         log.info("Stopping all port listeners...");
-        listenOnPortToRemote.values().forEach(ConnectTo::shutdown);
+        long deadline = System.currentTimeMillis() + ConnectTo.SHUTDOWN_GRACE_PERIOD_IN_MILLIS;
+        allRoutes().forEach((connectTo) -> connectTo.shutdown(deadline));
+        timerWheel.shutdown();
+        delivery.shutdown();
+        lifecycle.shutdown();
         started.set(false);
     }
 
@@ -87,12 +345,17 @@ public class MoxyServer {
      */
     public void stopListeningOn(int portNumber) {
         log.info("Stop listening on port: " + portNumber);
-        ConnectTo connectTo = listenOnPortToRemote.get(portNumber);
-        if (connectTo != null) {
-            connectTo.shutdown();
-        } else {
-            log.warn("Nothing is listening on port [" + portNumber + "]");
-        }
+        stopListeningOn(new InetSocketAddress(portNumber));
+    }
+
+    /**
+     * Tell the server to stop listening on the provided Unix domain socket, but do not remove the routing configuration
+     *
+     * @param socketFile - the socket file you would like to stop listening for incoming connections
+     */
+    public void stopListeningOn(Path socketFile) {
+        log.info("Stop listening on unix socket: " + socketFile);
+        stopListeningOn(UnixDomainSocketAddress.of(socketFile));
     }
 
     /**
@@ -104,8 +367,186 @@ public class MoxyServer {
      */
     public void removeListenerOn(int portNumber) {
         log.info("Removing listener on port: " + portNumber);
-        stopListeningOn(portNumber);
-        listenOnPortToRemote.remove(portNumber);
+        removeListenerOn(new InetSocketAddress(portNumber));
+    }
+
+    /**
+     * Tell the server to stop listening on the provided Unix domain socket and remove the routing information also
+     *
+     * @param socketFile - the socket file you would like to stop listening for incoming connections
+     */
+    public void removeListenerOn(Path socketFile) {
+        log.info("Removing listener on unix socket: " + socketFile);
+        removeListenerOn(UnixDomainSocketAddress.of(socketFile));
+    }
+
+    /**
+     * @param portNumber - the local port of an existing route
+     * @return the live totals of the route listening on the provided port
+     */
+    public RouteStats getStats(int portNumber) {
+        return getStats(new InetSocketAddress(portNumber));
+    }
+
+    /**
+     * @param socketFile - the socket file of an existing route
+     * @return the live totals of the route listening on the provided Unix domain socket
+     */
+    public RouteStats getStats(Path socketFile) {
+        return getStats(UnixDomainSocketAddress.of(socketFile));
+    }
+
+    /**
+     * How long chunks spent inside Moxy (from being read to being written) since the route was added, cheap enough
+     * to always be recorded
+     *
+     * @param portNumber - the local port of an existing route
+     * @param direction  - which way the data flowed
+     */
+    public LatencySnapshot getLatency(int portNumber, Direction direction) {
+        return findRoute(new InetSocketAddress(portNumber)).getLatency(direction).snapshot();
+    }
+
+    /**
+     * See getLatency(int, Direction)
+     */
+    public LatencySnapshot getLatency(Path socketFile, Direction direction) {
+        return findRoute(UnixDomainSocketAddress.of(socketFile)).getLatency(direction).snapshot();
+    }
+
+    /**
+     * Same as getLatency(int, Direction) but only for what was recorded since the previous call for the same route
+     * and direction, each call starts a new interval
+     */
+    public LatencySnapshot getLatencyInterval(int portNumber, Direction direction) {
+        return findRoute(new InetSocketAddress(portNumber)).getLatency(direction).interval();
+    }
+
+    /**
+     * See getLatencyInterval(int, Direction)
+     */
+    public LatencySnapshot getLatencyInterval(Path socketFile, Direction direction) {
+        return findRoute(UnixDomainSocketAddress.of(socketFile)).getLatency(direction).interval();
+    }
+
+    /**
+     * Change how bad the network looks for a running route, connections already in flight are affected too
+     *
+     * @param portNumber - the local port of an existing route
+     * @param direction  - which way the data flows that the conditions apply to
+     * @param conditions - the conditions to apply or null to relay the data as is again
+     */
+    public void setNetworkConditions(int portNumber, Direction direction, NetworkConditions conditions) {
+        findRoute(new InetSocketAddress(portNumber)).setNetworkConditions(direction, conditions);
+    }
+
+    /**
+     * Change how bad the network looks for a running Unix domain socket route, see setNetworkConditions(int, ...)
+     */
+    public void setNetworkConditions(Path socketFile, Direction direction, NetworkConditions conditions) {
+        findRoute(UnixDomainSocketAddress.of(socketFile)).setNetworkConditions(direction, conditions);
+    }
+
+    /**
+     * Have the relays read into direct memory handed out from slabs rather than a heap buffer per connection, this keeps
+     * the data in flight out of the garbage collector's way. Connections already being relayed keep their buffers.
+     * <p>
+     * Note: HTTP routes and multiplexed tunnels parse or frame the data on the heap and are not affected
+     *
+     * @param directBuffers - how much direct memory to use at most, or null to go back to heap buffers
+     */
+    public void useDirectBuffers(DirectBuffers directBuffers) {
+        buffers.configure(directBuffers);
+    }
+
+    /**
+     * @return the live totals of the buffers the relays read into, see useDirectBuffers(...)
+     */
+    public BufferStats getBufferStats() {
+        return buffers;
+    }
+
+    /**
+     * Replace the access list of a route in one go, connections already being relayed are left alone
+     *
+     * @param portNumber - the local port of an existing route
+     * @param accessList - null to let every client connect
+     */
+    public void setAccessList(int portNumber, AccessList accessList) {
+        findRoute(new InetSocketAddress(portNumber)).getAccessControl().replace(accessList);
+    }
+
+    /**
+     * @return how many connections each rule of the route's current access list decided on, the default last
+     */
+    public List<AccessRuleStats> getAccessStats(int portNumber) {
+        return findRoute(new InetSocketAddress(portNumber)).getAccessControl().getStats();
+    }
+
+    /**
+     * Unix domain socket routes can not have an access list, their clients have no address for it to match
+     *
+     * @throws IllegalArgumentException always, rather than letting every client through whatever the list says
+     */
+    public void setAccessList(Path socketFile, AccessList accessList) {
+        findRoute(UnixDomainSocketAddress.of(socketFile)).getAccessControl().replace(accessList);
+    }
+
+    /**
+     * @throws IllegalArgumentException always, see setAccessList(Path, ...)
+     */
+    public List<AccessRuleStats> getAccessStats(Path socketFile) {
+        return findRoute(UnixDomainSocketAddress.of(socketFile)).getAccessControl().getStats();
+    }
+
+    /**
+     * The client addresses that made the most connections to the route lately, the counts are estimates that never
+     * undercount. Empty unless the route was set up with RouteTo.withHeavyHitters(...)
+     *
+     * @param portNumber - the local port of an existing route
+     */
+    public List<HeavyHitter> getHeavyHittersByConnections(int portNumber) {
+        return findRoute(new InetSocketAddress(portNumber)).getHeavyHitters().getByConnections();
+    }
+
+    /**
+     * The client addresses that had the most bytes relayed to and from them lately, see getHeavyHittersByConnections(int)
+     *
+     * @param portNumber - the local port of an existing route
+     */
+    public List<HeavyHitter> getHeavyHittersByBytes(int portNumber) {
+        return findRoute(new InetSocketAddress(portNumber)).getHeavyHitters().getByBytes();
+    }
+
+    /**
+     * Keep the data held on to across the server (writes waiting on network conditions and chunks queued for traffic
+     * streams, nothing else is counted) around a budget, by having the connections and routes holding data stop
+     * reading while it runs out. It is a soft limit, see MemoryBudget
+     * <p>
+     * Note: a traffic stream subscriber that stops requesting chunks holds its route's connections back once the
+     * budget runs out, until it catches up or is cancelled
+     *
+     * @param budget - how much data to aim to hold at most, or null to no longer limit it
+     */
+    public void useMemoryBudget(MemoryBudget budget) {
+        memory.configure(budget);
+    }
+
+    /**
+     * Have the routes share a rate, by having their connections take turns writing no more than their quota each, see
+     * RouteTo.withPriority(...) and RouteTo.withQuota(...). Multiplexed tunnels do not take part.
+     *
+     * @param bytesPerSecond - the rate the routes share, 0 to no longer limit it
+     */
+    public void useSharedBandwidth(long bytesPerSecond) {
+        bandwidth.configure(bytesPerSecond);
+    }
+
+    /**
+     * @return the live totals of the data held across the server, see useMemoryBudget(...)
+     */
+    public MemoryStats getMemoryStats() {
+        return memory;
     }
 
     /**
@@ -117,17 +558,330 @@ public class MoxyServer {
         dispatchListener.addListener(listener);
     }
 
-    private void assertPortIsNotAlreadySetup(int portToListenOn) {
-        if (listenOnPortToRemote.containsKey(portToListenOn)) {
-            throw new IllegalArgumentException("There can only be one route for a single port number. It appears port number [" + portToListenOn + "] is already setup.");
+    /**
+     * Add a listener that only gets a sample of the data events, for when seeing everything on a busy route costs
+     * too much. Data events the listener will not see are skipped before any work (i.e. copying the data) is done.
+     *
+     * @param listener - the instance of the listener to be registered
+     * @param sampling - which data events to pass on, i.e. Sampling.everyNth(100) or Sampling.firstBytes(1024)
+     */
+    public void addListener(MoxyListener listener, Sampling sampling) {
+        if (sampling == null) {
+            throw new IllegalArgumentException("A sampling is required, use addListener(listener) to see every event");
+        }
+        dispatchListener.addListener(listener, sampling);
+    }
+
+    /**
+     * Add a listener that only hears about some of the events on a single port, routes on other ports (and events
+     * the listener did not ask for) do not spend any time on it
+     *
+     * @param listenPort - the port of the route to listen to
+     * @param eventTypes - which of the MoxyListener callbacks get called, i.e. EnumSet.of(EventType.SENT_DATA)
+     * @param listener   - the instance of the listener to be registered
+     */
+    public void addListener(int listenPort, Set<EventType> eventTypes, MoxyListener listener) {
+        if (eventTypes == null || eventTypes.isEmpty()) {
+            throw new IllegalArgumentException("At least one event type is required to listen on port [" + listenPort + "]");
+        }
+        dispatchListener.addListener(listenPort, eventTypes, listener);
+    }
+
+    /**
+     * Stream the data relayed by the route listening on the given port, for consumers that would rather pull than be
+     * called for every chunk
+     *
+     * @param listenPort   - the port of the route
+     * @param backpressure - what to do with the chunks once a subscriber falls behind
+     */
+    public TrafficStream traffic(int listenPort, Backpressure backpressure) {
+        InFlightBudget.Account budget = findRoute(new InetSocketAddress(listenPort)).getBudget();
+        return TrafficPublisher.forRoute(dispatchListener, listenPort, assertBackpressure(backpressure), budget, delivery);
+    }
+
+    /**
+     * Stream the data relayed by a single connection (see Chunk.getConnectionId()), the stream completes once the
+     * connection is closed, or right away when it already is
+     *
+     * @param listenPort   - the port of the route
+     * @param connectionId - the id of the connection
+     * @param backpressure - what to do with the chunks once a subscriber falls behind
+     */
+    public TrafficStream traffic(int listenPort, long connectionId, Backpressure backpressure) {
+        InFlightBudget.Account budget = findRoute(new InetSocketAddress(listenPort)).getBudget();
+        return TrafficPublisher.forConnection(dispatchListener, listenPort, connectionId, assertBackpressure(backpressure), budget, delivery);
+    }
+
+    private static Backpressure assertBackpressure(Backpressure backpressure) {
+        if (backpressure == null) {
+            throw new IllegalArgumentException("A backpressure policy is required, i.e. Backpressure.buffer(1024)");
+        }
+        return backpressure;
+    }
+
+    private CompletableFuture<Void> addRoute(ConnectTo connectTo) {
+        updateRoutes((routes) -> {
+            for (SocketAddress addressToListenOn : connectTo.getAddressesToListenOn()) {
+                assertAddressIsNotAlreadySetup(routes, addressToListenOn);
+                routes.put(addressToListenOn, connectTo);
+            }
+        });
+
+        if (!started.get()) {
+            return connectTo.whenListening();
+        }
+        CompletableFuture<Void> listening = connectTo.startListenOnAsync();
+        listening.exceptionally((error) -> {
+            log.warn(error.getMessage());
+            return null;
+        });
+        return listening;
+    }
+
+    private RouteStats getStats(SocketAddress address) {
+        return findRoute(address).getStats();
+    }
+
+    private ConnectTo findRoute(SocketAddress address) {
+        ConnectTo connectTo = listenOnAddressToRemote.get().get(address);
+        if (connectTo == null) {
+            throw new IllegalArgumentException("There is no route for [" + address + "]");
+        }
+        return connectTo;
+    }
+
+    private void stopListeningOn(SocketAddress address) {
+        ConnectTo connectTo = listenOnAddressToRemote.get().get(address);
+        if (connectTo != null) {
+            connectTo.shutdown();
+        } else {
+            log.warn("Nothing is listening on [" + address + "]");
+        }
+    }
+
+    private void removeListenerOn(SocketAddress address) {
+        stopListeningOn(address);
+        updateRoutes((routes) -> {
+            ConnectTo removed = routes.get(address);
+            routes.values().removeIf((connectTo) -> connectTo == removed);
+        });
+    }
+
+    /**
+     * @return every route once, a port range is listed under each of its ports
+     */
+    private Collection<ConnectTo> allRoutes() {
+        return new LinkedHashSet<>(listenOnAddressToRemote.get().values());
+    }
+
+    private void updateRoutes(Consumer<Map<SocketAddress, ConnectTo>> change) {
+        listenOnAddressToRemote.updateAndGet((routes) -> {
+            Map<SocketAddress, ConnectTo> copy = new LinkedHashMap<>(routes);
+            change.accept(copy);
+            return Collections.unmodifiableMap(copy);
+        });
+    }
+
+    private void assertAddressIsNotAlreadySetup(Map<SocketAddress, ConnectTo> routes, SocketAddress addressToListenOn) {
+        if (routes.containsKey(addressToListenOn)) {
+            throw new IllegalArgumentException("There can only be one route for a single listening address. It appears [" + addressToListenOn + "] is already setup.");
         }
     }
 
     public interface RouteTo {
-        default void andConnectTo(String hostNameOrIpAddress, int portNumber) {
-            andConnectTo(new InetSocketAddress(hostNameOrIpAddress, portNumber));
+        /**
+         * Relay the traffic as HTTP/1.1 messages instead of raw bytes, sharing a pool of persistent connections to the
+         * route server between all the client connections
+         *
+         * @param maxUpstreamConnections - the most connections that will be opened to the route server at once
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo asHttp(int maxUpstreamConnections);
+
+        /**
+         * Answer GET and HEAD requests from a cache of earlier responses when their Cache-Control, Expires and
+         * ETag/Last-Modified headers allow it. Only available for HTTP routes.
+         * <p>
+         * Note: responses served from the cache never reach the route server so they are not reported to listeners
+         *
+         * @param maxBytes - the most bytes of responses to hold onto before evicting the least recently used
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withResponseCache(long maxBytes);
+
+        /**
+         * Close connections where neither the client nor the route server has sent anything for a while
+         *
+         * @param millis - how long a connection may go without receiving any data
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withIdleReadTimeout(long millis);
+
+        /**
+         * Close connections where data can not be written because the other end stopped reading
+         *
+         * @param millis - how long a single write may be stuck
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withIdleWriteTimeout(long millis);
+
+        /**
+         * Close connections once they have been open for a while, no matter how busy they are
+         *
+         * @param millis - how long a connection may stay open
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withMaxLifetime(long millis);
+
+        /**
+         * Make the network look worse than it is (i.e. latency, limited bandwidth or resets) for the data flowing one
+         * way through this route, see MoxyServer.setNetworkConditions(...) to change them while running
+         *
+         * @param direction  - which way the data flows that the conditions apply to
+         * @param conditions - the conditions to apply
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withNetworkConditions(Direction direction, NetworkConditions conditions);
+
+        /**
+         * Only let the networks the access list allows connect, the others are closed as soon as they are accepted.
+         * See MoxyServer.setAccessList(...) to replace the list while running.
+         * <p>
+         * Note: a route listening on a Unix domain socket can not have an access list, its clients have no address
+         *
+         * @param accessList - the CIDR blocks to allow and deny
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withAccessList(AccessList accessList);
+
+        /**
+         * Limit how fast and how many connections each client address may make, the connections over a limit are
+         * closed as soon as they are accepted, before anything is done for them upstream. See
+         * RouteStats.getConnectionsRejected() for how many were. Not available for a route listening on a Unix domain
+         * socket, its clients have no address.
+         *
+         * @param limits - the limits of every client
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withClientLimits(ClientLimits limits);
+
+        /**
+         * Keep track of the client addresses responsible for most of the connections and bytes of this route, in
+         * constant memory however many clients there are, see MoxyServer.getHeavyHittersByConnections(...) or the
+         * moxy:type=HeavyHitters MXBeans. Not available for a route listening on a Unix domain socket, its clients have
+         * no address.
+         *
+         * @param topK           - how many clients to report
+         * @param windowInMillis - the counts are halved once every window so the clients reported are the ones busy lately
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withHeavyHitters(int topK, long windowInMillis);
+
+        /**
+         * Have the connections of this route get their turns on the shared bandwidth before (or after) the ones of
+         * other routes, a class only gets a turn once the higher ones have nobody waiting. Only matters while the
+         * server uses a shared bandwidth, see MoxyServer.useSharedBandwidth(...)
+         *
+         * @param priority - the priority class of the route, NORMAL by default
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withPriority(Priority priority);
+
+        /**
+         * Limit how much a connection of this route reads at once and writes per turn on the shared bandwidth, so
+         * within a priority class the connections get the bandwidth in proportion to their quotas (deficit round
+         * robin) and a large transfer takes turns with the others instead of holding them up. The turns only apply
+         * while the server uses a shared bandwidth, the read limit always applies.
+         *
+         * @param bytesPerTurn - the most bytes read at once and written per turn, 64KB by default
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withQuota(int bytesPerTurn);
+
+        /**
+         * Change the data flowing one way through this route before it is sent on, interceptors added for the same
+         * direction see the data in the order they were added (can not be combined with asHttp(...))
+         *
+         * @param direction   - which way the data flows that the interceptor sees
+         * @param interceptor - creates an interceptor for each new connection
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withInterceptor(Direction direction, Supplier<? extends Interceptor> interceptor);
+
+        /**
+         * Make this route one end of a compressed tunnel to another Moxy across a slow link, i.e. the ENTRY route
+         * connects to the EXIT route of the other Moxy which connects to the real route server. Small messages are sent
+         * on right away, bigger transfers in larger compressed blocks (see RouteStats.getTunnel() for how well it does)
+         *
+         * @param end - which end of the tunnel this route is
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo asTunnel(Tunnel end);
+
+        /**
+         * Carry all the client connections of a tunnel over a few persistent connections between the ENTRY and the EXIT
+         * instead of a new connection each, both ends of the tunnel need this. Each client connection gets a fair share
+         * of the tunnel connection it is on and can only send as much as the other end has room for.
+         * Interceptors and network conditions do not apply to a multiplexed tunnel
+         *
+         * @param connections - how many connections the ENTRY keeps open to the EXIT (not used by the EXIT)
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo multiplexedOver(int connections);
+
+        /**
+         * Speak TLS with the clients, so the route server (and the listeners) get the plain data. The handshake happens
+         * on the relay threads, see RouteStats.getTlsTermination() for how the handshakes go (can not be combined with
+         * andRouteBy(...))
+         *
+         * @param tls - the key material and session cache to use
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withTlsTermination(Tls tls);
+
+        /**
+         * Speak TLS with the route server, whatever the clients speak. The route server's certificate is verified
+         * against the host name connected to unless turned off, see RouteStats.getTlsOrigination() for how the
+         * handshakes go
+         *
+         * @param tls - the trust (and key material) and session cache to use
+         * @return this RouteTo to finish setting up the route
+         */
+        RouteTo withTlsOrigination(Tls tls);
+
+        default CompletableFuture<Void> andConnectTo(String hostNameOrIpAddress, int portNumber) {
+            return andConnectTo(new InetSocketAddress(hostNameOrIpAddress, portNumber));
         }
 
-        void andConnectTo(InetSocketAddress socketAddress);
+        default CompletableFuture<Void> andConnectTo(Path unixSocketFile) {
+            return andConnectTo(UnixDomainSocketAddress.of(unixSocketFile));
+        }
+
+        /**
+         * @param socketAddress - either an InetSocketAddress or an UnixDomainSocketAddress to route the traffic to
+         * @return completes once the route is listening, see MoxyServer.whenListeningOn(...)
+         */
+        CompletableFuture<Void> andConnectTo(SocketAddress socketAddress);
+
+        /**
+         * Route each connection to one of many route servers by peeking at the first bytes the client sends
+         * (i.e. the HTTP Host header, the TLS server name or a protocol's magic number)
+         *
+         * @param routes - the rules deciding which route server each connection goes to
+         * @return completes once the route is listening, see MoxyServer.whenListeningOn(...)
+         */
+        CompletableFuture<Void> andRouteBy(ContentRoutes routes);
+
+        /**
+         * Send the connections on each port of a listenOnRange(...) to its own route server port, i.e. the third port of
+         * the range goes to firstPortNumber + 2. For a single listening port this is the same as andConnectTo(...)
+         * <p>
+         * Note: a range of route servers can not be an HTTP route nor a multiplexed tunnel
+         *
+         * @param hostNameOrIpAddress - where all the route servers are
+         * @param firstPortNumber     - the port of the route server for the first listening port
+         * @return completes once the route is listening, see MoxyServer.whenListeningOn(...)
+         */
+        CompletableFuture<Void> andConnectToRange(String hostNameOrIpAddress, int firstPortNumber);
     }
 }
@@ -0,0 +1,146 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * How bad the network between the client and the route server should look in one direction
+ * <p>
+ * Note: all the conditions are off until they are set, so a new instance relays data as is
+ */
+public class NetworkConditions {
+    private long latencyInMillis;
+    private long jitterInMillis;
+    private long bytesPerSecond;
+    private int maxChunkBytes;
+    private long resetAfterBytes;
+    private double resetProbability;
+    private long stallEveryBytes;
+    private long stallInMillis;
+
+    public NetworkConditions() {
+    }
+
+    public NetworkConditions(NetworkConditions other) {
+        this.latencyInMillis = other.latencyInMillis;
+        this.jitterInMillis = other.jitterInMillis;
+        this.bytesPerSecond = other.bytesPerSecond;
+        this.maxChunkBytes = other.maxChunkBytes;
+        this.resetAfterBytes = other.resetAfterBytes;
+        this.resetProbability = other.resetProbability;
+        this.stallEveryBytes = other.stallEveryBytes;
+        this.stallInMillis = other.stallInMillis;
+    }
+
+    /**
+     * @param millis - how long every chunk of data is held onto before it is written
+     */
+    public NetworkConditions withLatency(long millis) {
+        latencyInMillis = assertNotNegative("latency", millis);
+        return this;
+    }
+
+    /**
+     * @param millis - the most extra time (picked at random for each chunk) added on top of the latency, the order of the data is always kept
+     */
+    public NetworkConditions withJitter(long millis) {
+        jitterInMillis = assertNotNegative("jitter", millis);
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond - how fast data is allowed through
+     */
+    public NetworkConditions withBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 1) {
+            throw new IllegalArgumentException("The bandwidth needs to be at least 1 byte per second, but was given: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param maxChunkBytes - split the data into writes no bigger than this
+     */
+    public NetworkConditions withFragmentation(int maxChunkBytes) {
+        if (maxChunkBytes < 1) {
+            throw new IllegalArgumentException("A fragment needs at least 1 byte, but was given: " + maxChunkBytes);
+        }
+        this.maxChunkBytes = maxChunkBytes;
+        return this;
+    }
+
+    /**
+     * @param bytes       - how many bytes get through before the connection is reset
+     * @param probability - the chance (0.0 to 1.0) that any single connection gets reset
+     */
+    public NetworkConditions withResetAfter(long bytes, double probability) {
+        if (probability < 0.0 || probability > 1.0) {
+            throw new IllegalArgumentException("The probability needs to be between 0.0 and 1.0, but was given: " + probability);
+        }
+        resetAfterBytes = assertNotNegative("reset after", bytes);
+        resetProbability = probability;
+        return this;
+    }
+
+    /**
+     * @param everyBytes - how many bytes get through between each stall
+     * @param millis     - how long nothing gets through while stalled
+     */
+    public NetworkConditions withStall(long everyBytes, long millis) {
+        if (everyBytes < 1) {
+            throw new IllegalArgumentException("A stall needs to happen after at least 1 byte, but was given: " + everyBytes);
+        }
+        stallEveryBytes = everyBytes;
+        stallInMillis = assertNotNegative("stall", millis);
+        return this;
+    }
+
+    public long getLatencyInMillis() {
+        return latencyInMillis;
+    }
+
+    public long getJitterInMillis() {
+        return jitterInMillis;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getMaxChunkBytes() {
+        return maxChunkBytes;
+    }
+
+    public long getResetAfterBytes() {
+        return resetAfterBytes;
+    }
+
+    public double getResetProbability() {
+        return resetProbability;
+    }
+
+    public long getStallEveryBytes() {
+        return stallEveryBytes;
+    }
+
+    public long getStallInMillis() {
+        return stallInMillis;
+    }
+
+    private static long assertNotNegative(String name, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("The " + name + " can not be negative, but was given: " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * Which routes get their turns on the shared bandwidth first, see RouteTo.withPriority(...)
+ */
+public enum Priority {
+    /**
+     * Request/response traffic that should not wait behind anything else
+     */
+    INTERACTIVE,
+    /**
+     * What a route gets unless told otherwise
+     */
+    NORMAL,
+    /**
+     * Large transfers that only get the time the other routes leave over
+     */
+    BULK
+}
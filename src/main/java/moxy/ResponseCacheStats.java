@@ -0,0 +1,38 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * How the response cache of an HTTP route is doing, all zero for routes without one. See RouteTo.withResponseCache(...)
+ */
+public interface ResponseCacheStats {
+    /**
+     * @return how many requests were answered from the cache without asking the route server
+     */
+    long getHits();
+
+    /**
+     * @return how many cacheable requests had no matching response in the cache
+     */
+    long getMisses();
+
+    /**
+     * @return how many times the route server was asked whether a cached response is still good
+     */
+    long getRevalidations();
+
+    /**
+     * @return how many responses were dropped to make room for newer ones
+     */
+    long getEvictions();
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * The running totals of a single route, these survive the route being stopped, restarted or rerouted
+ */
+public interface RouteStats {
+    /**
+     * @return how many connections have been accepted since the route was added
+     */
+    long getConnectionsAccepted();
+
+    /**
+     * @return how many connections are currently being relayed
+     */
+    long getActiveConnections();
+
+    /**
+     * @return how many connections were closed right after being accepted because their client was over its limits or
+     * not allowed by the access list, see RouteTo.withClientLimits(...) and RouteTo.withAccessList(...)
+     */
+    long getConnectionsRejected();
+
+    /**
+     * @return how many connections were closed because of the given timeout
+     */
+    long getTimeouts(ConnectionTimeout timeout);
+
+    /**
+     * @return how well the data compresses when the route is a tunnel, see RouteTo.asTunnel(...)
+     */
+    TunnelStats getTunnel();
+
+    /**
+     * @return the TLS handshakes with the clients, see RouteTo.withTlsTermination(...)
+     */
+    TlsStats getTlsTermination();
+
+    /**
+     * @return the TLS handshakes with the route server, see RouteTo.withTlsOrigination(...)
+     */
+    TlsStats getTlsOrigination();
+
+    /**
+     * @return how the response cache of an HTTP route is doing, see RouteTo.withResponseCache(...)
+     */
+    ResponseCacheStats getResponseCache();
+}
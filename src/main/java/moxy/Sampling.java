@@ -0,0 +1,86 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which of the sentData/receivedData events a listener gets, for listeners that only need a representative
+ * sample of busy routes. Connection events (i.e. connectionMade) are always passed on.
+ */
+@FunctionalInterface
+public interface Sampling {
+    /**
+     * @return a sampler for one direction of one connection
+     */
+    Sampler newSampler();
+
+    interface Sampler {
+        /**
+         * @param length - how many bytes the event carries
+         * @return how many of the leading bytes to pass on to the listener, 0 skips the event
+         */
+        int sample(int length);
+    }
+
+    /**
+     * Every event, this is what MoxyServer.addListener(listener) uses
+     */
+    static Sampling everything() {
+        return () -> (length) -> length;
+    }
+
+    /**
+     * The first event of each connection's direction and every nth one after that
+     */
+    static Sampling everyNth(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Need to sample at least every 1 event, but was given: " + n);
+        }
+        return () -> new Sampler() {
+            private long count;
+
+            public int sample(int length) {
+                return count++ % n == 0 ? length : 0;
+            }
+        };
+    }
+
+    /**
+     * Each event has the given chance of being passed on
+     */
+    static Sampling withProbability(double probability) {
+        if (probability < 0.0 || probability > 1.0) {
+            throw new IllegalArgumentException("The probability needs to be between 0.0 and 1.0, but was given: " + probability);
+        }
+        return () -> (length) -> ThreadLocalRandom.current().nextDouble() < probability ? length : 0;
+    }
+
+    /**
+     * Only the first bytes of each connection's direction, the event crossing the limit is cut short
+     */
+    static Sampling firstBytes(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Need to sample at least 1 byte, but was given: " + bytes);
+        }
+        return () -> new Sampler() {
+            private long remaining = bytes;
+
+            public int sample(int length) {
+                int take = (int) Math.min(remaining, length);
+                remaining -= take;
+                return take;
+            }
+        };
+    }
+}
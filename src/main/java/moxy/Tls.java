@@ -0,0 +1,92 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import javax.net.ssl.SSLContext;
+import java.util.Optional;
+
+/**
+ * How a route speaks TLS, either with its clients (see RouteTo.withTlsTermination(...)) or with the route server (see
+ * RouteTo.withTlsOrigination(...))
+ * <p>
+ * Note: the SSLContext's own session cache (the server side one when terminating, the client side one when
+ * originating) is used as it is, so routes sharing an SSLContext share the cache as well. It is only reconfigured when
+ * asked to with withSessionCache(...), which then changes it for everyone else using that SSLContext too
+ */
+public class Tls {
+    private final SSLContext context;
+    private Optional<Integer> sessionCacheSize = Optional.empty();
+    private Optional<Integer> sessionTimeoutInSeconds = Optional.empty();
+    private boolean verifyHostName = true;
+
+    /**
+     * @param context - holds the key material (and trust) to use
+     */
+    public Tls(SSLContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("An SSLContext is required");
+        }
+        this.context = context;
+    }
+
+    public Tls(Tls other) {
+        this.context = other.context;
+        this.sessionCacheSize = other.sessionCacheSize;
+        this.sessionTimeoutInSeconds = other.sessionTimeoutInSeconds;
+        this.verifyHostName = other.verifyHostName;
+    }
+
+    /**
+     * Reconfigures the session cache of the SSLContext, for every other user of the SSLContext as well
+     *
+     * @param size             - how many sessions (by session id or session ticket) are kept for resuming without a full
+     *                         handshake, the least recently used are dropped first
+     * @param timeoutInSeconds - how long a session can be resumed for
+     */
+    public Tls withSessionCache(int size, int timeoutInSeconds) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The session cache needs room for at least 1 session, but was given: " + size);
+        }
+        if (timeoutInSeconds < 1) {
+            throw new IllegalArgumentException("The session timeout needs to be at least 1 second, but was given: " + timeoutInSeconds);
+        }
+        this.sessionCacheSize = Optional.of(size);
+        this.sessionTimeoutInSeconds = Optional.of(timeoutInSeconds);
+        return this;
+    }
+
+    /**
+     * Do not check that the route server's certificate was issued for the host name it was connected with, only meant
+     * for servers whose certificate does not match the address Moxy connects to (only used when originating)
+     */
+    public Tls withoutHostNameVerification() {
+        this.verifyHostName = false;
+        return this;
+    }
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    public Optional<Integer> getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public Optional<Integer> getSessionTimeoutInSeconds() {
+        return sessionTimeoutInSeconds;
+    }
+
+    public boolean isVerifyHostName() {
+        return verifyHostName;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * The TLS handshakes of one side of a route, all zero when the route does not speak TLS on that side
+ */
+public interface TlsStats {
+    /**
+     * @return how many handshakes completed
+     */
+    long getHandshakes();
+
+    /**
+     * @return how many of the completed handshakes resumed an earlier session instead of doing a full handshake
+     */
+    long getResumedHandshakes();
+
+    /**
+     * @return how many handshakes did not complete
+     */
+    long getFailedHandshakes();
+
+    /**
+     * @return the share of completed handshakes that were resumed (0 to 1), 0 when there were none
+     */
+    default double getResumptionRate() {
+        long handshakes = getHandshakes();
+        return handshakes == 0 ? 0 : (double) getResumedHandshakes() / handshakes;
+    }
+
+    /**
+     * @return how long the completed handshakes took
+     */
+    LatencySnapshot getHandshakeLatency();
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import java.util.concurrent.Flow;
+
+/**
+ * The chunks relayed by a route or a single connection. Subscribers are called from their own thread, what happens
+ * when they fall behind depends on the Backpressure the stream was created with.
+ */
+public interface TrafficStream extends Flow.Publisher<Chunk>, AutoCloseable {
+    /**
+     * @return how many chunks did not make it to a subscriber because it fell behind
+     */
+    long getDroppedChunks();
+
+    /**
+     * Stop publishing and complete every subscriber, streams of a single connection close when the connection does
+     */
+    void close();
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * Which end of a compressed Moxy-to-Moxy tunnel a route is, see RouteTo.asTunnel(...). The ENTRY route sits on the
+ * clients' side of a slow link and connects to the EXIT route of a Moxy on the other side, which connects to the real
+ * route server
+ */
+public enum Tunnel {
+    /**
+     * Compresses what the clients send and inflates what comes back
+     */
+    ENTRY,
+    /**
+     * Inflates what the ENTRY sends and compresses what the route server answers
+     */
+    EXIT
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+/**
+ * How well the data of a tunnel route compresses and what it costs, per direction the data flows. All zero for routes
+ * that are not a tunnel
+ */
+public interface TunnelStats {
+    /**
+     * @return the bytes on the plain side of the tunnel
+     */
+    long getUncompressedBytes(Direction direction);
+
+    /**
+     * @return the bytes on the compressed side of the tunnel
+     */
+    long getCompressedBytes(Direction direction);
+
+    /**
+     * @return the uncompressed bytes for every compressed byte, or 0 when nothing went through yet
+     */
+    default double getCompressionRatio(Direction direction) {
+        long compressed = getCompressedBytes(direction);
+        return compressed == 0 ? 0 : (double) getUncompressedBytes(direction) / compressed;
+    }
+
+    /**
+     * @return the CPU time spent compressing or inflating (wall clock time where the JVM can not measure CPU time)
+     */
+    long getCpuNanos(Direction direction);
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.AccessList;
+import moxy.AccessRuleStats;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides at accept time whether a client may connect to a route by its access list. The list is compiled into a
+ * prefix trie per address family and replaced as a whole, a connection is decided by either the old or the new list.
+ * Clients without an IP address (unix domain sockets) are always let through.
+ */
+public class AccessControl {
+    private volatile Compiled compiled;
+
+    /**
+     * @param accessList - null to let every client through, the counters start over with every list
+     */
+    public void replace(AccessList accessList) {
+        compiled = accessList == null ? null : new Compiled(new AccessList(accessList));
+    }
+
+    public boolean admits(SocketAddress remoteAddress) {
+        Compiled current = compiled;
+        if (current == null || !(remoteAddress instanceof InetSocketAddress) || ((InetSocketAddress) remoteAddress).getAddress() == null) {
+            return true;
+        }
+        return current.admits(((InetSocketAddress) remoteAddress).getAddress());
+    }
+
+    /**
+     * @return a counter per rule of the current list in the order they were added, followed by the default. Empty without a list.
+     */
+    public List<AccessRuleStats> getStats() {
+        Compiled current = compiled;
+        return current == null ? List.of() : List.copyOf(current.counters);
+    }
+
+    private static class Compiled {
+        private final PrefixTrie ipv4 = new PrefixTrie();
+        private final PrefixTrie ipv6 = new PrefixTrie();
+        private final List<RuleCounter> counters = new ArrayList<>();
+        private final RuleCounter otherwise;
+
+        private Compiled(AccessList accessList) {
+            List<AccessList.Rule> rules = accessList.getRules();
+            for (int i = 0; i < rules.size(); i++) {
+                AccessList.Rule rule = rules.get(i);
+                counters.add(new RuleCounter(Optional.of(rule), rule.getAccess()));
+                trieFor(rule.getNetwork()).put(rule.getNetwork().getAddress(), rule.getPrefixLength(), i);
+            }
+            otherwise = new RuleCounter(Optional.empty(), accessList.getOtherwise());
+            counters.add(otherwise);
+        }
+
+        private boolean admits(InetAddress address) {
+            int match = trieFor(address).longestMatch(address.getAddress());
+            RuleCounter decidedBy = match == PrefixTrie.NONE ? otherwise : counters.get(match);
+            decidedBy.matches.increment();
+            return decidedBy.access == AccessList.Access.ALLOW;
+        }
+
+        private PrefixTrie trieFor(InetAddress address) {
+            return address instanceof Inet4Address ? ipv4 : ipv6;
+        }
+    }
+
+    private static class RuleCounter implements AccessRuleStats {
+        private final Optional<AccessList.Rule> rule;
+        private final AccessList.Access access;
+        private final LongAdder matches = new LongAdder();
+
+        private RuleCounter(Optional<AccessList.Rule> rule, AccessList.Access access) {
+            this.rule = rule;
+            this.access = access;
+        }
+
+        public Optional<AccessList.Rule> getRule() {
+            return rule;
+        }
+
+        public AccessList.Access getAccess() {
+            return access;
+        }
+
+        public long getMatches() {
+            return matches.sum();
+        }
+
+        public String toString() {
+            return rule.map(AccessList.Rule::toString).orElse(access + " otherwise") + ": " + getMatches();
+        }
+    }
+}
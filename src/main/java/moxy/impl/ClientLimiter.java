@@ -0,0 +1,188 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.ClientLimits;
+import moxy.Log;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides at accept time whether a client address may have another connection, with a token bucket for the rate of
+ * its connections and a count of the ones still open.
+ * <p>
+ * The buckets are kept in a fixed number of stripes, each a map in least recently seen order with its own lock and a
+ * share of the clients tracked. A stripe forgets the least recently seen client once it is full, and the clients
+ * without connections once they expire.
+ */
+public class ClientLimiter {
+    private static final Log LOG = Log.get(ClientLimiter.class);
+    private static final int STRIPES = 16;
+    private volatile Limits limits;
+
+    /**
+     * @param clientLimits - null to let every connection through, the buckets start over when the limits change
+     */
+    public synchronized void configure(ClientLimits clientLimits) {
+        if (clientLimits == null) {
+            limits = null;
+        } else if (limits == null || !limits.sameAs(clientLimits)) {
+            limits = new Limits(new ClientLimits(clientLimits));
+        }
+    }
+
+    /**
+     * @return a permit to release once the connection is closed, empty when the client is over one of its limits
+     */
+    public Optional<Permit> tryAcquire(SocketAddress remoteAddress) {
+        Limits current = limits;
+        if (current == null || !(remoteAddress instanceof InetSocketAddress) || ((InetSocketAddress) remoteAddress).getAddress() == null) {
+            return Optional.of(Permit.NONE);
+        }
+        InetAddress address = ((InetSocketAddress) remoteAddress).getAddress();
+        return current.stripeOf(address).tryAcquire(address, System.nanoTime());
+    }
+
+    /**
+     * A connection counted against a client, releasing it more than once does nothing
+     */
+    public static class Permit {
+        static final Permit NONE = new Permit(null, null);
+        private final Stripe stripe;
+        private final Bucket bucket;
+        private boolean released;
+
+        private Permit(Stripe stripe, Bucket bucket) {
+            this.stripe = stripe;
+            this.bucket = bucket;
+        }
+
+        public void release() {
+            if (stripe != null) {
+                stripe.release(this);
+            }
+        }
+    }
+
+    private static class Limits {
+        private final ClientLimits limits;
+        private final Stripe[] stripes = new Stripe[STRIPES];
+
+        private Limits(ClientLimits limits) {
+            this.limits = limits;
+            int clientsPerStripe = Math.max(1, limits.getMaxTrackedClients() / STRIPES);
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe(limits, clientsPerStripe);
+            }
+        }
+
+        private Stripe stripeOf(InetAddress address) {
+            int hash = address.hashCode();
+            return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        }
+
+        private boolean sameAs(ClientLimits other) {
+            return limits.getConnectionsPerSecond() == other.getConnectionsPerSecond()
+                    && limits.getBurst() == other.getBurst()
+                    && limits.getMaxConcurrentConnections() == other.getMaxConcurrentConnections()
+                    && limits.getMaxTrackedClients() == other.getMaxTrackedClients()
+                    && limits.getIdleExpiryInMillis() == other.getIdleExpiryInMillis();
+        }
+    }
+
+    private static class Stripe {
+        private final double tokensPerNano;
+        private final int burst;
+        private final int maxConcurrentConnections;
+        private final long idleExpiryInNanos;
+        private final Map<InetAddress, Bucket> buckets;
+
+        private Stripe(ClientLimits limits, int maxClients) {
+            this.tokensPerNano = limits.getConnectionsPerSecond() / TimeUnit.SECONDS.toNanos(1);
+            this.burst = limits.getBurst();
+            this.maxConcurrentConnections = limits.getMaxConcurrentConnections();
+            this.idleExpiryInNanos = TimeUnit.MILLISECONDS.toNanos(limits.getIdleExpiryInMillis());
+            this.buckets = new LinkedHashMap<>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<InetAddress, Bucket> eldest) {
+                    return size() > maxClients;
+                }
+            };
+        }
+
+        private synchronized Optional<Permit> tryAcquire(InetAddress address, long now) {
+            expire(now);
+            Bucket bucket = buckets.computeIfAbsent(address, (key) -> new Bucket(burst, now));
+            bucket.lastSeenAt = now;
+            if (maxConcurrentConnections > 0 && bucket.connections >= maxConcurrentConnections) {
+                LOG.debug("Rejecting a connection from [" + address + "], it already has " + bucket.connections + " connections");
+                return Optional.empty();
+            }
+            if (burst > 0) {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilledAt) * tokensPerNano);
+                bucket.refilledAt = now;
+                if (bucket.tokens < 1) {
+                    LOG.debug("Rejecting a connection from [" + address + "], it is connecting too fast");
+                    return Optional.empty();
+                }
+                bucket.tokens -= 1;
+            }
+            bucket.connections++;
+            return Optional.of(new Permit(this, bucket));
+        }
+
+        private synchronized void release(Permit permit) {
+            if (!permit.released) {
+                permit.released = true;
+                permit.bucket.connections--;
+                permit.bucket.lastSeenAt = System.nanoTime();
+            }
+        }
+
+        /**
+         * Forget the clients without connections that were not seen for a while, stopping at the first one seen
+         * recently enough as the ones after it were (mostly) seen later
+         */
+        private void expire(long now) {
+            Iterator<Bucket> iterator = buckets.values().iterator();
+            while (iterator.hasNext()) {
+                Bucket bucket = iterator.next();
+                if (now - bucket.lastSeenAt < idleExpiryInNanos) {
+                    return;
+                }
+                if (bucket.connections == 0) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long refilledAt;
+        private long lastSeenAt;
+        private int connections;
+
+        private Bucket(int burst, long now) {
+            this.tokens = burst;
+            this.refilledAt = now;
+            this.lastSeenAt = now;
+        }
+    }
+}
@@ -12,87 +12,394 @@
  */
 package moxy.impl;
 
+import moxy.CloseReason;
+import moxy.ConnectionTimeout;
+import moxy.Direction;
 import moxy.Log;
 import moxy.MoxyListener;
+import moxy.NetworkConditions;
+import moxy.impl.buffer.BufferAllocator;
+import moxy.impl.conditions.RouteConditions;
+import moxy.impl.http.HttpRelay;
+import moxy.impl.sniff.SniffingRelay;
+import moxy.impl.tunnel.MuxConnection;
+import moxy.impl.tunnel.MuxStream;
 
 import java.io.IOException;
-import java.net.BindException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CountDownLatch;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ConnectTo {
     private static final Log LOG = Log.get(ConnectTo.class);
-    private final InetSocketAddress socketAddress;
+    public static final long SHUTDOWN_GRACE_PERIOD_IN_MILLIS = 100L;
+    private final SocketAddress addressToListenOn;
     private final int portToListenOn;
-    // todo - need to find a way to get these to auto cleanup on death
-    private ArrayList<RelayInfo> relayInfos = new ArrayList<>();
-    private MoxyListener moxyListener;
+    private final int ports;
+    private final AtomicReference<Route> route;
+    private final TimerWheel timerWheel;
+    private final RouteCounters stats = new RouteCounters();
+    private final LatencyHistogram[] latency = {new LatencyHistogram(), new LatencyHistogram()};
+    private final RouteConditions conditions;
+    private final BufferAllocator buffers;
+    private final HeavyHitters heavyHitters = new HeavyHitters();
+    private final ClientLimiter clientLimiter = new ClientLimiter();
+    private final AccessControl accessControl = new AccessControl();
+    private final InFlightBudget.Account budget;
+    private Queue<Relay> relays = new ConcurrentLinkedQueue<>();
+    private final DispatchListener dispatchListener;
     private Optional<Thread> connectionAcceptorThread = Optional.empty();
+    private CompletableFuture<Void> listening = new CompletableFuture<>();
+    private volatile boolean stopping;
 
-    public ConnectTo(int portToListenOn, InetSocketAddress socketAddress, MoxyListener moxyListener) {
-        this.portToListenOn = portToListenOn;
-        this.socketAddress = socketAddress;
-        this.moxyListener = moxyListener;
+    public ConnectTo(SocketAddress addressToListenOn, SocketAddress socketAddress, MoxyListener moxyListener) {
+        this(addressToListenOn, Route.to(socketAddress, new RouteOptions()), dispatchTo(moxyListener), new TimerWheel(), new BufferAllocator(),
+                new InFlightBudget(), SharedBandwidth.UNLIMITED);
+    }
+
+    public ConnectTo(SocketAddress addressToListenOn, Route route, DispatchListener dispatchListener, TimerWheel timerWheel,
+                     BufferAllocator buffers, InFlightBudget memory, SharedBandwidth bandwidth) {
+        this(addressToListenOn, 1, route, dispatchListener, timerWheel, buffers, memory, bandwidth);
+    }
+
+    /**
+     * @param ports - how many consecutive ports starting at addressToListenOn to listen on, all sharing one acceptor thread
+     */
+    public ConnectTo(SocketAddress addressToListenOn, int ports, Route route, DispatchListener dispatchListener, TimerWheel timerWheel,
+                     BufferAllocator buffers, InFlightBudget memory, SharedBandwidth bandwidth) {
+        route.assertCanListenOn(addressToListenOn);
+        this.addressToListenOn = addressToListenOn;
+        this.buffers = buffers;
+        this.budget = memory.newAccount();
+        this.portToListenOn = SocketChannels.portOf(addressToListenOn);
+        this.ports = ports;
+        this.route = new AtomicReference<>(route);
+        this.dispatchListener = dispatchListener;
+        this.timerWheel = timerWheel;
+        this.conditions = new RouteConditions(bandwidth);
+        applyConditions(route.getOptions());
+    }
+
+    /**
+     * Send new connections to the given route from now on, connections already being relayed are left alone
+     */
+    public synchronized void reroute(Route newRoute) {
+        newRoute.assertCanListenOn(addressToListenOn);
+        applyConditions(newRoute.getOptions());
+        countCacheOf(newRoute);
+        Route oldRoute = route.getAndSet(newRoute);
+        if (connectionAcceptorThread.isPresent()) {
+            exposeHeavyHitters();
+        }
+        LOG.debug("Rerouted: " + addressToListenOn + " -> " + newRoute + " (was " + oldRoute + ")");
+        oldRoute.close();
+    }
+
+    public Route getRoute() {
+        return route.get();
+    }
+
+    /**
+     * @return every address listened on, more than one for a port range
+     */
+    public List<SocketAddress> getAddressesToListenOn() {
+        if (ports == 1) {
+            return Collections.singletonList(addressToListenOn);
+        }
+        InetAddress host = ((InetSocketAddress) addressToListenOn).getAddress();
+        List<SocketAddress> addresses = new ArrayList<>(ports);
+        for (int i = 0; i < ports; i++) {
+            addresses.add(new InetSocketAddress(host, portToListenOn + i));
+        }
+        return addresses;
+    }
+
+    /**
+     * @return what the route's queued listener events are counted against, its connections have accounts of their own
+     */
+    public InFlightBudget.Account getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the clients with the most connections and bytes lately, kept across reroutes that track them the same way
+     */
+    public HeavyHitters getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    /**
+     * @return who may connect, replaced by the access list of the route when rerouted
+     * @throws IllegalArgumentException for a route listening on a Unix domain socket, see Route.assertCanListenOn(...)
+     */
+    public AccessControl getAccessControl() {
+        if (SocketChannels.isUnixDomain(addressToListenOn)) {
+            throw Route.withoutClientAddresses(addressToListenOn, "an access list");
+        }
+        return accessControl;
+    }
+
+    public RouteCounters getStats() {
+        return stats;
+    }
+
+    /**
+     * @return how long chunks spend between being read and written in the direction, kept across reroutes
+     */
+    public LatencyHistogram getLatency(Direction direction) {
+        return latency[direction.ordinal()];
+    }
+
+    /**
+     * @param networkConditions - null to relay the data as is, this applies to connections already in flight too
+     */
+    public void setNetworkConditions(Direction direction, NetworkConditions networkConditions) {
+        conditions.set(direction, networkConditions);
+    }
+
+    private void applyConditions(RouteOptions options) {
+        conditions.setScheduling(options.getPriority(), options.getQuotaBytes());
+        heavyHitters.configure(options.getHeavyHittersTopK(), options.getHeavyHittersWindowInMillis());
+        clientLimiter.configure(options.getClientLimits().orElse(null));
+        accessControl.replace(options.getAccessList().orElse(null));
+        for (Direction direction : Direction.values()) {
+            conditions.set(direction, options.getNetworkConditions(direction));
+        }
+    }
+
+    /**
+     * @return completes once the address is bound (or fails to bind), a shutdown starts over with a new future
+     */
+    public synchronized CompletableFuture<Void> whenListening() {
+        return listening;
     }
 
     public void shutdown() {
+        shutdown(System.currentTimeMillis() + SHUTDOWN_GRACE_PERIOD_IN_MILLIS);
+    }
+
+    /**
+     * @param deadlineInMillis - until when the relays get to finish sending what they have already read, shared by every
+     *                         route of a server stopping at once
+     */
+    public synchronized void shutdown(long deadlineInMillis) {
         if (connectionAcceptorThread.isPresent()) {
             ThreadKiller.killAndWait(connectionAcceptorThread.get());
+            connectionAcceptorThread = Optional.empty();
+            listening.completeExceptionally(new IllegalStateException("Stopped listening on " + describe(addressToListenOn)));
+            listening = new CompletableFuture<>();
+            heavyHitters.unregister();
         }
 
-        relayInfos.forEach(RelayInfo::stopRelaying);
-        relayInfos.clear();
+        relays.forEach((relay) -> relay.awaitFinish(deadlineInMillis));
+        stopping = true;
+        relays.forEach(Relay::stopRelaying);
+        relays.clear();
+        stopping = false;
+
+        route.get().close();
     }
 
     public void startListenOn() {
-        final ExceptionHolder exceptionHolder = new ExceptionHolder();
-        final CountDownLatch portBindingLatch = new CountDownLatch(1);
-
-        LOG.debug("Setup listening route: localhost:" + portToListenOn + " -> " + socketAddress);
-        Thread thread = new ConnectionAcceptorThread("MOXY", portToListenOn, new ConnectionAcceptorThread.Listener() {
-            public void newConnection(Socket listener) throws IOException {
-                try {
-                    moxyListener.connectionMade(portToListenOn, socketAddress);
-                    Socket routeTo = new Socket();
-                    routeTo.setReuseAddress(true);
-                    routeTo.connect(socketAddress);
-                    startReadingAndWriting(listener, routeTo, moxyListener);
-                } catch (IOException e) {
-                    LOG.error("Failed to connect to route server: " + socketAddress, e);
+        try {
+            startListenOnAsync().join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Start listening without waiting for the address to be bound, calling it again while listening does nothing
+     *
+     * @return completes once the address is bound, or fails with an IllegalStateException when it can not be bound
+     */
+    public synchronized CompletableFuture<Void> startListenOnAsync() {
+        if (connectionAcceptorThread.isPresent()) {
+            return listening;
+        }
+        CompletableFuture<Void> bound = listening;
+        List<SocketAddress> addresses = getAddressesToListenOn();
+        AtomicInteger unbound = new AtomicInteger(addresses.size());
+
+        Route current = route.updateAndGet(Route::withFreshResources);
+        countCacheOf(current);
+        LOG.debug("Setup listening route: " + addressToListenOn + " -> " + current);
+
+        Thread thread = new ConnectionAcceptorThread("MOXY", addresses, new ConnectionAcceptorThread.Listener() {
+            public void newConnection(SocketChannel accepted) throws IOException {
+                SocketAddress remoteAddress = accepted.getRemoteAddress();
+                if (!accessControl.admits(remoteAddress)) {
+                    LOG.debug("Denying a connection from [" + remoteAddress + "] by the access list");
+                    stats.connectionRejected();
+                    SocketChannels.closeQuietly(accepted);
+                    return;
+                }
+                Optional<ClientLimiter.Permit> permit = clientLimiter.tryAcquire(remoteAddress);
+                if (permit.isEmpty()) {
+                    stats.connectionRejected();
+                    SocketChannels.closeQuietly(accepted);
+                    return;
+                }
+                Route current = route.get();
+                int listenPort = ports == 1 ? portToListenOn : SocketChannels.portOf(accepted.getLocalAddress());
+                SocketAddress socketAddress = current.getSocketAddress(listenPort - portToListenOn);
+                ConnectionDispatch dispatch = dispatchListener.forConnection(listenPort);
+                dispatch.countBytesFor(heavyHitters.connected(remoteAddress));
+                RelayWatch watch = new RelayWatch(current, listenPort, dispatch, permit.get());
+                stats.connectionAccepted();
+                SocketChannel listener = current.getTlsTermination().isPresent()
+                        ? current.getTlsTermination().get().accepted(accepted, stats.getTlsTermination())
+                        : accepted;
+                Upstream upstream = upstreamOf(current);
+                watch.start(socketAddress, () -> SocketChannels.closeQuietly(listener));
+
+                if (current.getContentRouter().isPresent()) {
+                    track(watch, new SniffingRelay(listenPort, listener, current.getContentRouter().get(), dispatch, watch, conditions,
+                            interceptorsOf(current), upstream, buffers)).start();
+                    return;
+                }
+
+                if (current.getMultiplexedTunnel().isPresent()) {
+                    dispatch.connectionMade(listenPort, socketAddress);
+                    track(watch, new ConnectingRelay(listenPort, listener, "the tunnel exit: " + socketAddress, watch, () -> {
+                        long connectStartedAt = System.nanoTime();
+                        MuxStream stream = current.getMultiplexedTunnel().get().open(listener, listenPort, stats.getTunnel(), dispatch, watch);
+                        dispatch.upstreamConnected(connectStartedAt);
+                        stream.start();
+                        return stream;
+                    })).start();
+                    return;
+                }
+
+                if (current.isMultiplexedExit()) {
+                    dispatch.connectionMade(listenPort, socketAddress);
+                    track(watch, MuxConnection.exit(listener, socketAddress, upstream, listenPort, stats.getTunnel(), watch, dispatchListener,
+                            new ConnectionWatch.PerRoute(timerWheel, current.getOptions(), budget))).start();
+                    return;
+                }
+
+                if (current.getHttpConnectionPool().isPresent()) {
+                    current.getHttpConnectionPool().get().connectWith(upstream);
+                    dispatch.connectionMade(listenPort, socketAddress);
+                    track(watch, new HttpRelay(listenPort, listener, socketAddress, current.getHttpConnectionPool().get(),
+                            current.getHttpResponseCache(), dispatch, watch, conditions)).start();
+                    return;
                 }
+
+                dispatch.connectionMade(listenPort, socketAddress);
+                track(watch, new ConnectingRelay(listenPort, listener, "route server: " + socketAddress, watch, () -> {
+                    long connectStartedAt = System.nanoTime();
+                    SocketChannel routeTo = upstream.connect(socketAddress);
+                    dispatch.upstreamConnected(connectStartedAt);
+                    RelayInfo relay = new RelayInfo(listenPort, listener, socketAddress, routeTo, watch, conditions,
+                            interceptorsOf(current), buffers);
+                    relay.startRelaying(dispatch);
+                    return relay;
+                })).start();
             }
 
-            public void boundToLocalPort(int port) {
-                LOG.debug("Port [" + port + "] bound!");
-                portBindingLatch.countDown();
+            public void boundTo(SocketAddress address) {
+                LOG.debug("Address [" + address + "] bound!");
+                if (unbound.decrementAndGet() == 0) {
+                    bound.complete(null);
+                }
             }
 
-            public void failedToBindToPort(int port, BindException exception) {
-                LOG.debug("Port [" + port + "] failed to bind!");
-                exceptionHolder.holdOnTo(new IllegalStateException("Failed to bind to port [" + port + "]", exception));
-                portBindingLatch.countDown();
+            public void failedToBindTo(SocketAddress address, IOException exception) {
+                LOG.debug("Address [" + address + "] failed to bind!");
+                bound.completeExceptionally(new IllegalStateException("Failed to bind to " + describe(address), exception));
             }
         });
         thread.start();
         connectionAcceptorThread = Optional.of(thread);
+        exposeHeavyHitters();
+        return bound;
+    }
 
-        try {
-            LOG.debug("Waiting for port [" + portToListenOn + "] to bind...");
-            portBindingLatch.await();
-        } catch (InterruptedException e) {
-
+    private void exposeHeavyHitters() {
+        if (heavyHitters.isTracking()) {
+            heavyHitters.register(portToListenOn);
+        } else {
+            heavyHitters.unregister();
         }
+    }
 
-        exceptionHolder.reThrowAsNeeded();
+    private void countCacheOf(Route route) {
+        route.getHttpResponseCache().ifPresent((cache) -> cache.countWith(stats.getResponseCache()));
     }
 
-    private void startReadingAndWriting(Socket listener, Socket routeTo, MoxyListener dispatchListener) {
-        RelayInfo relayInfo = new RelayInfo(listener, routeTo);
-        relayInfo.startRelaying(dispatchListener);
-        relayInfos.add(relayInfo);
+    private Upstream upstreamOf(Route route) {
+        return route.getTlsOrigination().map(tls -> tls.upstream(stats.getTlsOrigination())).orElse(Upstream.PLAIN);
     }
 
+    private InterceptorChain.PerRoute interceptorsOf(Route route) {
+        return route.getInterceptors().withTunnel(route.getTunnel(), stats.getTunnel());
+    }
+
+    private <T extends Relay> T track(RelayWatch watch, T relay) {
+        watch.relay = relay;
+        relays.add(relay);
+        return relay;
+    }
+
+    private static DispatchListener dispatchTo(MoxyListener moxyListener) {
+        DispatchListener dispatchListener = new DispatchListener();
+        dispatchListener.addListener(moxyListener);
+        return dispatchListener;
+    }
+
+    private static String describe(SocketAddress address) {
+        if (SocketChannels.isUnixDomain(address)) {
+            return "unix socket [" + address + "]";
+        }
+        return "port [" + SocketChannels.portOf(address) + "]";
+    }
+
+    private class RelayWatch extends ConnectionWatch {
+        private final int portToListenOn;
+        private final ConnectionDispatch dispatch;
+        private final ClientLimiter.Permit permit;
+        private volatile Relay relay;
+
+        private RelayWatch(Route route, int portToListenOn, ConnectionDispatch dispatch, ClientLimiter.Permit permit) {
+            super(timerWheel, route.getOptions(), budget.newAccount());
+            this.portToListenOn = portToListenOn;
+            this.dispatch = dispatch;
+            this.permit = permit;
+        }
+
+        protected void timedOut(ConnectionTimeout reason) {
+            LOG.debug("Closing connection on port [" + portToListenOn + "] after " + reason);
+            stats.timedOut(reason);
+            dispatch.connectionTimedOut(portToListenOn, getRemoteAddress(), reason);
+        }
+
+        protected void relayed(Direction direction, long residenceInNanos) {
+            latency[direction.ordinal()].record(residenceInNanos);
+        }
+
+        protected void closed() {
+            stats.connectionClosed();
+            permit.release();
+            if (stopping) {
+                closing(CloseReason.STOPPED);
+            }
+            dispatch.connectionClosed(portToListenOn, getRemoteAddress(), getCloseReason());
+            Relay finished = relay;
+            if (finished != null) {
+                relays.remove(finished);
+            }
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.CloseReason;
+import moxy.Log;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+
+/**
+ * Connects a client to its route server on a thread of its own, so a slow (or blackholed) route server only holds up
+ * its own client rather than the acceptor thread of the route, then hands the connection over to the relay it opened
+ */
+public class ConnectingRelay extends Thread implements Relay {
+    private static final Log LOG = Log.get(ConnectingRelay.class);
+    private final SocketChannel client;
+    private final String connectingTo;
+    private final ConnectionWatch watch;
+    private final Opener opener;
+    private volatile Relay relay;
+    private volatile boolean stopped;
+
+    /**
+     * @param connectingTo - what is connected to, for the log when it fails
+     * @param opener       - connects and starts relaying, blocking for as long as the connect takes
+     */
+    public ConnectingRelay(int listenPort, SocketChannel client, String connectingTo, ConnectionWatch watch, Opener opener) {
+        super("MOXY-connect-" + listenPort);
+        setDaemon(true);
+        this.client = client;
+        this.connectingTo = connectingTo;
+        this.watch = watch;
+        this.opener = opener;
+    }
+
+    public void run() {
+        try {
+            relay = opener.open();
+        } catch (IOException | UnresolvedAddressException e) {
+            if (stopped) {
+                LOG.debug("Stopped while connecting to " + connectingTo);
+            } else {
+                LOG.error("Failed to connect to " + connectingTo, e);
+            }
+            watch.closing(stopped ? CloseReason.STOPPED : CloseReason.CONNECT_FAILED);
+            SocketChannels.closeQuietly(client);
+            watch.finished();
+        }
+    }
+
+    public void awaitFinish(long deadlineInMillis) {
+        ThreadKiller.waitUntil(this, deadlineInMillis);
+        if (relay != null) {
+            relay.awaitFinish(deadlineInMillis);
+        }
+    }
+
+    public void stopRelaying() {
+        stopped = true;
+        ThreadKiller.killAndWait(this);
+        if (relay != null) {
+            relay.stopRelaying();
+        }
+    }
+
+    public interface Opener {
+        Relay open() throws IOException;
+    }
+}
@@ -15,52 +15,79 @@ package moxy.impl;
 import moxy.Log;
 
 import java.io.IOException;
-import java.net.BindException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Accepts the connections of one or more listening addresses (i.e. a whole port range) on a single selector thread
+ */
 public class ConnectionAcceptorThread extends Thread {
     private static final Log LOG = Log.get(ConnectionAcceptorThread.class);
 
-    private final int port;
+    private final List<SocketAddress> addresses;
     private final Listener listener;
-    private ServerSocket serverSocket;
+    private final List<ServerSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+    private volatile Selector selector;
     private AtomicBoolean kill = new AtomicBoolean(false);
     private AtomicBoolean closing = new AtomicBoolean(false);
 
     public ConnectionAcceptorThread(String additionalName, int port, Listener listener) {
-        this.port = port;
+        this(additionalName, new InetSocketAddress(port), listener);
+    }
+
+    public ConnectionAcceptorThread(String additionalName, SocketAddress address, Listener listener) {
+        this(additionalName, Collections.singletonList(address), listener);
+    }
+
+    public ConnectionAcceptorThread(String additionalName, List<SocketAddress> addresses, Listener listener) {
+        this.addresses = new ArrayList<>(addresses);
         this.listener = listener;
         setDaemon(true);
-        setName(additionalName + ": AWAITING CONNECTIONS ON PORT: " + port);
+        setName(additionalName + ": AWAITING CONNECTIONS ON: " + addresses.get(0)
+                + (addresses.size() > 1 ? " (and " + (addresses.size() - 1) + " more)" : ""));
     }
 
     public void run() {
+        SocketAddress binding = addresses.get(0);
+        boolean bound = false;
         try {
-            serverSocket = new ServerSocket();
-            serverSocket.setReuseAddress(true);
-            serverSocket.bind(new InetSocketAddress(port));
-            listener.boundToLocalPort(port);
+            selector = Selector.open();
+            for (SocketAddress address : addresses) {
+                binding = address;
+                ServerSocketChannel serverChannel = SocketChannels.bind(address);
+                serverChannels.add(serverChannel);
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            bound = true;
+            for (SocketAddress address : addresses) {
+                listener.boundTo(address);
+            }
 
             while (!kill.get()) {
-                Socket socket = serverSocket.accept();
-                socket.setReuseAddress(true);
-
-                LOG.debug(getName() + " -- New Connection made: " + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
-                listener.newConnection(socket);
-
-                try {
-                    pause();
-                } catch (InterruptedException e) {
-                    kill.set(true);
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    acceptPendingConnections((ServerSocketChannel) key.channel());
                 }
+                selector.selectedKeys().clear();
+            }
+
+            for (ServerSocketChannel serverChannel : serverChannels) {
+                acceptPendingConnections(serverChannel);
             }
-        } catch (BindException e) {
-            listener.failedToBindToPort(port, e);
         } catch (IOException e) {
-            if (!closing.get()) {
+            if (!bound) {
+                listener.failedToBindTo(binding, e);
+            } else if (!closing.get()) {
                 LOG.error("A problem occurred on thread: " + getName(), e);
             }
         } finally {
@@ -69,34 +96,70 @@ public class ConnectionAcceptorThread extends Thread {
 
     }
 
+    /**
+     * Hand off everything already accepted by the OS, this includes the connections that arrived just before being told to stop.
+     * A connection that fails to be handed off is closed without stopping the others (of every port) from being accepted
+     */
+    private void acceptPendingConnections(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                channel.configureBlocking(true);
+
+                LOG.debug(getName() + " -- New Connection made: " + channel.getRemoteAddress());
+                listener.newConnection(channel);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to hand off a connection on thread: " + getName(), e);
+                SocketChannels.closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Wake the thread up to stop accepting, interrupting it would abort a connection being handed off
+     */
     @Override
     public void interrupt() {
-        close();
-        super.interrupt();
+        kill.set(true);
+        closing.set(true);
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (!isAlive()) {
+            close();
+        }
     }
 
     private void close() {
         kill.set(true);
         closing.set(true);
 
-        if (serverSocket != null) {
+        if (selector != null) {
             try {
-                serverSocket.close();
+                selector.close();
             } catch (IOException e) {
 
             }
         }
-    }
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
 
-    private void pause() throws InterruptedException {
-        Thread.sleep(10);
+            }
+        }
+        addresses.subList(0, serverChannels.size()).forEach(SocketChannels::unlinkIfUnixDomain);
+        serverChannels.clear();
     }
 
     public interface Listener {
-        void newConnection(Socket socket) throws IOException;
+        void newConnection(SocketChannel channel) throws IOException;
 
-        void boundToLocalPort(int port);
+        void boundTo(SocketAddress address);
 
-        void failedToBindToPort(int port, BindException exception);
+        /**
+         * @param exception - why the address could not be bound, i.e. a BindException when it is already in use
+         */
+        void failedToBindTo(SocketAddress address, IOException exception);
     }
 }
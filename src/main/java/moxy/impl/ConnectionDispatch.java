@@ -0,0 +1,227 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.CloseReason;
+import moxy.ConnectionSummary;
+import moxy.ConnectionTimeout;
+import moxy.Direction;
+import moxy.EventType;
+import moxy.MoxyListener;
+import moxy.Sampling;
+import moxy.impl.DispatchListener.PortIndex;
+import moxy.impl.DispatchListener.Subscription;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Passes the events of a single connection on to the listeners, holding on to the samplers of the sampled ones and
+ * the numbers that end up in the connection's summary.
+ *
+ * Each direction is only ever dispatched from one thread at a time and the connection is only closed after both
+ * directions are done, so neither the samplers nor the numbers need any locking. The listeners
+ * for the connection's port are looked up once and only again after a listener was added or removed.
+ */
+public class ConnectionDispatch extends MoxyListener {
+    private final DispatchListener dispatchListener;
+    private final long connectionId;
+    private final int listenPort;
+    private final Map<Subscription, Sampling.Sampler> sentSamplers = new IdentityHashMap<>();
+    private final Map<Subscription, Sampling.Sampler> receivedSamplers = new IdentityHashMap<>();
+    private final Instant acceptedAt = Instant.now();
+    private final long acceptedAtNanos = System.nanoTime();
+    private final long[] bytes = new long[Direction.values().length];
+    private final long[] firstByteAtNanos = new long[Direction.values().length];
+    private volatile long upstreamConnectNanos = -1;
+    private volatile HeavyHitters.Client client = HeavyHitters.Client.NONE;
+    private PortIndex portIndex;
+
+    ConnectionDispatch(DispatchListener dispatchListener, long connectionId, int listenPort) {
+        this.dispatchListener = dispatchListener;
+        this.connectionId = connectionId;
+        this.listenPort = listenPort;
+    }
+
+    /**
+     * @param startedAtNanos - the System.nanoTime() connecting to the route server started at
+     */
+    public void upstreamConnected(long startedAtNanos) {
+        if (upstreamConnectNanos == -1) {
+            upstreamConnectNanos = System.nanoTime() - startedAtNanos;
+        }
+    }
+
+    /**
+     * @param client - what the bytes relayed from now on are counted against
+     */
+    public void countBytesFor(HeavyHitters.Client client) {
+        this.client = client;
+    }
+
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    @Override
+    public void connectionMade(int listenPort, SocketAddress remoteAddress) {
+        for (Subscription subscription : subscriptions(EventType.CONNECTION_MADE)) {
+            subscription.listener.connectionMade(connectionId, listenPort, remoteAddress);
+        }
+    }
+
+    @Override
+    public void sentData(int listenPort, SocketAddress remoteAddress, byte[] data) {
+        dispatch(Direction.CLIENT_TO_SERVER, listenPort, remoteAddress, data);
+    }
+
+    @Override
+    public void receivedData(int listenPort, SocketAddress remoteAddress, byte[] data) {
+        dispatch(Direction.SERVER_TO_CLIENT, listenPort, remoteAddress, data);
+    }
+
+    /**
+     * Same as sentData(int, SocketAddress, byte[]) but the data is only copied when a listener is going to see it
+     */
+    public void sentData(int listenPort, SocketAddress remoteAddress, ByteBuffer data) {
+        dispatch(Direction.CLIENT_TO_SERVER, listenPort, remoteAddress, data);
+    }
+
+    /**
+     * Same as receivedData(int, SocketAddress, byte[]) but the data is only copied when a listener is going to see it
+     */
+    public void receivedData(int listenPort, SocketAddress remoteAddress, ByteBuffer data) {
+        dispatch(Direction.SERVER_TO_CLIENT, listenPort, remoteAddress, data);
+    }
+
+    @Override
+    public void connectionTimedOut(int listenPort, SocketAddress remoteAddress, ConnectionTimeout timeout) {
+        for (Subscription subscription : subscriptions(EventType.CONNECTION_TIMED_OUT)) {
+            subscription.listener.connectionTimedOut(connectionId, listenPort, remoteAddress, timeout);
+        }
+    }
+
+    /**
+     * The connection is done, after this there are no more events for it
+     */
+    public void connectionClosed(int listenPort, SocketAddress remoteAddress, CloseReason closeReason) {
+        dispatchListener.connectionClosed(connectionId);
+        client.closed();
+        Subscription[] subscriptions = subscriptions(EventType.CONNECTION_CLOSED);
+        if (subscriptions.length == 0) {
+            return;
+        }
+
+        ConnectionSummary summary = summarize(closeReason);
+        for (Subscription subscription : subscriptions) {
+            subscription.listener.connectionClosed(connectionId, listenPort, remoteAddress, summary);
+        }
+    }
+
+    private ConnectionSummary summarize(CloseReason closeReason) {
+        Duration[] timeToFirstByte = new Duration[Direction.values().length];
+        for (Direction direction : Direction.values()) {
+            if (bytes[direction.ordinal()] > 0) {
+                timeToFirstByte[direction.ordinal()] = Duration.ofNanos(firstByteAtNanos[direction.ordinal()] - acceptedAtNanos);
+            }
+        }
+        long connectNanos = upstreamConnectNanos;
+        return new ConnectionSummary(acceptedAt, connectNanos == -1 ? null : Duration.ofNanos(connectNanos), timeToFirstByte,
+                bytes, Duration.ofNanos(System.nanoTime() - acceptedAtNanos), closeReason);
+    }
+
+    private void dispatch(Direction direction, int listenPort, SocketAddress remoteAddress, byte[] data) {
+        relayed(direction, data.length);
+        for (Subscription subscription : subscriptions(direction)) {
+            int length = sample(subscription, direction, data.length);
+            if (length == data.length) {
+                deliver(subscription.listener, direction, listenPort, remoteAddress, data);
+            } else if (length > 0) {
+                deliver(subscription.listener, direction, listenPort, remoteAddress, Arrays.copyOf(data, length));
+            }
+        }
+    }
+
+    private void dispatch(Direction direction, int listenPort, SocketAddress remoteAddress, ByteBuffer data) {
+        relayed(direction, data.remaining());
+        byte[] whole = null;
+        for (Subscription subscription : subscriptions(direction)) {
+            int length = sample(subscription, direction, data.remaining());
+            if (length == data.remaining()) {
+                if (whole == null) {
+                    whole = copyOf(data, length);
+                }
+                deliver(subscription.listener, direction, listenPort, remoteAddress, whole);
+            } else if (length > 0) {
+                deliver(subscription.listener, direction, listenPort, remoteAddress, copyOf(data, length));
+            }
+        }
+    }
+
+    private void relayed(Direction direction, int length) {
+        int index = direction.ordinal();
+        if (bytes[index] == 0 && length > 0) {
+            firstByteAtNanos[index] = System.nanoTime();
+        }
+        bytes[index] += length;
+        client.relayed(length);
+    }
+
+    /**
+     * @return the listeners interested in the event, the same instance until a listener is added
+     */
+    private Subscription[] subscriptions(EventType eventType) {
+        return portIndex().get(eventType);
+    }
+
+    private PortIndex portIndex() {
+        DispatchListener.Index index = dispatchListener.getIndex();
+        PortIndex cached = portIndex;
+        if (cached == null || cached.index != index) {
+            cached = index.forPort(listenPort);
+            portIndex = cached;
+        }
+        return cached;
+    }
+
+    private Subscription[] subscriptions(Direction direction) {
+        return subscriptions(direction == Direction.CLIENT_TO_SERVER ? EventType.SENT_DATA : EventType.RECEIVED_DATA);
+    }
+
+    private int sample(Subscription subscription, Direction direction, int length) {
+        if (subscription.sampling == null) {
+            return length;
+        }
+        Map<Subscription, Sampling.Sampler> samplers = direction == Direction.CLIENT_TO_SERVER ? sentSamplers : receivedSamplers;
+        return samplers.computeIfAbsent(subscription, (s) -> s.sampling.newSampler()).sample(length);
+    }
+
+    private void deliver(MoxyListener listener, Direction direction, int listenPort, SocketAddress remoteAddress, byte[] data) {
+        if (direction == Direction.CLIENT_TO_SERVER) {
+            listener.sentData(connectionId, listenPort, remoteAddress, data);
+        } else {
+            listener.receivedData(connectionId, listenPort, remoteAddress, data);
+        }
+    }
+
+    private static byte[] copyOf(ByteBuffer data, int length) {
+        byte[] bytes = new byte[length];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+}
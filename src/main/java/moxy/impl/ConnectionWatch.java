@@ -0,0 +1,263 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.CloseReason;
+import moxy.ConnectionTimeout;
+import moxy.Direction;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of when a connection last did anything and closes it once one of its route's timeouts passes.
+ * <p>
+ * The relay threads only record timestamps; a single entry on the timer wheel checks them when the earliest deadline
+ * could have passed and reschedules itself if there was activity in the meantime.
+ */
+public class ConnectionWatch {
+    private static final long NOT_WRITING = 0L;
+    private final TimerWheel timerWheel;
+    private final long idleReadTimeoutInNanos;
+    private final long idleWriteTimeoutInNanos;
+    private final long maxLifetimeInNanos;
+    private final AtomicLongArray writeStartedAt = new AtomicLongArray(Direction.values().length);
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private final AtomicReference<CloseReason> closeReason = new AtomicReference<>();
+    private volatile long startedAt;
+    private volatile long lastReadAt;
+    private volatile SocketAddress remoteAddress;
+    private volatile Runnable closeConnection;
+    private volatile TimerWheel.Timeout timeout;
+    private final InFlightBudget.Account budget;
+
+    /**
+     * A watch that never times out, for a connection outside of any route
+     */
+    public ConnectionWatch() {
+        this(null, new RouteOptions());
+    }
+
+    /**
+     * A watch for a connection without network conditions that is not part of a server's memory budget
+     */
+    public ConnectionWatch(TimerWheel timerWheel, RouteOptions options) {
+        this(timerWheel, options, InFlightBudget.UNCOUNTED);
+    }
+
+    /**
+     * @param budget - what the data the connection holds on to is counted against
+     */
+    public ConnectionWatch(TimerWheel timerWheel, RouteOptions options, InFlightBudget.Account budget) {
+        this.timerWheel = timerWheel;
+        this.budget = budget;
+        this.idleReadTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(options.getIdleReadTimeoutInMillis());
+        this.idleWriteTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(options.getIdleWriteTimeoutInMillis());
+        this.maxLifetimeInNanos = TimeUnit.MILLISECONDS.toNanos(options.getMaxLifetimeInMillis());
+    }
+
+    public InFlightBudget.Account getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param closeConnection - closes the connection's channels when a timeout passes, this must not block
+     */
+    public void start(SocketAddress remoteAddress, Runnable closeConnection) {
+        this.remoteAddress = remoteAddress;
+        this.closeConnection = closeConnection;
+        startedAt = System.nanoTime();
+        lastReadAt = startedAt;
+        if (timerWheel != null && hasTimeouts()) {
+            check();
+        }
+    }
+
+    /**
+     * The connection was handed over to a different relay that closes it in a different way
+     */
+    public void closeWith(SocketAddress remoteAddress, Runnable closeConnection) {
+        this.remoteAddress = remoteAddress;
+        this.closeConnection = closeConnection;
+    }
+
+    /**
+     * @return when the read happened (System.nanoTime()), for written(...)
+     */
+    public long readHappened() {
+        long now = System.nanoTime();
+        lastReadAt = now;
+        return now;
+    }
+
+    /**
+     * Data read at the given time made it out the other side of the relay
+     */
+    public void written(Direction direction, long readAtNanos) {
+        relayed(direction, System.nanoTime() - readAtNanos);
+    }
+
+    public void writeStarted(Direction direction) {
+        writeStartedAt.set(direction.ordinal(), System.nanoTime());
+    }
+
+    public void writeFinished(Direction direction) {
+        writeStartedAt.set(direction.ordinal(), NOT_WRITING);
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Record why the connection is about to be closed, only the first reason given sticks
+     */
+    public void closing(CloseReason reason) {
+        closeReason.compareAndSet(null, reason);
+    }
+
+    /**
+     * @return why the connection was closed, ERROR when nobody said
+     */
+    public CloseReason getCloseReason() {
+        CloseReason reason = closeReason.get();
+        return reason == null ? CloseReason.ERROR : reason;
+    }
+
+    /**
+     * The connection is closed and will not be used again, safe to call more than once
+     */
+    public void finished() {
+        if (finished.compareAndSet(false, true)) {
+            TimerWheel.Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+            closed();
+        }
+    }
+
+    /**
+     * The connections of a route, for the relays that open more connections than the one accepted (i.e. an EXIT of a
+     * multiplexed tunnel relays each stream to a connection of its own)
+     */
+    public static class PerRoute {
+        private final TimerWheel timerWheel;
+        private final RouteOptions options;
+        private final InFlightBudget.Account budget;
+
+        /**
+         * @param budget - the route's account, each connection gets one of its own
+         */
+        public PerRoute(TimerWheel timerWheel, RouteOptions options, InFlightBudget.Account budget) {
+            this.timerWheel = timerWheel;
+            this.options = options;
+            this.budget = budget;
+        }
+
+        /**
+         * @param closed - given the watch once the connection is finished
+         */
+        public ConnectionWatch newWatch(Consumer<ConnectionWatch> closed) {
+            return new ConnectionWatch(timerWheel, options, budget.newAccount()) {
+                protected void closed() {
+                    closed.accept(this);
+                }
+            };
+        }
+    }
+
+    protected void timedOut(ConnectionTimeout reason) {
+
+    }
+
+    protected void closed() {
+
+    }
+
+    /**
+     * @param residenceInNanos - how long a chunk took from being read to being written
+     */
+    protected void relayed(Direction direction, long residenceInNanos) {
+
+    }
+
+    private boolean hasTimeouts() {
+        return idleReadTimeoutInNanos > 0 || idleWriteTimeoutInNanos > 0 || maxLifetimeInNanos > 0;
+    }
+
+    private void check() {
+        if (finished.get()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long nextCheck = Long.MAX_VALUE;
+
+        if (maxLifetimeInNanos > 0) {
+            long deadline = startedAt + maxLifetimeInNanos;
+            if (now - deadline >= 0) {
+                expire(ConnectionTimeout.MAX_LIFETIME);
+                return;
+            }
+            nextCheck = deadline;
+        }
+
+        if (idleWriteTimeoutInNanos > 0) {
+            long deadline = now + idleWriteTimeoutInNanos;
+            for (int i = 0; i < writeStartedAt.length(); i++) {
+                long started = writeStartedAt.get(i);
+                if (started != NOT_WRITING) {
+                    if (now - (started + idleWriteTimeoutInNanos) >= 0) {
+                        expire(ConnectionTimeout.IDLE_WRITE);
+                        return;
+                    }
+                    deadline = Math.min(deadline, started + idleWriteTimeoutInNanos);
+                }
+            }
+            nextCheck = Math.min(nextCheck, deadline);
+        }
+
+        if (idleReadTimeoutInNanos > 0) {
+            long deadline = lastReadAt + idleReadTimeoutInNanos;
+            if (now - deadline >= 0) {
+                expire(ConnectionTimeout.IDLE_READ);
+                return;
+            }
+            nextCheck = Math.min(nextCheck, deadline);
+        }
+
+        schedule(nextCheck);
+    }
+
+    private void schedule(long nextCheck) {
+        long delayInNanos = Math.max(0, nextCheck - System.nanoTime());
+        timeout = timerWheel.schedule(this::check, TimeUnit.NANOSECONDS.toMillis(delayInNanos) + 1);
+        if (finished.get()) {
+            timeout.cancel();
+        }
+    }
+
+    private void expire(ConnectionTimeout reason) {
+        closing(CloseReason.TIMED_OUT);
+        timedOut(reason);
+        Runnable close = closeConnection;
+        if (close != null) {
+            close.run();
+        }
+    }
+}
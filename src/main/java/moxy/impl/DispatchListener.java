@@ -12,37 +12,130 @@
  */
 package moxy.impl;
 
+import moxy.EventType;
 import moxy.MoxyListener;
+import moxy.Sampling;
 
-import java.net.SocketAddress;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class DispatchListener extends MoxyListener {
-    private List<MoxyListener> delegates = Collections.synchronizedList(new ArrayList<>());
+/**
+ * Keeps track of the registered listeners, each connection gets its own ConnectionDispatch to pass its events on.
+ *
+ * The listeners are indexed by port and event type, the index is rebuilt whenever a listener is added or removed so
+ * the connections can read it without any locking.
+ */
+public class DispatchListener {
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private volatile Index index = new Index(subscriptions);
+    private final AtomicLong lastConnectionId = new AtomicLong();
+    private final Map<Long, Integer> openConnections = new ConcurrentHashMap<>();
 
     public void addListener(MoxyListener listener) {
-        delegates.add(listener);
+        add(new Subscription(listener, null, null, EnumSet.allOf(EventType.class)));
+    }
+
+    public void addListener(MoxyListener listener, Sampling sampling) {
+        add(new Subscription(listener, sampling, null, EnumSet.allOf(EventType.class)));
+    }
+
+    public void addListener(int listenPort, Set<EventType> eventTypes, MoxyListener listener) {
+        add(new Subscription(listener, null, listenPort, EnumSet.copyOf(eventTypes)));
     }
 
-    @Override
-    public void connectionMade(int listenerPort, SocketAddress remoteAddress) {
-        for (MoxyListener delegate : delegates) {
-            delegate.connectionMade(listenerPort, remoteAddress);
+    public synchronized void removeListener(MoxyListener listener) {
+        if (subscriptions.removeIf((subscription) -> subscription.listener == listener)) {
+            index = new Index(subscriptions);
         }
     }
 
-    @Override
-    public void sentData(int listenPort, SocketAddress remoteAddress, byte[] data) {
-        for (MoxyListener delegate : delegates) {
-            delegate.sentData(listenPort, remoteAddress, data);
+    public ConnectionDispatch forConnection(int listenPort) {
+        long connectionId = lastConnectionId.incrementAndGet();
+        openConnections.put(connectionId, listenPort);
+        return new ConnectionDispatch(this, connectionId, listenPort);
+    }
+
+    /**
+     * @return if the connection is still being relayed on the port
+     */
+    public boolean isOpen(long connectionId, int listenPort) {
+        Integer port = openConnections.get(connectionId);
+        return port != null && port == listenPort;
+    }
+
+    void connectionClosed(long connectionId) {
+        openConnections.remove(connectionId);
+    }
+
+    Index getIndex() {
+        return index;
+    }
+
+    private synchronized void add(Subscription subscription) {
+        subscriptions.add(subscription);
+        index = new Index(subscriptions);
+    }
+
+    static class Subscription {
+        final MoxyListener listener;
+        final Sampling sampling;
+        private final Integer listenPort;
+        private final Set<EventType> eventTypes;
+
+        private Subscription(MoxyListener listener, Sampling sampling, Integer listenPort, Set<EventType> eventTypes) {
+            this.listener = listener;
+            this.sampling = sampling;
+            this.listenPort = listenPort;
+            this.eventTypes = eventTypes;
+        }
+
+        private boolean isFor(Integer port) {
+            return listenPort == null || listenPort.equals(port);
+        }
+    }
+
+    static class Index {
+        private final PortIndex anyPort;
+        private final Map<Integer, PortIndex> byPort = new HashMap<>();
+
+        private Index(List<Subscription> subscriptions) {
+            anyPort = new PortIndex(this, subscriptions, null);
+            for (Subscription subscription : subscriptions) {
+                if (subscription.listenPort != null) {
+                    byPort.computeIfAbsent(subscription.listenPort, (port) -> new PortIndex(this, subscriptions, port));
+                }
+            }
+        }
+
+        PortIndex forPort(int listenPort) {
+            return byPort.getOrDefault(listenPort, anyPort);
         }
     }
 
-    public void receivedData(int listenPort, SocketAddress remoteAddress, byte[] data) {
-        for (MoxyListener delegate : delegates) {
-            delegate.receivedData(listenPort, remoteAddress, data);
+    /**
+     * The listeners, in the order they were added, that want to know about each event type on a port
+     */
+    static class PortIndex {
+        final Index index;
+        private final Subscription[][] byEventType = new Subscription[EventType.values().length][];
+
+        private PortIndex(Index index, List<Subscription> subscriptions, Integer listenPort) {
+            this.index = index;
+            for (EventType eventType : EventType.values()) {
+                byEventType[eventType.ordinal()] = subscriptions.stream()
+                        .filter((subscription) -> subscription.isFor(listenPort) && subscription.eventTypes.contains(eventType))
+                        .toArray(Subscription[]::new);
+            }
+        }
+
+        Subscription[] get(EventType eventType) {
+            return byEventType[eventType.ordinal()];
         }
     }
 }
@@ -0,0 +1,313 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.HeavyHitter;
+import moxy.HeavyHittersMXBean;
+import moxy.Log;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Finds the client addresses with the most connections and bytes of a route in constant memory. Every address is
+ * counted in a count-min sketch (a few rows of counters, an address adds to one counter per row and its estimate is
+ * the smallest of them) and only the top K addresses are kept by name, in a min-heap.
+ * <p>
+ * All the counts are halved once every window, so the addresses reported are the ones busy lately.
+ */
+public class HeavyHitters implements HeavyHittersMXBean {
+    private static final Log LOG = Log.get(HeavyHitters.class);
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1024;
+    private volatile Window window;
+    private ObjectName registeredAs;
+
+    /**
+     * @param topK - how many addresses to report, 0 to stop tracking. The counts start over when this or the window changes.
+     */
+    public synchronized void configure(int topK, long windowInMillis) {
+        Window current = window;
+        if (topK == 0) {
+            window = null;
+        } else if (current == null || current.topK != topK || current.windowNanos != TimeUnit.MILLISECONDS.toNanos(windowInMillis)) {
+            window = new Window(topK, TimeUnit.MILLISECONDS.toNanos(windowInMillis));
+        }
+    }
+
+    public boolean isTracking() {
+        return window != null;
+    }
+
+    /**
+     * Count a connection of the client
+     *
+     * @return what to count the bytes of the connection with
+     */
+    public Client connected(SocketAddress remoteAddress) {
+        Window current = window;
+        if (current == null || !(remoteAddress instanceof InetSocketAddress) || ((InetSocketAddress) remoteAddress).getAddress() == null) {
+            return Client.NONE;
+        }
+        Client client = new Client(current, new Key(((InetSocketAddress) remoteAddress).getAddress().getAddress(),
+                ((InetSocketAddress) remoteAddress).getAddress().getHostAddress()));
+        current.decayIfDue();
+        current.connections.add(client.key, 1);
+        return client;
+    }
+
+    public List<HeavyHitter> getByConnections() {
+        return top((current) -> current.connections, HeavyHitter::getConnections);
+    }
+
+    public List<HeavyHitter> getByBytes() {
+        return top((current) -> current.bytes, HeavyHitter::getBytes);
+    }
+
+    private List<HeavyHitter> top(Function<Window, Sketch> ranking, ToLongFunction<HeavyHitter> rankedBy) {
+        Window current = window;
+        if (current == null) {
+            return List.of();
+        }
+        current.decayIfDue();
+        List<HeavyHitter> top = new ArrayList<>();
+        for (Key key : ranking.apply(current).top()) {
+            top.add(new HeavyHitter(key.address, current.connections.estimate(key), current.bytes.estimate(key)));
+        }
+        top.sort(Comparator.comparingLong(rankedBy).reversed());
+        return top;
+    }
+
+    /**
+     * Make the heavy hitters visible over JMX, a name already taken (i.e. by another server in the same JVM) is only logged
+     */
+    public synchronized void register(int listenPort) {
+        if (registeredAs != null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("moxy:type=HeavyHitters,port=" + listenPort);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException e) {
+            LOG.warn("Unable to register the heavy hitters of port [" + listenPort + "] over JMX: " + e.getMessage());
+        }
+    }
+
+    public synchronized void unregister() {
+        if (registeredAs == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+        } catch (JMException e) {
+            LOG.warn("Unable to unregister " + registeredAs + ": " + e.getMessage());
+        }
+        registeredAs = null;
+    }
+
+    /**
+     * Counts the bytes of a single connection. They are added up and only go into the sketch (and maybe the heap) once
+     * enough of them were relayed, a while went by or the connection is closed, not for every chunk relayed. The
+     * first chunk of a connection is counted right away.
+     */
+    public static class Client {
+        static final Client NONE = new Client(null, null);
+        private static final long COUNT_EVERY_BYTES = 64 * 1024;
+        private static final long COUNT_EVERY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+        private final Window window;
+        private final Key key;
+        private final AtomicLong uncounted = new AtomicLong();
+        private volatile long countedAt = System.nanoTime() - COUNT_EVERY_NANOS;
+
+        private Client(Window window, Key key) {
+            this.window = window;
+            this.key = key;
+        }
+
+        public void relayed(long bytes) {
+            if (window != null && bytes > 0
+                    && (uncounted.addAndGet(bytes) >= COUNT_EVERY_BYTES || System.nanoTime() - countedAt >= COUNT_EVERY_NANOS)) {
+                count();
+            }
+        }
+
+        /**
+         * The connection is closed, count whatever it relayed since the last time
+         */
+        public void closed() {
+            if (window != null) {
+                count();
+            }
+        }
+
+        private void count() {
+            countedAt = System.nanoTime();
+            long bytes = uncounted.getAndSet(0);
+            if (bytes > 0) {
+                window.decayIfDue();
+                window.bytes.add(key, bytes);
+            }
+        }
+    }
+
+    private static class Window {
+        private final int topK;
+        private final long windowNanos;
+        private final Sketch connections;
+        private final Sketch bytes;
+        private final AtomicLong nextDecayAt;
+
+        private Window(int topK, long windowNanos) {
+            this.topK = topK;
+            this.windowNanos = windowNanos;
+            this.connections = new Sketch(topK);
+            this.bytes = new Sketch(topK);
+            this.nextDecayAt = new AtomicLong(System.nanoTime() + windowNanos);
+        }
+
+        private void decayIfDue() {
+            long due = nextDecayAt.get();
+            long now = System.nanoTime();
+            if (now - due < 0) {
+                return;
+            }
+            long windows = (now - due) / windowNanos + 1;
+            if (nextDecayAt.compareAndSet(due, due + windows * windowNanos)) {
+                int halvings = (int) Math.min(windows, 63);
+                connections.decay(halvings);
+                bytes.decay(halvings);
+            }
+        }
+    }
+
+    private static class Sketch {
+        private final int topK;
+        private final AtomicLongArray counters = new AtomicLongArray(DEPTH * WIDTH);
+        private final Map<Key, Candidate> candidates = new HashMap<>();
+        private final PriorityQueue<Candidate> heap = new PriorityQueue<>(Comparator.comparingLong((candidate) -> candidate.count));
+        private volatile long floor;
+
+        private Sketch(int topK) {
+            this.topK = topK;
+        }
+
+        private void add(Key key, long amount) {
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                estimate = Math.min(estimate, counters.addAndGet(row * WIDTH + key.columns[row], amount));
+            }
+            if (estimate > floor) {
+                offer(key, estimate);
+            }
+        }
+
+        private long estimate(Key key) {
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                estimate = Math.min(estimate, counters.get(row * WIDTH + key.columns[row]));
+            }
+            return estimate;
+        }
+
+        private synchronized void offer(Key key, long estimate) {
+            Candidate candidate = candidates.get(key);
+            if (candidate != null) {
+                heap.remove(candidate);
+                candidate.count = estimate;
+                heap.add(candidate);
+            } else if (heap.size() < topK || estimate > heap.peek().count) {
+                if (heap.size() == topK) {
+                    candidates.remove(heap.poll().key);
+                }
+                candidate = new Candidate(key, estimate);
+                candidates.put(key, candidate);
+                heap.add(candidate);
+            }
+            floor = heap.size() < topK ? 0 : heap.peek().count;
+        }
+
+        private synchronized List<Key> top() {
+            return new ArrayList<>(candidates.keySet());
+        }
+
+        private synchronized void decay(int halvings) {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.getAndUpdate(i, (count) -> count >> halvings);
+            }
+            candidates.values().forEach((candidate) -> candidate.count >>= halvings);
+            candidates.values().removeIf((candidate) -> candidate.count == 0);
+            heap.clear();
+            heap.addAll(candidates.values());
+            floor = heap.size() < topK ? 0 : heap.peek().count;
+        }
+    }
+
+    private static class Candidate {
+        private final Key key;
+        private long count;
+
+        private Candidate(Key key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    private static class Key {
+        private final String address;
+        private final int hash;
+        private final int[] columns = new int[DEPTH];
+
+        private Key(byte[] address, String name) {
+            this.address = name;
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : address) {
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            this.hash = Long.hashCode(hash);
+            for (int row = 0; row < DEPTH; row++) {
+                columns[row] = (int) (mix(hash + row * 0x9e3779b97f4a7c15L) & (WIDTH - 1));
+            }
+        }
+
+        private static long mix(long value) {
+            value ^= value >>> 33;
+            value *= 0xff51afd7ed558ccdL;
+            value ^= value >>> 33;
+            value *= 0xc4ceb9fe1a85ec53L;
+            return value ^ (value >>> 33);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).address.equals(address);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
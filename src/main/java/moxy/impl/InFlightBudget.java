@@ -0,0 +1,160 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.MemoryBudget;
+import moxy.MemoryStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps count of the data held across the server and makes whoever holds data wait while the server is over its
+ * budget. Without a budget the data is only counted.
+ * <p>
+ * Pressure starts once the total reaches the high watermark and ends once it is back down to the low watermark, in
+ * between only the accounts holding nothing are let through.
+ */
+public class InFlightBudget implements MemoryStats {
+    /**
+     * For the connections outside of any server, held data is counted against a budget nobody looks at and never waits
+     */
+    public static final Account UNCOUNTED = new InFlightBudget().newAccount();
+    private static final long RECHECK_MILLIS = 100L;
+    private final AtomicLong heldBytes = new AtomicLong();
+    private final AtomicLong peakHeldBytes = new AtomicLong();
+    private final LongAdder pauses = new LongAdder();
+    private final LongAdder resumes = new LongAdder();
+    private volatile MemoryBudget budget;
+    private volatile boolean pressure;
+
+    /**
+     * @param budget - null to only count the data held from now on
+     */
+    public synchronized void configure(MemoryBudget budget) {
+        this.budget = budget == null ? null : new MemoryBudget(budget);
+        pressure = this.budget != null && heldBytes.get() >= this.budget.getHighWatermarkBytes();
+        notifyAll();
+    }
+
+    /**
+     * @return an account for a route, its connections get accounts of their own with newAccount()
+     */
+    public Account newAccount() {
+        return new Account(null);
+    }
+
+    private void reserved(long bytes) {
+        long held = heldBytes.addAndGet(bytes);
+        peakHeldBytes.accumulateAndGet(held, Math::max);
+        MemoryBudget current = budget;
+        if (!pressure && current != null && held >= current.getHighWatermarkBytes()) {
+            pressure = true;
+        }
+    }
+
+    private void released(long bytes) {
+        long held = heldBytes.addAndGet(-bytes);
+        if (pressure) {
+            synchronized (this) {
+                MemoryBudget current = budget;
+                if (current == null || held <= current.getLowWatermarkBytes()) {
+                    pressure = false;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    public long getMaxBytes() {
+        MemoryBudget current = budget;
+        return current == null ? 0 : current.getMaxBytes();
+    }
+
+    public long getHeldBytes() {
+        return heldBytes.get();
+    }
+
+    public long getPeakHeldBytes() {
+        return peakHeldBytes.get();
+    }
+
+    public long getPauses() {
+        return pauses.sum();
+    }
+
+    public long getResumes() {
+        return resumes.sum();
+    }
+
+    /**
+     * The data held by a route (its queued listener events) or by one of its connections (its queued writes), a
+     * connection also waits while its route holds data
+     */
+    public class Account {
+        private final Account route;
+        private final AtomicLong held = new AtomicLong();
+
+        private Account(Account route) {
+            this.route = route;
+        }
+
+        /**
+         * @return an account for a connection of this route
+         */
+        public Account newAccount() {
+            return new Account(this);
+        }
+
+        public void reserve(long bytes) {
+            held.addAndGet(bytes);
+            reserved(bytes);
+        }
+
+        public void release(long bytes) {
+            held.addAndGet(-bytes);
+            released(bytes);
+        }
+
+        public long getHeldBytes() {
+            return held.get();
+        }
+
+        /**
+         * Wait while the server is over its budget and this account (or its route) holds data, call it before reading more
+         */
+        public void awaitRoom() {
+            if (!pressure || !holding()) {
+                return;
+            }
+            synchronized (InFlightBudget.this) {
+                if (!pressure || !holding()) {
+                    return;
+                }
+                pauses.increment();
+                try {
+                    while (pressure && holding()) {
+                        InFlightBudget.this.wait(RECHECK_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resumes.increment();
+            }
+        }
+
+        private boolean holding() {
+            return held.get() > 0 || (route != null && route.held.get() > 0);
+        }
+    }
+}
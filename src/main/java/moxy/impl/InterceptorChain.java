@@ -0,0 +1,139 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.Direction;
+import moxy.Interceptor;
+import moxy.Tunnel;
+import moxy.impl.tunnel.Compressing;
+import moxy.impl.tunnel.Inflating;
+import moxy.impl.tunnel.TunnelCounters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The interceptors of a single direction of a single connection, each one passing on to the next and the last one to
+ * whatever writes the data out
+ */
+public class InterceptorChain implements Interceptor.Next {
+    private final Interceptor interceptor;
+    private final Interceptor.Next next;
+
+    private InterceptorChain(Interceptor interceptor, Interceptor.Next next) {
+        this.interceptor = interceptor;
+        this.next = next;
+    }
+
+    /**
+     * @return the chain or null when there are no interceptors, so relaying without any costs nothing
+     */
+    public static InterceptorChain create(List<Supplier<? extends Interceptor>> interceptors, Interceptor.Next writer) {
+        Interceptor.Next next = writer;
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+            next = new InterceptorChain(interceptors.get(i).get(), next);
+        }
+        return next == writer ? null : (InterceptorChain) next;
+    }
+
+    public void send(ByteBuffer data) throws IOException {
+        interceptor.intercept(data, next);
+    }
+
+    /**
+     * Let every interceptor, in order, pass on what it held back for batching
+     */
+    public void flush() throws IOException {
+        interceptor.flush(next);
+        if (next instanceof InterceptorChain) {
+            ((InterceptorChain) next).flush();
+        }
+    }
+
+    /**
+     * Let every interceptor, in order, pass on what it held back
+     */
+    public void finish() throws IOException {
+        interceptor.finish(next);
+        if (next instanceof InterceptorChain) {
+            ((InterceptorChain) next).finish();
+        }
+    }
+
+    /**
+     * The interceptors configured for each direction of a route
+     */
+    public static class PerRoute {
+        public static final PerRoute NONE = new PerRoute(new EnumMap<>(Direction.class));
+        private final Map<Direction, List<Supplier<? extends Interceptor>>> byDirection;
+        private final Tunnel tunnel;
+        private final TunnelCounters tunnelCounters;
+
+        public PerRoute(Map<Direction, List<Supplier<? extends Interceptor>>> byDirection) {
+            this.byDirection = new EnumMap<>(Direction.class);
+            byDirection.forEach((direction, interceptors) -> this.byDirection.put(direction, List.copyOf(interceptors)));
+            this.tunnel = null;
+            this.tunnelCounters = null;
+        }
+
+        private PerRoute(PerRoute other, Tunnel tunnel, TunnelCounters tunnelCounters) {
+            this.byDirection = other.byDirection;
+            this.tunnel = tunnel;
+            this.tunnelCounters = tunnelCounters;
+        }
+
+        /**
+         * @return the same interceptors with the tunnel's compression last (so the others see the plain data) and its
+         * inflation first
+         */
+        public PerRoute withTunnel(Optional<Tunnel> tunnel, TunnelCounters counters) {
+            return tunnel.isPresent() ? new PerRoute(this, tunnel.get(), counters) : this;
+        }
+
+        /**
+         * @param relayed - given the data as the other end of the route sees it, after the interceptors and the tunnel's
+         *                inflation but before its compression, so listeners are not shown deflated bytes
+         * @return a chain with new interceptors for a connection, or null when the direction has none (the data as read
+         * is then the data relayed)
+         */
+        public InterceptorChain newChain(Direction direction, Interceptor.Next writer, Consumer<ByteBuffer> relayed) {
+            List<Supplier<? extends Interceptor>> interceptors = new ArrayList<>(byDirection.getOrDefault(direction, List.of()));
+            Interceptor observing = (data, next) -> {
+                if (data.hasRemaining()) {
+                    relayed.accept(data);
+                    next.send(data);
+                }
+            };
+            if (tunnel != null && (tunnel == Tunnel.ENTRY) == (direction == Direction.CLIENT_TO_SERVER)) {
+                interceptors.add(() -> observing);
+                interceptors.add(() -> new Compressing(direction, tunnelCounters));
+                return create(interceptors, writer);
+            }
+            if (tunnel != null) {
+                interceptors.add(0, () -> new Inflating(direction, tunnelCounters));
+            }
+            if (interceptors.isEmpty()) {
+                return null;
+            }
+            interceptors.add(() -> observing);
+            return create(interceptors, writer);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import java.util.Arrays;
+
+/**
+ * A binary trie over the bits of an address, compiled once into flat arrays. Every node has a child for a 0 and for a
+ * 1 bit and may hold the value of a prefix ending there, a lookup walks at most one node per bit of the address and
+ * returns the value of the longest prefix it passed.
+ */
+public class PrefixTrie {
+    public static final int NONE = -1;
+    private static final int NO_CHILD = 0;
+    private int[] children = new int[2 * 16];
+    private int[] values = new int[16];
+    private int nodes = 1;
+
+    public PrefixTrie() {
+        Arrays.fill(values, NONE);
+    }
+
+    /**
+     * @param value - a non negative value to return for the addresses starting with the prefix
+     * @throws IllegalArgumentException when the prefix already has a value, the first one is kept
+     */
+    public void put(byte[] prefix, int prefixLength, int value) {
+        int node = 0;
+        for (int bit = 0; bit < prefixLength; bit++) {
+            int child = 2 * node + bitAt(prefix, bit);
+            if (children[child] == NO_CHILD) {
+                int created = newNode(); // may grow the arrays, so not assigned in one go
+                children[child] = created;
+            }
+            node = children[child];
+        }
+        if (values[node] != NONE) {
+            throw new IllegalArgumentException("The prefix of " + prefixLength + " bits already has the value " + values[node]);
+        }
+        values[node] = value;
+    }
+
+    /**
+     * @return the value of the longest prefix the address starts with, NONE when there is none
+     */
+    public int longestMatch(byte[] address) {
+        int node = 0;
+        int match = values[0];
+        int bits = address.length * 8;
+        for (int bit = 0; bit < bits; bit++) {
+            node = children[2 * node + bitAt(address, bit)];
+            if (node == NO_CHILD) {
+                break;
+            }
+            if (values[node] != NONE) {
+                match = values[node];
+            }
+        }
+        return match;
+    }
+
+    private int newNode() {
+        if (nodes == values.length) {
+            children = Arrays.copyOf(children, children.length * 2);
+            values = Arrays.copyOf(values, values.length * 2);
+            Arrays.fill(values, nodes, values.length, NONE);
+        }
+        return nodes++;
+    }
+
+    private static int bitAt(byte[] address, int bit) {
+        return (address[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+    }
+}
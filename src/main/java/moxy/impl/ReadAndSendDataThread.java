@@ -12,63 +12,139 @@
  */
 package moxy.impl;
 
+import moxy.CloseReason;
+import moxy.Direction;
+import moxy.Interceptor;
 import moxy.Log;
+import moxy.impl.buffer.BufferAllocator;
+import moxy.impl.buffer.PooledBuffer;
+import moxy.impl.conditions.ConditionedWriter;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 
-public class ReadAndSendDataThread extends Thread {
+public class ReadAndSendDataThread extends Thread implements Interceptor.Next {
     private static final Log LOG = Log.get(ReadAndSendDataThread.class);
-    private final Socket input;
-    private final Socket output;
+    private final SocketChannel input;
+    private final SocketChannel output;
+    private final ConnectionWatch watch;
+    private final ConditionedWriter writer;
+    private final InterceptorChain chain;
+    private final BufferAllocator buffers;
+    private ByteBuffer alreadyRead;
+    private long readAt = ConditionedWriter.UNTIMED;
+
+    public ReadAndSendDataThread(SocketChannel input, SocketChannel output) {
+        this(input, output, new ConnectionWatch(), ConditionedWriter.unconditioned(Direction.CLIENT_TO_SERVER, new ConnectionWatch()));
+    }
+
+    public ReadAndSendDataThread(SocketChannel input, SocketChannel output, ConnectionWatch watch, ConditionedWriter writer) {
+        this(input, output, watch, writer, InterceptorChain.PerRoute.NONE);
+    }
+
+    public ReadAndSendDataThread(SocketChannel input, SocketChannel output, ConnectionWatch watch, ConditionedWriter writer,
+                                 InterceptorChain.PerRoute interceptors) {
+        this(input, output, watch, writer, interceptors, new BufferAllocator());
+    }
 
-    public ReadAndSendDataThread(Socket input, Socket output) {
+    public ReadAndSendDataThread(SocketChannel input, SocketChannel output, ConnectionWatch watch, ConditionedWriter writer,
+                                 InterceptorChain.PerRoute interceptors, BufferAllocator buffers) {
         this.input = input;
+        this.buffers = buffers;
         this.output = output;
+        this.watch = watch;
+        this.writer = writer;
+        this.chain = interceptors.newChain(writer.getDirection(), this, this::sentData);
         setDaemon(true);
         setName("READ FROM: " + input + ", SEND TO: " + output);
     }
 
+    /**
+     * Data that was already read from the input before this thread started, relayed ahead of anything read after it
+     */
+    public void relayFirst(ByteBuffer data, long readAtNanos) {
+        alreadyRead = data;
+        readAt = readAtNanos;
+    }
+
     public void run() {
-        byte[] buffer = new byte[1024 * 10];
+        PooledBuffer pooled = buffers.allocate();
+        ByteBuffer buffer = pooled.buffer();
         int length = -1;
 
-        try (InputStream input = this.input.getInputStream(); OutputStream output = this.output.getOutputStream()) {
+        try {
+            if (alreadyRead != null && alreadyRead.hasRemaining()) {
+                relay(alreadyRead);
+            }
+            buffer.limit(Math.min(buffer.capacity(), writer.getQuotaBytes()));
             while (isStillConnected() && (length = input.read(buffer)) != -1) {
+                readAt = watch.readHappened();
                 LOG.info(getName() + " -- " + length + " bytes of data");
 
-                byte[] dataToSend = new byte[length];
-                System.arraycopy(buffer, 0, dataToSend, 0, length);
-
-                output.write(dataToSend);
-                sentData(dataToSend);
-
-                output.flush();
-                if (LOG.isDebug()) {
-                    LOG.debug(getName() + " -- DATA=[" + new String(dataToSend) + "]");
-                }
-                pause();
+                buffer.flip();
+                relay(buffer);
+                buffer.clear();
+                buffer.limit(Math.min(buffer.capacity(), writer.getQuotaBytes()));
+            }
+            if (length == -1) {
+                watch.closing(writer.getDirection() == Direction.CLIENT_TO_SERVER ? CloseReason.CLIENT_CLOSED : CloseReason.SERVER_CLOSED);
             }
-        } catch (SocketException e) {
-            if (this.input.isClosed()) {
+            if (chain != null && output.isOpen()) {
+                chain.finish();
+            }
+            writer.awaitWritten();
+        } catch (IOException e) {
+            if (!this.input.isOpen()) {
                 LOG.debug("READ FROM: Connection was closed: " + input);
-            } else if (this.output.isClosed()) {
+            } else if (!this.output.isOpen()) {
                 LOG.debug("SEND TO: Connection was closed: " + output);
             } else {
+                watch.closing(CloseReason.ERROR);
                 LOG.error("An error occurred on thread: " + getName(), e);
             }
-        } catch (IOException e) {
-            LOG.error("An error occurred on thread: " + getName(), e);
         } finally {
             LOG.debug("Thread died: " + getName());
+            pooled.release();
             closeConnections();
+            threadDied();
         }
     }
 
-    protected void sentData(byte[] data) {
+    private void relay(ByteBuffer data) throws IOException {
+        if (chain == null) {
+            if (data.hasRemaining()) {
+                sentData(data);
+            }
+            send(data);
+        } else {
+            chain.send(data);
+            if (SocketChannels.available(input) == 0) {
+                chain.flush();
+            }
+        }
+    }
+
+    /**
+     * Where the last interceptor (or the read itself when there are none) hands the data over to be written, which
+     * is not what sentData(...) saw when the tunnel compresses it
+     */
+    public void send(ByteBuffer data) throws IOException {
+        if (!data.hasRemaining()) {
+            return;
+        }
+        if (LOG.isDebug()) {
+            LOG.debug(getName() + " -- DATA=[" + Charset.defaultCharset().decode(data.duplicate()) + "]");
+        }
+        writer.write(output, data, readAt);
+    }
+
+    /**
+     * @param data - the data relayed, as the other end of the route sees it. Only valid during the call and its position
+     *             must be left as is
+     */
+    protected void sentData(ByteBuffer data) {
 
     }
 
@@ -87,25 +163,17 @@ public class ReadAndSendDataThread extends Thread {
         close(output);
     }
 
-    private void close(Socket socket) {
-        if (socket.isConnected()) {
+    private void close(SocketChannel channel) {
+        if (channel.isOpen()) {
             try {
-                socket.close();
-                LOG.info("Closed socket: " + socket);
+                channel.close();
+                LOG.info("Closed channel: " + channel);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    private void pause() {
-        try {
-            Thread.sleep(10L);
-        } catch (InterruptedException e) {
-
-        }
-    }
-
     private boolean isStillConnected() {
         return this.input.isConnected() && this.output.isConnected();
     }
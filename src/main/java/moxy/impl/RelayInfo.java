@@ -12,46 +12,119 @@
  */
 package moxy.impl;
 
-import moxy.MoxyListener;
+import moxy.Direction;
+import moxy.impl.buffer.BufferAllocator;
+import moxy.impl.conditions.ConditionedWriter;
+import moxy.impl.conditions.RouteConditions;
 
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class RelayInfo {
-    private Socket listener;
-    private Socket routeTo;
+public class RelayInfo implements Relay {
+    private final int listenPort;
+    private final SocketAddress routeToAddress;
+    private SocketChannel listener;
+    private SocketChannel routeTo;
     private ReadAndSendDataThread listenerToRouteTo;
     private ReadAndSendDataThread routeToToListener;
+    private final ConnectionWatch watch;
+    private final RouteConditions conditions;
+    private final InterceptorChain.PerRoute interceptors;
+    private final BufferAllocator buffers;
+    private final AtomicInteger directionsRelaying = new AtomicInteger(2);
 
-    public RelayInfo(Socket listener, Socket routeTo) {
+    public RelayInfo(int listenPort, SocketChannel listener, SocketAddress routeToAddress, SocketChannel routeTo) {
+        this(listenPort, listener, routeToAddress, routeTo, new ConnectionWatch(), new RouteConditions());
+    }
+
+    public RelayInfo(int listenPort, SocketChannel listener, SocketAddress routeToAddress, SocketChannel routeTo,
+                     ConnectionWatch watch, RouteConditions conditions) {
+        this(listenPort, listener, routeToAddress, routeTo, watch, conditions, InterceptorChain.PerRoute.NONE);
+    }
+
+    public RelayInfo(int listenPort, SocketChannel listener, SocketAddress routeToAddress, SocketChannel routeTo,
+                     ConnectionWatch watch, RouteConditions conditions, InterceptorChain.PerRoute interceptors) {
+        this(listenPort, listener, routeToAddress, routeTo, watch, conditions, interceptors, new BufferAllocator());
+    }
+
+    public RelayInfo(int listenPort, SocketChannel listener, SocketAddress routeToAddress, SocketChannel routeTo,
+                     ConnectionWatch watch, RouteConditions conditions, InterceptorChain.PerRoute interceptors,
+                     BufferAllocator buffers) {
+        this.buffers = buffers;
+        this.listenPort = listenPort;
         this.listener = listener;
+        this.routeToAddress = routeToAddress;
         this.routeTo = routeTo;
+        this.watch = watch;
+        this.conditions = conditions;
+        this.interceptors = interceptors;
+    }
+
+    public void startRelaying(final ConnectionDispatch dispatchListener) {
+        startRelaying(dispatchListener, null, ConditionedWriter.UNTIMED);
     }
 
-    public void startRelaying(final MoxyListener dispatchListener) {
-        listenerToRouteTo = new ReadAndSendDataThread(listener, routeTo) {
-            protected void sentData(byte[] data) {
-                dispatchListener.sentData(listener.getLocalPort(), routeTo.getRemoteSocketAddress(), data);
+    /**
+     * @param alreadyRead - data already read from the client, relayed to the route server (through the interceptors)
+     *                    before anything else
+     */
+    public void startRelaying(final ConnectionDispatch dispatchListener, ByteBuffer alreadyRead, long readAtNanos) {
+        listenerToRouteTo = new ReadAndSendDataThread(listener, routeTo, watch, writer(Direction.CLIENT_TO_SERVER), interceptors, buffers) {
+            protected void sentData(ByteBuffer data) {
+                dispatchListener.sentData(listenPort, routeToAddress, data);
             }
 
             protected void threadDied() {
-                stopRelaying();
+                directionFinished();
             }
         };
 
-        routeToToListener = new ReadAndSendDataThread(routeTo, listener) {
-            protected void sentData(byte[] data) {
-                dispatchListener.receivedData(listener.getLocalPort(), routeTo.getRemoteSocketAddress(), data);
+        routeToToListener = new ReadAndSendDataThread(routeTo, listener, watch, writer(Direction.SERVER_TO_CLIENT), interceptors, buffers) {
+            protected void sentData(ByteBuffer data) {
+                dispatchListener.receivedData(listenPort, routeToAddress, data);
             }
 
             protected void threadDied() {
-                stopRelaying();
+                directionFinished();
             }
         };
 
+        if (alreadyRead != null) {
+            listenerToRouteTo.relayFirst(alreadyRead, readAtNanos);
+        }
+        watch.closeWith(routeToAddress, this::closeChannels);
+
         listenerToRouteTo.start();
         routeToToListener.start();
     }
 
+    public void awaitFinish(long deadlineInMillis) {
+        ThreadKiller.waitUntil(listenerToRouteTo, deadlineInMillis);
+        ThreadKiller.waitUntil(routeToToListener, deadlineInMillis);
+    }
+
+    private ConditionedWriter writer(Direction direction) {
+        return new ConditionedWriter(conditions, direction, watch, this::closeChannels, this::resetChannels);
+    }
+
+    private void resetChannels() {
+        SocketChannels.resetQuietly(listener);
+        SocketChannels.resetQuietly(routeTo);
+    }
+
+    private void directionFinished() {
+        if (directionsRelaying.decrementAndGet() == 0) {
+            watch.finished();
+        }
+    }
+
+    private void closeChannels() {
+        SocketChannels.closeQuietly(listener);
+        SocketChannels.closeQuietly(routeTo);
+    }
+
     public void stopRelaying() {
         ThreadKiller.killAndWait(listenerToRouteTo);
         ThreadKiller.killAndWait(routeToToListener);
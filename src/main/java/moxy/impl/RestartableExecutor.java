@@ -0,0 +1,63 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Hands the tasks to an executor that is only created when the first task comes along. Shutting down stops its threads
+ * and the next task gets a new one, so whatever holds on to this keeps working when the server is started again.
+ */
+public class RestartableExecutor implements Executor {
+    private final Supplier<ExecutorService> factory;
+    private volatile ExecutorService current;
+
+    public RestartableExecutor(Supplier<ExecutorService> factory) {
+        this.factory = factory;
+    }
+
+    public void execute(Runnable task) {
+        ExecutorService executor = current;
+        if (executor == null) {
+            synchronized (this) {
+                executor = current;
+                if (executor == null) {
+                    executor = factory.get();
+                    current = executor;
+                }
+            }
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (executor == current) {
+                throw e;
+            }
+            // shut down in the meantime
+            execute(task);
+        }
+    }
+
+    /**
+     * The tasks already running are let finish
+     */
+    public synchronized void shutdown() {
+        if (current != null) {
+            current.shutdown();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.Tunnel;
+import moxy.impl.http.HttpResponseCache;
+import moxy.impl.http.UpstreamConnectionPool;
+import moxy.impl.sniff.ContentRouter;
+import moxy.impl.tls.TlsEndpoint;
+import moxy.impl.tunnel.MultiplexedTunnel;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Optional;
+
+/**
+ * Where a listening address sends its connections and how. A route never changes once built, so the accept path can
+ * read the current one without locking and a connection keeps using the route it was accepted with even if the
+ * listening address is rerouted while it is in flight.
+ */
+public class Route {
+    private final SocketAddress socketAddress;
+    private final boolean rangeOfServers;
+    private final Optional<ContentRouter> contentRouter;
+    private final RouteOptions options;
+    private final Optional<UpstreamConnectionPool> httpConnectionPool;
+    private final Optional<HttpResponseCache> httpResponseCache;
+    private final InterceptorChain.PerRoute interceptors;
+    private final Optional<MultiplexedTunnel> multiplexedTunnel;
+    private final Optional<TlsEndpoint> tlsTermination;
+    private final Optional<TlsEndpoint> tlsOrigination;
+
+    private Route(SocketAddress socketAddress, boolean rangeOfServers, Optional<ContentRouter> contentRouter, RouteOptions options) {
+        this.socketAddress = socketAddress;
+        this.rangeOfServers = rangeOfServers;
+        this.contentRouter = contentRouter;
+        this.options = new RouteOptions(options);
+        this.options.validate();
+        if (contentRouter.isPresent() && this.options.isHttp()) {
+            throw new IllegalArgumentException("Content based routes can not be HTTP routes");
+        }
+        if (contentRouter.isPresent() && this.options.getTunnel().equals(Optional.of(Tunnel.EXIT))) {
+            throw new IllegalArgumentException("The exit of a tunnel can not be content based, the data it reads is compressed");
+        }
+        if (contentRouter.isPresent() && this.options.getTlsTermination().isPresent()) {
+            throw new IllegalArgumentException("Content based routes can not terminate TLS, the content is sniffed before the handshake");
+        }
+        if (rangeOfServers && (this.options.isHttp() || this.options.isMultiplexed())) {
+            throw new IllegalArgumentException("A range of route servers can not share an HTTP connection pool or a multiplexed tunnel, use andConnectTo(...) instead");
+        }
+        if (contentRouter.isPresent() && this.options.isMultiplexed()) {
+            throw new IllegalArgumentException("A multiplexed tunnel can not be content based, all its connections go to the EXIT");
+        }
+
+        httpConnectionPool = this.options.isHttp()
+                ? Optional.of(new UpstreamConnectionPool(socketAddress, this.options.getMaxHttpUpstreamConnections()))
+                : Optional.empty();
+        interceptors = this.options.getInterceptors();
+        tlsTermination = this.options.getTlsTermination().map(TlsEndpoint::terminating);
+        tlsOrigination = this.options.getTlsOrigination().map(TlsEndpoint::originating);
+        multiplexedTunnel = this.options.isMultiplexed() && this.options.getTunnel().equals(Optional.of(Tunnel.ENTRY))
+                ? Optional.of(new MultiplexedTunnel(socketAddress, this.options.getMultiplexedConnections()))
+                : Optional.empty();
+        httpResponseCache = this.options.hasResponseCache()
+                ? Optional.of(new HttpResponseCache(this.options.getResponseCacheMaxBytes()))
+                : Optional.empty();
+    }
+
+    /**
+     * @throws IllegalArgumentException when the route tells its clients apart by address but listens on a Unix domain
+     *                                  socket, whose clients have none (so an access list could never deny anybody)
+     */
+    public void assertCanListenOn(SocketAddress addressToListenOn) {
+        if (!SocketChannels.isUnixDomain(addressToListenOn)) {
+            return;
+        }
+        if (options.getAccessList().isPresent()) {
+            throw withoutClientAddresses(addressToListenOn, "an access list");
+        }
+        if (options.getClientLimits().isPresent()) {
+            throw withoutClientAddresses(addressToListenOn, "client limits");
+        }
+        if (options.getHeavyHittersTopK() > 0) {
+            throw withoutClientAddresses(addressToListenOn, "heavy hitters");
+        }
+    }
+
+    public static IllegalArgumentException withoutClientAddresses(SocketAddress addressToListenOn, String needingThem) {
+        return new IllegalArgumentException("The route on [" + addressToListenOn + "] can not have " + needingThem
+                + ", the clients of a Unix domain socket have no address");
+    }
+
+    public static Route to(SocketAddress socketAddress, RouteOptions options) {
+        SocketChannels.assertSupported(socketAddress);
+        return new Route(socketAddress, false, Optional.empty(), options);
+    }
+
+    /**
+     * @param firstAddress - where connections on the first port of the listening range go, the next port goes to the
+     *                     next route server port and so on
+     */
+    public static Route toRange(InetSocketAddress firstAddress, RouteOptions options) {
+        return new Route(firstAddress, true, Optional.empty(), options);
+    }
+
+    public static Route by(ContentRouter contentRouter, RouteOptions options) {
+        return new Route(contentRouter.getFallback().orElse(null), false, Optional.of(contentRouter), options);
+    }
+
+    /**
+     * @return the same route with a new connection pool and response cache, for when a listener is started again
+     */
+    public Route withFreshResources() {
+        return new Route(socketAddress, rangeOfServers, contentRouter, options);
+    }
+
+    /**
+     * The address connections are sent to, for content based routes this is the fallback (if any)
+     */
+    public SocketAddress getSocketAddress() {
+        return socketAddress;
+    }
+
+    /**
+     * @param listenPortOffset - how far into the listening port range the connection came in, 0 for a single port
+     * @return the address connections are sent to, for a range of route servers the one matching the listening port
+     */
+    public SocketAddress getSocketAddress(int listenPortOffset) {
+        if (!rangeOfServers || listenPortOffset == 0) {
+            return socketAddress;
+        }
+        InetSocketAddress first = (InetSocketAddress) socketAddress;
+        return first.isUnresolved()
+                ? InetSocketAddress.createUnresolved(first.getHostString(), first.getPort() + listenPortOffset)
+                : new InetSocketAddress(first.getAddress(), first.getPort() + listenPortOffset);
+    }
+
+    public Optional<ContentRouter> getContentRouter() {
+        return contentRouter;
+    }
+
+    public RouteOptions getOptions() {
+        return new RouteOptions(options);
+    }
+
+    public Optional<UpstreamConnectionPool> getHttpConnectionPool() {
+        return httpConnectionPool;
+    }
+
+    public Optional<Tunnel> getTunnel() {
+        return options.getTunnel();
+    }
+
+    /**
+     * @return where the client connections go when this is the ENTRY of a multiplexed tunnel
+     */
+    public Optional<MultiplexedTunnel> getMultiplexedTunnel() {
+        return multiplexedTunnel;
+    }
+
+    /**
+     * @return whether connections accepted by this route are tunnel connections from the ENTRY of a multiplexed tunnel
+     */
+    public boolean isMultiplexedExit() {
+        return options.isMultiplexed() && options.getTunnel().equals(Optional.of(Tunnel.EXIT));
+    }
+
+    /**
+     * @return how to speak TLS with the clients, when the route terminates TLS
+     */
+    public Optional<TlsEndpoint> getTlsTermination() {
+        return tlsTermination;
+    }
+
+    /**
+     * @return how to speak TLS with the route server, when the route originates TLS
+     */
+    public Optional<TlsEndpoint> getTlsOrigination() {
+        return tlsOrigination;
+    }
+
+    public InterceptorChain.PerRoute getInterceptors() {
+        return interceptors;
+    }
+
+    public Optional<HttpResponseCache> getHttpResponseCache() {
+        return httpResponseCache;
+    }
+
+    /**
+     * Stop pooling connections, any relays still using this route carry on but their connections are not reused
+     */
+    public void close() {
+        httpConnectionPool.ifPresent(UpstreamConnectionPool::close);
+        multiplexedTunnel.ifPresent(MultiplexedTunnel::close);
+    }
+
+    public String toString() {
+        if (rangeOfServers) {
+            return "range starting at " + socketAddress;
+        }
+        return contentRouter.isPresent() ? "content routes (otherwise " + socketAddress + ")" : String.valueOf(socketAddress);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.ConnectionTimeout;
+import moxy.RouteStats;
+import moxy.impl.http.ResponseCacheCounters;
+import moxy.impl.tls.TlsCounters;
+import moxy.impl.tunnel.TunnelCounters;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class RouteCounters implements RouteStats {
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final Map<ConnectionTimeout, LongAdder> timeouts = new EnumMap<>(ConnectionTimeout.class);
+    private final TunnelCounters tunnel = new TunnelCounters();
+    private final TlsCounters tlsTermination = new TlsCounters();
+    private final TlsCounters tlsOrigination = new TlsCounters();
+    private final ResponseCacheCounters responseCache = new ResponseCacheCounters();
+
+    public RouteCounters() {
+        for (ConnectionTimeout timeout : ConnectionTimeout.values()) {
+            timeouts.put(timeout, new LongAdder());
+        }
+    }
+
+    public void connectionAccepted() {
+        connectionsAccepted.increment();
+        activeConnections.increment();
+    }
+
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public void timedOut(ConnectionTimeout timeout) {
+        timeouts.get(timeout).increment();
+    }
+
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public long getConnectionsRejected() {
+        return connectionsRejected.sum();
+    }
+
+    public long getTimeouts(ConnectionTimeout timeout) {
+        return timeouts.get(timeout).sum();
+    }
+
+    public TunnelCounters getTunnel() {
+        return tunnel;
+    }
+
+    public TlsCounters getTlsTermination() {
+        return tlsTermination;
+    }
+
+    public TlsCounters getTlsOrigination() {
+        return tlsOrigination;
+    }
+
+    public ResponseCacheCounters getResponseCache() {
+        return responseCache;
+    }
+}
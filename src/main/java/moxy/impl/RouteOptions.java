@@ -0,0 +1,297 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.AccessList;
+import moxy.ClientLimits;
+import moxy.Direction;
+import moxy.Interceptor;
+import moxy.NetworkConditions;
+import moxy.Priority;
+import moxy.Tls;
+import moxy.Tunnel;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * The optional behaviors a route can be configured with
+ */
+public class RouteOptions {
+    public static final int DEFAULT_QUOTA_BYTES = 64 * 1024;
+    private int maxHttpUpstreamConnections;
+    private long responseCacheMaxBytes;
+    private long idleReadTimeoutInMillis;
+    private long idleWriteTimeoutInMillis;
+    private long maxLifetimeInMillis;
+    private Map<Direction, NetworkConditions> networkConditions = new EnumMap<>(Direction.class);
+    private Map<Direction, List<Supplier<? extends Interceptor>>> interceptors = new EnumMap<>(Direction.class);
+    private Tunnel tunnel;
+    private int multiplexedConnections;
+    private Tls tlsTermination;
+    private Tls tlsOrigination;
+    private Priority priority = Priority.NORMAL;
+    private int quotaBytes = DEFAULT_QUOTA_BYTES;
+    private int heavyHittersTopK;
+    private long heavyHittersWindowInMillis;
+    private ClientLimits clientLimits;
+    private AccessList accessList;
+
+    public RouteOptions() {
+    }
+
+    public RouteOptions(RouteOptions other) {
+        this.maxHttpUpstreamConnections = other.maxHttpUpstreamConnections;
+        this.responseCacheMaxBytes = other.responseCacheMaxBytes;
+        this.idleReadTimeoutInMillis = other.idleReadTimeoutInMillis;
+        this.idleWriteTimeoutInMillis = other.idleWriteTimeoutInMillis;
+        this.maxLifetimeInMillis = other.maxLifetimeInMillis;
+        this.networkConditions = new EnumMap<>(other.networkConditions);
+        this.tunnel = other.tunnel;
+        this.multiplexedConnections = other.multiplexedConnections;
+        this.tlsTermination = other.tlsTermination;
+        this.tlsOrigination = other.tlsOrigination;
+        this.priority = other.priority;
+        this.quotaBytes = other.quotaBytes;
+        this.heavyHittersTopK = other.heavyHittersTopK;
+        this.heavyHittersWindowInMillis = other.heavyHittersWindowInMillis;
+        this.clientLimits = other.clientLimits;
+        this.accessList = other.accessList;
+        other.interceptors.forEach((direction, list) -> this.interceptors.put(direction, new ArrayList<>(list)));
+    }
+
+    public boolean isHttp() {
+        return maxHttpUpstreamConnections > 0;
+    }
+
+    public int getMaxHttpUpstreamConnections() {
+        return maxHttpUpstreamConnections;
+    }
+
+    public void setMaxHttpUpstreamConnections(int maxHttpUpstreamConnections) {
+        if (maxHttpUpstreamConnections < 1) {
+            throw new IllegalArgumentException("An HTTP route needs at least one upstream connection, but was given: " + maxHttpUpstreamConnections);
+        }
+        this.maxHttpUpstreamConnections = maxHttpUpstreamConnections;
+    }
+
+    public boolean hasResponseCache() {
+        return responseCacheMaxBytes > 0;
+    }
+
+    public long getResponseCacheMaxBytes() {
+        return responseCacheMaxBytes;
+    }
+
+    public void setResponseCacheMaxBytes(long responseCacheMaxBytes) {
+        if (responseCacheMaxBytes < 1) {
+            throw new IllegalArgumentException("The response cache needs room for at least one byte, but was given: " + responseCacheMaxBytes);
+        }
+        this.responseCacheMaxBytes = responseCacheMaxBytes;
+    }
+
+    public long getIdleReadTimeoutInMillis() {
+        return idleReadTimeoutInMillis;
+    }
+
+    public void setIdleReadTimeoutInMillis(long idleReadTimeoutInMillis) {
+        this.idleReadTimeoutInMillis = assertTimeout("idle read", idleReadTimeoutInMillis);
+    }
+
+    public long getIdleWriteTimeoutInMillis() {
+        return idleWriteTimeoutInMillis;
+    }
+
+    public void setIdleWriteTimeoutInMillis(long idleWriteTimeoutInMillis) {
+        this.idleWriteTimeoutInMillis = assertTimeout("idle write", idleWriteTimeoutInMillis);
+    }
+
+    public long getMaxLifetimeInMillis() {
+        return maxLifetimeInMillis;
+    }
+
+    public void setMaxLifetimeInMillis(long maxLifetimeInMillis) {
+        this.maxLifetimeInMillis = assertTimeout("max lifetime", maxLifetimeInMillis);
+    }
+
+    public NetworkConditions getNetworkConditions(Direction direction) {
+        return networkConditions.get(direction);
+    }
+
+    public void setNetworkConditions(Direction direction, NetworkConditions conditions) {
+        if (direction == null) {
+            throw new IllegalArgumentException("A direction is required");
+        }
+        if (conditions == null) {
+            networkConditions.remove(direction);
+        } else {
+            networkConditions.put(direction, new NetworkConditions(conditions));
+        }
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("A priority is required");
+        }
+        this.priority = priority;
+    }
+
+    public int getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public void setQuotaBytes(int quotaBytes) {
+        if (quotaBytes < 1) {
+            throw new IllegalArgumentException("The quota needs at least 1 byte, but was given: " + quotaBytes);
+        }
+        this.quotaBytes = quotaBytes;
+    }
+
+    /**
+     * @return how many heavy hitters to track, 0 when they are not
+     */
+    public int getHeavyHittersTopK() {
+        return heavyHittersTopK;
+    }
+
+    public long getHeavyHittersWindowInMillis() {
+        return heavyHittersWindowInMillis;
+    }
+
+    public void setHeavyHitters(int topK, long windowInMillis) {
+        if (topK < 1 || windowInMillis < 1) {
+            throw new IllegalArgumentException("Tracking heavy hitters needs a top K of at least 1 and a window of at least 1ms, but was given: topK "
+                    + topK + ", window " + windowInMillis + "ms");
+        }
+        this.heavyHittersTopK = topK;
+        this.heavyHittersWindowInMillis = windowInMillis;
+    }
+
+    public Optional<ClientLimits> getClientLimits() {
+        return Optional.ofNullable(clientLimits);
+    }
+
+    public void setClientLimits(ClientLimits clientLimits) {
+        if (clientLimits == null) {
+            throw new IllegalArgumentException("The client limits are required");
+        }
+        this.clientLimits = new ClientLimits(clientLimits);
+    }
+
+    public Optional<AccessList> getAccessList() {
+        return Optional.ofNullable(accessList);
+    }
+
+    public void setAccessList(AccessList accessList) {
+        if (accessList == null) {
+            throw new IllegalArgumentException("The access list is required");
+        }
+        this.accessList = new AccessList(accessList);
+    }
+
+    public InterceptorChain.PerRoute getInterceptors() {
+        return interceptors.isEmpty() ? InterceptorChain.PerRoute.NONE : new InterceptorChain.PerRoute(interceptors);
+    }
+
+    public void addInterceptor(Direction direction, Supplier<? extends Interceptor> interceptor) {
+        if (direction == null) {
+            throw new IllegalArgumentException("A direction is required");
+        }
+        if (interceptor == null) {
+            throw new IllegalArgumentException("An interceptor is required");
+        }
+        interceptors.computeIfAbsent(direction, key -> new ArrayList<>()).add(interceptor);
+    }
+
+    public Optional<Tunnel> getTunnel() {
+        return Optional.ofNullable(tunnel);
+    }
+
+    public void setTunnel(Tunnel tunnel) {
+        if (tunnel == null) {
+            throw new IllegalArgumentException("A tunnel end is required");
+        }
+        this.tunnel = tunnel;
+    }
+
+    public boolean isMultiplexed() {
+        return multiplexedConnections > 0;
+    }
+
+    public int getMultiplexedConnections() {
+        return multiplexedConnections;
+    }
+
+    public void setMultiplexedConnections(int multiplexedConnections) {
+        if (multiplexedConnections < 1) {
+            throw new IllegalArgumentException("A multiplexed tunnel needs at least one connection, but was given: " + multiplexedConnections);
+        }
+        this.multiplexedConnections = multiplexedConnections;
+    }
+
+    public Optional<Tls> getTlsTermination() {
+        return Optional.ofNullable(tlsTermination);
+    }
+
+    public void setTlsTermination(Tls tls) {
+        this.tlsTermination = new Tls(assertTls(tls));
+    }
+
+    public Optional<Tls> getTlsOrigination() {
+        return Optional.ofNullable(tlsOrigination);
+    }
+
+    public void setTlsOrigination(Tls tls) {
+        this.tlsOrigination = new Tls(assertTls(tls));
+    }
+
+    public void validate() {
+        if (hasResponseCache() && !isHttp()) {
+            throw new IllegalArgumentException("A response cache can only be used on an HTTP route, see RouteTo.asHttp(...)");
+        }
+        if (!interceptors.isEmpty() && isHttp()) {
+            throw new IllegalArgumentException("Interceptors can not be used on an HTTP route, the requests and responses are already parsed");
+        }
+        if (tunnel != null && isHttp()) {
+            throw new IllegalArgumentException("A tunnel can not be an HTTP route, the compressed data is not HTTP");
+        }
+        if (isMultiplexed() && tunnel == null) {
+            throw new IllegalArgumentException("Only a tunnel can be multiplexed, see RouteTo.asTunnel(...)");
+        }
+        if (isMultiplexed() && (!interceptors.isEmpty() || !networkConditions.isEmpty())) {
+            throw new IllegalArgumentException("Interceptors and network conditions can not be used on a multiplexed tunnel");
+        }
+    }
+
+    private static Tls assertTls(Tls tls) {
+        if (tls == null) {
+            throw new IllegalArgumentException("The TLS settings are required");
+        }
+        return tls;
+    }
+
+    private static long assertTimeout(String name, long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("The " + name + " timeout needs to be at least 1 millisecond, but was given: " + millis);
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.Priority;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server wide rate the connections share, see MoxyServer.useSharedBandwidth(...). Every write takes a turn, which
+ * holds the next one back for as long as its bytes take at the shared rate.
+ * <p>
+ * The turns are given out by deficit round robin within a priority class, and to a class only once the higher ones have
+ * nobody waiting. Each time a connection gets to the front of its class it is credited its quota (see
+ * MoxyServer.RouteTo.withQuota(...)) and keeps its place for as long as the credit covers its writes, after that it
+ * queues up again behind the others. Under contention each connection gets the bandwidth in proportion to its quota,
+ * however small its writes are. Without a rate the turns are given out right away.
+ */
+public class SharedBandwidth {
+    /**
+     * For the connections outside of any server, which never wait for a turn
+     */
+    public static final SharedBandwidth UNLIMITED = new SharedBandwidth();
+    private final Deque<Object>[] waiting = newWaiting();
+    private volatile long bytesPerSecond;
+    private long freeAt;
+
+    /**
+     * @param bytesPerSecond - the rate to share, 0 to give out the turns right away again
+     */
+    public synchronized void configure(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("The shared bandwidth can not be negative, but was given: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        notifyAll();
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Wait for the turn to write the given bytes
+     *
+     * @param share      - the credit of the connection (direction) writing
+     * @param quotaBytes - what the connection is credited each round
+     */
+    public void take(Share share, Priority priority, int quotaBytes, int bytes) throws InterruptedException {
+        if (!isLimited()) {
+            return;
+        }
+        Object turn = new Object();
+        Deque<Object> queue = waiting[priority.ordinal()];
+        synchronized (this) {
+            if (share.deficit >= bytes) {
+                queue.addFirst(turn);
+            } else {
+                queue.addLast(turn);
+            }
+            try {
+                while (isLimited()) {
+                    long wait = next() == turn ? freeAt - System.nanoTime() : 0;
+                    if (next() == turn && wait <= 0) {
+                        break;
+                    }
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                    } else {
+                        wait();
+                    }
+                }
+            } finally {
+                queue.remove(turn);
+                notifyAll();
+            }
+            if (share.deficit < bytes) {
+                share.deficit += Math.max(quotaBytes, bytes);
+            }
+            share.deficit -= bytes;
+            long current = bytesPerSecond;
+            if (current > 0) {
+                freeAt = Math.max(System.nanoTime(), freeAt) + TimeUnit.SECONDS.toNanos(bytes) / current;
+            }
+        }
+    }
+
+    private Object next() {
+        for (Deque<Object> queue : waiting) {
+            Object turn = queue.peekFirst();
+            if (turn != null) {
+                return turn;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Deque<Object>[] newWaiting() {
+        Deque<Object>[] waiting = (Deque<Object>[]) new Deque<?>[Priority.values().length];
+        for (int i = 0; i < waiting.length; i++) {
+            waiting[i] = new ArrayDeque<>();
+        }
+        return waiting;
+    }
+
+    /**
+     * What is left of a connection's credit for the round, only touched while holding the SharedBandwidth
+     */
+    public static class Share {
+        private long deficit;
+    }
+}
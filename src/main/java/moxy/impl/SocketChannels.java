@@ -0,0 +1,149 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * Opens channels for either TCP or Unix domain socket addresses so the rest of the relay does not need to care
+ */
+public class SocketChannels {
+    public static final int UNIX_DOMAIN_PORT = -1;
+
+    public static void assertSupported(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress) && !(address instanceof UnixDomainSocketAddress)) {
+            throw new IllegalArgumentException("Only TCP and Unix domain socket addresses are supported, but was given: " + address);
+        }
+    }
+
+    public static boolean isUnixDomain(SocketAddress address) {
+        return address instanceof UnixDomainSocketAddress;
+    }
+
+    public static int portOf(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            return ((InetSocketAddress) address).getPort();
+        }
+        return UNIX_DOMAIN_PORT;
+    }
+
+    public static ServerSocketChannel bind(SocketAddress address) throws IOException {
+        ServerSocketChannel channel;
+        if (isUnixDomain(address)) {
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            channel = ServerSocketChannel.open();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        }
+
+        try {
+            channel.bind(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    public static SocketChannel connect(SocketAddress address) throws IOException {
+        SocketChannel channel;
+        if (isUnixDomain(address)) {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        }
+
+        try {
+            channel.connect(address);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    public static void writeFully(SocketChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    /**
+     * @return how many bytes can be read from a blocking channel right away, 0 when that can not be told (i.e. for Unix
+     * domain sockets)
+     */
+    public static int available(SocketChannel channel) {
+        if (isUnixDomain(address(channel))) {
+            return 0;
+        }
+        try {
+            return channel.socket().getInputStream().available();
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static SocketAddress address(SocketChannel channel) {
+        try {
+            return channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void closeQuietly(SocketChannel channel) {
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+
+            }
+        }
+    }
+
+    /**
+     * Close the channel with a RST instead of a FIN (Unix domain sockets have no such thing and are just closed)
+     */
+    public static void resetQuietly(SocketChannel channel) {
+        if (channel != null && channel.isOpen()) {
+            try {
+                if (channel.supportedOptions().contains(StandardSocketOptions.SO_LINGER)) {
+                    channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                }
+            } catch (IOException e) {
+
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    public static void unlinkIfUnixDomain(SocketAddress address) {
+        if (isUnixDomain(address)) {
+            try {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            } catch (IOException e) {
+
+            }
+        }
+    }
+}
@@ -23,4 +23,15 @@ public class ThreadKiller {
             }
         }
     }
+
+    public static void waitUntil(Thread thread, long deadlineInMillis) {
+        long remaining = deadlineInMillis - System.currentTimeMillis();
+        if (thread != null && Thread.currentThread() != thread && remaining > 0) {
+            try {
+                thread.join(remaining);
+            } catch (InterruptedException e) {
+
+            }
+        }
+    }
 }
@@ -0,0 +1,202 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hashed timer wheel so any number of connections can have deadlines without a timer (or thread) each.
+ * <p>
+ * Scheduling and cancelling only touch a lock free queue and a flag; the single worker thread owns the wheel, runs
+ * the expired tasks and goes away whenever there is nothing left to wait for.
+ */
+public class TimerWheel {
+    private static final Log LOG = Log.get(TimerWheel.class);
+    public static final long DEFAULT_TICK_IN_MILLIS = 10L;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    private final long tickInNanos;
+    private final Queue<Timeout>[] buckets;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong shutdowns = new AtomicLong();
+    private final long startTime = System.nanoTime();
+    // only touched by the worker thread
+    private long tick;
+    private long shutdownsSeen;
+
+    public TimerWheel() {
+        this(DEFAULT_TICK_IN_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickInMillis, int wheelSize) {
+        if (tickInMillis < 1) {
+            throw new IllegalArgumentException("A tick needs to be at least 1 millisecond, but was given: " + tickInMillis);
+        }
+        if (wheelSize < 1 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("The wheel size needs to be a power of two, but was given: " + wheelSize);
+        }
+        this.tickInNanos = TimeUnit.MILLISECONDS.toNanos(tickInMillis);
+        this.mask = wheelSize - 1;
+        this.buckets = (Queue<Timeout>[]) new Queue<?>[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @param task - ran on the timer thread so it should be quick and must not block
+     */
+    public Timeout schedule(Runnable task, long delayInMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayInMillis)));
+        pending.incrementAndGet();
+        added.add(timeout);
+        if (running.compareAndSet(false, true)) {
+            Thread worker = new Thread(this::work, "MOXY-timer-wheel");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        return timeout;
+    }
+
+    /**
+     * Cancel every timeout scheduled so far, the worker thread goes away on its next tick. Scheduling again afterwards
+     * starts a new one.
+     */
+    public void shutdown() {
+        shutdowns.incrementAndGet();
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    private void work() {
+        tick = (System.nanoTime() - startTime) / tickInNanos;
+        while (true) {
+            waitForNextTick();
+            transferAdded();
+            cancelShutDown();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+
+            if (pending.get() == 0) {
+                running.set(false);
+                if (added.isEmpty() || !running.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void waitForNextTick() {
+        long deadline = startTime + (tick + 1) * tickInNanos;
+        long sleep;
+        while ((sleep = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            } catch (InterruptedException e) {
+
+            }
+        }
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long ticks = Math.max(tick, (timeout.deadline - startTime + tickInNanos - 1) / tickInNanos);
+            timeout.rounds = (ticks - tick) / buckets.length;
+            buckets[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void cancelShutDown() {
+        long current = shutdowns.get();
+        if (current == shutdownsSeen) {
+            return;
+        }
+        shutdownsSeen = current;
+        for (Queue<Timeout> bucket : buckets) {
+            bucket.removeIf((timeout) -> timeout.shutdowns < current && (timeout.cancelled || timeout.cancel()));
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.rounds <= 0) {
+                iterator.remove();
+                if (timeout.expire()) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        LOG.error("A timer task failed", e);
+                    }
+                }
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    public class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final long shutdowns = TimerWheel.this.shutdowns.get();
+        private volatile boolean cancelled;
+        private long rounds;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task already ran (or is running)
+         */
+        public boolean cancel() {
+            if (done.compareAndSet(false, true)) {
+                cancelled = true;
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean expire() {
+            if (done.compareAndSet(false, true)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
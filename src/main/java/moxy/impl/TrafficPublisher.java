@@ -0,0 +1,216 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.Backpressure;
+import moxy.Chunk;
+import moxy.ConnectionSummary;
+import moxy.Direction;
+import moxy.EventType;
+import moxy.MoxyListener;
+import moxy.TrafficStream;
+
+import java.net.SocketAddress;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * Publishes the chunks of a route, or a single connection of it, to Flow subscribers. The relay threads hand the
+ * chunks over and the subscribers are called from the shared delivery threads.
+ * <p>
+ * The chunks waiting on a subscriber are counted against the route's memory budget until they are delivered, dropped
+ * or the subscriber goes away.
+ */
+public class TrafficPublisher extends MoxyListener implements TrafficStream {
+    private final DispatchListener dispatchListener;
+    private final Long connectionId;
+    private final Backpressure backpressure;
+    private final SubmissionPublisher<Chunk> publisher;
+    private final InFlightBudget.Account budget;
+    private final List<Accounted> subscribers = new CopyOnWriteArrayList<>();
+    private final LongAdder droppedChunks = new LongAdder();
+    private final BiPredicate<Flow.Subscriber<? super Chunk>, Chunk> drop = (subscriber, chunk) -> {
+        droppedChunks.increment();
+        ((Accounted) subscriber).handedOver(chunk);
+        return false;
+    };
+
+    private TrafficPublisher(DispatchListener dispatchListener, Long connectionId, Backpressure backpressure, InFlightBudget.Account budget,
+                             Executor delivery) {
+        this.dispatchListener = dispatchListener;
+        this.connectionId = connectionId;
+        this.backpressure = backpressure;
+        this.budget = budget;
+        this.publisher = new SubmissionPublisher<>(delivery, backpressure.getMaxBufferedChunks());
+    }
+
+    /**
+     * @param delivery - where the chunks are handed to the subscribers, see newDeliveryExecutor()
+     */
+    public static TrafficPublisher forRoute(DispatchListener dispatchListener, int listenPort, Backpressure backpressure,
+                                            InFlightBudget.Account budget, Executor delivery) {
+        return subscribe(new TrafficPublisher(dispatchListener, null, backpressure, budget, delivery), listenPort);
+    }
+
+    public static TrafficPublisher forConnection(DispatchListener dispatchListener, int listenPort, long connectionId, Backpressure backpressure,
+                                                 InFlightBudget.Account budget, Executor delivery) {
+        TrafficPublisher traffic = subscribe(new TrafficPublisher(dispatchListener, connectionId, backpressure, budget, delivery), listenPort);
+        if (!dispatchListener.isOpen(connectionId, listenPort)) {
+            traffic.close();
+        }
+        return traffic;
+    }
+
+    private static TrafficPublisher subscribe(TrafficPublisher traffic, int listenPort) {
+        traffic.dispatchListener.addListener(listenPort, EnumSet.of(EventType.SENT_DATA, EventType.RECEIVED_DATA, EventType.CONNECTION_CLOSED), traffic);
+        return traffic;
+    }
+
+    public void subscribe(Flow.Subscriber<? super Chunk> subscriber) {
+        Accounted accounted = new Accounted(subscriber);
+        subscribers.add(accounted);
+        publisher.subscribe(accounted);
+    }
+
+    public long getDroppedChunks() {
+        return droppedChunks.sum();
+    }
+
+    public void close() {
+        dispatchListener.removeListener(this);
+        publisher.close();
+    }
+
+    @Override
+    public void sentData(long connectionId, int listenPort, SocketAddress remoteAddress, byte[] data) {
+        publish(connectionId, listenPort, remoteAddress, Direction.CLIENT_TO_SERVER, data);
+    }
+
+    @Override
+    public void receivedData(long connectionId, int listenPort, SocketAddress remoteAddress, byte[] data) {
+        publish(connectionId, listenPort, remoteAddress, Direction.SERVER_TO_CLIENT, data);
+    }
+
+    @Override
+    public void connectionClosed(long connectionId, int listenPort, SocketAddress remoteAddress, ConnectionSummary summary) {
+        if (isFor(connectionId)) {
+            close();
+        }
+    }
+
+    private void publish(long connectionId, int listenPort, SocketAddress remoteAddress, Direction direction, byte[] data) {
+        if (!isFor(connectionId) || !publisher.hasSubscribers()) {
+            return;
+        }
+        Chunk chunk = new Chunk(connectionId, listenPort, remoteAddress, direction, data);
+        for (Accounted subscriber : subscribers) {
+            subscriber.handingOver(chunk);
+        }
+        if (backpressure.getPolicy() == Backpressure.Policy.BLOCK) {
+            publisher.offer(chunk, backpressure.getMaxWaitInMillis(), TimeUnit.MILLISECONDS, drop);
+        } else {
+            publisher.offer(chunk, drop);
+        }
+    }
+
+    private boolean isFor(long connectionId) {
+        return this.connectionId == null || this.connectionId == connectionId;
+    }
+
+    /**
+     * Counts the chunks offered to a subscriber until they are handed over, a subscriber that joins in between
+     * publishing a chunk and offering it is handed the chunk without it being counted
+     */
+    private class Accounted implements Flow.Subscriber<Chunk> {
+        private final Flow.Subscriber<? super Chunk> subscriber;
+        private final AtomicLong held = new AtomicLong();
+        private volatile boolean done;
+
+        private Accounted(Flow.Subscriber<? super Chunk> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void handingOver(Chunk chunk) {
+            if (done) {
+                return;
+            }
+            held.addAndGet(chunk.getData().length);
+            budget.reserve(chunk.getData().length);
+            if (done) {
+                budget.release(held.getAndSet(0));
+            }
+        }
+
+        private void handedOver(Chunk chunk) {
+            long size = chunk.getData().length;
+            long released = held.getAndUpdate((current) -> Math.max(0, current - size));
+            budget.release(Math.min(released, size));
+        }
+
+        private void gone() {
+            done = true;
+            subscribers.remove(this);
+            budget.release(held.getAndSet(0));
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                public void cancel() {
+                    subscription.cancel();
+                    gone();
+                }
+            });
+        }
+
+        public void onNext(Chunk chunk) {
+            handedOver(chunk);
+            subscriber.onNext(chunk);
+        }
+
+        public void onError(Throwable throwable) {
+            gone();
+            subscriber.onError(throwable);
+        }
+
+        public void onComplete() {
+            gone();
+            subscriber.onComplete();
+        }
+    }
+
+    /**
+     * A thread for each subscriber with chunks waiting, gone again once idle
+     */
+    public static ExecutorService newDeliveryExecutor() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), (task) -> {
+            Thread thread = new Thread(task, "MOXY-traffic");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.buffer;
+
+import moxy.BufferStats;
+import moxy.DirectBuffers;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the buffers the relays read into, from slabs of direct memory once configured and as plain heap buffers
+ * until then
+ */
+public class BufferAllocator implements BufferStats {
+    public static final int HEAP_BUFFER_SIZE = 1024 * 10;
+    private static final PooledBuffer.Owner NOBODY = (buffer) -> {
+    };
+    private volatile SlabPool pool;
+
+    /**
+     * @param directBuffers - null to go back to heap buffers, buffers already handed out go back to where they came from
+     */
+    public void configure(DirectBuffers directBuffers) {
+        pool = directBuffers == null ? null : new SlabPool(directBuffers);
+    }
+
+    public PooledBuffer allocate() {
+        SlabPool current = pool;
+        return current == null ? unpooled(HEAP_BUFFER_SIZE) : current.allocate();
+    }
+
+    static PooledBuffer unpooled(int size) {
+        return new PooledBuffer(ByteBuffer.allocate(size), NOBODY, new AtomicInteger(1));
+    }
+
+    public long getMaxBytes() {
+        SlabPool current = pool;
+        return current == null ? 0 : current.getMaxBytes();
+    }
+
+    public long getReservedBytes() {
+        SlabPool current = pool;
+        return current == null ? 0 : current.getReservedBytes();
+    }
+
+    public long getUsedBytes() {
+        SlabPool current = pool;
+        return current == null ? 0 : current.getUsedBytes();
+    }
+
+    public long getAllocations() {
+        SlabPool current = pool;
+        return current == null ? 0 : current.getAllocations();
+    }
+
+    public long getFallbacks() {
+        SlabPool current = pool;
+        return current == null ? 0 : current.getFallbacks();
+    }
+
+    public long getLeaks() {
+        SlabPool current = pool;
+        return current == null ? 0 : current.getLeaks();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A buffer handed out by a BufferAllocator, it goes back to the allocator once every holder has released it
+ */
+public class PooledBuffer {
+    private final ByteBuffer buffer;
+    private final Owner owner;
+    private final AtomicInteger references;
+
+    PooledBuffer(ByteBuffer buffer, Owner owner, AtomicInteger references) {
+        this.buffer = buffer;
+        this.owner = owner;
+        this.references = references;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Hold on to the buffer for one more holder, each needs to release it
+     */
+    public PooledBuffer retain() {
+        if (references.getAndUpdate((count) -> count == 0 ? 0 : count + 1) == 0) {
+            throw new IllegalStateException("The buffer was already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int left = references.decrementAndGet();
+        if (left < 0) {
+            references.set(0);
+            throw new IllegalStateException("The buffer was already released");
+        }
+        if (left == 0) {
+            owner.released(this);
+        }
+    }
+
+    public int getReferences() {
+        return references.get();
+    }
+
+    interface Owner {
+        void released(PooledBuffer buffer);
+    }
+}
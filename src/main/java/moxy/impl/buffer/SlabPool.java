@@ -0,0 +1,137 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.buffer;
+
+import moxy.DirectBuffers;
+import moxy.Log;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cuts slabs of direct memory into equally sized chunks. Released chunks go back on top of a shared stack for any
+ * thread to take, so the next allocation gets the chunk most likely to still be in the cache.
+ */
+class SlabPool implements PooledBuffer.Owner {
+    private static final Log LOG = Log.get(SlabPool.class);
+    private static final Cleaner LEAK_DETECTOR = Cleaner.create();
+    private final DirectBuffers config;
+    private final Deque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    SlabPool(DirectBuffers config) {
+        this.config = new DirectBuffers(config);
+    }
+
+    PooledBuffer allocate() {
+        ByteBuffer chunk = free.pollFirst();
+        if (chunk == null) {
+            chunk = fromNewSlab();
+        }
+        if (chunk == null) {
+            fallbacks.increment();
+            return BufferAllocator.unpooled(config.getChunkSize());
+        }
+
+        allocations.increment();
+        usedBytes.addAndGet(chunk.capacity());
+        AtomicInteger references = new AtomicInteger(1);
+        PooledBuffer buffer = new PooledBuffer(chunk, this, references);
+        if (config.isLeakDetection()) {
+            LEAK_DETECTOR.register(buffer, new Leak(references, new Exception("Allocated here"), leaks));
+        }
+        return buffer;
+    }
+
+    public void released(PooledBuffer buffer) {
+        ByteBuffer chunk = buffer.buffer().clear();
+        usedBytes.addAndGet(-chunk.capacity());
+        free.offerFirst(chunk);
+    }
+
+    private synchronized ByteBuffer fromNewSlab() {
+        ByteBuffer chunk = free.pollFirst();
+        if (chunk != null) {
+            return chunk;
+        }
+        int chunkSize = config.getChunkSize();
+        long room = (config.getMaxBytes() - reservedBytes.get()) / chunkSize * chunkSize;
+        int slabSize = (int) Math.min(config.getSlabSize(), room);
+        if (slabSize < chunkSize) {
+            return null;
+        }
+
+        ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+        reservedBytes.addAndGet(slabSize);
+        for (int offset = chunkSize; offset < slabSize; offset += chunkSize) {
+            free.offerLast(slab.slice(offset, chunkSize));
+        }
+        return slab.slice(0, chunkSize);
+    }
+
+    long getMaxBytes() {
+        return config.getMaxBytes();
+    }
+
+    long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    long getAllocations() {
+        return allocations.sum();
+    }
+
+    long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    long getLeaks() {
+        return leaks.sum();
+    }
+
+    /**
+     * Runs once the PooledBuffer is garbage collected, so it must not hold on to it. The chunk of a leaked buffer is
+     * not handed out again, whoever leaked it could still be holding on to the ByteBuffer itself.
+     */
+    private static class Leak implements Runnable {
+        private final AtomicInteger references;
+        private final Exception allocatedAt;
+        private final LongAdder leaks;
+
+        private Leak(AtomicInteger references, Exception allocatedAt, LongAdder leaks) {
+            this.references = references;
+            this.allocatedAt = allocatedAt;
+            this.leaks = leaks;
+        }
+
+        public void run() {
+            if (references.get() > 0) {
+                leaks.increment();
+                LOG.error("A buffer was garbage collected without being released", allocatedAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.conditions;
+
+import moxy.CloseReason;
+import moxy.Direction;
+import moxy.Log;
+import moxy.NetworkConditions;
+import moxy.impl.ConnectionWatch;
+import moxy.impl.SharedBandwidth;
+import moxy.impl.SocketChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes one direction of a connection, applying the route's network conditions when there are any.
+ * <p>
+ * Without conditions the data is written straight away on the calling thread. With conditions each chunk is given a
+ * time it is due, so the relay thread can go back to reading. The relay thread only waits when too much data is already
+ * waiting to be written, or when the server is over its memory budget while the connection still holds data (see
+ * InFlightBudget).
+ * <p>
+ * The delayed chunks are written by a thread of the direction's own, which waits for each chunk to be due and writes it
+ * like the relay threads do, as the channels block. A peer that stops reading only holds up its own connection, and
+ * the thread goes away once there is nothing left to write.
+ * <p>
+ * While the server shares a bandwidth every write waits for its turn first, writing no more than the route's quota per
+ * turn (see SharedBandwidth).
+ */
+public class ConditionedWriter {
+    public static final long UNTIMED = Long.MIN_VALUE;
+    private static final Log LOG = Log.get(ConditionedWriter.class);
+    private static final long MAX_QUEUED_BYTES = 1024 * 1024;
+    private static final long NEVER = Long.MAX_VALUE;
+    private final RouteConditions conditions;
+    private final Direction direction;
+    private final ConnectionWatch watch;
+    private final Runnable closeConnection;
+    private final Runnable resetConnection;
+    private final Queue<Chunk> queue = new ArrayDeque<>();
+    private final SharedBandwidth.Share share = new SharedBandwidth.Share();
+    private long queuedBytes;
+    private boolean draining;
+    private ThreadPoolExecutor writes;
+    private volatile boolean busy;
+    private volatile boolean closed;
+
+    // only touched by the writing (relay) thread
+    private long lastDue;
+    private long bandwidthFreeAt;
+    private long bytesRelayed;
+    private long nextStallAt;
+    private long resetAt = NEVER;
+    private boolean resetScheduled;
+    private NetworkConditions decidedFor;
+
+    public ConditionedWriter(RouteConditions conditions, Direction direction, ConnectionWatch watch,
+                             Runnable closeConnection, Runnable resetConnection) {
+        this.conditions = conditions;
+        this.direction = direction;
+        this.watch = watch;
+        this.closeConnection = closeConnection;
+        this.resetConnection = resetConnection;
+    }
+
+    /**
+     * Writes the data as is with no conditions
+     */
+    public static ConditionedWriter unconditioned(Direction direction, ConnectionWatch watch) {
+        return new ConditionedWriter(new RouteConditions(), direction, watch, () -> {
+        }, () -> {
+        });
+    }
+
+    /**
+     * @param data - may be reused by the caller once this returns
+     */
+    public void write(SocketChannel output, ByteBuffer data) throws IOException {
+        write(output, data, UNTIMED);
+    }
+
+    /**
+     * @param data        - may be reused by the caller once this returns
+     * @param readAtNanos - when the data was read (see ConnectionWatch.readHappened()), the watch is told once it is
+     *                    written. UNTIMED for data Moxy came up with itself.
+     */
+    public void write(SocketChannel output, ByteBuffer data, long readAtNanos) throws IOException {
+        NetworkConditions current = conditions.get(direction);
+        if (current == null && !busy) {
+            writeNow(output, data, readAtNanos);
+            watch.getBudget().awaitRoom();
+            return;
+        }
+        if (closed) {
+            throw new IOException("Connection was closed");
+        }
+
+        schedule(output, data, readAtNanos, current == null ? new NetworkConditions() : current);
+        waitForRoom();
+        watch.getBudget().awaitRoom();
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return the most bytes to read at once for this direction
+     */
+    public int getQuotaBytes() {
+        return conditions.getQuotaBytes();
+    }
+
+    /**
+     * Wait for everything written so far to reach the channel (i.e. before the channel is given to someone else)
+     */
+    public void awaitWritten() throws IOException {
+        if (!busy) {
+            return;
+        }
+        synchronized (this) {
+            while (busy && !closed) {
+                waitQuietly();
+            }
+        }
+        if (closed) {
+            throw new IOException("Connection was closed");
+        }
+    }
+
+    private void writeNow(SocketChannel output, ByteBuffer data, long readAtNanos) throws IOException {
+        if (conditions.isSharingBandwidth()) {
+            int quota = conditions.getQuotaBytes();
+            int end = data.limit();
+            while (end - data.position() > quota) {
+                data.limit(data.position() + quota);
+                writeTurn(output, data);
+                data.limit(end);
+            }
+        }
+        writeTurn(output, data);
+        if (readAtNanos != UNTIMED) {
+            watch.written(direction, readAtNanos);
+        }
+    }
+
+    private void writeTurn(SocketChannel output, ByteBuffer data) throws IOException {
+        if (data.hasRemaining()) {
+            try {
+                conditions.takeTurn(share, data.remaining());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a turn to write");
+            }
+        }
+        watch.writeStarted(direction);
+        SocketChannels.writeFully(output, data);
+        watch.writeFinished(direction);
+    }
+
+    private void schedule(SocketChannel output, ByteBuffer data, long readAtNanos, NetworkConditions current) {
+        if (current != decidedFor) {
+            decidedFor = current;
+            boolean reset = current.getResetProbability() > 0 && ThreadLocalRandom.current().nextDouble() < current.getResetProbability();
+            resetAt = reset ? current.getResetAfterBytes() : NEVER;
+            nextStallAt = bytesRelayed + current.getStallEveryBytes();
+        }
+
+        long now = System.nanoTime();
+        while (data.hasRemaining() && bytesRelayed < resetAt) {
+            int size = data.remaining();
+            if (current.getMaxChunkBytes() > 0) {
+                size = Math.min(size, current.getMaxChunkBytes());
+            }
+            if (resetAt != NEVER) {
+                size = (int) Math.min(size, resetAt - bytesRelayed);
+            }
+            if (current.getStallEveryBytes() > 0) {
+                size = (int) Math.min(size, Math.max(1, nextStallAt - bytesRelayed));
+            }
+
+            long due = now + TimeUnit.MILLISECONDS.toNanos(current.getLatencyInMillis());
+            if (current.getJitterInMillis() > 0) {
+                due += ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(current.getJitterInMillis()) + 1);
+            }
+            due = Math.max(due, lastDue);
+            if (current.getBytesPerSecond() > 0) {
+                due = Math.max(due, bandwidthFreeAt);
+                bandwidthFreeAt = due + TimeUnit.SECONDS.toNanos(size) / current.getBytesPerSecond();
+            }
+            if (current.getStallEveryBytes() > 0) {
+                while (bytesRelayed >= nextStallAt) {
+                    due += TimeUnit.MILLISECONDS.toNanos(current.getStallInMillis());
+                    nextStallAt += current.getStallEveryBytes();
+                }
+            }
+            lastDue = due;
+
+            byte[] bytes = new byte[size];
+            data.get(bytes);
+            bytesRelayed += size;
+            resetScheduled = bytesRelayed >= resetAt;
+            enqueue(new Chunk(output, ByteBuffer.wrap(bytes), due, data.hasRemaining() ? UNTIMED : readAtNanos, resetScheduled));
+        }
+        if (bytesRelayed >= resetAt && !resetScheduled) {
+            resetScheduled = true;
+            enqueue(new Chunk(output, ByteBuffer.allocate(0), Math.max(now, lastDue), UNTIMED, true));
+        }
+        data.position(data.limit());
+    }
+
+    private synchronized void enqueue(Chunk chunk) {
+        queue.add(chunk);
+        queuedBytes += chunk.data.remaining();
+        watch.getBudget().reserve(chunk.data.remaining());
+        busy = true;
+        if (!draining) {
+            draining = true;
+            if (writes == null) {
+                writes = newWrites(chunk.output);
+            }
+            writes.execute(this::drain);
+        }
+    }
+
+    private synchronized void waitForRoom() throws IOException {
+        while (queuedBytes > MAX_QUEUED_BYTES && !closed) {
+            waitQuietly();
+        }
+        if (closed) {
+            throw new IOException("Connection was closed");
+        }
+    }
+
+    /**
+     * Runs on the direction's own thread, the only one that blocks on the channel for the chunks that are due
+     */
+    private void drain() {
+        while (true) {
+            Chunk chunk;
+            synchronized (this) {
+                while (true) {
+                    chunk = queue.peek();
+                    if (chunk == null || closed) {
+                        draining = false;
+                        if (closed) {
+                            dropQueued();
+                        }
+                        idle();
+                        return;
+                    }
+                    long wait = chunk.due - System.nanoTime();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    waitQuietly(wait);
+                }
+                queue.poll();
+            }
+
+            int size = chunk.data.remaining();
+            try {
+                writeNow(chunk.output, chunk.data, chunk.readAt);
+            } catch (IOException e) {
+                LOG.debug("Unable to write delayed data: " + e.getMessage());
+                fail(closeConnection);
+                return;
+            }
+            written(size);
+            if (chunk.resetAfter) {
+                LOG.debug("Resetting connection after " + resetAt + " bytes");
+                watch.closing(CloseReason.RESET);
+                fail(resetConnection);
+                return;
+            }
+        }
+    }
+
+    private ThreadPoolExecutor newWrites(SocketChannel output) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (task) -> {
+            Thread thread = new Thread(task, "MOXY-delayed-write " + direction + " TO: " + output);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * The chunk is only let go of once written, until then it still counts as held
+     */
+    private void written(int size) {
+        boolean held;
+        synchronized (this) {
+            held = !closed;
+            if (held) {
+                queuedBytes -= size;
+            }
+            notifyAll();
+        }
+        if (held) {
+            watch.getBudget().release(size);
+        }
+    }
+
+    /**
+     * Not busy once everything was written
+     */
+    private void idle() {
+        if (queue.isEmpty()) {
+            busy = false;
+        }
+        notifyAll();
+    }
+
+    private void fail(Runnable action) {
+        synchronized (this) {
+            closed = true;
+            busy = false;
+            dropQueued();
+            notifyAll();
+        }
+        action.run();
+    }
+
+    private void dropQueued() {
+        queue.clear();
+        watch.getBudget().release(queuedBytes);
+        queuedBytes = 0;
+    }
+
+    private void waitQuietly() {
+        waitQuietly(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    private void waitQuietly(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.timedWait(this, nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+
+    private static class Chunk {
+        private final SocketChannel output;
+        private final ByteBuffer data;
+        private final long due;
+        private final long readAt;
+        private final boolean resetAfter;
+
+        private Chunk(SocketChannel output, ByteBuffer data, long due, long readAt, boolean resetAfter) {
+            this.output = output;
+            this.data = data;
+            this.due = due;
+            this.readAt = readAt;
+            this.resetAfter = resetAfter;
+        }
+    }
+}
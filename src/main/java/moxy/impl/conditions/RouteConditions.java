@@ -0,0 +1,82 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.conditions;
+
+import moxy.Direction;
+import moxy.NetworkConditions;
+import moxy.Priority;
+import moxy.impl.RouteOptions;
+import moxy.impl.SharedBandwidth;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The network conditions currently applied to each direction of a route, and how it takes turns on the server's shared
+ * bandwidth. Connections look these up for every chunk so changes apply to the connections already in flight.
+ */
+public class RouteConditions {
+    private final AtomicReferenceArray<NetworkConditions> byDirection = new AtomicReferenceArray<>(Direction.values().length);
+    private final SharedBandwidth bandwidth;
+    private volatile Priority priority = Priority.NORMAL;
+    private volatile int quotaBytes = RouteOptions.DEFAULT_QUOTA_BYTES;
+
+    /**
+     * Conditions for a connection outside of any server, which never waits for a turn
+     */
+    public RouteConditions() {
+        this(SharedBandwidth.UNLIMITED);
+    }
+
+    public RouteConditions(SharedBandwidth bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * @return the conditions for the direction or null when data should be relayed as is
+     */
+    public NetworkConditions get(Direction direction) {
+        return byDirection.get(direction.ordinal());
+    }
+
+    /**
+     * @param conditions - null to go back to relaying data as is
+     */
+    public void set(Direction direction, NetworkConditions conditions) {
+        byDirection.set(direction.ordinal(), conditions == null ? null : new NetworkConditions(conditions));
+    }
+
+    /**
+     * @return how many bytes a connection may read at once, and is credited with each round on the shared bandwidth
+     */
+    public int getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public void setScheduling(Priority priority, int quotaBytes) {
+        this.priority = priority;
+        this.quotaBytes = quotaBytes;
+    }
+
+    public boolean isSharingBandwidth() {
+        return bandwidth.isLimited();
+    }
+
+    /**
+     * Wait for the turn to write the given bytes (no more than the quota)
+     *
+     * @param share - the credit of the connection (direction) writing
+     */
+    public void takeTurn(SharedBandwidth.Share share, int bytes) throws InterruptedException {
+        bandwidth.take(share, priority, quotaBytes, bytes);
+    }
+}
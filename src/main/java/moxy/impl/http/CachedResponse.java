@@ -0,0 +1,88 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import java.util.Map;
+
+/**
+ * A response held in the HttpResponseCache along with what is needed to decide if it can still be served
+ */
+public class CachedResponse {
+    private final HttpHead head;
+    private final byte[] body;
+    private final Map<String, String> varyingRequestHeaders;
+    private final long storedAtMillis;
+    private final long initialAgeMillis;
+    private final long freshForMillis;
+    private final int size;
+
+    CachedResponse(HttpHead head, byte[] body, Map<String, String> varyingRequestHeaders, long storedAtMillis, long initialAgeMillis, long freshForMillis) {
+        this.head = head;
+        this.body = body;
+        this.varyingRequestHeaders = varyingRequestHeaders;
+        this.storedAtMillis = storedAtMillis;
+        this.initialAgeMillis = initialAgeMillis;
+        this.freshForMillis = freshForMillis;
+        this.size = head.toBytes().length + body.length;
+    }
+
+    public HttpHead copyOfHead() {
+        return new HttpHead(head);
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getETag() {
+        return head.getHeader("ETag");
+    }
+
+    public String getLastModified() {
+        return head.getHeader("Last-Modified");
+    }
+
+    public boolean hasValidators() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    public long ageInSeconds(long nowMillis) {
+        return (initialAgeMillis + Math.max(0, nowMillis - storedAtMillis)) / 1000;
+    }
+
+    public boolean isFresh(long nowMillis) {
+        return initialAgeMillis + (nowMillis - storedAtMillis) < freshForMillis;
+    }
+
+    boolean matches(HttpHead request) {
+        for (Map.Entry<String, String> vary : varyingRequestHeaders.entrySet()) {
+            String value = request.getHeader(vary.getKey());
+            if (!vary.getValue().equals(value == null ? "" : value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    HttpHead getHead() {
+        return head;
+    }
+
+    Map<String, String> getVaryingRequestHeaders() {
+        return varyingRequestHeaders;
+    }
+
+    int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps a copy of a body while it is being relayed, giving up once it grows past the limit
+ */
+class CapturingSink implements BodySink {
+    private final BodySink delegate;
+    private final long limit;
+    private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+    CapturingSink(BodySink delegate, long limit) {
+        this.delegate = delegate;
+        this.limit = limit;
+    }
+
+    public void write(ByteBuffer data) throws IOException {
+        if (captured != null) {
+            if (captured.size() + data.remaining() > limit) {
+                captured = null;
+            } else {
+                byte[] bytes = new byte[data.remaining()];
+                data.duplicate().get(bytes);
+                captured.write(bytes, 0, bytes.length);
+            }
+        }
+        delegate.write(data);
+    }
+
+    boolean isComplete() {
+        return captured != null;
+    }
+
+    byte[] toByteArray() {
+        return captured.toByteArray();
+    }
+}
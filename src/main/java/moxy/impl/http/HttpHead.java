@@ -0,0 +1,247 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+
+/**
+ * The start line and headers of an HTTP/1.x request or response
+ */
+public class HttpHead {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private String startLine;
+    private final List<String[]> headers;
+
+    public HttpHead(String startLine, List<String[]> headers) {
+        this.startLine = startLine;
+        this.headers = headers;
+    }
+
+    public HttpHead(HttpHead other) {
+        this.startLine = other.startLine;
+        this.headers = new ArrayList<>();
+        for (String[] header : other.headers) {
+            headers.add(new String[]{header[0], header[1]});
+        }
+    }
+
+    public static HttpHead parse(byte[] data, int offset, int length) throws HttpParseException {
+        String[] lines = new String(data, offset, length, StandardCharsets.ISO_8859_1).split("\r?\n");
+        if (lines.length == 0 || lines[0].isEmpty()) {
+            throw new HttpParseException("Missing start line");
+        }
+
+        List<String[]> headers = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isEmpty()) {
+                break;
+            }
+
+            if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && !headers.isEmpty()) {
+                String[] previous = headers.get(headers.size() - 1);
+                previous[1] = previous[1] + " " + line.trim();
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new HttpParseException("Malformed header: " + line);
+            }
+            headers.add(new String[]{line.substring(0, colon).trim(), line.substring(colon + 1).trim()});
+        }
+
+        HttpHead head = new HttpHead(lines[0], headers);
+        if (head.startLine.split(" ", 3).length < 2) {
+            throw new HttpParseException("Malformed start line: " + lines[0]);
+        }
+        return head;
+    }
+
+    public String getStartLine() {
+        return startLine;
+    }
+
+    public void setStartLine(String startLine) {
+        this.startLine = startLine;
+    }
+
+    public boolean isResponse() {
+        return startLine.startsWith("HTTP/");
+    }
+
+    public String getMethod() {
+        return token(0);
+    }
+
+    public String getTarget() {
+        return token(1);
+    }
+
+    public String getVersion() {
+        return isResponse() ? token(0) : token(2);
+    }
+
+    public int getStatusCode() throws HttpParseException {
+        try {
+            return Integer.parseInt(token(1));
+        } catch (NumberFormatException e) {
+            throw new HttpParseException("Malformed status line: " + startLine);
+        }
+    }
+
+    public String getHeader(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    public List<String> getHeaders(String name) {
+        List<String> values = new ArrayList<>();
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                values.add(header[1]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return true when any of the comma separated values of the named header(s) match the provided token
+     */
+    public boolean hasToken(String name, String token) {
+        for (String value : getHeaders(name)) {
+            for (String part : value.split(",")) {
+                if (part.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void forEachHeader(BiConsumer<String, String> consumer) {
+        for (String[] header : headers) {
+            consumer.accept(header[0], header[1]);
+        }
+    }
+
+    public void setHeader(String name, String value) {
+        removeHeader(name);
+        headers.add(new String[]{name, value});
+    }
+
+    public void removeHeader(String name) {
+        Iterator<String[]> iterator = headers.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next()[0].equalsIgnoreCase(name)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove the headers that only apply to a single connection (RFC 7230 section 6.1)
+     */
+    public void removeHopByHopHeaders() {
+        for (String value : getHeaders("Connection")) {
+            for (String listed : value.split(",")) {
+                removeHeader(listed.trim());
+            }
+        }
+        removeHeader("Connection");
+        removeHeader("Keep-Alive");
+        removeHeader("Proxy-Connection");
+    }
+
+    /**
+     * @return true when the sender of this message expects the connection to stay open afterwards
+     */
+    public boolean isKeepAlive() {
+        if ("HTTP/1.0".equals(getVersion())) {
+            return hasToken("Connection", "keep-alive");
+        }
+        return !hasToken("Connection", "close");
+    }
+
+    public boolean isChunked() {
+        String transferEncoding = getHeader("Transfer-Encoding");
+        return transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).trim().endsWith("chunked");
+    }
+
+    /**
+     * @return the Content-Length value or -1 when not provided
+     * @throws HttpParseException when it is given more than once with different values, the relay and the route server
+     *                            could take a different one and disagree on where the next message starts
+     */
+    public long getContentLength() throws HttpParseException {
+        long length = -1;
+        for (String header : getHeaders("Content-Length")) {
+            for (String contentLength : header.split(",", -1)) {
+                long value = parseContentLength(contentLength);
+                if (length != -1 && value != length) {
+                    throw new HttpParseException("Conflicting Content-Length: " + String.join(", ", getHeaders("Content-Length")));
+                }
+                length = value;
+            }
+        }
+        return length;
+    }
+
+    private static long parseContentLength(String contentLength) throws HttpParseException {
+        try {
+            long length = Long.parseLong(contentLength.trim());
+            if (length < 0) {
+                throw new HttpParseException("Negative Content-Length: " + contentLength);
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new HttpParseException("Malformed Content-Length: " + contentLength);
+        }
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+        writeLine(output, startLine);
+        for (String[] header : headers) {
+            writeLine(output, header[0] + ": " + header[1]);
+        }
+        output.write(CRLF, 0, CRLF.length);
+        return output.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return startLine;
+    }
+
+    private String token(int index) {
+        String[] tokens = startLine.split(" ", 3);
+        return index < tokens.length ? tokens[index] : null;
+    }
+
+    private static void writeLine(ByteArrayOutputStream output, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        output.write(bytes, 0, bytes.length);
+        output.write(CRLF, 0, CRLF.length);
+    }
+}
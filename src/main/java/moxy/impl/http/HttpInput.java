@@ -0,0 +1,223 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import moxy.impl.ConnectionWatch;
+import moxy.impl.conditions.ConditionedWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads HTTP/1.x message boundaries off of a blocking channel, handing the body bytes over as they arrive
+ */
+public class HttpInput {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final int MAX_LINE_SIZE = 8 * 1024;
+    private final SocketChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ConnectionWatch watch = new ConnectionWatch();
+    private long lastReadAt = ConditionedWriter.UNTIMED;
+
+    public HttpInput(SocketChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    /**
+     * @param watch - told whenever bytes arrive, pooled connections are watched by whichever relay borrowed them
+     */
+    public void setWatch(ConnectionWatch watch) {
+        this.watch = watch;
+    }
+
+    /**
+     * @return the next message head or null if the connection was closed before the message started
+     */
+    public HttpHead readHead() throws IOException {
+        skipLeadingLineBreaks();
+        if (!buffer.hasRemaining() && !fill()) {
+            return null;
+        }
+
+        int end;
+        while ((end = endOfHead()) == -1) {
+            if (buffer.remaining() >= MAX_HEAD_SIZE) {
+                throw new HttpParseException("Message head is larger than " + MAX_HEAD_SIZE + " bytes");
+            }
+            if (!fill()) {
+                throw new EOFException("Connection closed in the middle of a message head");
+            }
+        }
+
+        int start = buffer.position();
+        HttpHead head = HttpHead.parse(buffer.array(), buffer.arrayOffset() + start, end - start);
+        buffer.position(end);
+        return head;
+    }
+
+    public void transferFixed(long length, BodySink sink) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            if (!buffer.hasRemaining() && !fill()) {
+                throw new EOFException("Connection closed with " + remaining + " bytes of the body left to read");
+            }
+
+            int size = (int) Math.min(remaining, buffer.remaining());
+            sink.write(slice(size));
+            remaining -= size;
+        }
+    }
+
+    /**
+     * Pass the chunked body through untouched, including the chunk size lines and any trailers
+     */
+    public void transferChunked(BodySink sink) throws IOException {
+        while (true) {
+            ByteBuffer sizeLine = readLine();
+            long size = parseChunkSize(sizeLine.duplicate());
+            sink.write(sizeLine);
+
+            if (size == 0) {
+                ByteBuffer trailer;
+                do {
+                    trailer = readLine();
+                    sink.write(trailer.duplicate());
+                } while (trailer.remaining() > 2 || (trailer.remaining() == 2 && trailer.get(trailer.position()) != '\r'));
+                return;
+            }
+
+            transferFixed(size, sink);
+            sink.write(readLine());
+        }
+    }
+
+    public void transferUntilClosed(BodySink sink) throws IOException {
+        while (buffer.hasRemaining() || fill()) {
+            sink.write(slice(buffer.remaining()));
+        }
+    }
+
+    /**
+     * Hand over anything that has already been read off of the connection but not consumed yet
+     */
+    public void transferBuffered(BodySink sink) throws IOException {
+        if (buffer.hasRemaining()) {
+            sink.write(slice(buffer.remaining()));
+        }
+    }
+
+    /**
+     * @return when bytes last arrived (System.nanoTime()), or ConditionedWriter.UNTIMED when they never did
+     */
+    public long getLastReadAt() {
+        return lastReadAt;
+    }
+
+    public boolean hasBufferedData() {
+        return buffer.hasRemaining();
+    }
+
+    private ByteBuffer readLine() throws IOException {
+        int end;
+        while ((end = endOfLine()) == -1) {
+            if (buffer.remaining() >= MAX_LINE_SIZE) {
+                throw new HttpParseException("Line is longer than " + MAX_LINE_SIZE + " bytes");
+            }
+            if (!fill()) {
+                throw new EOFException("Connection closed in the middle of a chunked body");
+            }
+        }
+        return slice(end - buffer.position());
+    }
+
+    private long parseChunkSize(ByteBuffer line) throws HttpParseException {
+        StringBuilder hex = new StringBuilder();
+        while (line.hasRemaining()) {
+            char c = (char) line.get();
+            if (Character.digit(c, 16) == -1) {
+                break;
+            }
+            hex.append(c);
+        }
+
+        if (hex.length() == 0 || hex.length() > 15) {
+            throw new HttpParseException("Malformed chunk size");
+        }
+        return Long.parseLong(hex.toString(), 16);
+    }
+
+    private void skipLeadingLineBreaks() throws IOException {
+        while (buffer.hasRemaining() || fill()) {
+            byte b = buffer.get(buffer.position());
+            if (b != '\r' && b != '\n') {
+                return;
+            }
+            buffer.position(buffer.position() + 1);
+        }
+    }
+
+    private int endOfHead() {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                if (i + 1 < buffer.limit() && buffer.get(i + 1) == '\n') {
+                    return i + 2;
+                }
+                if (i + 2 < buffer.limit() && buffer.get(i + 1) == '\r' && buffer.get(i + 2) == '\n') {
+                    return i + 3;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int endOfLine() {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer slice(int size) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(buffer.position() + size);
+        buffer.position(buffer.position() + size);
+        return slice;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+
+        int length;
+        try {
+            length = channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        if (length > 0) {
+            lastReadAt = watch.readHappened();
+        }
+        return length > 0;
+    }
+}
@@ -0,0 +1,423 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import moxy.CloseReason;
+import moxy.Direction;
+import moxy.Log;
+import moxy.impl.ConnectionDispatch;
+import moxy.impl.ConnectionWatch;
+import moxy.impl.Relay;
+import moxy.impl.RelayInfo;
+import moxy.impl.conditions.ConditionedWriter;
+import moxy.impl.conditions.RouteConditions;
+import moxy.impl.SocketChannels;
+import moxy.impl.ThreadKiller;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Services a single client connection one request at a time, borrowing a pooled connection to the route server
+ * for the duration of each request/response exchange.
+ */
+public class HttpRelay extends Thread implements Relay {
+    private static final Log LOG = Log.get(HttpRelay.class);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private final int listenPort;
+    private final SocketChannel client;
+    private final HttpInput clientInput;
+    private final SocketAddress routeToAddress;
+    private final UpstreamConnectionPool pool;
+    private final Optional<HttpResponseCache> cache;
+    private final ConnectionDispatch dispatchListener;
+    private final BodySink toUpstream;
+    private final BodySink toClient;
+    private final ConnectionWatch watch;
+    private final RouteConditions conditions;
+    private final ConditionedWriter toServerWriter;
+    private final ConditionedWriter toClientWriter;
+    private volatile UpstreamConnection upstream;
+    private volatile RelayInfo upgradedRelay;
+
+    public HttpRelay(int listenPort, SocketChannel client, SocketAddress routeToAddress, UpstreamConnectionPool pool, ConnectionDispatch dispatchListener) {
+        this(listenPort, client, routeToAddress, pool, Optional.empty(), dispatchListener);
+    }
+
+    public HttpRelay(int listenPort, SocketChannel client, SocketAddress routeToAddress, UpstreamConnectionPool pool,
+                     Optional<HttpResponseCache> cache, ConnectionDispatch dispatchListener) {
+        this(listenPort, client, routeToAddress, pool, cache, dispatchListener, new ConnectionWatch(), new RouteConditions());
+    }
+
+    public HttpRelay(int listenPort, SocketChannel client, SocketAddress routeToAddress, UpstreamConnectionPool pool,
+                     Optional<HttpResponseCache> cache, ConnectionDispatch dispatchListener, ConnectionWatch watch, RouteConditions conditions) {
+        this.listenPort = listenPort;
+        this.client = client;
+        this.clientInput = new HttpInput(client);
+        this.clientInput.setWatch(watch);
+        this.watch = watch;
+        this.conditions = conditions;
+        this.toServerWriter = new ConditionedWriter(conditions, Direction.CLIENT_TO_SERVER, watch, this::interrupt, this::reset);
+        this.toClientWriter = new ConditionedWriter(conditions, Direction.SERVER_TO_CLIENT, watch, this::interrupt, this::reset);
+        this.routeToAddress = routeToAddress;
+        this.pool = pool;
+        this.cache = cache;
+        this.dispatchListener = dispatchListener;
+        this.toUpstream = (data) -> {
+            dispatchListener.sentData(listenPort, routeToAddress, data);
+            writeTo(upstream.getChannel(), Direction.CLIENT_TO_SERVER, data, clientInput.getLastReadAt());
+        };
+        this.toClient = (data) -> {
+            dispatchListener.receivedData(listenPort, routeToAddress, data);
+            writeTo(client, Direction.SERVER_TO_CLIENT, data, upstream.getInput().getLastReadAt());
+        };
+        watch.closeWith(routeToAddress, this::interrupt);
+        setDaemon(true);
+        setName("HTTP RELAY FROM: " + client + ", TO: " + routeToAddress);
+    }
+
+    public void run() {
+        try {
+            while (client.isOpen() && exchange()) {
+                LOG.debug(getName() + " -- waiting for the next request");
+            }
+        } catch (IOException e) {
+            if (client.isOpen()) {
+                watch.closing(CloseReason.ERROR);
+                LOG.error("An error occurred on thread: " + getName(), e);
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Interrupted while waiting on an upstream connection: " + getName());
+        } finally {
+            if (upgradedRelay == null) {
+                watch.closing(CloseReason.CLIENT_CLOSED);
+                SocketChannels.closeQuietly(client);
+                watch.finished();
+            }
+            LOG.debug("Thread died: " + getName());
+        }
+    }
+
+    public void awaitFinish(long deadlineInMillis) {
+        ThreadKiller.waitUntil(this, deadlineInMillis);
+        if (upgradedRelay != null) {
+            upgradedRelay.awaitFinish(deadlineInMillis);
+        }
+    }
+
+    public void stopRelaying() {
+        if (upgradedRelay != null) {
+            upgradedRelay.stopRelaying();
+        }
+        ThreadKiller.killAndWait(this);
+    }
+
+    @Override
+    public void interrupt() {
+        SocketChannels.closeQuietly(client);
+        UpstreamConnection current = upstream;
+        if (current != null) {
+            current.close();
+        }
+        super.interrupt();
+    }
+
+    /**
+     * @return true when the client connection can carry another request
+     */
+    private boolean exchange() throws IOException, InterruptedException {
+        HttpHead request;
+        long requestContentLength;
+        try {
+            request = clientInput.readHead();
+            if (request == null) {
+                return false;
+            }
+            requestContentLength = requestContentLength(request);
+        } catch (HttpParseException e) {
+            LOG.warn("Rejecting malformed request on port " + listenPort + ": " + e.getMessage());
+            watch.closing(CloseReason.ERROR);
+            respondWithError(400, "Bad Request");
+            return false;
+        }
+
+        boolean clientKeepAlive = request.isKeepAlive();
+        boolean upgrade = request.getHeader("Upgrade") != null;
+        if (!upgrade) {
+            request.removeHopByHopHeaders();
+        }
+        if (request.hasToken("Expect", "100-continue")) {
+            request.removeHeader("Expect");
+            writeTo(client, Direction.SERVER_TO_CLIENT, ByteBuffer.wrap(CONTINUE));
+        }
+
+        Optional<CachedResponse> revalidating = Optional.empty();
+        if (cache.isPresent() && !upgrade) {
+            HttpResponseCache responseCache = cache.get();
+            if (responseCache.isCacheableRequest(request)) {
+                CachedResponse cached = responseCache.lookup(request);
+                if (cached != null && cached.isFresh(System.currentTimeMillis()) && !HttpResponseCache.requiresRevalidation(request)) {
+                    responseCache.recordHit();
+                    serveFromCache(request, cached, clientKeepAlive);
+                    return clientKeepAlive;
+                }
+                if (cached != null && cached.hasValidators() && !HttpResponseCache.isConditional(request)) {
+                    revalidating = Optional.of(cached);
+                }
+            } else if (!responseCache.isSafeRequest(request)) {
+                responseCache.invalidate(request);
+            }
+        }
+
+        HttpHead upstreamRequest = request;
+        if (revalidating.isPresent()) {
+            upstreamRequest = new HttpHead(request);
+            cache.get().addValidators(upstreamRequest, revalidating.get());
+        }
+
+        HttpHead response;
+        try {
+            response = sendRequest(upstreamRequest, requestContentLength);
+        } catch (IOException e) {
+            LOG.error("Failed to send the request to the route server: " + routeToAddress, e);
+            watch.closing(CloseReason.CONNECT_FAILED);
+            respondWithError(502, "Bad Gateway");
+            return false;
+        }
+
+        try {
+            while (response.getStatusCode() / 100 == 1 && response.getStatusCode() != 101) {
+                toClient.write(ByteBuffer.wrap(response.toBytes()));
+                response = readResponseHead();
+            }
+
+            if (response.getStatusCode() == 101) {
+                switchToTunnel(response);
+                return false;
+            }
+
+            if (revalidating.isPresent() && response.getStatusCode() == 304) {
+                pool.giveBack(upstream, response.isKeepAlive());
+                upstream = null;
+                serveFromCache(request, cache.get().refresh(request, revalidating.get(), response), clientKeepAlive);
+                return clientKeepAlive;
+            }
+
+            return relayResponse(request, response, clientKeepAlive);
+        } catch (IOException e) {
+            if (upstream != null) {
+                pool.giveBack(upstream, false);
+                upstream = null;
+            }
+            throw e;
+        }
+    }
+
+    private HttpHead sendRequest(HttpHead request, long requestContentLength) throws IOException, InterruptedException {
+        byte[] head = request.toBytes();
+        boolean bodyless = requestContentLength == 0 && !request.isChunked();
+        boolean dispatchedHead = false;
+
+        while (true) {
+            long borrowStartedAt = System.nanoTime();
+            upstream = pool.borrow();
+            dispatchListener.upstreamConnected(borrowStartedAt);
+            upstream.getInput().setWatch(watch);
+            boolean reused = upstream.isReused();
+            boolean headWritten = false;
+            try {
+                if (!dispatchedHead) {
+                    dispatchListener.sentData(listenPort, routeToAddress, ByteBuffer.wrap(head));
+                    dispatchedHead = true;
+                }
+                writeTo(upstream.getChannel(), Direction.CLIENT_TO_SERVER, ByteBuffer.wrap(head), clientInput.getLastReadAt());
+                headWritten = true;
+
+                if (request.isChunked()) {
+                    clientInput.transferChunked(toUpstream);
+                } else if (requestContentLength > 0) {
+                    clientInput.transferFixed(requestContentLength, toUpstream);
+                }
+
+                return readResponseHead();
+            } catch (IOException e) {
+                pool.giveBack(upstream, false);
+                upstream = null;
+                // once written the route server may have acted on it, only a request that is safe to repeat is sent again
+                if (!(reused && bodyless && (!headWritten || isIdempotent(request.getMethod())))) {
+                    throw e;
+                }
+                LOG.debug("Pooled connection to " + routeToAddress + " failed, retrying on another connection");
+            }
+        }
+    }
+
+    /**
+     * See RFC 7230 section 6.3.1
+     */
+    private static boolean isIdempotent(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+            case "TRACE":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private HttpHead readResponseHead() throws IOException {
+        HttpHead response = upstream.getInput().readHead();
+        if (response == null) {
+            throw new IOException("Route server closed the connection without responding");
+        }
+        return response;
+    }
+
+    private boolean relayResponse(HttpHead request, HttpHead response, boolean clientKeepAlive) throws IOException {
+        int status = response.getStatusCode();
+        boolean noBody = "HEAD".equals(request.getMethod()) || status == 204 || status == 304;
+        boolean chunked = !noBody && response.isChunked();
+        long contentLength = noBody || chunked ? -1 : response.getContentLength();
+        boolean delimitedByClose = !noBody && !chunked && contentLength == -1;
+
+        boolean upstreamReusable = response.isKeepAlive() && !delimitedByClose;
+        boolean clientReusable = clientKeepAlive && !delimitedByClose;
+
+        response.removeHopByHopHeaders();
+        Optional<HttpHead> responseToCache = Optional.empty();
+        if (cache.isPresent() && !delimitedByClose && cache.get().isStorable(request, response)) {
+            responseToCache = Optional.of(new HttpHead(response));
+        }
+        setConnectionHeader(request, response, clientReusable);
+
+        toClient.write(ByteBuffer.wrap(response.toBytes()));
+        BodySink sink = toClient;
+        if (responseToCache.isPresent()) {
+            sink = new CapturingSink(toClient, cache.get().getMaxEntryBytes());
+        }
+
+        if (chunked) {
+            upstream.getInput().transferChunked(sink);
+        } else if (contentLength > 0) {
+            upstream.getInput().transferFixed(contentLength, sink);
+        } else if (delimitedByClose) {
+            upstream.getInput().transferUntilClosed(sink);
+        }
+
+        pool.giveBack(upstream, upstreamReusable);
+        upstream = null;
+        if (!clientReusable) {
+            watch.closing(clientKeepAlive ? CloseReason.SERVER_CLOSED : CloseReason.CLIENT_CLOSED);
+        }
+
+        if (responseToCache.isPresent()) {
+            CapturingSink captured = (CapturingSink) sink;
+            if (captured.isComplete()) {
+                cache.get().store(request, responseToCache.get(), captured.toByteArray());
+            }
+        }
+        return clientReusable;
+    }
+
+    /**
+     * Note: responses served from the cache never reach the route server so they are not reported to the listeners
+     */
+    private void serveFromCache(HttpHead request, CachedResponse cached, boolean clientKeepAlive) throws IOException {
+        LOG.debug(getName() + " -- serving " + request + " from the cache");
+        HttpHead response = cached.copyOfHead();
+        response.setHeader("Age", String.valueOf(cached.ageInSeconds(System.currentTimeMillis())));
+
+        boolean notModified = HttpResponseCache.clientHasCurrentCopy(request, cached);
+        if (notModified) {
+            response.setStartLine("HTTP/1.1 304 Not Modified");
+            response.removeHeader("Content-Length");
+            response.removeHeader("Transfer-Encoding");
+        }
+        setConnectionHeader(request, response, clientKeepAlive);
+
+        writeTo(client, Direction.SERVER_TO_CLIENT, ByteBuffer.wrap(response.toBytes()));
+        if (!notModified && !"HEAD".equals(request.getMethod())) {
+            writeTo(client, Direction.SERVER_TO_CLIENT, ByteBuffer.wrap(cached.getBody()));
+        }
+    }
+
+    private void setConnectionHeader(HttpHead request, HttpHead response, boolean clientReusable) {
+        if (!clientReusable) {
+            response.setHeader("Connection", "close");
+        } else if ("HTTP/1.0".equals(request.getVersion())) {
+            response.setHeader("Connection", "keep-alive");
+        }
+    }
+
+    private void switchToTunnel(HttpHead response) throws IOException {
+        LOG.debug(getName() + " -- switching protocols, relaying raw bytes from now on");
+        toClient.write(ByteBuffer.wrap(response.toBytes()));
+        upstream.getInput().transferBuffered(toClient);
+        clientInput.transferBuffered(toUpstream);
+
+        pool.detach(upstream);
+        upgradedRelay = new RelayInfo(listenPort, client, routeToAddress, upstream.getChannel(), watch, conditions);
+        upgradedRelay.startRelaying(dispatchListener);
+        upstream = null;
+    }
+
+    private void writeTo(SocketChannel channel, Direction direction, ByteBuffer data) throws IOException {
+        writeTo(channel, direction, data, ConditionedWriter.UNTIMED);
+    }
+
+    /**
+     * Waits for conditioned data to be written so a message is never split across two pooled connections
+     *
+     * @param readAtNanos - when the data written was read, so the time it spent in the relay can be recorded
+     */
+    private void writeTo(SocketChannel channel, Direction direction, ByteBuffer data, long readAtNanos) throws IOException {
+        ConditionedWriter writer = direction == Direction.CLIENT_TO_SERVER ? toServerWriter : toClientWriter;
+        writer.write(channel, data, readAtNanos);
+        writer.awaitWritten();
+    }
+
+    private void reset() {
+        SocketChannels.resetQuietly(client);
+        UpstreamConnection current = upstream;
+        if (current != null) {
+            SocketChannels.resetQuietly(current.getChannel());
+        }
+        interrupt();
+    }
+
+    private long requestContentLength(HttpHead request) throws HttpParseException {
+        if (request.isChunked()) {
+            request.removeHeader("Content-Length");
+            return -1;
+        }
+        long contentLength = request.getContentLength();
+        return contentLength == -1 ? 0 : contentLength;
+    }
+
+    private void respondWithError(int status, String reason) {
+        String response = "HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        try {
+            writeTo(client, Direction.SERVER_TO_CLIENT, ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (IOException e) {
+            LOG.debug("Unable to tell the client about the " + status + ": " + e.getMessage());
+        }
+    }
+}
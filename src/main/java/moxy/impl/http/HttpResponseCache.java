@@ -0,0 +1,293 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A size bounded, least recently used, shared cache of GET responses following the rules of RFC 7234 closely
+ * enough for proxying test and integration environments.
+ * <p>
+ * Responses are kept on the heap exactly as they were relayed (including any chunked framing) so a hit can be
+ * written straight back to the client.
+ */
+public class HttpResponseCache {
+    private static final int[] CACHEABLE_STATUS_CODES = {200, 203, 300, 301, 404, 410};
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private volatile ResponseCacheCounters counters = new ResponseCacheCounters();
+    private long currentBytes;
+
+    public HttpResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1, maxBytes / 4);
+    }
+
+    /**
+     * @return true when the request is one the cache can answer (GET or HEAD without a byte range)
+     */
+    public boolean isCacheableRequest(HttpHead request) {
+        String method = request.getMethod();
+        return ("GET".equals(method) || "HEAD".equals(method))
+                && request.getHeader("Range") == null
+                && !directives(request).containsKey("no-store");
+    }
+
+    public boolean isSafeRequest(HttpHead request) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method) || "TRACE".equals(method);
+    }
+
+    public static boolean requiresRevalidation(HttpHead request) {
+        Map<String, String> directives = directives(request);
+        return directives.containsKey("no-cache")
+                || "0".equals(directives.get("max-age"))
+                || request.hasToken("Pragma", "no-cache");
+    }
+
+    public static boolean isConditional(HttpHead request) {
+        return request.getHeader("If-None-Match") != null || request.getHeader("If-Modified-Since") != null;
+    }
+
+    /**
+     * @return true when the client already has the cached representation according to its If-None-Match header
+     */
+    public static boolean clientHasCurrentCopy(HttpHead request, CachedResponse cached) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        String etag = cached.getETag();
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || weak(trimmed).equals(weak(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public CachedResponse lookup(HttpHead request) {
+        CachedResponse cached;
+        synchronized (entries) {
+            cached = entries.get(keyOf(request));
+        }
+
+        if (cached == null || !cached.matches(request)) {
+            counters.missed();
+            return null;
+        }
+        return cached;
+    }
+
+    public void recordHit() {
+        counters.hit();
+    }
+
+    /**
+     * Ask the route server if the cached response is still good
+     */
+    public void addValidators(HttpHead request, CachedResponse cached) {
+        counters.revalidated();
+        if (cached.getETag() != null) {
+            request.setHeader("If-None-Match", cached.getETag());
+        }
+        if (cached.getLastModified() != null) {
+            request.setHeader("If-Modified-Since", cached.getLastModified());
+        }
+    }
+
+    public boolean isStorable(HttpHead request, HttpHead response) throws HttpParseException {
+        if (!"GET".equals(request.getMethod()) || !isCacheableStatus(response.getStatusCode())) {
+            return false;
+        }
+        if (request.getHeader("Authorization") != null || response.getHeader("Set-Cookie") != null) {
+            return false;
+        }
+
+        Map<String, String> directives = directives(response);
+        if (directives.containsKey("no-store") || directives.containsKey("private") || response.hasToken("Vary", "*")) {
+            return false;
+        }
+        return freshnessOf(response) > 0 || response.getHeader("ETag") != null || response.getHeader("Last-Modified") != null;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public void store(HttpHead request, HttpHead response, byte[] body) {
+        Map<String, String> varying = new HashMap<>();
+        for (String vary : response.getHeaders("Vary")) {
+            for (String name : vary.split(",")) {
+                String value = request.getHeader(name.trim());
+                varying.put(name.trim(), value == null ? "" : value);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        put(keyOf(request), new CachedResponse(new HttpHead(response), body, varying, now, initialAgeOf(response), freshnessOf(response)));
+    }
+
+    /**
+     * The route server said our copy is still good, so take on the updated headers and start the freshness over
+     */
+    public CachedResponse refresh(HttpHead request, CachedResponse cached, HttpHead notModified) {
+        HttpHead head = cached.copyOfHead();
+        notModified.forEachHeader((name, value) -> {
+            if (!name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Transfer-Encoding")) {
+                head.setHeader(name, value);
+            }
+        });
+
+        CachedResponse refreshed = new CachedResponse(head, cached.getBody(), cached.getVaryingRequestHeaders(),
+                System.currentTimeMillis(), initialAgeOf(notModified), freshnessOf(head));
+        put(keyOf(request), refreshed);
+        return refreshed;
+    }
+
+    public void invalidate(HttpHead request) {
+        synchronized (entries) {
+            CachedResponse removed = entries.remove(keyOf(request));
+            if (removed != null) {
+                currentBytes -= removed.getSize();
+            }
+        }
+    }
+
+    /**
+     * @param counters - where the hits, misses, revalidations and evictions are counted from now on, the route's so
+     *                 they survive the cache being replaced
+     */
+    public void countWith(ResponseCacheCounters counters) {
+        this.counters = counters;
+    }
+
+    public ResponseCacheCounters getCounters() {
+        return counters;
+    }
+
+    public long getCurrentBytes() {
+        synchronized (entries) {
+            return currentBytes;
+        }
+    }
+
+    private void put(String key, CachedResponse cached) {
+        if (cached.getSize() > maxEntryBytes) {
+            return;
+        }
+
+        synchronized (entries) {
+            CachedResponse previous = entries.put(key, cached);
+            if (previous != null) {
+                currentBytes -= previous.getSize();
+            }
+            currentBytes += cached.getSize();
+
+            Iterator<CachedResponse> leastRecentlyUsed = entries.values().iterator();
+            while (currentBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+                currentBytes -= leastRecentlyUsed.next().getSize();
+                leastRecentlyUsed.remove();
+                counters.evicted();
+            }
+        }
+    }
+
+    private static String keyOf(HttpHead request) {
+        String host = request.getHeader("Host");
+        return (host == null ? "" : host.toLowerCase(Locale.ROOT)) + " " + request.getTarget();
+    }
+
+    private static boolean isCacheableStatus(int statusCode) {
+        for (int cacheable : CACHEABLE_STATUS_CODES) {
+            if (cacheable == statusCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long freshnessOf(HttpHead response) {
+        Map<String, String> directives = directives(response);
+        if (directives.containsKey("no-cache")) {
+            return 0;
+        }
+        if (directives.containsKey("s-maxage")) {
+            return seconds(directives.get("s-maxage")) * 1000;
+        }
+        if (directives.containsKey("max-age")) {
+            return seconds(directives.get("max-age")) * 1000;
+        }
+
+        String expires = response.getHeader("Expires");
+        if (expires != null) {
+            long expiresAt = parseDate(expires);
+            long date = parseDate(response.getHeader("Date"));
+            return expiresAt == -1 ? 0 : Math.max(0, expiresAt - (date == -1 ? System.currentTimeMillis() : date));
+        }
+        return 0;
+    }
+
+    private static long initialAgeOf(HttpHead response) {
+        String age = response.getHeader("Age");
+        return age == null ? 0 : seconds(age) * 1000;
+    }
+
+    private static Map<String, String> directives(HttpHead head) {
+        Map<String, String> directives = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String value : head.getHeaders("Cache-Control")) {
+            for (String directive : value.split(",")) {
+                String[] parts = directive.trim().split("=", 2);
+                if (!parts[0].isEmpty()) {
+                    directives.put(parts[0], parts.length == 2 ? parts[1].replace("\"", "").trim() : "");
+                }
+            }
+        }
+        return directives.isEmpty() ? Collections.emptyMap() : directives;
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
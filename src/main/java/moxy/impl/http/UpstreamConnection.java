@@ -0,0 +1,70 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import moxy.impl.SocketChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+public class UpstreamConnection {
+    private final SocketChannel channel;
+    private final HttpInput input;
+    private boolean reused;
+
+    public UpstreamConnection(SocketChannel channel) {
+        this.channel = channel;
+        this.input = new HttpInput(channel);
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public HttpInput getInput() {
+        return input;
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    void markReused() {
+        reused = true;
+    }
+
+    /**
+     * Peek at an idle connection to find out if the server has closed it while it was sitting in the pool
+     */
+    boolean isUsable() {
+        if (!channel.isOpen() || input.hasBufferedData()) {
+            return false;
+        }
+
+        try {
+            channel.configureBlocking(false);
+            try {
+                return channel.read(ByteBuffer.allocate(1)) == 0;
+            } finally {
+                channel.configureBlocking(true);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void close() {
+        SocketChannels.closeQuietly(channel);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import moxy.Log;
+import moxy.impl.Upstream;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps persistent connections to the route server so requests from many clients can share a few connections.
+ * <p>
+ * Idle connections are handed out most recently used first so the pool shrinks back down naturally when the
+ * server closes the connections it considers idle.
+ */
+public class UpstreamConnectionPool {
+    private static final Log LOG = Log.get(UpstreamConnectionPool.class);
+    private final SocketAddress address;
+    private final Semaphore permits;
+    private final Deque<UpstreamConnection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed;
+    private volatile Upstream upstream = Upstream.PLAIN;
+
+    public UpstreamConnectionPool(SocketAddress address, int maxConnections) {
+        this.address = address;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * @param upstream - how new connections to the route server are opened from now on
+     */
+    public void connectWith(Upstream upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * Wait for a connection to be available, opening a new one if the pool has not reached its limit
+     */
+    public UpstreamConnection borrow() throws IOException, InterruptedException {
+        permits.acquire();
+
+        UpstreamConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            if (connection.isUsable()) {
+                connection.markReused();
+                return connection;
+            }
+            LOG.debug("Discarding stale connection to: " + address);
+            connection.close();
+        }
+
+        try {
+            return new UpstreamConnection(upstream.connect(address));
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param reusable - true when the connection is at a message boundary and can carry the next request
+     */
+    public void giveBack(UpstreamConnection connection, boolean reusable) {
+        if (reusable && !closed && connection.getChannel().isOpen()) {
+            idle.offerFirst(connection);
+        } else {
+            connection.close();
+        }
+        permits.release();
+    }
+
+    /**
+     * The connection is no longer carrying HTTP (i.e. it was upgraded) so it no longer counts against the pool
+     */
+    public void detach(UpstreamConnection connection) {
+        permits.release();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public void close() {
+        closed = true;
+        UpstreamConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Matches the leading bytes of a connection against a set of byte prefixes (i.e. protocol magic numbers)
+ * with a single walk down the trie no matter how many prefixes there are
+ */
+public class ByteTrie {
+    private final Node root = new Node();
+
+    public void add(byte[] prefix, SocketAddress address) {
+        if (prefix.length == 0) {
+            throw new IllegalArgumentException("A prefix needs at least one byte");
+        }
+
+        Node node = root;
+        for (byte b : prefix) {
+            int index = b & 0xFF;
+            if (node.children == null) {
+                node.children = new Node[256];
+            }
+            if (node.children[index] == null) {
+                node.children[index] = new Node();
+            }
+            node = node.children[index];
+        }
+        node.address = address;
+    }
+
+    public boolean isEmpty() {
+        return root.children == null;
+    }
+
+    /**
+     * @return the shortest prefix matching the data
+     */
+    public SniffResult match(ByteBuffer data) {
+        Node node = root;
+        for (int i = data.position(); i < data.limit(); i++) {
+            if (node.children == null) {
+                return SniffResult.NO_MATCH;
+            }
+            node = node.children[data.get(i) & 0xFF];
+            if (node == null) {
+                return SniffResult.NO_MATCH;
+            }
+            if (node.address != null) {
+                return SniffResult.routeTo(node.address);
+            }
+        }
+        return node.children == null ? SniffResult.NO_MATCH : SniffResult.NEED_MORE;
+    }
+
+    private static class Node {
+        private Node[] children;
+        private SocketAddress address;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import moxy.ContentMatcher;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The compiled form of a set of content routes. Byte prefixes are checked first, then the TLS server name,
+ * then the HTTP Host header and last any custom matchers in the order they were added.
+ */
+public class ContentRouter {
+    public static final int MAX_SNIFF_BYTES = TlsServerNameSniffer.MAX_RECORD_LENGTH;
+    private final ByteTrie prefixes = new ByteTrie();
+    private final HostTable tlsServerNames = new HostTable();
+    private final HostTable httpHosts = new HostTable();
+    private final List<ContentMatcher> matchers = new ArrayList<>();
+    private Optional<SocketAddress> fallback = Optional.empty();
+    private long sniffTimeoutInMillis;
+
+    public ContentRouter(long sniffTimeoutInMillis) {
+        this.sniffTimeoutInMillis = sniffTimeoutInMillis;
+    }
+
+    public void addPrefix(byte[] prefix, SocketAddress address) {
+        prefixes.add(prefix, address);
+    }
+
+    public void addTlsServerName(String serverName, SocketAddress address) {
+        tlsServerNames.add(serverName, address);
+    }
+
+    public void addHttpHost(String hostName, SocketAddress address) {
+        httpHosts.add(hostName, address);
+    }
+
+    public void addMatcher(ContentMatcher matcher) {
+        matchers.add(matcher);
+    }
+
+    public void setFallback(SocketAddress address) {
+        fallback = Optional.ofNullable(address);
+    }
+
+    public Optional<SocketAddress> getFallback() {
+        return fallback;
+    }
+
+    public long getSniffTimeoutInMillis() {
+        return sniffTimeoutInMillis;
+    }
+
+    /**
+     * @param data - the bytes received so far, the position and limit are left untouched
+     */
+    public SniffResult route(ByteBuffer data) {
+        boolean needMore = false;
+
+        if (!prefixes.isEmpty()) {
+            SniffResult result = prefixes.match(data);
+            if (result.getState() == SniffResult.State.MATCHED) {
+                return result;
+            }
+            needMore = result.getState() == SniffResult.State.NEED_MORE;
+        }
+
+        if (!tlsServerNames.isEmpty()) {
+            String serverName = TlsServerNameSniffer.sniff(data);
+            if (serverName == null) {
+                needMore = true;
+            } else if (!serverName.isEmpty()) {
+                SocketAddress address = tlsServerNames.lookup(serverName);
+                if (address != null) {
+                    return SniffResult.routeTo(address);
+                }
+            }
+        }
+
+        if (!httpHosts.isEmpty()) {
+            String host = HttpHostSniffer.sniff(data);
+            if (host == null) {
+                needMore = true;
+            } else if (!host.isEmpty()) {
+                SocketAddress address = httpHosts.lookup(host);
+                if (address != null) {
+                    return SniffResult.routeTo(address);
+                }
+            }
+        }
+
+        for (ContentMatcher matcher : matchers) {
+            if (data.remaining() < matcher.minimumBytes()) {
+                needMore = true;
+                continue;
+            }
+            SocketAddress address = matcher.match(data.asReadOnlyBuffer());
+            if (address != null) {
+                return SniffResult.routeTo(address);
+            }
+        }
+
+        return needMore ? SniffResult.NEED_MORE : SniffResult.NO_MATCH;
+    }
+}
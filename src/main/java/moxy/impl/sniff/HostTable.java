@@ -0,0 +1,60 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Looks up host names using exact matches first, then wildcards (i.e. *.example.com) from the most specific to the least
+ */
+public class HostTable {
+    private final Map<String, SocketAddress> exact = new HashMap<>();
+    private final Map<String, SocketAddress> wildcards = new HashMap<>();
+
+    public void add(String hostName, SocketAddress address) {
+        String host = normalize(hostName);
+        if (host.startsWith("*.")) {
+            wildcards.put(host.substring(1), address);
+        } else {
+            exact.put(host, address);
+        }
+    }
+
+    public boolean isEmpty() {
+        return exact.isEmpty() && wildcards.isEmpty();
+    }
+
+    public SocketAddress lookup(String hostName) {
+        String host = normalize(hostName);
+        SocketAddress address = exact.get(host);
+        if (address != null || wildcards.isEmpty()) {
+            return address;
+        }
+
+        for (int dot = host.indexOf('.'); dot != -1; dot = host.indexOf('.', dot + 1)) {
+            address = wildcards.get(host.substring(dot));
+            if (address != null) {
+                return address;
+            }
+        }
+        return null;
+    }
+
+    private static String normalize(String hostName) {
+        String host = hostName.trim().toLowerCase(Locale.ROOT);
+        return host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls the Host header out of the start of an HTTP/1.x request
+ */
+public class HttpHostSniffer {
+    private static final int MAX_METHOD_LENGTH = 16;
+
+    public static final String NOT_HTTP = "";
+
+    /**
+     * @return the host name (without the port), null when more data is needed or {@link #NOT_HTTP}
+     */
+    public static String sniff(ByteBuffer data) {
+        int start = data.position();
+        int end = data.limit();
+
+        int i = start;
+        while (i < end && i - start <= MAX_METHOD_LENGTH) {
+            byte b = data.get(i);
+            if (b == ' ' && i > start) {
+                break;
+            }
+            if (b < 'A' || b > 'Z') {
+                return NOT_HTTP;
+            }
+            i++;
+        }
+        if (i == end) {
+            return null;
+        }
+        if (data.get(i) != ' ') {
+            return NOT_HTTP;
+        }
+
+        int lineStart = nextLine(data, i, end);
+        while (lineStart != -1) {
+            int lineEnd = nextLine(data, lineStart, end);
+            if (lineEnd == -1) {
+                return null;
+            }
+
+            int length = lineEnd - lineStart;
+            if (length <= 2 && isBlank(data, lineStart, lineEnd)) {
+                return NOT_HTTP;
+            }
+            if (startsWithHost(data, lineStart, lineEnd)) {
+                String value = new String(bytes(data, lineStart + 5, lineEnd), StandardCharsets.ISO_8859_1).trim();
+                return stripPort(value);
+            }
+            lineStart = lineEnd;
+        }
+        return null;
+    }
+
+    private static int nextLine(ByteBuffer data, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (data.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(ByteBuffer data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = data.get(i);
+            if (b != '\r' && b != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithHost(ByteBuffer data, int from, int to) {
+        if (to - from < 5) {
+            return false;
+        }
+        return (data.get(from) | 0x20) == 'h'
+                && (data.get(from + 1) | 0x20) == 'o'
+                && (data.get(from + 2) | 0x20) == 's'
+                && (data.get(from + 3) | 0x20) == 't'
+                && data.get(from + 4) == ':';
+    }
+
+    private static byte[] bytes(ByteBuffer data, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(from + i);
+        }
+        return bytes;
+    }
+
+    private static String stripPort(String host) {
+        if (host.startsWith("[")) {
+            int close = host.indexOf(']');
+            return close == -1 ? host : host.substring(1, close);
+        }
+        int colon = host.lastIndexOf(':');
+        return colon == -1 ? host : host.substring(0, colon);
+    }
+}
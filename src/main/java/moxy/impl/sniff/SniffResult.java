@@ -0,0 +1,48 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import java.net.SocketAddress;
+
+/**
+ * The outcome of looking at the first bytes of a connection
+ */
+public class SniffResult {
+    public static final SniffResult NEED_MORE = new SniffResult(State.NEED_MORE, null);
+    public static final SniffResult NO_MATCH = new SniffResult(State.NO_MATCH, null);
+    private final State state;
+    private final SocketAddress address;
+
+    private SniffResult(State state, SocketAddress address) {
+        this.state = state;
+        this.address = address;
+    }
+
+    public static SniffResult routeTo(SocketAddress address) {
+        return new SniffResult(State.MATCHED, address);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    public enum State {
+        MATCHED,
+        NEED_MORE,
+        NO_MATCH
+    }
+}
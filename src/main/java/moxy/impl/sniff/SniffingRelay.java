@@ -0,0 +1,178 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import moxy.CloseReason;
+import moxy.Log;
+import moxy.impl.ConnectionDispatch;
+import moxy.impl.ConnectionWatch;
+import moxy.impl.InterceptorChain;
+import moxy.impl.Relay;
+import moxy.impl.RelayInfo;
+import moxy.impl.SocketChannels;
+import moxy.impl.ThreadKiller;
+import moxy.impl.Upstream;
+import moxy.impl.buffer.BufferAllocator;
+import moxy.impl.conditions.ConditionedWriter;
+import moxy.impl.conditions.RouteConditions;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.Optional;
+
+/**
+ * Reads the first bytes of a connection until the content router can decide where it goes, then replays those bytes
+ * to the chosen route server and hands the connection over to a regular relay
+ */
+public class SniffingRelay extends Thread implements Relay {
+    private static final Log LOG = Log.get(SniffingRelay.class);
+    private final int listenPort;
+    private final SocketChannel client;
+    private final ContentRouter router;
+    private final ConnectionDispatch dispatchListener;
+    private final ConnectionWatch watch;
+    private final RouteConditions conditions;
+    private final InterceptorChain.PerRoute interceptors;
+    private final Upstream upstream;
+    private final BufferAllocator buffers;
+    private volatile RelayInfo relay;
+    private volatile boolean stopped;
+    private long lastReadAt = ConditionedWriter.UNTIMED;
+
+    public SniffingRelay(int listenPort, SocketChannel client, ContentRouter router, ConnectionDispatch dispatchListener) {
+        this(listenPort, client, router, dispatchListener, new ConnectionWatch(), new RouteConditions(), InterceptorChain.PerRoute.NONE,
+                Upstream.PLAIN, new BufferAllocator());
+    }
+
+    public SniffingRelay(int listenPort, SocketChannel client, ContentRouter router, ConnectionDispatch dispatchListener,
+                         ConnectionWatch watch, RouteConditions conditions, InterceptorChain.PerRoute interceptors, Upstream upstream,
+                         BufferAllocator buffers) {
+        super("MOXY-sniff-" + listenPort);
+        this.listenPort = listenPort;
+        this.client = client;
+        this.router = router;
+        this.dispatchListener = dispatchListener;
+        this.watch = watch;
+        this.conditions = conditions;
+        this.interceptors = interceptors;
+        this.upstream = upstream;
+        this.buffers = buffers;
+    }
+
+    public void run() {
+        try {
+            ByteBuffer firstBytes = ByteBuffer.allocate(ContentRouter.MAX_SNIFF_BYTES);
+            Optional<SocketAddress> routeToAddress = sniff(firstBytes);
+            if (!routeToAddress.isPresent()) {
+                LOG.debug("No route matched the connection on port [" + listenPort + "]");
+                watch.closing(CloseReason.NO_ROUTE);
+                SocketChannels.closeQuietly(client);
+                watch.finished();
+                return;
+            }
+            connectAndRelay(routeToAddress.get(), firstBytes);
+        } catch (IOException e) {
+            if (stopped || !client.isOpen()) {
+                LOG.debug("Connection closed while sniffing: " + e.getMessage());
+            } else {
+                watch.closing(CloseReason.ERROR);
+                LOG.error("Problem sniffing connection on port [" + listenPort + "]", e);
+            }
+            SocketChannels.closeQuietly(client);
+            watch.finished();
+        }
+    }
+
+    private Optional<SocketAddress> sniff(ByteBuffer firstBytes) throws IOException {
+        long deadline = System.currentTimeMillis() + router.getSniffTimeoutInMillis();
+        client.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            client.register(selector, SelectionKey.OP_READ);
+            while (!stopped && firstBytes.hasRemaining()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+
+                int read = client.read(firstBytes);
+                if (read == -1) {
+                    if (firstBytes.position() == 0) {
+                        watch.closing(CloseReason.CLIENT_CLOSED);
+                        return Optional.empty();
+                    }
+                    break;
+                }
+                if (read == 0) {
+                    continue;
+                }
+                lastReadAt = watch.readHappened();
+
+                SniffResult result = router.route(firstBytes.duplicate().flip());
+                if (result.getState() == SniffResult.State.MATCHED) {
+                    return Optional.of(result.getAddress());
+                }
+                if (result.getState() == SniffResult.State.NO_MATCH) {
+                    break;
+                }
+            }
+        }
+        client.configureBlocking(true);
+        return stopped ? Optional.empty() : router.getFallback();
+    }
+
+    private void connectAndRelay(SocketAddress routeToAddress, ByteBuffer firstBytes) throws IOException {
+        dispatchListener.connectionMade(listenPort, routeToAddress);
+        SocketChannel routeTo;
+        try {
+            long connectStartedAt = System.nanoTime();
+            routeTo = upstream.connect(routeToAddress);
+            dispatchListener.upstreamConnected(connectStartedAt);
+        } catch (IOException | UnresolvedAddressException e) {
+            LOG.error("Failed to connect to route server: " + routeToAddress, e);
+            watch.closing(CloseReason.CONNECT_FAILED);
+            SocketChannels.closeQuietly(client);
+            watch.finished();
+            return;
+        }
+
+        firstBytes.flip();
+        relay = new RelayInfo(listenPort, client, routeToAddress, routeTo, watch, conditions, interceptors, buffers);
+        relay.startRelaying(dispatchListener, firstBytes, lastReadAt);
+        if (stopped) {
+            relay.stopRelaying();
+        }
+    }
+
+    public void awaitFinish(long deadlineInMillis) {
+        ThreadKiller.waitUntil(this, deadlineInMillis);
+        if (relay != null) {
+            relay.awaitFinish(deadlineInMillis);
+        }
+    }
+
+    public void stopRelaying() {
+        stopped = true;
+        SocketChannels.closeQuietly(client);
+        ThreadKiller.killAndWait(this);
+        if (relay != null) {
+            relay.stopRelaying();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls the server name indication (SNI) out of a TLS ClientHello without terminating TLS
+ */
+public class TlsServerNameSniffer {
+    public static final int MAX_RECORD_LENGTH = 5 + 16384;
+    public static final String NOT_TLS = "";
+
+    private static final int HANDSHAKE = 0x16;
+    private static final int CLIENT_HELLO = 0x01;
+    private static final int SERVER_NAME_EXTENSION = 0x0000;
+    private static final int HOST_NAME = 0x00;
+
+    /**
+     * @return the server name, null when more data is needed or {@link #NOT_TLS} when there is no name to be found
+     */
+    public static String sniff(ByteBuffer data) {
+        int p = data.position();
+        int available = data.remaining();
+        if (available >= 1 && (data.get(p) & 0xFF) != HANDSHAKE) {
+            return NOT_TLS;
+        }
+        if (available >= 2 && data.get(p + 1) != 0x03) {
+            return NOT_TLS;
+        }
+        if (available < 5) {
+            return null;
+        }
+
+        int recordLength = readUnsignedShort(data, p + 3);
+        if (recordLength + 5 > MAX_RECORD_LENGTH) {
+            return NOT_TLS;
+        }
+        if (available < recordLength + 5) {
+            return null;
+        }
+
+        try {
+            return findServerName(data, p + 5, p + 5 + recordLength);
+        } catch (IndexOutOfBoundsException e) {
+            return NOT_TLS;
+        }
+    }
+
+    private static String findServerName(ByteBuffer data, int p, int end) {
+        if ((data.get(p) & 0xFF) != CLIENT_HELLO) {
+            return NOT_TLS;
+        }
+        p += 4;            // handshake type + length
+        p += 2 + 32;       // client version + random
+        p += 1 + (data.get(p) & 0xFF);          // session id
+        p += 2 + readUnsignedShort(data, p);    // cipher suites
+        p += 1 + (data.get(p) & 0xFF);          // compression methods
+        if (p + 2 > end) {
+            return NOT_TLS;
+        }
+
+        int extensionsEnd = Math.min(end, p + 2 + readUnsignedShort(data, p));
+        p += 2;
+        while (p + 4 <= extensionsEnd) {
+            int type = readUnsignedShort(data, p);
+            int length = readUnsignedShort(data, p + 2);
+            p += 4;
+            if (type == SERVER_NAME_EXTENSION) {
+                int listEnd = Math.min(p + length, p + 2 + readUnsignedShort(data, p));
+                p += 2;
+                while (p + 3 <= listEnd) {
+                    int nameType = data.get(p) & 0xFF;
+                    int nameLength = readUnsignedShort(data, p + 1);
+                    p += 3;
+                    if (nameType == HOST_NAME) {
+                        byte[] name = new byte[nameLength];
+                        for (int i = 0; i < nameLength; i++) {
+                            name[i] = data.get(p + i);
+                        }
+                        return new String(name, StandardCharsets.US_ASCII);
+                    }
+                    p += nameLength;
+                }
+                return NOT_TLS;
+            }
+            p += length;
+        }
+        return NOT_TLS;
+    }
+
+    private static int readUnsignedShort(ByteBuffer data, int index) {
+        return ((data.get(index) & 0xFF) << 8) | (data.get(index + 1) & 0xFF);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tls;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tells whether a handshake resumed an earlier session by looking at the hellos going by, the same way the two ends
+ * agree on it.
+ * <p>
+ * TLS 1.3 resumes when the ServerHello accepts one of the client's pre-shared keys. Before that the server resumes by
+ * echoing the session id of the ClientHello, while it makes up a new one for a full handshake.
+ */
+class ResumptionDetector {
+    private static final int HANDSHAKE_RECORD = 22;
+    private static final int CLIENT_HELLO = 1;
+    private static final int SERVER_HELLO = 2;
+    private static final int PRE_SHARED_KEY = 41;
+    private static final int SUPPORTED_VERSIONS = 43;
+    private static final int RECORD_HEADER_LENGTH = 5;
+    private static final int HANDSHAKE_HEADER_LENGTH = 4;
+    private static final int RANDOM_LENGTH = 32;
+    private byte[] clientSessionId;
+    private boolean resumed;
+
+    /**
+     * Look at the TLS records between the position and the limit of the data, without moving either
+     */
+    void inspect(ByteBuffer data) {
+        int record = data.position();
+        while (data.limit() - record >= RECORD_HEADER_LENGTH) {
+            int length = unsigned16(data, record + 3);
+            int end = record + RECORD_HEADER_LENGTH + length;
+            if (end > data.limit()) {
+                return;
+            }
+            if ((data.get(record) & 0xFF) == HANDSHAKE_RECORD && length >= HANDSHAKE_HEADER_LENGTH) {
+                try {
+                    inspectHandshake(data, record + RECORD_HEADER_LENGTH, end);
+                } catch (IndexOutOfBoundsException malformed) {
+                    // the engine will fail the handshake on it
+                }
+            }
+            record = end;
+        }
+    }
+
+    boolean isResumed() {
+        return resumed;
+    }
+
+    private void inspectHandshake(ByteBuffer data, int message, int end) {
+        int type = data.get(message) & 0xFF;
+        if (type != CLIENT_HELLO && type != SERVER_HELLO) {
+            return;
+        }
+        int sessionIdAt = message + HANDSHAKE_HEADER_LENGTH + 2 + RANDOM_LENGTH;
+        byte[] sessionId = new byte[data.get(sessionIdAt) & 0xFF];
+        data.get(sessionIdAt + 1, sessionId);
+        if (type == CLIENT_HELLO) {
+            clientSessionId = sessionId;
+            return;
+        }
+        int extensions = sessionIdAt + 1 + sessionId.length + 2 + 1;
+        boolean tls13 = false;
+        boolean preSharedKey = false;
+        if (extensions < end) {
+            int extensionsEnd = Math.min(end, extensions + 2 + unsigned16(data, extensions));
+            for (int extension = extensions + 2; extension + 4 <= extensionsEnd; extension += 4 + unsigned16(data, extension + 2)) {
+                int extensionType = unsigned16(data, extension);
+                tls13 |= extensionType == SUPPORTED_VERSIONS;
+                preSharedKey |= extensionType == PRE_SHARED_KEY;
+            }
+        }
+        if (tls13) {
+            resumed = preSharedKey;
+        } else {
+            resumed = sessionId.length > 0 && Arrays.equals(sessionId, clientSessionId);
+        }
+    }
+
+    private static int unsigned16(ByteBuffer data, int index) {
+        return data.getShort(index) & 0xFFFF;
+    }
+}
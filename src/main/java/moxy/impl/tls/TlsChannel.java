@@ -0,0 +1,379 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tls;
+
+import moxy.impl.SocketChannels;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A channel that speaks TLS over another channel, so the relays can read and write plain data without knowing.
+ * <p>
+ * The handshake happens on the first read or write, whichever thread gets there first does it while the other waits.
+ * After that reading and writing can happen at the same time from different threads like with any other channel.
+ */
+public class TlsChannel extends SocketChannel {
+    private static final ByteBuffer NO_DATA = ByteBuffer.allocate(0);
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final TlsCounters counters;
+    private final ResumptionDetector resumption = new ResumptionDetector();
+    private final Object handshakeLock = new Object();
+    private final Object readLock = new Object();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile boolean handshaken;
+    private boolean inboundDone;
+    private ByteBuffer networkIn;
+    private ByteBuffer plainIn;
+    private ByteBuffer networkOut;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine, TlsCounters counters) {
+        super(channel.provider());
+        this.channel = channel;
+        this.engine = engine;
+        this.counters = counters;
+        SSLSession session = engine.getSession();
+        networkIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        plainIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        networkOut = ByteBuffer.allocate(session.getPacketBufferSize());
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        handshake();
+        synchronized (readLock) {
+            while (true) {
+                if (plainIn.position() > 0) {
+                    return drainTo(dst);
+                }
+                if (inboundDone) {
+                    return -1;
+                }
+                SSLEngineResult result = unwrap();
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        int read = readMore();
+                        if (read == -1) {
+                            inboundDone = true;
+                        } else if (read == 0) {
+                            return 0;
+                        }
+                        break;
+                    case BUFFER_OVERFLOW:
+                        plainIn = enlarge(plainIn, engine.getSession().getApplicationBufferSize());
+                        break;
+                    case CLOSED:
+                        inboundDone = true;
+                        break;
+                    default:
+                        afterHandshakeMessage(result.getHandshakeStatus());
+                }
+            }
+        }
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        handshake();
+        writeLock.lock();
+        try {
+            int written = 0;
+            do {
+                SSLEngineResult result = wrap(src);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new ClosedChannelException();
+                }
+                written += result.bytesConsumed();
+            } while (src.hasRemaining());
+            return written;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (dsts[i].hasRemaining()) {
+                return read(dsts[i]);
+            }
+        }
+        return 0;
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += write(srcs[i]);
+        }
+        return written;
+    }
+
+    private void handshake() throws IOException {
+        if (handshaken) {
+            return;
+        }
+        synchronized (handshakeLock) {
+            if (handshaken) {
+                return;
+            }
+            long startedAt = System.nanoTime();
+            try {
+                engine.beginHandshake();
+                synchronized (readLock) {
+                    writeLock.lock();
+                    try {
+                        handshakeUntilDone();
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                counters.handshakeFailed();
+                throw e;
+            }
+            handshaken = true;
+            counters.handshakeCompleted(resumption.isResumed(), System.nanoTime() - startedAt);
+        }
+    }
+
+    private void handshakeUntilDone() throws IOException {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            switch (status) {
+                case NEED_WRAP:
+                    SSLEngineResult wrapped = wrap(NO_DATA);
+                    if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("The connection was closed during the handshake");
+                    }
+                    status = wrapped.getHandshakeStatus();
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    SSLEngineResult unwrapped = unwrap();
+                    if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        if (readMore() == -1) {
+                            throw new SSLException("The connection was closed during the handshake");
+                        }
+                    } else if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        plainIn = enlarge(plainIn, engine.getSession().getApplicationBufferSize());
+                    } else if (unwrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("The connection was closed during the handshake");
+                    }
+                    status = engine.getHandshakeStatus();
+                    break;
+                case NEED_TASK:
+                    runTasks();
+                    status = engine.getHandshakeStatus();
+                    break;
+                default:
+                    throw new SSLException("Unexpected handshake status: " + status);
+            }
+        }
+    }
+
+    /**
+     * TLS 1.3 can send handshake messages after the handshake (i.e. key updates), some of which need an answer
+     */
+    private void afterHandshakeMessage(SSLEngineResult.HandshakeStatus status) throws IOException {
+        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runTasks();
+            status = engine.getHandshakeStatus();
+        }
+        if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            writeLock.lock();
+            try {
+                while (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    if (wrap(NO_DATA).getStatus() == SSLEngineResult.Status.CLOSED) {
+                        break;
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private SSLEngineResult unwrap() throws SSLException {
+        networkIn.flip();
+        try {
+            if (!handshaken) {
+                resumption.inspect(networkIn);
+            }
+            return engine.unwrap(networkIn, plainIn);
+        } finally {
+            networkIn.compact();
+        }
+    }
+
+    /**
+     * Wrap and write a single TLS record
+     */
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            networkOut.clear();
+            SSLEngineResult result = engine.wrap(src, networkOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                networkOut = enlarge(networkOut, engine.getSession().getPacketBufferSize());
+                continue;
+            }
+            networkOut.flip();
+            if (!handshaken) {
+                resumption.inspect(networkOut);
+            }
+            SocketChannels.writeFully(channel, networkOut);
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+            }
+            return result;
+        }
+    }
+
+    private int readMore() throws IOException {
+        if (!networkIn.hasRemaining()) {
+            networkIn = enlarge(networkIn, engine.getSession().getPacketBufferSize());
+        }
+        return channel.read(networkIn);
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private int drainTo(ByteBuffer dst) {
+        plainIn.flip();
+        int length = Math.min(plainIn.remaining(), dst.remaining());
+        dst.put(plainIn.slice(plainIn.position(), length));
+        plainIn.position(plainIn.position() + length);
+        plainIn.compact();
+        return length;
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * Tell the other end the data is done (close_notify) and stop sending
+     */
+    public SocketChannel shutdownOutput() throws IOException {
+        engine.closeOutbound();
+        if (handshaken) {
+            writeLock.lock();
+            try {
+                wrap(NO_DATA);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        channel.shutdownOutput();
+        return this;
+    }
+
+    public SocketChannel shutdownInput() throws IOException {
+        channel.shutdownInput();
+        return this;
+    }
+
+    /**
+     * Sends a close_notify when it can do so without waiting on a write in progress, then closes the channel
+     */
+    protected void implCloseSelectableChannel() throws IOException {
+        try {
+            engine.closeOutbound();
+            if (handshaken && channel.isOpen() && writeLock.tryLock()) {
+                try {
+                    wrap(NO_DATA);
+                } catch (IOException e) {
+
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        channel.configureBlocking(block);
+    }
+
+    public SocketChannel bind(SocketAddress local) throws IOException {
+        channel.bind(local);
+        return this;
+    }
+
+    public <T> SocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+        channel.setOption(name, value);
+        return this;
+    }
+
+    public <T> T getOption(SocketOption<T> name) throws IOException {
+        return channel.getOption(name);
+    }
+
+    public Set<SocketOption<?>> supportedOptions() {
+        return channel.supportedOptions();
+    }
+
+    /**
+     * @return the socket of the underlying channel, so what it says is available are encrypted bytes
+     */
+    public Socket socket() {
+        return channel.socket();
+    }
+
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    public boolean isConnectionPending() {
+        return channel.isConnectionPending();
+    }
+
+    public boolean connect(SocketAddress remote) throws IOException {
+        return channel.connect(remote);
+    }
+
+    public boolean finishConnect() throws IOException {
+        return channel.finishConnect();
+    }
+
+    public SocketAddress getRemoteAddress() throws IOException {
+        return channel.getRemoteAddress();
+    }
+
+    public SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    public String toString() {
+        return "TLS " + channel;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tls;
+
+import moxy.LatencySnapshot;
+import moxy.TlsStats;
+import moxy.impl.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class TlsCounters implements TlsStats {
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+    private final LongAdder failedHandshakes = new LongAdder();
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+
+    void handshakeCompleted(boolean resumed, long nanos) {
+        handshakes.increment();
+        if (resumed) {
+            resumedHandshakes.increment();
+        }
+        handshakeLatency.record(nanos);
+    }
+
+    void handshakeFailed() {
+        failedHandshakes.increment();
+    }
+
+    public long getHandshakes() {
+        return handshakes.sum();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.sum();
+    }
+
+    public long getFailedHandshakes() {
+        return failedHandshakes.sum();
+    }
+
+    public LatencySnapshot getHandshakeLatency() {
+        return handshakeLatency.snapshot();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tls;
+
+import moxy.Tls;
+import moxy.impl.SocketChannels;
+import moxy.impl.Upstream;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Wraps the channels of one side of a route in TLS
+ */
+public class TlsEndpoint {
+    private final Tls tls;
+
+    private TlsEndpoint(Tls tls) {
+        this.tls = new Tls(tls);
+    }
+
+    /**
+     * @return the endpoint for speaking TLS with the clients, as the server
+     */
+    public static TlsEndpoint terminating(Tls tls) {
+        configure(tls.getContext().getServerSessionContext(), tls);
+        return new TlsEndpoint(tls);
+    }
+
+    /**
+     * @return the endpoint for speaking TLS with the route server, as the client
+     */
+    public static TlsEndpoint originating(Tls tls) {
+        configure(tls.getContext().getClientSessionContext(), tls);
+        return new TlsEndpoint(tls);
+    }
+
+    private static void configure(SSLSessionContext sessions, Tls tls) {
+        tls.getSessionCacheSize().ifPresent(sessions::setSessionCacheSize);
+        tls.getSessionTimeoutInSeconds().ifPresent(sessions::setSessionTimeout);
+    }
+
+    /**
+     * @return opens connections to the route server that speak TLS
+     */
+    public Upstream upstream(TlsCounters counters) {
+        return (address) -> connected(SocketChannels.connect(address), address, counters);
+    }
+
+    public SocketChannel accepted(SocketChannel client, TlsCounters counters) {
+        SSLEngine engine = tls.getContext().createSSLEngine();
+        engine.setUseClientMode(false);
+        return new TlsChannel(client, engine, counters);
+    }
+
+    /**
+     * @param address - where the channel is connected to, so sessions can be resumed and the host name verified
+     */
+    public SocketChannel connected(SocketChannel routeTo, SocketAddress address, TlsCounters counters) {
+        SSLContext context = tls.getContext();
+        SSLEngine engine;
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inetAddress = (InetSocketAddress) address;
+            engine = context.createSSLEngine(inetAddress.getHostString(), inetAddress.getPort());
+        } else {
+            engine = context.createSSLEngine();
+        }
+        engine.setUseClientMode(true);
+        if (tls.isVerifyHostName() && address instanceof InetSocketAddress) {
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+        }
+        return new TlsChannel(routeTo, engine, counters);
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tunnel;
+
+import moxy.Direction;
+import moxy.Interceptor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses one direction of a tunnel as a single Deflate stream. While the input keeps coming the compressed blocks
+ * are only passed on once enough data was seen, as soon as the input goes quiet whatever is pending is flushed so small
+ * interactive messages are not held back
+ */
+public class Compressing implements Interceptor {
+    static final int MAX_UNFLUSHED_BYTES = 64 * 1024;
+    private static final byte[] NO_INPUT = new byte[0];
+    private final Direction direction;
+    private final TunnelCounters counters;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] compressed = new byte[16 * 1024];
+    private long unflushed;
+
+    public Compressing(Direction direction, TunnelCounters counters) {
+        this.direction = direction;
+        this.counters = counters;
+    }
+
+    public void intercept(ByteBuffer data, Next next) throws IOException {
+        long startedAt = TunnelCounters.cpuNow();
+        int length = data.remaining();
+        unflushed += length;
+        deflater.setInput(data);
+        long sent = 0;
+        while (!deflater.needsInput()) {
+            sent += deflate(Deflater.NO_FLUSH, next);
+        }
+        // the deflater would otherwise hold on to the buffer, which the relay reuses for the next read
+        deflater.setInput(NO_INPUT);
+        if (unflushed >= MAX_UNFLUSHED_BYTES) {
+            sent += syncFlush(next);
+        }
+        counters.coded(direction, length, sent, startedAt);
+    }
+
+    public void flush(Next next) throws IOException {
+        if (unflushed > 0) {
+            long startedAt = TunnelCounters.cpuNow();
+            counters.coded(direction, 0, syncFlush(next), startedAt);
+        }
+    }
+
+    public void finish(Next next) throws IOException {
+        long startedAt = TunnelCounters.cpuNow();
+        deflater.finish();
+        long sent = 0;
+        while (!deflater.finished()) {
+            sent += deflate(Deflater.NO_FLUSH, next);
+        }
+        deflater.end();
+        counters.coded(direction, 0, sent, startedAt);
+    }
+
+    private long syncFlush(Next next) throws IOException {
+        long sent = 0;
+        int length;
+        do {
+            length = deflate(Deflater.SYNC_FLUSH, next);
+            sent += length;
+        } while (length == compressed.length);
+        unflushed = 0;
+        return sent;
+    }
+
+    private int deflate(int flush, Next next) throws IOException {
+        int length = deflater.deflate(compressed, 0, compressed.length, flush);
+        if (length > 0) {
+            next.send(ByteBuffer.wrap(compressed, 0, length));
+        }
+        return length;
+    }
+}
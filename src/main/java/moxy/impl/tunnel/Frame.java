@@ -0,0 +1,56 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tunnel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame queued to be written to a multiplexed tunnel connection
+ */
+class Frame {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    final byte type;
+    final int streamId;
+    final ByteBuffer payload;
+    private final MuxStream sender;
+    private final long readAtNanos;
+
+    private Frame(byte type, int streamId, ByteBuffer payload, MuxStream sender, long readAtNanos) {
+        this.type = type;
+        this.streamId = streamId;
+        this.payload = payload;
+        this.sender = sender;
+        this.readAtNanos = readAtNanos;
+    }
+
+    static Frame data(MuxStream sender, ByteBuffer payload, long readAtNanos) {
+        return new Frame(MuxConnection.DATA, sender.getStreamId(), payload, sender, readAtNanos);
+    }
+
+    static Frame control(byte type, int streamId) {
+        return new Frame(type, streamId, EMPTY, null, 0);
+    }
+
+    static Frame control(byte type, int streamId, ByteBuffer payload) {
+        return new Frame(type, streamId, payload, null, 0);
+    }
+
+    /**
+     * The frame made it onto the tunnel connection
+     */
+    void written() {
+        if (sender != null) {
+            sender.frameWritten(readAtNanos);
+        }
+    }
+}
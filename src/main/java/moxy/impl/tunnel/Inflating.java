@@ -0,0 +1,67 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tunnel;
+
+import moxy.Direction;
+import moxy.Interceptor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates one direction of a tunnel that the Moxy on the other end compressed, passing on all it can right away
+ */
+public class Inflating implements Interceptor {
+    private static final byte[] NO_INPUT = new byte[0];
+    private final Direction direction;
+    private final TunnelCounters counters;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] inflated = new byte[32 * 1024];
+
+    public Inflating(Direction direction, TunnelCounters counters) {
+        this.direction = direction;
+        this.counters = counters;
+    }
+
+    public void intercept(ByteBuffer data, Next next) throws IOException {
+        long startedAt = TunnelCounters.cpuNow();
+        int length = data.remaining();
+        long sent = 0;
+        inflater.setInput(data);
+        try {
+            int inflatedLength;
+            do {
+                inflatedLength = inflater.inflate(inflated);
+                if (inflatedLength == 0 && inflater.needsDictionary()) {
+                    throw new IOException("The tunnel data needs a dictionary, is the other end a Moxy tunnel?");
+                }
+                if (inflatedLength > 0) {
+                    next.send(ByteBuffer.wrap(inflated, 0, inflatedLength));
+                    sent += inflatedLength;
+                }
+            } while (inflatedLength == inflated.length || (!inflater.needsInput() && !inflater.finished()));
+        } catch (DataFormatException e) {
+            throw new IOException("The tunnel data could not be inflated, is the other end a Moxy tunnel?", e);
+        } finally {
+            inflater.setInput(NO_INPUT);
+            data.position(data.limit());
+        }
+        counters.coded(direction, sent, length, startedAt);
+    }
+
+    public void finish(Next next) {
+        inflater.end();
+    }
+}
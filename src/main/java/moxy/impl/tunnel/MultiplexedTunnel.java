@@ -0,0 +1,83 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tunnel;
+
+import moxy.Direction;
+import moxy.impl.ConnectionDispatch;
+import moxy.impl.ConnectionWatch;
+import moxy.impl.SocketChannels;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The ENTRY of a multiplexed tunnel, spreading the client connections of a route over a few persistent connections to
+ * the EXIT. A connection is only opened once it is needed and opened again when it was lost.
+ */
+public class MultiplexedTunnel {
+    private final SocketAddress exitAddress;
+    private final MuxConnection[] connections;
+    private int next;
+    private boolean closed;
+
+    public MultiplexedTunnel(SocketAddress exitAddress, int connections) {
+        this.exitAddress = exitAddress;
+        this.connections = new MuxConnection[connections];
+    }
+
+    /**
+     * @return the client connection as a stream of one of the tunnel connections, which still needs to be started
+     */
+    public MuxStream open(SocketChannel client, int listenPort, TunnelCounters counters, ConnectionDispatch dispatch,
+                          ConnectionWatch watch) throws IOException {
+        return nextConnection(counters).newStream(client, exitAddress, listenPort, dispatch, watch);
+    }
+
+    private synchronized MuxConnection nextConnection(TunnelCounters counters) throws IOException {
+        if (closed) {
+            throw new IOException("The tunnel to " + exitAddress + " is closed");
+        }
+        int slot = next;
+        next = (next + 1) % connections.length;
+        MuxConnection connection = connections[slot];
+        if (connection == null || connection.isClosed()) {
+            connection = new MuxConnection(SocketChannels.connect(exitAddress), Direction.CLIENT_TO_SERVER, counters,
+                    new ConnectionWatch(), null);
+            connection.start();
+            connections[slot] = connection;
+        }
+        return connection;
+    }
+
+    /**
+     * @return how many connections to the EXIT are open
+     */
+    public synchronized int getOpenConnections() {
+        return (int) Arrays.stream(connections).filter(Objects::nonNull).filter((connection) -> !connection.isClosed()).count();
+    }
+
+    /**
+     * Stop opening streams, the tunnel connections are closed once the streams they carry are done
+     */
+    public synchronized void close() {
+        closed = true;
+        for (MuxConnection connection : connections) {
+            if (connection != null) {
+                connection.closeWhenIdle();
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tunnel;
+
+import moxy.CloseReason;
+import moxy.Direction;
+import moxy.Interceptor;
+import moxy.Log;
+import moxy.impl.ConnectionDispatch;
+import moxy.impl.ConnectionWatch;
+import moxy.impl.DispatchListener;
+import moxy.impl.Relay;
+import moxy.impl.SocketChannels;
+import moxy.impl.ThreadKiller;
+import moxy.impl.Upstream;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One connection between the two ends of a multiplexed tunnel, carrying the streams of many client connections.
+ * <p>
+ * Every frame is a type, a stream id and a payload length followed by the payload, all of it Deflate compressed like a
+ * plain tunnel. A single thread writes the frames in the order they were queued and a stream never has more than one
+ * data frame queued, so the streams take turns and a bulk transfer can not starve the others. The compressed data is
+ * flushed whenever there is nothing left to write.
+ */
+public class MuxConnection implements Relay {
+    static final byte OPEN = 1;
+    static final byte DATA = 2;
+    static final byte WINDOW = 3;
+    static final byte CLOSE = 4;
+    static final byte RESET = 5;
+    static final int HEADER_BYTES = 9;
+    static final int MAX_PAYLOAD_BYTES = 16 * 1024;
+    private static final Log LOG = Log.get(MuxConnection.class);
+    private final SocketChannel channel;
+    private final ConnectionWatch watch;
+    private final StreamOpener opener;
+    private final Compressing compressing;
+    private final Inflating inflating;
+    private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+    private final Map<Integer, MuxStream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger lastStreamId = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closeWhenIdle;
+    private final Thread writer;
+    private final Thread reader;
+
+    /**
+     * Opens the streams the other end asks for
+     */
+    interface StreamOpener {
+        MuxStream open(MuxConnection connection, int streamId);
+    }
+
+    /**
+     * @param outbound - which way the data this end writes flows
+     * @param opener   - null for the end that opens the streams itself
+     */
+    MuxConnection(SocketChannel channel, Direction outbound, TunnelCounters counters, ConnectionWatch watch, StreamOpener opener) {
+        this.channel = channel;
+        this.watch = watch;
+        this.opener = opener;
+        this.compressing = new Compressing(outbound, counters);
+        this.inflating = new Inflating(outbound == Direction.CLIENT_TO_SERVER ? Direction.SERVER_TO_CLIENT : Direction.CLIENT_TO_SERVER, counters);
+        this.writer = new Thread(this::writeFrames, "MOXY-mux-writer: " + channel);
+        this.reader = new Thread(this::readFrames, "MOXY-mux-reader: " + channel);
+        writer.setDaemon(true);
+        reader.setDaemon(true);
+    }
+
+    /**
+     * @return the end of a tunnel connection that an ENTRY accepted, opening a connection to the route server for each
+     * stream
+     */
+    public static MuxConnection exit(SocketChannel channel, SocketAddress routeToAddress, Upstream upstream, int listenPort,
+                                     TunnelCounters counters, ConnectionWatch watch, DispatchListener dispatchListener,
+                                     ConnectionWatch.PerRoute streamWatches) {
+        return new MuxConnection(channel, Direction.SERVER_TO_CLIENT, counters, watch,
+                (connection, streamId) -> MuxStream.toRouteServer(connection, streamId, routeToAddress, upstream, listenPort,
+                        dispatchListener.forConnection(listenPort), streamWatches));
+    }
+
+    public void start() {
+        writer.start();
+        reader.start();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @return a new stream for a client connection, which still needs to be started
+     */
+    MuxStream newStream(SocketChannel client, SocketAddress remoteAddress, int listenPort, ConnectionDispatch dispatch,
+                        ConnectionWatch clientWatch) {
+        int streamId = lastStreamId.incrementAndGet();
+        MuxStream stream = new MuxStream(this, streamId, () -> client, Direction.CLIENT_TO_SERVER, remoteAddress, listenPort,
+                dispatch, clientWatch);
+        streams.put(streamId, stream);
+        return stream;
+    }
+
+    int getStreamCount() {
+        return streams.size();
+    }
+
+    void send(Frame frame) throws IOException {
+        if (closed.get()) {
+            throw new IOException("The tunnel connection is closed: " + channel);
+        }
+        frames.add(frame);
+    }
+
+    void streamFinished(MuxStream stream) {
+        streams.remove(stream.getStreamId(), stream);
+        if (closeWhenIdle && streams.isEmpty()) {
+            close(CloseReason.STOPPED);
+        }
+    }
+
+    /**
+     * No new streams will be opened, close the connection once the last one is done
+     */
+    void closeWhenIdle() {
+        closeWhenIdle = true;
+        if (streams.isEmpty()) {
+            close(CloseReason.STOPPED);
+        }
+    }
+
+    private void writeFrames() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        Interceptor.Next toChannel = data -> SocketChannels.writeFully(channel, data);
+        try {
+            while (!closed.get()) {
+                Frame frame = frames.take();
+                header.clear();
+                header.put(frame.type).putInt(frame.streamId).putInt(frame.payload.remaining()).flip();
+                compressing.intercept(header, toChannel);
+                if (frame.payload.hasRemaining()) {
+                    compressing.intercept(frame.payload, toChannel);
+                }
+                frame.written();
+                if (frames.isEmpty()) {
+                    compressing.flush(toChannel);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                LOG.error("Problem writing to tunnel connection: " + channel, e);
+            }
+        } catch (InterruptedException e) {
+
+        } finally {
+            close(CloseReason.ERROR);
+        }
+    }
+
+    private void readFrames() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + MAX_PAYLOAD_BYTES);
+        FrameReader frameReader = new FrameReader();
+        CloseReason reason = CloseReason.ERROR;
+        try {
+            while (channel.read(buffer) != -1) {
+                watch.readHappened();
+                buffer.flip();
+                inflating.intercept(buffer, frameReader);
+                buffer.clear();
+            }
+            reason = opener == null ? CloseReason.SERVER_CLOSED : CloseReason.CLIENT_CLOSED;
+        } catch (IOException e) {
+            if (!closed.get()) {
+                LOG.error("Problem reading from tunnel connection: " + channel, e);
+            }
+        } finally {
+            close(reason);
+        }
+    }
+
+    private void received(byte type, int streamId, ByteBuffer payload) throws IOException {
+        MuxStream stream = streams.get(streamId);
+        switch (type) {
+            case OPEN:
+                if (opener == null || stream != null) {
+                    send(Frame.control(RESET, streamId, MuxStream.reason(CloseReason.ERROR)));
+                } else {
+                    stream = opener.open(this, streamId);
+                    streams.put(streamId, stream);
+                    stream.start();
+                }
+                break;
+            case DATA:
+                if (!payload.hasRemaining()) {
+                    throw malformedFrame(type, streamId);
+                }
+                if (stream != null) {
+                    ByteBuffer data = ByteBuffer.allocate(payload.remaining());
+                    data.put(payload).flip();
+                    stream.received(data, watch.readHappened());
+                }
+                break;
+            case WINDOW:
+                if (payload.remaining() != Integer.BYTES || payload.getInt(payload.position()) <= 0) {
+                    throw malformedFrame(type, streamId);
+                }
+                if (stream != null) {
+                    stream.windowOpened(payload.getInt());
+                }
+                break;
+            case CLOSE:
+                if (stream != null) {
+                    stream.remoteClosed();
+                }
+                break;
+            case RESET:
+                if (payload.remaining() != 1 || payload.get(payload.position()) < 0 || payload.get(payload.position()) >= CloseReason.values().length) {
+                    throw malformedFrame(type, streamId);
+                }
+                if (stream != null) {
+                    stream.remoteReset(CloseReason.values()[payload.get()]);
+                }
+                break;
+            default:
+                throw new IOException("Unknown frame type [" + type + "] on tunnel connection: " + channel);
+        }
+    }
+
+    private IOException malformedFrame(byte type, int streamId) {
+        return new IOException("Received a malformed frame of type [" + type + "] for stream " + streamId + " on tunnel connection: " + channel);
+    }
+
+    private void close(CloseReason reason) {
+        if (closed.compareAndSet(false, true)) {
+            SocketChannels.closeQuietly(channel);
+            streams.values().forEach((stream) -> stream.reset(CloseReason.ERROR, false));
+            streams.clear();
+            if (Thread.currentThread() != writer) {
+                writer.interrupt();
+            }
+            watch.closing(reason);
+            watch.finished();
+        }
+    }
+
+    public void awaitFinish(long deadlineInMillis) {
+        streams.values().forEach((stream) -> stream.awaitFinish(deadlineInMillis));
+    }
+
+    public void stopRelaying() {
+        streams.values().forEach(MuxStream::stopRelaying);
+        close(CloseReason.STOPPED);
+        ThreadKiller.killAndWait(writer);
+        ThreadKiller.killAndWait(reader);
+    }
+
+    /**
+     * Cuts the inflated data back up into frames, which can arrive in any number of pieces
+     */
+    private class FrameReader implements Interceptor.Next {
+        private final ByteBuffer pending = ByteBuffer.allocate(HEADER_BYTES + MAX_PAYLOAD_BYTES);
+
+        public void send(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                int length = Math.min(pending.remaining(), data.remaining());
+                pending.put(data.slice(data.position(), length));
+                data.position(data.position() + length);
+
+                pending.flip();
+                while (pending.remaining() >= HEADER_BYTES) {
+                    int payloadLength = pending.getInt(pending.position() + 5);
+                    if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_BYTES) {
+                        throw new IOException("Frame of " + payloadLength + " bytes is too big on tunnel connection: " + channel);
+                    }
+                    if (pending.remaining() < HEADER_BYTES + payloadLength) {
+                        break;
+                    }
+                    byte type = pending.get();
+                    int streamId = pending.getInt();
+                    pending.getInt();
+                    ByteBuffer payload = pending.slice(pending.position(), payloadLength);
+                    pending.position(pending.position() + payloadLength);
+                    received(type, streamId, payload);
+                }
+                pending.compact();
+            }
+        }
+    }
+}
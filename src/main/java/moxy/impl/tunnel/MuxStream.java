@@ -0,0 +1,335 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tunnel;
+
+import moxy.CloseReason;
+import moxy.Direction;
+import moxy.Log;
+import moxy.impl.ConnectionDispatch;
+import moxy.impl.ConnectionWatch;
+import moxy.impl.Relay;
+import moxy.impl.SocketChannels;
+import moxy.impl.ThreadKiller;
+import moxy.impl.Upstream;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single client connection carried by a multiplexed tunnel connection, relaying between the tunnel and the local
+ * socket (the client at the ENTRY, the route server at the EXIT) with one thread per direction like any other relay.
+ * <p>
+ * Each end may only send as much data as the other end has room for (the window), the receiving end opens the window
+ * again as it writes the data out, so a stream whose local socket is slow can not hold up the tunnel connection. The
+ * receiving end keeps track of the window it gave out as well and resets a stream whose other end sends more than that,
+ * so the data queued for a stream never goes past its window.
+ */
+public class MuxStream implements Relay {
+    static final int INITIAL_WINDOW_BYTES = 256 * 1024;
+    private static final Log LOG = Log.get(MuxStream.class);
+    private static final Received END = new Received(null, 0);
+    private static final Received RESET = new Received(null, 0);
+    private final MuxConnection connection;
+    private final int streamId;
+    private final Callable<SocketChannel> connect;
+    private final Direction outbound;
+    private final SocketAddress remoteAddress;
+    private final int listenPort;
+    private final ConnectionDispatch dispatch;
+    private final ConnectionWatch watch;
+    private final BlockingQueue<Received> received = new LinkedBlockingQueue<>(INITIAL_WINDOW_BYTES + 2);
+    private final Semaphore frameQueued = new Semaphore(1);
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private final AtomicBoolean reset = new AtomicBoolean();
+    private final AtomicBoolean remoteClosed = new AtomicBoolean();
+    private final AtomicInteger receiveWindow = new AtomicInteger(INITIAL_WINDOW_BYTES);
+    private final AtomicInteger directionsRelaying = new AtomicInteger(2);
+    private final Object windowLock = new Object();
+    private int window = INITIAL_WINDOW_BYTES;
+    private volatile SocketChannel local;
+    private Thread toTunnel;
+    private Thread fromTunnel;
+
+    /**
+     * @param connect  - gives the local socket, called from the stream's own thread
+     * @param outbound - which way the data read from the local socket flows
+     */
+    MuxStream(MuxConnection connection, int streamId, Callable<SocketChannel> connect, Direction outbound,
+              SocketAddress remoteAddress, int listenPort, ConnectionDispatch dispatch, ConnectionWatch watch) {
+        this.connection = connection;
+        this.streamId = streamId;
+        this.connect = connect;
+        this.outbound = outbound;
+        this.remoteAddress = remoteAddress;
+        this.listenPort = listenPort;
+        this.dispatch = dispatch;
+        this.watch = watch;
+    }
+
+    /**
+     * @return a stream the ENTRY opened, relayed to a new connection to the route server
+     */
+    static MuxStream toRouteServer(MuxConnection connection, int streamId, SocketAddress routeToAddress, Upstream upstream,
+                                   int listenPort, ConnectionDispatch dispatch, ConnectionWatch.PerRoute watches) {
+        ConnectionWatch watch = watches.newWatch((closed) -> dispatch.connectionClosed(listenPort, routeToAddress, closed.getCloseReason()));
+        watch.start(routeToAddress, () -> {
+        });
+        return new MuxStream(connection, streamId, () -> {
+            dispatch.connectionMade(listenPort, routeToAddress);
+            long connectStartedAt = System.nanoTime();
+            SocketChannel routeTo = upstream.connect(routeToAddress);
+            dispatch.upstreamConnected(connectStartedAt);
+            return routeTo;
+        }, Direction.SERVER_TO_CLIENT, routeToAddress, listenPort, dispatch, watch);
+    }
+
+    static ByteBuffer reason(CloseReason reason) {
+        return ByteBuffer.allocate(1).put(0, (byte) reason.ordinal());
+    }
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    public void start() throws IOException {
+        if (outbound == Direction.CLIENT_TO_SERVER) {
+            connection.send(Frame.control(MuxConnection.OPEN, streamId));
+        }
+        watch.closeWith(remoteAddress, () -> reset(CloseReason.ERROR, true));
+        toTunnel = new Thread(this::sendLocalData, "MOXY-mux-stream-" + streamId + " TO TUNNEL");
+        fromTunnel = new Thread(this::receiveTunnelData, "MOXY-mux-stream-" + streamId + " FROM TUNNEL");
+        toTunnel.setDaemon(true);
+        fromTunnel.setDaemon(true);
+        toTunnel.start();
+        fromTunnel.start();
+    }
+
+    private void sendLocalData() {
+        try {
+            if (!connectLocal()) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(MuxConnection.MAX_PAYLOAD_BYTES);
+            while (true) {
+                int allowed = awaitWindow();
+                frameQueued.acquire();
+                if (allowed == 0 || reset.get()) {
+                    return;
+                }
+                buffer.clear().limit(allowed);
+                int length = local.read(buffer);
+                if (length == -1) {
+                    frameQueued.release();
+                    break;
+                }
+                long readAt = watch.readHappened();
+                buffer.flip();
+                takeWindow(length);
+                dispatch(outbound, buffer);
+                connection.send(Frame.data(this, buffer, readAt));
+            }
+            watch.closing(outbound == Direction.CLIENT_TO_SERVER ? CloseReason.CLIENT_CLOSED : CloseReason.SERVER_CLOSED);
+            connection.send(Frame.control(MuxConnection.CLOSE, streamId));
+        } catch (IOException e) {
+            if (!reset.get()) {
+                LOG.debug("Problem relaying stream [" + streamId + "] into the tunnel: " + e.getMessage());
+                reset(CloseReason.ERROR, true);
+            }
+        } catch (InterruptedException e) {
+
+        } finally {
+            directionFinished();
+        }
+    }
+
+    private boolean connectLocal() {
+        try {
+            local = connect.call();
+        } catch (Exception e) {
+            LOG.error("Failed to connect stream [" + streamId + "] to: " + remoteAddress, e);
+            reset(CloseReason.CONNECT_FAILED, true);
+            return false;
+        } finally {
+            connected.countDown();
+        }
+        if (reset.get()) {
+            SocketChannels.closeQuietly(local);
+            return false;
+        }
+        return true;
+    }
+
+    private void receiveTunnelData() {
+        Direction inbound = outbound == Direction.CLIENT_TO_SERVER ? Direction.SERVER_TO_CLIENT : Direction.CLIENT_TO_SERVER;
+        int written = 0;
+        try {
+            connected.await();
+            while (!reset.get()) {
+                Received next = received.take();
+                if (next == RESET) {
+                    break;
+                }
+                if (next == END) {
+                    watch.closing(inbound == Direction.CLIENT_TO_SERVER ? CloseReason.CLIENT_CLOSED : CloseReason.SERVER_CLOSED);
+                    local.shutdownOutput();
+                    break;
+                }
+                int length = next.data.remaining();
+                dispatch(inbound, next.data);
+                SocketChannels.writeFully(local, next.data);
+                watch.written(inbound, next.readAtNanos);
+                written += length;
+                if (written >= INITIAL_WINDOW_BYTES / 4) {
+                    receiveWindow.addAndGet(written);
+                    connection.send(Frame.control(MuxConnection.WINDOW, streamId, ByteBuffer.allocate(4).putInt(0, written)));
+                    written = 0;
+                }
+            }
+        } catch (IOException e) {
+            if (!reset.get()) {
+                LOG.debug("Problem relaying stream [" + streamId + "] out of the tunnel: " + e.getMessage());
+                reset(CloseReason.ERROR, true);
+            }
+        } catch (InterruptedException e) {
+
+        } finally {
+            directionFinished();
+        }
+    }
+
+    private void dispatch(Direction direction, ByteBuffer data) {
+        if (direction == Direction.CLIENT_TO_SERVER) {
+            dispatch.sentData(listenPort, remoteAddress, data);
+        } else {
+            dispatch.receivedData(listenPort, remoteAddress, data);
+        }
+    }
+
+    private int awaitWindow() throws InterruptedException {
+        synchronized (windowLock) {
+            while (window == 0 && !reset.get()) {
+                windowLock.wait();
+            }
+            return reset.get() ? 0 : Math.min(window, MuxConnection.MAX_PAYLOAD_BYTES);
+        }
+    }
+
+    private void takeWindow(int length) {
+        synchronized (windowLock) {
+            window -= length;
+        }
+    }
+
+    void windowOpened(int length) {
+        synchronized (windowLock) {
+            window += length;
+            windowLock.notifyAll();
+        }
+    }
+
+    void frameWritten(long readAtNanos) {
+        watch.written(outbound, readAtNanos);
+        frameQueued.release();
+    }
+
+    /**
+     * Queue data the other end sent, which has to fit in the window this end gave out and come before the other end
+     * closed the stream
+     */
+    void received(ByteBuffer data, long readAtNanos) {
+        if (reset.get()) {
+            return;
+        }
+        if (remoteClosed.get()) {
+            LOG.debug("Stream [" + streamId + "] received data after the other end closed it");
+            reset(CloseReason.ERROR, true);
+            return;
+        }
+        if (receiveWindow.addAndGet(-data.remaining()) < 0) {
+            LOG.debug("Stream [" + streamId + "] received " + data.remaining() + " bytes, more than the window it gave out");
+            reset(CloseReason.ERROR, true);
+            return;
+        }
+        received.add(new Received(data, readAtNanos));
+    }
+
+    void remoteClosed() {
+        if (remoteClosed.compareAndSet(false, true)) {
+            received.add(END);
+        }
+    }
+
+    void remoteReset(CloseReason reason) {
+        reset(reason, false);
+    }
+
+    /**
+     * Abort the stream, telling the other end about it unless it is the one that asked
+     */
+    void reset(CloseReason reason, boolean notifyOtherEnd) {
+        if (directionsRelaying.get() > 0 && reset.compareAndSet(false, true)) {
+            watch.closing(reason);
+            if (notifyOtherEnd) {
+                try {
+                    connection.send(Frame.control(MuxConnection.RESET, streamId, reason(reason)));
+                } catch (IOException e) {
+
+                }
+            }
+            received.add(RESET);
+            synchronized (windowLock) {
+                windowLock.notifyAll();
+            }
+            frameQueued.release();
+            SocketChannels.closeQuietly(local);
+        }
+    }
+
+    private void directionFinished() {
+        if (directionsRelaying.decrementAndGet() == 0) {
+            SocketChannels.closeQuietly(local);
+            connection.streamFinished(this);
+            watch.finished();
+        }
+    }
+
+    public void awaitFinish(long deadlineInMillis) {
+        ThreadKiller.waitUntil(toTunnel, deadlineInMillis);
+        ThreadKiller.waitUntil(fromTunnel, deadlineInMillis);
+    }
+
+    public void stopRelaying() {
+        reset(CloseReason.STOPPED, true);
+        ThreadKiller.killAndWait(toTunnel);
+        ThreadKiller.killAndWait(fromTunnel);
+    }
+
+    private static class Received {
+        private final ByteBuffer data;
+        private final long readAtNanos;
+
+        private Received(ByteBuffer data, long readAtNanos) {
+            this.data = data;
+            this.readAtNanos = readAtNanos;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.tunnel;
+
+import moxy.Direction;
+import moxy.TunnelStats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TunnelCounters implements TunnelStats {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+    private final Map<Direction, LongAdder> uncompressed = new EnumMap<>(Direction.class);
+    private final Map<Direction, LongAdder> compressed = new EnumMap<>(Direction.class);
+    private final Map<Direction, LongAdder> cpuNanos = new EnumMap<>(Direction.class);
+
+    public TunnelCounters() {
+        for (Direction direction : Direction.values()) {
+            uncompressed.put(direction, new LongAdder());
+            compressed.put(direction, new LongAdder());
+            cpuNanos.put(direction, new LongAdder());
+        }
+    }
+
+    /**
+     * @return the CPU time of the calling thread, to measure how long it spent on the codec
+     */
+    static long cpuNow() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    void coded(Direction direction, long uncompressedBytes, long compressedBytes, long startedAtCpuNanos) {
+        uncompressed.get(direction).add(uncompressedBytes);
+        compressed.get(direction).add(compressedBytes);
+        cpuNanos.get(direction).add(cpuNow() - startedAtCpuNanos);
+    }
+
+    public long getUncompressedBytes(Direction direction) {
+        return uncompressed.get(direction).sum();
+    }
+
+    public long getCompressedBytes(Direction direction) {
+        return compressed.get(direction).sum();
+    }
+
+    public long getCpuNanos(Direction direction) {
+        return cpuNanos.get(direction).sum();
+    }
+}
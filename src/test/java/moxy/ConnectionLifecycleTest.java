@@ -0,0 +1,160 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionLifecycleTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+    private List<Long> connectionsMade = new CopyOnWriteArrayList<>();
+    private List<Long> dataSentBy = new CopyOnWriteArrayList<>();
+    private Map<Long, ConnectionSummary> closed = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+        moxyServer.addListener(new MoxyListener() {
+            public void connectionMade(long connectionId, int listenPort, SocketAddress remoteAddress) {
+                connectionsMade.add(connectionId);
+            }
+
+            public void sentData(long connectionId, int listenPort, SocketAddress remoteAddress, byte[] data) {
+                dataSentBy.add(connectionId);
+            }
+
+            public void connectionClosed(long connectionId, int listenPort, SocketAddress remoteAddress, ConnectionSummary summary) {
+                closed.put(connectionId, summary);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldTieTheEventsOfAConnectionTogether() {
+        moxyServer.listenOn(LISTEN_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello");
+        honeyPotServer.assertDataReceived("Hello");
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "World");
+        honeyPotServer.assertDataReceived("World");
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(2, closed.size());
+            }
+        }.performAssertion();
+        assertEquals(2, connectionsMade.size());
+        assertFalse(connectionsMade.get(0).equals(connectionsMade.get(1)));
+        assertEquals(connectionsMade, dataSentBy);
+        assertEquals(closed.keySet(), Set.copyOf(connectionsMade));
+    }
+
+    @Test
+    public void shouldSummarizeTheConnectionOnceItIsClosed() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        honeyPotServer.sendData("World!");
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("Hello".getBytes()));
+            ByteBuffer response = ByteBuffer.allocate(6);
+            while (response.hasRemaining() && client.read(response) != -1) {
+            }
+        }
+
+        ConnectionSummary summary = awaitClosed();
+        assertEquals(CloseReason.CLIENT_CLOSED, summary.getCloseReason());
+        assertEquals(5, summary.getBytes(Direction.CLIENT_TO_SERVER));
+        assertEquals(6, summary.getBytes(Direction.SERVER_TO_CLIENT));
+        assertTrue(summary.getUpstreamConnect().isPresent());
+        assertTrue(summary.getTimeToFirstByte(Direction.CLIENT_TO_SERVER).isPresent());
+        assertTrue(summary.getTimeToFirstByte(Direction.SERVER_TO_CLIENT).isPresent());
+        assertTrue(summary.getTotalDuration().compareTo(summary.getTimeToFirstByte(Direction.SERVER_TO_CLIENT).get()) >= 0);
+        assertTrue(summary.getTotalDuration().compareTo(summary.getUpstreamConnect().get()) >= 0);
+    }
+
+    @Test
+    public void shouldReportWhenTheRouteServerCanNotBeReached() {
+        moxyServer.listenOn(LISTEN_PORT).andConnectTo("localhost", HONEY_POT_PORT + 1);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello");
+
+        ConnectionSummary summary = awaitClosed();
+        assertEquals(CloseReason.CONNECT_FAILED, summary.getCloseReason());
+        assertFalse(summary.getUpstreamConnect().isPresent());
+        assertFalse(summary.getTimeToFirstByte(Direction.CLIENT_TO_SERVER).isPresent());
+        assertEquals(0, summary.getBytes(Direction.CLIENT_TO_SERVER));
+    }
+
+    @Test
+    public void shouldReportConnectionsThatTimedOut() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withMaxLifetime(100).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            assertEquals(CloseReason.TIMED_OUT, awaitClosed().getCloseReason());
+        }
+    }
+
+    @Test
+    public void shouldReportConnectionsThatWereOpenWhenTheServerStopped() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("Hello".getBytes()));
+            honeyPotServer.assertDataReceived("Hello");
+            moxyServer.stop();
+
+            assertEquals(CloseReason.STOPPED, awaitClosed().getCloseReason());
+        }
+    }
+
+    private ConnectionSummary awaitClosed() {
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(1, closed.size());
+            }
+        }.performAssertion();
+        return closed.values().iterator().next();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionTimeoutTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+    private List<ConnectionTimeout> timeouts = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+        moxyServer.addListener(new MoxyListener() {
+            public void connectionTimedOut(int listenPort, SocketAddress remoteAddress, ConnectionTimeout timeout) {
+                timeouts.add(timeout);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldCloseConnectionsThatStopSendingData() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withIdleReadTimeout(100).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            channel.write(ByteBuffer.wrap("Hello World".getBytes()));
+            honeyPotServer.assertDataReceived("Hello World");
+
+            assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+        }
+
+        assertTimedOut(ConnectionTimeout.IDLE_READ);
+    }
+
+    @Test
+    public void shouldKeepConnectionsOpenWhileDataKeepsFlowing() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withIdleReadTimeout(500).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            for (int i = 0; i < 10; i++) {
+                channel.write(ByteBuffer.wrap(("Hello " + i).getBytes()));
+                Thread.sleep(100);
+            }
+            honeyPotServer.assertDataReceived("Hello 9");
+        }
+
+        assertTrue(timeouts.toString(), timeouts.isEmpty());
+        assertEquals(0, moxyServer.getStats(LISTEN_PORT).getTimeouts(ConnectionTimeout.IDLE_READ));
+    }
+
+    @Test
+    public void shouldCloseConnectionsThatOutliveTheirMaxLifetime() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withMaxLifetime(200).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        AlwaysStreamingDataThread alwaysStreamingThread = new AlwaysStreamingDataThread("localhost", LISTEN_PORT);
+        alwaysStreamingThread.start();
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                alwaysStreamingThread.assertSocketClosed();
+            }
+        }.performAssertion();
+        assertTimedOut(ConnectionTimeout.MAX_LIFETIME);
+    }
+
+    @Test
+    public void shouldCloseConnectionsWhenTheRouteServerStopsReading() throws Exception {
+        try (ServerSocketChannel neverReads = ServerSocketChannel.open().bind(new InetSocketAddress(HONEY_POT_PORT + 1))) {
+            moxyServer.listenOn(LISTEN_PORT).withIdleWriteTimeout(200).andConnectTo("localhost", HONEY_POT_PORT + 1);
+            moxyServer.start();
+
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+                ByteBuffer data = ByteBuffer.allocate(64 * 1024);
+                try {
+                    while (true) {
+                        data.clear();
+                        channel.write(data);
+                    }
+                } catch (IOException e) {
+                    // moxy closed the connection
+                }
+            }
+        }
+
+        assertTimedOut(ConnectionTimeout.IDLE_WRITE);
+    }
+
+    private void assertTimedOut(ConnectionTimeout expected) {
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(List.of(expected), timeouts);
+                RouteStats stats = moxyServer.getStats(LISTEN_PORT);
+                assertEquals(1, stats.getTimeouts(expected));
+                assertEquals(0, stats.getActiveConnections());
+            }
+        }.performAssertion();
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentRoutingTest {
+    private static final int LISTEN_PORT = 19000;
+    private static final int API_PORT = 19001;
+    private static final int SECURE_PORT = 19002;
+    private static final int DEFAULT_PORT = 19003;
+    private MoxyServer moxyServer;
+    private HoneyPotServer api;
+    private HoneyPotServer secure;
+    private HoneyPotServer fallback;
+    private HashSet<HoneyPotServer> honeyPots = new HashSet<>();
+
+    @Before
+    public void setUp() throws Exception {
+        api = startNewHoneyPot(API_PORT);
+        secure = startNewHoneyPot(SECURE_PORT);
+        fallback = startNewHoneyPot(DEFAULT_PORT);
+
+        moxyServer = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPots.forEach(HoneyPotServer::stop);
+    }
+
+    @Test
+    public void shouldRouteHttpRequestsByTheirHostHeader() {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenHttpHost("api.example.com", address(API_PORT))
+                .otherwise("localhost", DEFAULT_PORT));
+        moxyServer.start();
+
+        String request = "GET /users HTTP/1.1\r\nHost: API.example.com:8080\r\n\r\n";
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, request);
+
+        api.assertDataReceived(request);
+    }
+
+    @Test
+    public void shouldRouteHttpRequestsByAWildcardHost() {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenHttpHost("*.example.com", address(API_PORT))
+                .otherwise("localhost", DEFAULT_PORT));
+        moxyServer.start();
+
+        String request = "GET / HTTP/1.1\r\nUser-Agent: test\r\nHost: www.eu.example.com\r\n\r\n";
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, request);
+
+        api.assertDataReceived(request);
+    }
+
+    @Test
+    public void shouldRouteByAPrefix() {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenStartsWith("PING".getBytes(), address(API_PORT))
+                .whenStartsWith("PRI * HTTP/2.0".getBytes(), address(SECURE_PORT))
+                .otherwise("localhost", DEFAULT_PORT));
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+        secure.assertDataReceived("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+    }
+
+    @Test
+    public void shouldRouteTlsConnectionsByTheirServerName() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenHttpHost("secure.example.com", address(API_PORT))
+                .whenTlsServerName("secure.example.com", address(SECURE_PORT))
+                .otherwise("localhost", DEFAULT_PORT));
+        moxyServer.start();
+
+        ByteBuffer clientHello = clientHello("secure.example.com");
+        try (SocketChannel channel = SocketChannel.open(address(LISTEN_PORT))) {
+            channel.write(clientHello);
+            new RetryableAssertion() {
+                protected void assertion() {
+                    secure.assertSomeoneConnected();
+                    secure.assertSomeDataWasReceived();
+                }
+            }.performAssertion();
+        }
+    }
+
+    @Test
+    public void shouldRouteWithACustomMatcher() {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .when((firstBytes) -> firstBytes.get(0) == '{' ? address(API_PORT) : null)
+                .otherwise("localhost", DEFAULT_PORT));
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "{\"hello\": \"world\"}");
+
+        api.assertDataReceived("{\"hello\": \"world\"}");
+    }
+
+    @Test
+    public void shouldRouteUnmatchedConnectionsToTheFallback() {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenHttpHost("api.example.com", address(API_PORT))
+                .otherwise("localhost", DEFAULT_PORT));
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+
+        fallback.assertDataReceived("Hello World");
+    }
+
+    @Test
+    public void shouldRouteSilentClientsToTheFallbackOnceTheSniffTimeoutPasses() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenHttpHost("api.example.com", address(API_PORT))
+                .otherwise("localhost", DEFAULT_PORT)
+                .sniffingFor(50));
+        moxyServer.start();
+
+        fallback.sendData("220 Welcome");
+        try (SocketChannel channel = SocketChannel.open(address(LISTEN_PORT))) {
+            ByteBuffer buffer = ByteBuffer.allocate(11);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+            assertEquals("220 Welcome", new String(buffer.array(), 0, buffer.position()));
+        }
+    }
+
+    @Test
+    public void shouldCloseConnectionsThatDoNotMatchWhenThereIsNoFallback() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenHttpHost("api.example.com", address(API_PORT)));
+        moxyServer.start();
+
+        try (SocketChannel channel = SocketChannel.open(address(LISTEN_PORT))) {
+            channel.write(ByteBuffer.wrap("GET / HTTP/1.1\r\nHost: other.example.com\r\n\r\n".getBytes()));
+            assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+        }
+    }
+
+    @Test
+    public void shouldNotifyListenersOfTheRouteThatWasChosen() {
+        AssertableListener assertableListener = new AssertableListener();
+        moxyServer.addListener(assertableListener);
+        moxyServer.listenOn(LISTEN_PORT).andRouteBy(new ContentRoutes()
+                .whenStartsWith("PING".getBytes(), address(API_PORT)));
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "PING");
+
+        api.assertDataReceived("PING");
+        assertableListener.assertConnectionWasMadeOn(LISTEN_PORT);
+        assertableListener.assertSentData(LISTEN_PORT, address(API_PORT), "PING");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowContentRoutingOnAnHttpRoute() {
+        moxyServer.listenOn(LISTEN_PORT).asHttp(1).andRouteBy(new ContentRoutes().otherwise("localhost", DEFAULT_PORT));
+    }
+
+    private ByteBuffer clientHello(String serverName) throws Exception {
+        SSLEngine engine = SSLContext.getDefault().createSSLEngine(serverName, 443);
+        engine.setUseClientMode(true);
+        ByteBuffer packet = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        engine.beginHandshake();
+        engine.wrap(ByteBuffer.allocate(0), packet);
+        return packet.flip();
+    }
+
+    private static InetSocketAddress address(int port) {
+        return new InetSocketAddress("localhost", port);
+    }
+
+    private HoneyPotServer startNewHoneyPot(int port) {
+        HoneyPotServer honeyPotServer = new HoneyPotServer(port);
+        honeyPotServer.start();
+        honeyPots.add(honeyPotServer);
+        return honeyPotServer;
+    }
+}
@@ -18,9 +18,10 @@ import moxy.impl.ThreadKiller;
 import org.junit.Assert;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.BindException;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -29,10 +30,10 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HoneyPotServer {
-    private final int port;
+    private final SocketAddress address;
     private final LinkedList<String> outgoingData = new LinkedList<>();
     private final ArrayList<String> dataReceived = new ArrayList<>();
-    private final Collection<Socket> sockets = new HashSet<>();
+    private final Collection<SocketChannel> sockets = new HashSet<>();
     private ConnectionAcceptorThread connectionAcceptorThread;
     private AtomicBoolean connectionMade = new AtomicBoolean(false);
     private CountDownLatch portBoundCountDown = new CountDownLatch(1);
@@ -41,18 +42,22 @@ public class HoneyPotServer {
     private boolean started = false;
 
     public HoneyPotServer(int port) {
-        this.port = port;
+        this(new InetSocketAddress(port));
+    }
+
+    public HoneyPotServer(SocketAddress address) {
+        this.address = address;
     }
 
     public void start() {
         log.debug("starting...");
-        connectionAcceptorThread = new ConnectionAcceptorThread("HONEY POT", port, new NewConnectionListener());
+        connectionAcceptorThread = new ConnectionAcceptorThread("HONEY POT", address, new NewConnectionListener());
         connectionAcceptorThread.start();
 
         log.debug("Waiting for port to bind...");
         waitForPortToBeBound();
         bindingException.reThrowAsNeeded();
-        log.debug("bound to port [" + port + "]");
+        log.debug("bound to [" + address + "]");
         started = true;
     }
 
@@ -100,6 +105,19 @@ public class HoneyPotServer {
 
     }
 
+    public void assertAllDataReceived(String expectedReceivedData) {
+        RetryableAssertion assertion = new RetryableAssertion() {
+            @Override
+            protected void assertion() {
+                synchronized (dataReceived) {
+                    String allData = String.join("", dataReceived);
+                    Assert.assertEquals(expectedReceivedData, allData);
+                }
+            }
+        };
+        assertion.performAssertion();
+    }
+
     private void waitForPortToBeBound() {
         try {
             portBoundCountDown.await();
@@ -133,14 +151,8 @@ public class HoneyPotServer {
 
     private class NewConnectionListener implements ConnectionAcceptorThread.Listener {
 
-        public void newConnection(Socket socket) {
-            ConsumeDataThread consumeDataThread = new ConsumeDataThread(socket, new ConsumeDataThread.Listener() {
-                public void newDataReceived(Socket socket, byte[] data) {
-                    synchronized (dataReceived) {
-                        dataReceived.add(new String(data));
-                    }
-                }
-            });
+        public void newConnection(SocketChannel socket) {
+            ConsumeIncomingDataThread consumeDataThread = new ConsumeIncomingDataThread(socket);
             SendOutgoingDataThread sendOutgoingDataThread = new SendOutgoingDataThread(socket);
 
             sockets.add(socket);
@@ -149,32 +161,57 @@ public class HoneyPotServer {
             sendOutgoingDataThread.start();
         }
 
-        public void boundToLocalPort(int port) {
+        public void boundTo(SocketAddress address) {
             portBoundCountDown.countDown();
         }
 
-        public void failedToBindToPort(int port, BindException exception) {
+        public void failedToBindTo(SocketAddress address, IOException exception) {
             bindingException.holdOnTo(exception);
             portBoundCountDown.countDown();
         }
     }
 
+    private class ConsumeIncomingDataThread extends Thread {
+        private SocketChannel socket;
+
+        public ConsumeIncomingDataThread(SocketChannel socket) {
+            this.socket = socket;
+            setDaemon(true);
+        }
+
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 10);
+            try {
+                while (socket.read(buffer) != -1) {
+                    synchronized (dataReceived) {
+                        dataReceived.add(new String(buffer.array(), 0, buffer.position()));
+                    }
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+
+            }
+        }
+    }
+
     private class SendOutgoingDataThread extends Thread {
-        private Socket socket;
+        private SocketChannel socket;
 
-        public SendOutgoingDataThread(Socket socket) {
+        public SendOutgoingDataThread(SocketChannel socket) {
             this.socket = socket;
             setDaemon(true);
         }
 
         public void run() {
-            try (OutputStream outputStream = socket.getOutputStream()) {
+            try {
                 while (socket.isConnected()) {
                     synchronized (outgoingData) {
                         for (String data : outgoingData) {
-                            outputStream.write(data.getBytes());
+                            ByteBuffer buffer = ByteBuffer.wrap(data.getBytes());
+                            while (buffer.hasRemaining()) {
+                                socket.write(buffer);
+                            }
                         }
-                        outputStream.flush();
                         outgoingData.clear();
                     }
                     pause();
@@ -16,12 +16,15 @@ import io.dropwizard.Application;
 import io.dropwizard.Configuration;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import org.eclipse.jetty.server.Server;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Response;
 
 public class HttpApp extends Application<HttpApp.Config> {
+    private volatile Server server;
+
     @Override
     public void initialize(Bootstrap bootstrap) {
 
@@ -30,6 +33,13 @@ public class HttpApp extends Application<HttpApp.Config> {
     @Override
     public void run(Config configuration, Environment environment) throws Exception {
         environment.jersey().register(new EndPoint());
+        environment.lifecycle().addServerLifecycleListener((server) -> this.server = server);
+    }
+
+    public void stop() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
     }
 
     public static class EndPoint {
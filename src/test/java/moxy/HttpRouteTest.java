@@ -0,0 +1,342 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpRouteTest {
+    private static final int UPSTREAM_PORT = 18080;
+    private HttpServer upstream;
+    private ExecutorService upstreamThreads = Executors.newCachedThreadPool();
+    private Set<Integer> upstreamClientPorts = ConcurrentHashMap.newKeySet();
+    private AtomicInteger upstreamRequests = new AtomicInteger();
+    private AtomicInteger notModifiedResponses = new AtomicInteger();
+    private MoxyServer moxy;
+
+    @Before
+    public void setUp() throws Exception {
+        upstream = HttpServer.create(new InetSocketAddress(UPSTREAM_PORT), 0);
+        upstream.setExecutor(upstreamThreads);
+        upstream.createContext("/hello", (exchange) -> respond(exchange, "Hello World"));
+        upstream.createContext("/slow", (exchange) -> {
+            pause(100);
+            respond(exchange, "Finally");
+        });
+        upstream.createContext("/echo", (exchange) -> {
+            upstreamClientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = readFully(exchange.getRequestBody());
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        upstream.createContext("/cacheable", (exchange) -> {
+            exchange.getResponseHeaders().add("Cache-Control", exchange.getRequestURI().getQuery());
+            respond(exchange, "Response #" + upstreamRequests.incrementAndGet());
+        });
+        upstream.createContext("/etag", (exchange) -> {
+            upstreamRequests.incrementAndGet();
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            respond(exchange, "Tagged");
+        });
+        upstream.createContext("/hang-up", (exchange) -> {
+            upstreamRequests.incrementAndGet();
+            exchange.close();
+        });
+        upstream.start();
+
+        moxy = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxy.stop();
+        upstream.stop(0);
+        upstreamThreads.shutdownNow();
+    }
+
+    @Test
+    public void shouldProxyRequestsWithAFixedLengthResponse() throws Exception {
+        moxy.listenOn(7878).asHttp(2).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        assertEquals("Hello World", execute(new HttpGet("http://localhost:7878/hello")));
+    }
+
+    @Test
+    public void shouldProxyChunkedRequestAndResponseBodies() throws Exception {
+        moxy.listenOn(7878).asHttp(2).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        HttpPost post = new HttpPost("http://localhost:7878/echo");
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream("Echo this back".getBytes()), -1));
+
+        assertEquals("Echo this back", execute(post));
+    }
+
+    @Test
+    public void shouldProxyHeadRequestsWithoutWaitingForABody() throws Exception {
+        moxy.listenOn(7878).asHttp(1).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        execute(new HttpHead("http://localhost:7878/hello"));
+        assertEquals("Hello World", execute(new HttpGet("http://localhost:7878/hello")));
+    }
+
+    @Test
+    public void shouldReuseTheUpstreamConnectionAcrossClientConnections() throws Exception {
+        moxy.listenOn(7878).asHttp(4).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        for (int i = 0; i < 10; i++) {
+            HttpPost post = new HttpPost("http://localhost:7878/echo");
+            post.setEntity(new InputStreamEntity(new ByteArrayInputStream(("Request " + i).getBytes()), -1));
+            assertEquals("Request " + i, execute(post));
+        }
+
+        assertEquals(upstreamClientPorts.toString(), 1, upstreamClientPorts.size());
+    }
+
+    @Test
+    public void shouldNotOpenMoreUpstreamConnectionsThanThePoolAllows() throws Exception {
+        upstream.createContext("/slow-echo", (exchange) -> {
+            upstreamClientPorts.add(exchange.getRemoteAddress().getPort());
+            pause(50);
+            respond(exchange, "Done");
+        });
+        moxy.listenOn(7878).asHttp(2).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                responses.add(clients.submit(() -> execute(new HttpGet("http://localhost:7878/slow-echo"))));
+            }
+            for (Future<String> response : responses) {
+                assertEquals("Done", response.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        assertTrue("Too many upstream connections: " + upstreamClientPorts, upstreamClientPorts.size() <= 2);
+    }
+
+    @Test
+    public void shouldRespondWithBadGatewayWhenTheRouteServerIsUnavailable() throws Exception {
+        moxy.listenOn(7878).asHttp(2).andConnectTo("localhost", 9999);
+        moxy.start();
+
+        try (CloseableHttpClient client = HttpClients.createDefault();
+             CloseableHttpResponse response = client.execute(new HttpGet("http://localhost:7878/hello"))) {
+            assertEquals(502, response.getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void shouldNotifyListenersOfTheHttpTraffic() throws Exception {
+        AssertableListener assertableListener = new AssertableListener();
+        moxy.listenOn(7878).asHttp(2).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.addListener(assertableListener);
+        moxy.start();
+
+        execute(new HttpGet("http://localhost:7878/slow"));
+
+        assertableListener.assertConnectionWasMadeOn(7878);
+    }
+
+    @Test
+    public void shouldServeFreshResponsesFromTheCacheWithoutTouchingTheRouteServer() throws Exception {
+        moxy.listenOn(7878).asHttp(2).withResponseCache(1024 * 1024).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        assertEquals("Response #1", execute(new HttpGet("http://localhost:7878/cacheable?max-age=60")));
+        assertEquals("Response #1", execute(new HttpGet("http://localhost:7878/cacheable?max-age=60")));
+        execute(new HttpHead("http://localhost:7878/cacheable?max-age=60"));
+
+        assertEquals(1, upstreamRequests.get());
+        ResponseCacheStats stats = moxy.getStats(7878).getResponseCache();
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+    }
+
+    @Test
+    public void shouldNotCacheResponsesThatSayNotToStoreThem() throws Exception {
+        moxy.listenOn(7878).asHttp(2).withResponseCache(1024 * 1024).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        assertEquals("Response #1", execute(new HttpGet("http://localhost:7878/cacheable?no-store")));
+        assertEquals("Response #2", execute(new HttpGet("http://localhost:7878/cacheable?no-store")));
+    }
+
+    @Test
+    public void shouldRevalidateStaleResponsesUsingTheirETag() throws Exception {
+        moxy.listenOn(7878).asHttp(2).withResponseCache(1024 * 1024).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        assertEquals("Tagged", execute(new HttpGet("http://localhost:7878/etag")));
+        assertEquals("Tagged", execute(new HttpGet("http://localhost:7878/etag")));
+
+        assertEquals(2, upstreamRequests.get());
+        assertEquals(1, notModifiedResponses.get());
+        assertEquals(1, moxy.getStats(7878).getResponseCache().getRevalidations());
+    }
+
+    @Test
+    public void shouldOnlySendIdempotentRequestsAgainWhenAPooledConnectionFailsAfterTheRequestWasSent() throws Exception {
+        moxy.listenOn(7878).asHttp(1).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        assertEquals("Hello World", execute(new HttpGet("http://localhost:7878/hello")));
+        executeQuietly(new HttpPost("http://localhost:7878/hang-up"));
+        assertEquals(1, upstreamRequests.get());
+
+        assertEquals("Hello World", execute(new HttpGet("http://localhost:7878/hello")));
+        executeQuietly(new HttpGet("http://localhost:7878/hang-up"));
+        assertEquals(3, upstreamRequests.get());
+    }
+
+    @Test
+    public void shouldForgetTheCachedResponseWhenTheResourceIsModified() throws Exception {
+        moxy.listenOn(7878).asHttp(2).withResponseCache(1024 * 1024).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        assertEquals("Response #1", execute(new HttpGet("http://localhost:7878/cacheable?max-age=60")));
+        execute(new HttpPost("http://localhost:7878/cacheable?max-age=60"));
+
+        assertEquals("Response #3", execute(new HttpGet("http://localhost:7878/cacheable?max-age=60")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldOnlyAllowAResponseCacheOnHttpRoutes() {
+        moxy.listenOn(7878).withResponseCache(1024).andConnectTo("localhost", UPSTREAM_PORT);
+    }
+
+    @Test
+    public void shouldRejectRequestsWithConflictingContentLengths() throws Exception {
+        moxy.listenOn(7878).asHttp(1).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        try (Socket socket = new Socket("localhost", 7878)) {
+            socket.setSoTimeout(2000);
+            socket.getOutputStream().write(("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\nContent-Length: 30\r\n\r\n"
+                    + "Hello GET /hello HTTP/1.1\r\n\r\n").getBytes());
+
+            String response = new String(readFully(socket.getInputStream()));
+            assertTrue(response, response.startsWith("HTTP/1.1 400"));
+        }
+        assertTrue(upstreamClientPorts.isEmpty());
+    }
+
+    @Test
+    public void shouldCloseKeepAliveClientsThatGoIdle() throws Exception {
+        moxy.listenOn(7878).asHttp(1).withIdleReadTimeout(100).andConnectTo("localhost", UPSTREAM_PORT);
+        moxy.start();
+
+        try (Socket socket = new Socket("localhost", 7878)) {
+            socket.setSoTimeout(2000);
+            socket.getOutputStream().write("GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+
+            String response = new String(readFully(socket.getInputStream()));
+            assertTrue(response, response.startsWith("HTTP/1.1 200") && response.endsWith("Hello World"));
+        }
+        assertEquals(1, moxy.getStats(7878).getTimeouts(ConnectionTimeout.IDLE_READ));
+    }
+
+    private String execute(HttpUriRequest request) throws IOException {
+        try (CloseableHttpClient client = HttpClients.createDefault();
+             CloseableHttpResponse response = client.execute(request)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            return response.getEntity() == null ? null : EntityUtils.toString(response.getEntity());
+        }
+    }
+
+    private void executeQuietly(HttpUriRequest request) {
+        try (CloseableHttpClient client = HttpClients.custom().disableAutomaticRetries().build();
+             CloseableHttpResponse response = client.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+        } catch (IOException e) {
+            // expected, the route server hung up
+        }
+    }
+
+    private void respond(HttpExchange exchange, String body) throws IOException {
+        upstreamClientPorts.add(exchange.getRemoteAddress().getPort());
+        readFully(exchange.getRequestBody());
+        byte[] bytes = body.getBytes();
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(bytes.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+
+        }
+    }
+}
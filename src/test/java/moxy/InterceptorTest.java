@@ -0,0 +1,156 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class InterceptorTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldChangeTheDataInPlace() {
+        AssertableListener listener = new AssertableListener();
+        moxyServer.addListener(listener);
+        moxyServer.listenOn(LISTEN_PORT)
+                .withInterceptor(Direction.CLIENT_TO_SERVER, UpperCase::new)
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+
+        honeyPotServer.assertDataReceived("HELLO WORLD");
+        listener.assertSentData(LISTEN_PORT, new InetSocketAddress("localhost", HONEY_POT_PORT), "HELLO WORLD");
+    }
+
+    @Test
+    public void shouldRunTheInterceptorsInTheOrderTheyWereAdded() {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withInterceptor(Direction.CLIENT_TO_SERVER, UpperCase::new)
+                .withInterceptor(Direction.CLIENT_TO_SERVER, () -> new Split(5))
+                .withInterceptor(Direction.CLIENT_TO_SERVER, () -> (data, next) -> {
+                    next.send(data);
+                    next.send(ByteBuffer.wrap("|".getBytes()));
+                })
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+
+        honeyPotServer.assertAllDataReceived("HELLO| WORL|D|");
+    }
+
+    @Test
+    public void shouldPassOnHeldDataOnceTheClientIsDone() {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withInterceptor(Direction.CLIENT_TO_SERVER, HoldUntilFinished::new)
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+
+        honeyPotServer.assertAllDataReceived("Hello World");
+    }
+
+    @Test
+    public void shouldInterceptTheSniffedBytesOfAContentRoute() {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withInterceptor(Direction.CLIENT_TO_SERVER, UpperCase::new)
+                .andRouteBy(new ContentRoutes()
+                        .whenHttpHost("api.example.com", new InetSocketAddress("localhost", HONEY_POT_PORT))
+                        .otherwise("localhost", HONEY_POT_PORT));
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "GET / HTTP/1.1\r\nHost: api.example.com\r\n\r\n");
+
+        honeyPotServer.assertDataReceived("GET / HTTP/1.1\r\nHOST: API.EXAMPLE.COM\r\n\r\n");
+    }
+
+    @Test
+    public void shouldNotAllowInterceptorsOnAnHttpRoute() {
+        try {
+            moxyServer.listenOn(LISTEN_PORT)
+                    .asHttp(1)
+                    .withInterceptor(Direction.CLIENT_TO_SERVER, UpperCase::new)
+                    .andConnectTo("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Interceptors can not be used on an HTTP route, the requests and responses are already parsed", e.getMessage());
+        }
+    }
+
+    private static class UpperCase implements Interceptor {
+        public void intercept(ByteBuffer data, Next next) throws IOException {
+            for (int i = data.position(); i < data.limit(); i++) {
+                data.put(i, (byte) Character.toUpperCase(data.get(i)));
+            }
+            next.send(data);
+        }
+    }
+
+    private static class Split implements Interceptor {
+        private final int size;
+
+        private Split(int size) {
+            this.size = size;
+        }
+
+        public void intercept(ByteBuffer data, Next next) throws IOException {
+            while (data.hasRemaining()) {
+                int length = Math.min(size, data.remaining());
+                next.send(data.slice(data.position(), length));
+                data.position(data.position() + length);
+            }
+        }
+    }
+
+    private static class HoldUntilFinished implements Interceptor {
+        private final ByteArrayOutputStream held = new ByteArrayOutputStream();
+
+        public void intercept(ByteBuffer data, Next next) {
+            while (data.hasRemaining()) {
+                held.write(data.get());
+            }
+        }
+
+        public void finish(Next next) throws IOException {
+            next.send(ByteBuffer.wrap(held.toByteArray()));
+        }
+    }
+}
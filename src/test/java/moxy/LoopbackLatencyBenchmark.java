@@ -0,0 +1,164 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import moxy.impl.SocketChannels;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Compares the round trip latency of a small ping-pong through moxy for TCP and Unix domain socket routes.
+ * <p>
+ * Run it from the project root after compiling the tests:
+ * <pre>
+ *     mvn test-compile
+ *     java -cp target/classes:target/test-classes moxy.LoopbackLatencyBenchmark [iterations]
+ * </pre>
+ */
+public class LoopbackLatencyBenchmark {
+    private static final int WARM_UP = 5_000;
+    private static final int MESSAGE_SIZE = 64;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path directory = Files.createTempDirectory("moxy-benchmark");
+
+        SocketAddress tcpEcho = new InetSocketAddress("localhost", 19191);
+        SocketAddress unixEcho = UnixDomainSocketAddress.of(directory.resolve("echo.sock"));
+        Path unixToTcp = directory.resolve("unix-to-tcp.sock");
+        Path unixToUnix = directory.resolve("unix-to-unix.sock");
+
+        EchoServer tcpEchoServer = new EchoServer(tcpEcho);
+        EchoServer unixEchoServer = new EchoServer(unixEcho);
+        tcpEchoServer.start();
+        unixEchoServer.start();
+
+        MoxyServer moxy = new MoxyServer();
+        moxy.listenOn(19292).andConnectTo(tcpEcho);
+        moxy.listenOn(19393).andConnectTo(unixEcho);
+        moxy.listenOn(unixToTcp).andConnectTo(tcpEcho);
+        moxy.listenOn(unixToUnix).andConnectTo(unixEcho);
+        moxy.start();
+
+        try {
+            System.out.println("iterations=" + iterations + ", message size=" + MESSAGE_SIZE + " bytes");
+            run("direct tcp", tcpEcho, iterations);
+            run("direct unix", unixEcho, iterations);
+            run("moxy tcp -> tcp", new InetSocketAddress("localhost", 19292), iterations);
+            run("moxy tcp -> unix", new InetSocketAddress("localhost", 19393), iterations);
+            run("moxy unix -> tcp", UnixDomainSocketAddress.of(unixToTcp), iterations);
+            run("moxy unix -> unix", UnixDomainSocketAddress.of(unixToUnix), iterations);
+        } finally {
+            moxy.stop();
+            tcpEchoServer.interrupt();
+            unixEchoServer.interrupt();
+        }
+    }
+
+    private static void run(String name, SocketAddress address, int iterations) throws IOException {
+        long[] roundTrips = new long[iterations];
+        ByteBuffer ping = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+        ByteBuffer pong = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+
+        try (SocketChannel channel = SocketChannels.connect(address)) {
+            for (int i = 0; i < WARM_UP + iterations; i++) {
+                long start = System.nanoTime();
+                pingPong(channel, ping, pong);
+                if (i >= WARM_UP) {
+                    roundTrips[i - WARM_UP] = System.nanoTime() - start;
+                }
+            }
+        }
+
+        Arrays.sort(roundTrips);
+        System.out.printf("%-20s p50=%8.1fus  p99=%8.1fus  p99.9=%8.1fus  max=%8.1fus%n", name,
+                micros(roundTrips, 0.50), micros(roundTrips, 0.99), micros(roundTrips, 0.999), roundTrips[iterations - 1] / 1000.0);
+    }
+
+    private static void pingPong(SocketChannel channel, ByteBuffer ping, ByteBuffer pong) throws IOException {
+        ping.clear();
+        while (ping.hasRemaining()) {
+            channel.write(ping);
+        }
+
+        pong.clear();
+        while (pong.hasRemaining()) {
+            if (channel.read(pong) == -1) {
+                throw new IOException("Connection closed during the benchmark");
+            }
+        }
+    }
+
+    private static double micros(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1000.0;
+    }
+
+    private static class EchoServer extends Thread {
+        private final SocketAddress address;
+        private ServerSocketChannel server;
+
+        EchoServer(SocketAddress address) throws IOException {
+            this.address = address;
+            this.server = SocketChannels.bind(address);
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    SocketChannel channel = server.accept();
+                    Thread echo = new Thread(() -> echo(channel));
+                    echo.setDaemon(true);
+                    echo.start();
+                }
+            } catch (IOException e) {
+
+            }
+        }
+
+        @Override
+        public void interrupt() {
+            try {
+                server.close();
+            } catch (IOException e) {
+
+            }
+            SocketChannels.unlinkIfUnixDomain(address);
+            super.interrupt();
+        }
+
+        private void echo(SocketChannel channel) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+            try (SocketChannel c = channel) {
+                while (c.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        c.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+
+            }
+        }
+    }
+}
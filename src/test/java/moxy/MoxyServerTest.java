@@ -12,20 +12,39 @@
  */
 package moxy;
 
+import moxy.impl.ConnectTo;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class MoxyServerTest {
@@ -34,6 +53,9 @@ public class MoxyServerTest {
     private HoneyPotServer honeyPotServer;
     private HashSet<HoneyPotServer> honeyPots = new HashSet<>();
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         honeyPotServer = startNewHoneyPot(HONEY_POT_PORT);
@@ -92,6 +114,47 @@ public class MoxyServerTest {
         assertableListener.assertNoConnectionWasMadeOn(9998);
     }
 
+    @Test
+    public void shouldOnlyNotifyListenersOfThePortTheySubscribedTo() {
+        AssertableListener onlyOn9998 = new AssertableListener();
+
+        moxyServer.listenOn(9999).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.listenOn(9998).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.addListener(9998, EnumSet.allOf(EventType.class), onlyOn9998);
+        moxyServer.start();
+
+        connectToAndSend(9999, "Hello");
+        connectToAndSend(9998, "World");
+        moxyServer.stop();
+
+        onlyOn9998.assertConnectionWasMadeOn(9998);
+        onlyOn9998.assertNoConnectionWasMadeOn(9999);
+        onlyOn9998.assertSentData(9998, new InetSocketAddress("localhost", HONEY_POT_PORT), "World");
+    }
+
+    @Test
+    public void shouldOnlyNotifyListenersOfTheEventTypesTheySubscribedTo() {
+        AssertableListener everything = new AssertableListener();
+        AssertableListener onlySentData = new AssertableListener();
+
+        moxyServer.listenOn(9999).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.addListener(everything);
+        moxyServer.addListener(9999, EnumSet.of(EventType.SENT_DATA), onlySentData);
+        moxyServer.start();
+
+        connectToAndSend(9999, "Hello");
+        moxyServer.stop();
+
+        everything.assertConnectionWasMadeOn(9999);
+        onlySentData.assertNoConnectionWasMadeOn(9999);
+        onlySentData.assertSentData(9999, new InetSocketAddress("localhost", HONEY_POT_PORT), "Hello");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowListeningForNoEventTypes() {
+        moxyServer.addListener(9999, EnumSet.noneOf(EventType.class), new AssertableListener());
+    }
+
     @Test
     public void shouldKillBothConnectionsIfTheRemoteServersConnectionWasClosed() throws InterruptedException {
         moxyServer.listenOn(9999).andConnectTo("localhost", HONEY_POT_PORT);
@@ -106,6 +169,29 @@ public class MoxyServerTest {
         alwaysStreamingThread.assertSocketClosed();
     }
 
+    @Test
+    public void shouldGiveTheConnectionsOfEveryRouteTheSameGracePeriodOnShutdown() throws InterruptedException {
+        List<AlwaysStreamingDataThread> streams = new ArrayList<>();
+        for (int port = 9990; port < 9995; port++) {
+            moxyServer.listenOn(port).andConnectTo("localhost", HONEY_POT_PORT);
+        }
+        moxyServer.start();
+        for (int port = 9990; port < 9995; port++) {
+            AlwaysStreamingDataThread stream = new AlwaysStreamingDataThread("localhost", port);
+            stream.start();
+            streams.add(stream);
+        }
+
+        long stopStartedAt = System.currentTimeMillis();
+        moxyServer.stop();
+
+        assertTrue(System.currentTimeMillis() - stopStartedAt < 3 * ConnectTo.SHUTDOWN_GRACE_PERIOD_IN_MILLIS);
+        for (AlwaysStreamingDataThread stream : streams) {
+            stream.join();
+            stream.assertSocketClosed();
+        }
+    }
+
     @Test
     public void shouldKillRemoteConnectionsOnShutdownEvenIfTheyAreStillWritingData() throws InterruptedException {
         moxyServer.listenOn(9999).andConnectTo("localhost", HONEY_POT_PORT);
@@ -128,6 +214,12 @@ public class MoxyServerTest {
         moxyServer.start();
 
         connectToAndSend(7878, "Hello World");
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(1, moxyServer.getStats(7878).getConnectionsAccepted());
+                assertEquals(0, moxyServer.getStats(7878).getActiveConnections());
+            }
+        }.performAssertion();
 
         HoneyPotServer honeyPotServer = startNewHoneyPot(9999);
 
@@ -263,6 +355,49 @@ public class MoxyServerTest {
         otherHoneyPot.assertDataNotReceived("Hello World");
     }
 
+    @Test
+    public void shouldAllowReroutingNewConnectionsWithoutRebindingThePort() {
+        HoneyPotServer otherHoneyPot = startNewHoneyPot(9999);
+
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        connectToAndSend(7878, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+
+        moxyServer.reroute(7878).andConnectTo("localhost", 9999);
+        AssertPort.assertPortIsInUse(7878);
+        connectToAndSend(7878, "Good bye");
+
+        otherHoneyPot.assertDataReceived("Good bye");
+        honeyPotServer.assertDataNotReceived("Good bye");
+    }
+
+    @Test
+    public void shouldKeepRelayingInFlightConnectionsToTheirRouteServerWhenRerouted() throws Exception {
+        HoneyPotServer otherHoneyPot = startNewHoneyPot(9999);
+
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", 7878))) {
+            channel.write(ByteBuffer.wrap("Hello World".getBytes()));
+            honeyPotServer.assertDataReceived("Hello World");
+
+            moxyServer.reroute(7878).andConnectTo("localhost", 9999);
+
+            channel.write(ByteBuffer.wrap("Hello Again".getBytes()));
+            honeyPotServer.assertDataReceived("Hello Again");
+        }
+        connectToAndSend(7878, "Good bye");
+        otherHoneyPot.assertDataReceived("Good bye");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowReroutingAPortWithoutARoute() {
+        moxyServer.reroute(7878).andConnectTo("localhost", HONEY_POT_PORT);
+    }
+
     @Test
     public void shouldAllowStopListeningOnAPort() {
         moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
@@ -273,9 +408,9 @@ public class MoxyServerTest {
     }
 
     @Test
-    public void shouldAllowAddingListenersWhileTheServerIsRunning() {
+    public void shouldAllowAddingListenersWhileTheServerIsRunning() throws Exception {
         moxyServer.start();
-        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT).get(5, TimeUnit.SECONDS);
 
         connectToAndSend(7878, "Hello World");
 
@@ -340,21 +475,294 @@ public class MoxyServerTest {
     }
 
     @Test
-    public void shouldBlowUpIfAPortIsAlreadyInUseWhileTheServerIsAlreadyRunning() {
+    public void shouldBindEveryPortWhenStartingAsynchronously() throws Exception {
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.listenOn(7979).andConnectTo("localhost", HONEY_POT_PORT);
+
+        moxyServer.startAsync().get(5, TimeUnit.SECONDS);
+
+        connectToAndSend(7878, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+        connectToAndSend(7979, "Goodbye World");
+        honeyPotServer.assertDataReceived("Goodbye World");
+    }
+
+    @Test
+    public void shouldCollectEveryBindingThatFailedWhenStartingAsynchronously() throws Exception {
+        startNewHoneyPot(19091);
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.listenOn(HONEY_POT_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.listenOn(19091).andConnectTo("localhost", HONEY_POT_PORT);
+
+        try {
+            moxyServer.startAsync().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals(1, e.getCause().getSuppressed().length);
+        }
+
+        AssertPort.assertPortIsAvailable(7878);
+    }
+
+    @Test
+    public void shouldFailTheFutureOfARouteThatCanNotBeBoundForAnyReason() throws Exception {
+        Path socketFile = temporaryFolder.getRoot().toPath().resolve("missing").resolve("moxy.sock");
+        moxyServer.listenOn(socketFile).andConnectTo("localhost", HONEY_POT_PORT);
+
+        try {
+            moxyServer.startAsync().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void shouldCompleteTheFutureOfARouteOnceItIsListening() throws Exception {
         moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        CompletableFuture<Void> listening = moxyServer.whenListeningOn(7878);
+        assertFalse(listening.isDone());
+
         moxyServer.start();
 
+        listening.get(5, TimeUnit.SECONDS);
+        connectToAndSend(7878, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+    }
+
+    @Test
+    public void shouldRelayThroughDirectBuffersAndHandThemBackOnceTheConnectionCloses() {
+        moxyServer.useDirectBuffers(new DirectBuffers(1024 * 1024));
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        connectToAndSend(7878, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+
+        BufferStats stats = moxyServer.getBufferStats();
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(2, stats.getAllocations());
+                assertEquals(0, stats.getUsedBytes());
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldReportTheHeavyHittersOfARouteOverJmxWhileListening() throws Exception {
+        moxyServer.listenOn(7878).withHeavyHitters(5, 60_000).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        for (int i = 0; i < 3; i++) {
+            connectToAndSend(7878, "Hello World");
+        }
+        honeyPotServer.assertAllDataReceived("Hello World".repeat(3));
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                List<HeavyHitter> byBytes = moxyServer.getHeavyHittersByBytes(7878);
+                assertEquals(1, byBytes.size());
+                assertTrue(byBytes.get(0).getBytes() >= 33);
+            }
+        }.performAssertion();
+        HeavyHitter client = moxyServer.getHeavyHittersByConnections(7878).get(0);
+        assertEquals("127.0.0.1", client.getAddress());
+        assertTrue(client.getConnections() >= 3);
+
+        ObjectName name = new ObjectName("moxy:type=HeavyHitters,port=7878");
+        MBeanServer jmx = ManagementFactory.getPlatformMBeanServer();
+        CompositeData[] byConnections = (CompositeData[]) jmx.getAttribute(name, "ByConnections");
+        assertEquals("127.0.0.1", byConnections[0].get("address"));
+
+        moxyServer.stop();
+        assertFalse(jmx.isRegistered(name));
+    }
+
+    @Test
+    public void shouldRejectTheConnectionsOfAClientOverItsLimitsBeforeConnectingUpstream() throws Exception {
+        moxyServer.listenOn(7878)
+                .withClientLimits(new ClientLimits().withMaxConcurrentConnections(1))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel first = SocketChannel.open(new InetSocketAddress("localhost", 7878))) {
+            first.write(ByteBuffer.wrap("first".getBytes()));
+            honeyPotServer.assertDataReceived("first");
+
+            try (SocketChannel second = SocketChannel.open(new InetSocketAddress("localhost", 7878))) {
+                assertEquals(-1, second.read(ByteBuffer.allocate(16)));
+            }
+            assertEquals(1, moxyServer.getStats(7878).getConnectionsRejected());
+            assertEquals(1, moxyServer.getStats(7878).getConnectionsAccepted());
+        }
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(0, moxyServer.getStats(7878).getActiveConnections());
+            }
+        }.performAssertion();
+        connectToAndSend(7878, "again");
+        honeyPotServer.assertDataReceived("again");
+    }
+
+    @Test
+    public void shouldOnlyLetTheNetworksOfTheAccessListConnect() throws Exception {
+        moxyServer.listenOn(7878).withAccessList(new AccessList().deny("127.0.0.0/8")).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel denied = SocketChannel.open(new InetSocketAddress("localhost", 7878))) {
+            assertEquals(-1, denied.read(ByteBuffer.allocate(16)));
+        }
+        assertEquals(1, moxyServer.getStats(7878).getConnectionsRejected());
+        assertEquals(0, moxyServer.getStats(7878).getConnectionsAccepted());
+
+        moxyServer.setAccessList(7878, new AccessList().allow("127.0.0.1").otherwise(AccessList.Access.DENY));
+        connectToAndSend(7878, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+
+        List<AccessRuleStats> stats = moxyServer.getAccessStats(7878);
+        assertEquals(1, stats.get(0).getMatches());
+        assertEquals(0, stats.get(1).getMatches());
+    }
+
+    @Test
+    public void shouldNotTrackHeavyHittersUnlessAsked() {
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        connectToAndSend(7878, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+
+        assertTrue(moxyServer.getHeavyHittersByConnections(7878).isEmpty());
         try {
-            moxyServer.listenOn(HONEY_POT_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+            moxyServer.listenOn(7879).withHeavyHitters(0, 1000);
             fail();
-        } catch (IllegalStateException e) {
+        } catch (IllegalArgumentException e) {
+            assertEquals("Tracking heavy hitters needs a top K of at least 1 and a window of at least 1ms, but was given: topK 0, window 1000ms", e.getMessage());
+        }
+    }
 
+    @Test
+    public void shouldBlowUpIfAPortIsAlreadyInUseWhileTheServerIsAlreadyRunning() throws Exception {
+        moxyServer.listenOn(7878).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try {
+            moxyServer.listenOn(HONEY_POT_PORT).andConnectTo("localhost", HONEY_POT_PORT).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
         }
 
         connectToAndSend(7878, "Hello World");
         honeyPotServer.assertDataReceived("Hello World");
     }
 
+    @Test
+    public void shouldAllowListeningOnAUnixDomainSocket() throws IOException {
+        Path socketFile = temporaryFolder.getRoot().toPath().resolve("moxy.sock");
+        moxyServer.listenOn(socketFile).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend(UnixDomainSocketAddress.of(socketFile), "Hello World");
+
+        honeyPotServer.assertDataReceived("Hello World");
+    }
+
+    @Test
+    public void shouldNotTrackTheHeavyHittersOfAUnixDomainSocket() {
+        Path socketFile = temporaryFolder.getRoot().toPath().resolve("moxy.sock");
+        try {
+            moxyServer.listenOn(socketFile).withHeavyHitters(10, 60_000).andConnectTo("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The route on [" + socketFile + "] can not have heavy hitters, the clients of a Unix domain socket have no address", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldNotAllowAnAccessListOnAUnixDomainSocket() {
+        Path socketFile = temporaryFolder.getRoot().toPath().resolve("moxy.sock");
+        try {
+            moxyServer.listenOn(socketFile).withAccessList(new AccessList().otherwise(AccessList.Access.DENY)).andConnectTo("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The route on [" + socketFile + "] can not have an access list, the clients of a Unix domain socket have no address", e.getMessage());
+        }
+        try {
+            moxyServer.listenOn(socketFile).withClientLimits(new ClientLimits().withMaxConcurrentConnections(1)).andConnectTo("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+
+        }
+
+        moxyServer.listenOn(socketFile).andConnectTo("localhost", HONEY_POT_PORT);
+        try {
+            moxyServer.setAccessList(socketFile, new AccessList().otherwise(AccessList.Access.DENY));
+            fail();
+        } catch (IllegalArgumentException e) {
+
+        }
+    }
+
+    @Test
+    public void shouldAllowRoutingToAUnixDomainSocket() throws IOException {
+        Path socketFile = temporaryFolder.getRoot().toPath().resolve("honey-pot.sock");
+        HoneyPotServer unixHoneyPot = startNewHoneyPot(UnixDomainSocketAddress.of(socketFile));
+
+        moxyServer.listenOn(7878).andConnectTo(socketFile);
+        moxyServer.start();
+
+        unixHoneyPot.sendData("From Remote");
+        connectToMoxyAndWaitForData(7878, "From Remote");
+
+        connectToAndSend(7878, "Hello World");
+        unixHoneyPot.assertDataReceived("Hello World");
+    }
+
+    @Test
+    public void shouldAllowRoutingFromAUnixDomainSocketToAnotherUnixDomainSocket() throws IOException {
+        Path listenFile = temporaryFolder.getRoot().toPath().resolve("moxy.sock");
+        Path routeFile = temporaryFolder.getRoot().toPath().resolve("honey-pot.sock");
+        HoneyPotServer unixHoneyPot = startNewHoneyPot(UnixDomainSocketAddress.of(routeFile));
+
+        AssertableListener assertableListener = new AssertableListener();
+        moxyServer.listenOn(listenFile).andConnectTo(routeFile);
+        moxyServer.addListener(assertableListener);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend(UnixDomainSocketAddress.of(listenFile), "Hello World");
+
+        unixHoneyPot.assertDataReceived("Hello World");
+        assertableListener.assertConnectionWasMadeOn(-1);
+    }
+
+    @Test
+    public void shouldRemoveTheUnixDomainSocketFileWhenStopIsCalled() throws IOException {
+        Path socketFile = temporaryFolder.getRoot().toPath().resolve("moxy.sock");
+        moxyServer.listenOn(socketFile).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+        assertTrue(Files.exists(socketFile));
+
+        moxyServer.stop();
+
+        assertFalse(Files.exists(socketFile));
+    }
+
+    @Test
+    public void shouldBeAbleToRemoveAUnixDomainSocketRouteWhileTheServerIsRunning() throws IOException {
+        Path socketFile = temporaryFolder.getRoot().toPath().resolve("moxy.sock");
+        moxyServer.listenOn(socketFile).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        moxyServer.removeListenerOn(socketFile);
+
+        assertFalse(Files.exists(socketFile));
+        moxyServer.listenOn(socketFile).andConnectTo("localhost", HONEY_POT_PORT);
+    }
+
     private void connectToMoxyAndWaitForData(int portToConnectTo, String expectedData) {
         try (Socket socket = new Socket()) {
             socket.setReuseAddress(true);
@@ -388,7 +796,11 @@ public class MoxyServerTest {
     }
 
     private HoneyPotServer startNewHoneyPot(int port) {
-        HoneyPotServer honeyPotServer = new HoneyPotServer(port);
+        return startNewHoneyPot(new InetSocketAddress(port));
+    }
+
+    private HoneyPotServer startNewHoneyPot(SocketAddress address) {
+        HoneyPotServer honeyPotServer = new HoneyPotServer(address);
         honeyPotServer.start();
         honeyPots.add(honeyPotServer);
         return honeyPotServer;
@@ -0,0 +1,224 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MultiplexedTunnelTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private static final int EXIT_PORT = 7879;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldCarryManyClientConnectionsOverOneTunnelConnection() {
+        startTunnelTo(HONEY_POT_PORT);
+
+        for (int i = 0; i < 10; i++) {
+            SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello " + i + ";");
+        }
+
+        for (int i = 0; i < 10; i++) {
+            honeyPotServer.assertDataReceived("Hello " + i + ";");
+        }
+        assertEquals(10, moxyServer.getStats(LISTEN_PORT).getConnectionsAccepted());
+        assertEquals(1, moxyServer.getStats(EXIT_PORT).getConnectionsAccepted());
+    }
+
+    @Test
+    public void shouldRelayTheAnswersBackToTheClient() throws IOException {
+        startTunnelTo(HONEY_POT_PORT);
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("Hello".getBytes()));
+            honeyPotServer.assertAllDataReceived("Hello");
+
+            honeyPotServer.sendData("World");
+            assertEquals("World", read(client, 5));
+        }
+    }
+
+    @Test
+    public void shouldRelayMoreDataThanFitsInTheWindow() {
+        startTunnelTo(HONEY_POT_PORT);
+        char[] data = new char[1024 * 1024];
+        Arrays.fill(data, 'x');
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, new String(data));
+
+        honeyPotServer.assertAllDataReceived(new String(data));
+    }
+
+    @Test
+    public void shouldNotHoldUpOtherConnectionsBehindABulkTransfer() throws Exception {
+        startTunnelTo(HONEY_POT_PORT);
+        byte[] bulk = new byte[8 * 1024 * 1024];
+        Arrays.fill(bulk, (byte) 'x');
+
+        try (SocketChannel bulkClient = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            Thread bulkSender = new Thread(() -> {
+                try {
+                    bulkClient.write(ByteBuffer.wrap(bulk));
+                } catch (IOException e) {
+
+                }
+            });
+            bulkSender.setDaemon(true);
+            bulkSender.start();
+
+            SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "ping");
+            honeyPotServer.assertDataReceived("ping");
+        }
+    }
+
+    @Test
+    public void shouldCloseTheClientConnectionWhenTheExitCanNotReachTheRouteServer() throws IOException {
+        AtomicReference<CloseReason> closeReason = new AtomicReference<>();
+        moxyServer.addListener(new MoxyListener() {
+            public void connectionClosed(long connectionId, int listenPort, SocketAddress remoteAddress, ConnectionSummary summary) {
+                if (listenPort == LISTEN_PORT) {
+                    closeReason.set(summary.getCloseReason());
+                }
+            }
+        });
+        startTunnelTo(HONEY_POT_PORT + 1);
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("Hello".getBytes()));
+            assertEquals(-1, client.read(ByteBuffer.allocate(16)));
+        }
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(CloseReason.CONNECT_FAILED, closeReason.get());
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldResetAStreamWhoseOtherEndSendsMoreThanItsWindow() throws Exception {
+        honeyPotServer.stop();
+        try (ServerSocket blackHole = new ServerSocket()) {
+            blackHole.bind(new InetSocketAddress("localhost", HONEY_POT_PORT), 1);
+            List<Socket> backlog = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress("localhost", HONEY_POT_PORT));
+                backlog.add(socket);
+            }
+            moxyServer.listenOn(EXIT_PORT).asTunnel(Tunnel.EXIT).multiplexedOver(1).andConnectTo("localhost", HONEY_POT_PORT);
+            moxyServer.start();
+
+            try (Socket entry = new Socket("localhost", EXIT_PORT)) {
+                entry.setSoTimeout(5000);
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                ByteArrayOutputStream frames = new ByteArrayOutputStream();
+                frames.write(frame(1, new byte[0]));
+                for (int sent = 0; sent <= 256 * 1024; sent += 16 * 1024) {
+                    frames.write(frame(2, new byte[16 * 1024]));
+                }
+                deflater.setInput(frames.toByteArray());
+                byte[] compressed = new byte[64 * 1024];
+                int length;
+                while ((length = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH)) > 0) {
+                    entry.getOutputStream().write(compressed, 0, length);
+                }
+
+                assertEquals(5, readFrameType(entry.getInputStream()));
+            }
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void shouldOnlyMultiplexATunnel() {
+        try {
+            moxyServer.listenOn(LISTEN_PORT).multiplexedOver(2).andConnectTo("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Only a tunnel can be multiplexed, see RouteTo.asTunnel(...)", e.getMessage());
+        }
+    }
+
+    private void startTunnelTo(int routeServerPort) {
+        moxyServer.listenOn(LISTEN_PORT).asTunnel(Tunnel.ENTRY).multiplexedOver(1).andConnectTo("localhost", EXIT_PORT);
+        moxyServer.listenOn(EXIT_PORT).asTunnel(Tunnel.EXIT).multiplexedOver(1).andConnectTo("localhost", routeServerPort);
+        moxyServer.start();
+    }
+
+    private static byte[] frame(int type, byte[] payload) {
+        return ByteBuffer.allocate(9 + payload.length).put((byte) type).putInt(1).putInt(payload.length).put(payload).array();
+    }
+
+    private static int readFrameType(InputStream input) throws Exception {
+        Inflater inflater = new Inflater(true);
+        byte[] compressed = new byte[1024];
+        byte[] header = new byte[9];
+        int inflated = 0;
+        while (inflated < header.length) {
+            if (inflater.needsInput()) {
+                int length = input.read(compressed);
+                if (length == -1) {
+                    fail("The tunnel connection was closed before a frame came back");
+                }
+                inflater.setInput(compressed, 0, length);
+            }
+            inflated += inflater.inflate(header, inflated, header.length - inflated);
+        }
+        return header[0];
+    }
+
+    private static String read(SocketChannel client, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && client.read(buffer) != -1) {
+        }
+        return new String(buffer.array(), 0, buffer.position());
+    }
+}
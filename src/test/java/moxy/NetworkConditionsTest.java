@@ -0,0 +1,234 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NetworkConditionsTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldDelayDataByTheLatency() {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withNetworkConditions(Direction.CLIENT_TO_SERVER, new NetworkConditions().withLatency(300).withJitter(50))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        long elapsed = timeToRelay("Hello World");
+
+        assertTrue("Took " + elapsed + "ms", elapsed >= 300);
+    }
+
+    @Test
+    public void shouldRecordHowLongDataSpentInTheRelay() {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withNetworkConditions(Direction.CLIENT_TO_SERVER, new NetworkConditions().withLatency(200))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(1, moxyServer.getLatency(LISTEN_PORT, Direction.CLIENT_TO_SERVER).getCount());
+            }
+        }.performAssertion();
+        LatencySnapshot latency = moxyServer.getLatencyInterval(LISTEN_PORT, Direction.CLIENT_TO_SERVER);
+        assertTrue(latency.toString(), latency.getPercentileNanos(50) >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(0, moxyServer.getLatencyInterval(LISTEN_PORT, Direction.CLIENT_TO_SERVER).getCount());
+        assertEquals(0, moxyServer.getLatency(LISTEN_PORT, Direction.SERVER_TO_CLIENT).getCount());
+    }
+
+    @Test
+    public void shouldLimitTheBandwidthAndFragmentTheData() {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withNetworkConditions(Direction.CLIENT_TO_SERVER, new NetworkConditions().withBandwidth(1000).withFragmentation(100))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        String data = "0123456789".repeat(60);
+        long start = System.currentTimeMillis();
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, data);
+        honeyPotServer.assertAllDataReceived(data);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Took " + elapsed + "ms", elapsed >= 500);
+        honeyPotServer.assertDataReceived("0123456789".repeat(10));
+    }
+
+    @Test
+    public void shouldStopReadingWhileTheMemoryBudgetRunsOut() {
+        moxyServer.useMemoryBudget(new MemoryBudget(10));
+        moxyServer.listenOn(LISTEN_PORT)
+                .withNetworkConditions(Direction.CLIENT_TO_SERVER, new NetworkConditions().withLatency(200))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+        honeyPotServer.assertAllDataReceived("Hello World");
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                MemoryStats stats = moxyServer.getMemoryStats();
+                assertEquals(0, stats.getHeldBytes());
+                assertEquals(1, stats.getPauses());
+                assertEquals(1, stats.getResumes());
+            }
+        }.performAssertion();
+        assertEquals(11, moxyServer.getMemoryStats().getPeakHeldBytes());
+        assertEquals(10, moxyServer.getMemoryStats().getMaxBytes());
+    }
+
+    @Test
+    public void shouldKeepRelayingTheOtherConnectionsWhileAClientStopsReading() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withNetworkConditions(Direction.SERVER_TO_CLIENT, new NetworkConditions().withLatency(1))
+                .andConnectTo("localhost", HONEY_POT_PORT + 1);
+        moxyServer.listenOn(LISTEN_PORT + 1)
+                .withNetworkConditions(Direction.SERVER_TO_CLIENT, new NetworkConditions().withLatency(1))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (ServerSocketChannel fireHose = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", HONEY_POT_PORT + 1));
+             SocketChannel stalled = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            try (SocketChannel routeServer = fireHose.accept()) {
+                ByteBuffer data = ByteBuffer.allocate(16 * 1024 * 1024);
+                routeServer.configureBlocking(false);
+                long deadline = System.currentTimeMillis() + 1000;
+                while (data.hasRemaining() && System.currentTimeMillis() < deadline) {
+                    routeServer.write(data);
+                }
+                assertTrue("The stalled client's data never backed up", data.hasRemaining());
+            }
+
+            try (Socket flowing = new Socket("localhost", LISTEN_PORT + 1)) {
+                flowing.setSoTimeout(5000);
+                honeyPotServer.assertSomeoneConnected();
+                honeyPotServer.sendData("World");
+                byte[] received = new byte[5];
+                new DataInputStream(flowing.getInputStream()).readFully(received);
+                assertEquals("World", new String(received));
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotAllowAnEmptyQuotaOrNoPriority() {
+        try {
+            moxyServer.listenOn(LISTEN_PORT).withQuota(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The quota needs at least 1 byte, but was given: 0", e.getMessage());
+        }
+        try {
+            moxyServer.listenOn(LISTEN_PORT).withPriority(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("A priority is required", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldStallAfterTheGivenNumberOfBytes() {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withNetworkConditions(Direction.CLIENT_TO_SERVER, new NetworkConditions().withStall(5, 300))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        long elapsed = timeToRelay("Hello World");
+
+        assertTrue("Took " + elapsed + "ms", elapsed >= 300);
+    }
+
+    @Test
+    public void shouldResetTheConnectionAfterTheGivenNumberOfBytes() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT)
+                .withNetworkConditions(Direction.CLIENT_TO_SERVER, new NetworkConditions().withResetAfter(5, 1.0))
+                .andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            channel.write(ByteBuffer.wrap("Hello World".getBytes()));
+            honeyPotServer.assertAllDataReceived("Hello");
+
+            try {
+                channel.read(ByteBuffer.allocate(16));
+                fail("The connection should have been reset");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("reset"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldAllowChangingTheConditionsWhileRunning() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            moxyServer.setNetworkConditions(LISTEN_PORT, Direction.CLIENT_TO_SERVER, new NetworkConditions().withLatency(300));
+            long start = System.currentTimeMillis();
+            channel.write(ByteBuffer.wrap("Hello World".getBytes()));
+            honeyPotServer.assertDataReceived("Hello World");
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Took " + elapsed + "ms", elapsed >= 300);
+
+            moxyServer.setNetworkConditions(LISTEN_PORT, Direction.CLIENT_TO_SERVER, null);
+            start = System.currentTimeMillis();
+            channel.write(ByteBuffer.wrap("Good bye".getBytes()));
+            honeyPotServer.assertDataReceived("Good bye");
+            elapsed = System.currentTimeMillis() - start;
+            assertTrue("Took " + elapsed + "ms", elapsed < 300);
+        }
+    }
+
+    private long timeToRelay(String data) {
+        long start = System.currentTimeMillis();
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, data);
+        honeyPotServer.assertAllDataReceived(data);
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PortRangeTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int OTHER_HONEY_POT_PORT = 19091;
+    private static final int FIRST_PORT = 7878;
+    private static final int LAST_PORT = 7879;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+    private HoneyPotServer otherHoneyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+        otherHoneyPotServer = new HoneyPotServer(OTHER_HONEY_POT_PORT);
+        otherHoneyPotServer.start();
+
+        moxyServer = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+        otherHoneyPotServer.stop();
+    }
+
+    @Test
+    public void shouldSendEachPortToItsOwnRouteServerPort() {
+        moxyServer.listenOnRange(FIRST_PORT, LAST_PORT).andConnectToRange("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", FIRST_PORT, "Hello World");
+        SocketUtil.connectToAndSend("localhost", LAST_PORT, "Goodbye World");
+
+        honeyPotServer.assertAllDataReceived("Hello World");
+        otherHoneyPotServer.assertAllDataReceived("Goodbye World");
+    }
+
+    @Test
+    public void shouldKeepAcceptingOnTheOtherPortsWhileARouteServerIsSlowToConnectTo() throws Exception {
+        honeyPotServer.stop();
+        try (ServerSocket blackHole = new ServerSocket()) {
+            blackHole.bind(new InetSocketAddress("localhost", HONEY_POT_PORT), 1);
+            List<Socket> backlog = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress("localhost", HONEY_POT_PORT));
+                backlog.add(socket);
+            }
+            moxyServer.listenOnRange(FIRST_PORT, LAST_PORT).andConnectToRange("localhost", HONEY_POT_PORT);
+            moxyServer.start();
+
+            try (Socket stuck = new Socket("localhost", FIRST_PORT)) {
+                SocketUtil.connectToAndSend("localhost", LAST_PORT, "Goodbye World");
+                otherHoneyPotServer.assertAllDataReceived("Goodbye World");
+            }
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void shouldSendEveryPortToTheSameRouteServer() {
+        moxyServer.listenOnRange(FIRST_PORT, LAST_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", FIRST_PORT, "Hello");
+        honeyPotServer.assertDataReceived("Hello");
+        SocketUtil.connectToAndSend("localhost", LAST_PORT, "World");
+        honeyPotServer.assertDataReceived("World");
+
+        assertEquals(2, moxyServer.getStats(LAST_PORT).getConnectionsAccepted());
+    }
+
+    @Test
+    public void shouldTellListenersWhichPortOfTheRangeTheConnectionCameIn() {
+        List<String> connections = Collections.synchronizedList(new ArrayList<>());
+        moxyServer.addListener(new MoxyListener() {
+            public void connectionMade(int listeningPort, SocketAddress socketAddress) {
+                connections.add(listeningPort + "->" + ((InetSocketAddress) socketAddress).getPort());
+            }
+        });
+        moxyServer.listenOnRange(FIRST_PORT, LAST_PORT).andConnectToRange("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LAST_PORT, "Hello World");
+        otherHoneyPotServer.assertAllDataReceived("Hello World");
+
+        assertEquals(Collections.singletonList(LAST_PORT + "->" + OTHER_HONEY_POT_PORT), connections);
+    }
+
+    @Test
+    public void shouldFreeEveryPortOfTheRangeWhenRemoved() {
+        moxyServer.listenOnRange(FIRST_PORT, LAST_PORT).andConnectToRange("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        moxyServer.removeListenerOn(FIRST_PORT);
+
+        AssertPort.assertPortIsAvailable(FIRST_PORT);
+        AssertPort.assertPortIsAvailable(LAST_PORT);
+        moxyServer.listenOn(LAST_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+    }
+
+    @Test
+    public void shouldNotAllowOverlappingRoutes() {
+        moxyServer.listenOn(LAST_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        try {
+            moxyServer.listenOnRange(FIRST_PORT, LAST_PORT).andConnectToRange("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+
+        }
+    }
+
+    @Test
+    public void shouldNotAllowARangeOfRouteServersToBeHttp() {
+        try {
+            moxyServer.listenOnRange(FIRST_PORT, LAST_PORT).asHttp(2).andConnectToRange("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("A range of route servers can not share an HTTP connection pool or a multiplexed tunnel, use andConnectTo(...) instead", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldNotAllowABackwardsRange() {
+        try {
+            moxyServer.listenOnRange(LAST_PORT, FIRST_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The port range needs to be within 1-65535 and start before it ends, but was given: 7879-7878", e.getMessage());
+        }
+    }
+}
@@ -46,6 +46,7 @@ public class ProxyHttpAppTest {
     @After
     public void tearDown() throws Exception {
         moxy.stop();
+        http.stop();
     }
 
     @Test
@@ -0,0 +1,162 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SamplingTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+        moxyServer.listenOn(LISTEN_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldOnlyPassOnTheFirstBytesOfEachConnection() {
+        RecordingListener everything = new RecordingListener();
+        RecordingListener sampled = new RecordingListener();
+        moxyServer.addListener(everything);
+        moxyServer.addListener(sampled, Sampling.firstBytes(5));
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+        // the connections are relayed on threads of their own, the second one could otherwise overtake the first
+        honeyPotServer.assertDataReceived("Hello World");
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Goodbye World");
+        honeyPotServer.assertDataReceived("Goodbye World");
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals("Hello WorldGoodbye World", String.join("", everything.sent));
+                assertEquals("HelloGoodb", String.join("", sampled.sent));
+                assertEquals(2, sampled.connections.size());
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldPassOnEveryNthChunk() throws Exception {
+        RecordingListener everything = new RecordingListener();
+        RecordingListener sampled = new RecordingListener();
+        moxyServer.addListener(everything);
+        moxyServer.addListener(sampled, Sampling.everyNth(2));
+        moxyServer.start();
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            for (int i = 0; i < 5; i++) {
+                client.write(ByteBuffer.wrap(("chunk" + i).getBytes()));
+                Thread.sleep(50);
+            }
+        }
+        honeyPotServer.assertAllDataReceived("chunk0chunk1chunk2chunk3chunk4");
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals("chunk0chunk1chunk2chunk3chunk4", String.join("", everything.sent));
+                assertEquals((everything.sent.size() + 1) / 2, sampled.sent.size());
+                assertEquals(everything.sent.get(0), sampled.sent.get(0));
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldSkipEverythingWithAProbabilityOfZero() {
+        RecordingListener everything = new RecordingListener();
+        RecordingListener sampled = new RecordingListener();
+        moxyServer.addListener(everything);
+        moxyServer.addListener(sampled, Sampling.withProbability(0.0));
+        moxyServer.start();
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "Hello World");
+        honeyPotServer.assertDataReceived("Hello World");
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals("Hello World", String.join("", everything.sent));
+            }
+        }.performAssertion();
+        assertEquals(1, sampled.connections.size());
+        assertEquals(0, sampled.sent.size());
+    }
+
+    @Test
+    public void samplersShouldKeepTrackOfTheirOwnDirection() {
+        Sampling.Sampler first = Sampling.firstBytes(10).newSampler();
+        assertEquals(6, first.sample(6));
+        assertEquals(4, first.sample(6));
+        assertEquals(0, first.sample(6));
+
+        Sampling.Sampler nth = Sampling.everyNth(3).newSampler();
+        assertEquals(1, nth.sample(1));
+        assertEquals(0, nth.sample(1));
+        assertEquals(0, nth.sample(1));
+        assertEquals(1, nth.sample(1));
+        assertEquals(7, Sampling.everyNth(3).newSampler().sample(7));
+    }
+
+    @Test
+    public void shouldNotAllowNonsenseSampling() {
+        assertInvalid(() -> Sampling.everyNth(0));
+        assertInvalid(() -> Sampling.firstBytes(0));
+        assertInvalid(() -> Sampling.withProbability(1.5));
+        assertInvalid(() -> moxyServer.addListener(new RecordingListener(), null));
+    }
+
+    private static void assertInvalid(Runnable runnable) {
+        try {
+            runnable.run();
+            fail();
+        } catch (IllegalArgumentException e) {
+
+        }
+    }
+
+    private static class RecordingListener extends MoxyListener {
+        private final List<String> connections = new CopyOnWriteArrayList<>();
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+
+        public void connectionMade(int listenPort, SocketAddress remoteAddress) {
+            connections.add(String.valueOf(remoteAddress));
+        }
+
+        public void sentData(int listenPort, SocketAddress remoteAddress, byte[] data) {
+            sent.add(new String(data));
+        }
+    }
+}
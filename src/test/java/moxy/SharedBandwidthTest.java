@@ -0,0 +1,202 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedBandwidthTest {
+    private static final int SHARED_BYTES_PER_SECOND = 512 * 1024;
+    private static final int FIRST_PORT = 7878;
+    private static final int SECOND_PORT = 7879;
+    private MoxyServer moxyServer;
+    private List<Sink> sinks = new ArrayList<>();
+    private List<Socket> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        moxyServer = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket client : clients) {
+            client.close();
+        }
+        moxyServer.stop();
+        for (Sink sink : sinks) {
+            sink.close();
+        }
+    }
+
+    @Test
+    public void shouldShareTheBandwidthInProportionToTheQuotas() throws Exception {
+        moxyServer.useSharedBandwidth(SHARED_BYTES_PER_SECOND);
+        Sink small = newSink();
+        Sink large = newSink();
+        moxyServer.listenOn(FIRST_PORT).withQuota(8 * 1024).andConnectTo(small.getAddress());
+        moxyServer.listenOn(SECOND_PORT).withQuota(32 * 1024).andConnectTo(large.getAddress());
+        moxyServer.start();
+
+        keepSending(FIRST_PORT);
+        keepSending(SECOND_PORT);
+        Thread.sleep(500);
+        long smallBefore = small.received.get();
+        long largeBefore = large.received.get();
+        Thread.sleep(2000);
+        long smallBytes = small.received.get() - smallBefore;
+        long largeBytes = large.received.get() - largeBefore;
+
+        double share = (double) largeBytes / smallBytes;
+        assertTrue("small=" + smallBytes + " large=" + largeBytes, share > 2.5 && share < 6);
+        long total = smallBytes + largeBytes;
+        assertTrue("Relayed " + total + " bytes in 2 seconds", total < 2 * SHARED_BYTES_PER_SECOND * 1.25);
+    }
+
+    @Test
+    public void shouldGiveTheBandwidthToTheHigherPriorityFirst() throws Exception {
+        moxyServer.useSharedBandwidth(SHARED_BYTES_PER_SECOND);
+        Sink interactive = newSink();
+        Sink bulk = newSink();
+        moxyServer.listenOn(FIRST_PORT).withPriority(Priority.INTERACTIVE).withQuota(16 * 1024).andConnectTo(interactive.getAddress());
+        moxyServer.listenOn(SECOND_PORT).withPriority(Priority.BULK).withQuota(16 * 1024).andConnectTo(bulk.getAddress());
+        moxyServer.start();
+
+        keepSending(FIRST_PORT);
+        keepSending(SECOND_PORT);
+        Thread.sleep(500);
+        long interactiveBefore = interactive.received.get();
+        long bulkBefore = bulk.received.get();
+        Thread.sleep(2000);
+        long interactiveBytes = interactive.received.get() - interactiveBefore;
+        long bulkBytes = bulk.received.get() - bulkBefore;
+
+        assertTrue("interactive=" + interactiveBytes + " bulk=" + bulkBytes, interactiveBytes > 0.8 * (interactiveBytes + bulkBytes));
+    }
+
+    @Test
+    public void shouldReadNoMoreThanTheQuotaAtOnce() throws Exception {
+        AtomicInteger largestRead = new AtomicInteger();
+        moxyServer.addListener(new MoxyListener() {
+            public void sentData(int listenPort, SocketAddress remoteAddress, byte[] data) {
+                largestRead.accumulateAndGet(data.length, Math::max);
+            }
+        });
+        Sink sink = newSink();
+        moxyServer.listenOn(FIRST_PORT).withQuota(100).andConnectTo(sink.getAddress());
+        moxyServer.start();
+
+        Socket client = connect(FIRST_PORT);
+        client.getOutputStream().write(new byte[10 * 1024]);
+        client.getOutputStream().flush();
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(10 * 1024, sink.received.get());
+            }
+        }.performAssertion();
+        assertEquals(100, largestRead.get());
+    }
+
+    @Test
+    public void shouldNotAllowANegativeSharedBandwidth() {
+        try {
+            moxyServer.useSharedBandwidth(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The shared bandwidth can not be negative, but was given: -1", e.getMessage());
+        }
+    }
+
+    private void keepSending(int port) throws IOException {
+        Socket client = connect(port);
+        Thread thread = new Thread(() -> {
+            byte[] data = new byte[16 * 1024];
+            try {
+                OutputStream output = client.getOutputStream();
+                while (true) {
+                    output.write(data);
+                }
+            } catch (IOException e) {
+
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private Socket connect(int port) throws IOException {
+        Socket client = new Socket("localhost", port);
+        clients.add(client);
+        return client;
+    }
+
+    private Sink newSink() throws IOException {
+        Sink sink = new Sink();
+        sinks.add(sink);
+        sink.start();
+        return sink;
+    }
+
+    /**
+     * Counts the bytes it receives, on a port of its own
+     */
+    private static class Sink extends Thread {
+        private final ServerSocketChannel server = ServerSocketChannel.open();
+        private final AtomicLong received = new AtomicLong();
+
+        private Sink() throws IOException {
+            server.bind(new InetSocketAddress("localhost", 0));
+            setDaemon(true);
+        }
+
+        public void run() {
+            try (SocketChannel socket = server.accept()) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                int length;
+                while ((length = socket.read(buffer)) != -1) {
+                    received.addAndGet(length);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+
+            }
+        }
+
+        private SocketAddress getAddress() throws IOException {
+            return server.getLocalAddress();
+        }
+
+        private void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -16,6 +16,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 public class SocketUtil {
     public static void connectToAndSend(String ip, int portToConnectTo, String dataToSend) {
@@ -31,4 +34,15 @@ public class SocketUtil {
             throw new RuntimeException(e);
         }
     }
+
+    public static void connectToAndSend(SocketAddress address, String dataToSend) {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer buffer = ByteBuffer.wrap(dataToSend.getBytes());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,230 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TlsTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private static final int TLS_PORT = 7879;
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldRelayTheDecryptedDataWhenTerminatingTls() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withTlsTermination(new Tls(context())).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SSLSocket client = connectSecurelyTo(context(), LISTEN_PORT)) {
+            client.getOutputStream().write("Hello".getBytes());
+            honeyPotServer.assertAllDataReceived("Hello");
+
+            honeyPotServer.sendData("World");
+            assertEquals("World", read(client.getInputStream(), 5));
+        }
+
+        TlsStats stats = moxyServer.getStats(LISTEN_PORT).getTlsTermination();
+        assertEquals(1, stats.getHandshakes());
+        assertEquals(0, stats.getResumedHandshakes());
+        assertEquals(1, stats.getHandshakeLatency().getCount());
+    }
+
+    @Test
+    public void shouldResumeTheSessionOfAReturningClient() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withTlsTermination(new Tls(context())).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+        SSLContext clientContext = context();
+
+        try (SSLSocket client = connectSecurelyTo(clientContext, LISTEN_PORT)) {
+            client.getOutputStream().write("Hello".getBytes());
+            honeyPotServer.sendData("World");
+            assertEquals("World", read(client.getInputStream(), 5));
+        }
+        try (SSLSocket client = connectSecurelyTo(clientContext, LISTEN_PORT)) {
+            client.startHandshake();
+        }
+
+        TlsStats stats = moxyServer.getStats(LISTEN_PORT).getTlsTermination();
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(2, stats.getHandshakes());
+                assertEquals(1, stats.getResumedHandshakes());
+                assertEquals(0.5, stats.getResumptionRate(), 0.0);
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldResumeTheSessionOfAReturningTls12Client() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withTlsTermination(new Tls(context())).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+        SSLContext clientContext = context();
+
+        for (int i = 0; i < 3; i++) {
+            try (SSLSocket client = connectSecurelyTo(clientContext, LISTEN_PORT)) {
+                client.setEnabledProtocols(new String[]{"TLSv1.2"});
+                client.startHandshake();
+            }
+        }
+
+        TlsStats stats = moxyServer.getStats(LISTEN_PORT).getTlsTermination();
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(3, stats.getHandshakes());
+                assertEquals(2, stats.getResumedHandshakes());
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldCountTheHandshakesThatFail() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withTlsTermination(new Tls(context())).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SSLSocket client = connectSecurelyTo(SSLContext.getDefault(), LISTEN_PORT)) {
+            client.startHandshake();
+            fail();
+        } catch (IOException expected) {
+        }
+
+        TlsStats stats = moxyServer.getStats(LISTEN_PORT).getTlsTermination();
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(1, stats.getFailedHandshakes());
+                assertEquals(0, stats.getHandshakes());
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldSpeakTlsWithTheRouteServerWhenOriginatingTls() throws Exception {
+        moxyServer.listenOn(LISTEN_PORT).withTlsOrigination(new Tls(context())).andConnectTo("localhost", TLS_PORT);
+        moxyServer.listenOn(TLS_PORT).withTlsTermination(new Tls(context())).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("Hello".getBytes()));
+            honeyPotServer.assertAllDataReceived("Hello");
+
+            honeyPotServer.sendData("World");
+            assertEquals("World", read(client.socket().getInputStream(), 5));
+        }
+
+        assertEquals(1, moxyServer.getStats(LISTEN_PORT).getTlsOrigination().getHandshakes());
+        assertEquals(1, moxyServer.getStats(TLS_PORT).getTlsTermination().getHandshakes());
+    }
+
+    @Test
+    public void shouldNotAllowTerminatingTlsOnAContentBasedRoute() throws Exception {
+        try {
+            moxyServer.listenOn(LISTEN_PORT).withTlsTermination(new Tls(context()))
+                    .andRouteBy(new ContentRoutes().otherwise("localhost", HONEY_POT_PORT));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Content based routes can not terminate TLS, the content is sniffed before the handshake", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldLeaveTheSessionCacheOfTheSSLContextAloneUnlessAskedToResizeIt() throws Exception {
+        SSLContext shared = context();
+        SSLSessionContext sessions = shared.getServerSessionContext();
+        int size = sessions.getSessionCacheSize();
+        int timeout = sessions.getSessionTimeout();
+
+        moxyServer.listenOn(LISTEN_PORT).withTlsTermination(new Tls(shared)).andConnectTo("localhost", HONEY_POT_PORT);
+        assertEquals(size, sessions.getSessionCacheSize());
+        assertEquals(timeout, sessions.getSessionTimeout());
+
+        moxyServer.listenOn(TLS_PORT).withTlsTermination(new Tls(shared).withSessionCache(10, 60)).andConnectTo("localhost", HONEY_POT_PORT);
+        assertEquals(10, sessions.getSessionCacheSize());
+        assertEquals(60, sessions.getSessionTimeout());
+    }
+
+    @Test
+    public void shouldNotAllowAnEmptySessionCache() throws Exception {
+        try {
+            new Tls(context()).withSessionCache(0, 60);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The session cache needs room for at least 1 session, but was given: 0", e.getMessage());
+        }
+    }
+
+    private static SSLSocket connectSecurelyTo(SSLContext context, int port) throws IOException {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static String read(InputStream input, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = input.read(data, read, length - read);
+            if (n < 0) {
+                throw new IOException("Closed after " + read + " bytes");
+            }
+            read += n;
+        }
+        return new String(data);
+    }
+
+    private static SSLContext context() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = TlsTest.class.getResourceAsStream("/moxy-test.p12")) {
+            keyStore.load(input, PASSWORD);
+        }
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, PASSWORD);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return context;
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrafficStreamTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+        moxyServer.listenOn(LISTEN_PORT).andConnectTo("localhost", HONEY_POT_PORT);
+        moxyServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldStreamTheTrafficOfTheRoute() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        moxyServer.traffic(LISTEN_PORT, Backpressure.buffer(16)).subscribe(subscriber);
+
+        honeyPotServer.sendData("World");
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("Hello".getBytes()));
+            client.read(ByteBuffer.allocate(16));
+        }
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals("Hello", subscriber.data(Direction.CLIENT_TO_SERVER));
+                assertEquals("World", subscriber.data(Direction.SERVER_TO_CLIENT));
+            }
+        }.performAssertion();
+        assertEquals(1, subscriber.chunks.stream().map(Chunk::getConnectionId).distinct().count());
+        assertEquals(LISTEN_PORT, subscriber.chunks.get(0).getListenPort());
+    }
+
+    @Test
+    public void shouldStreamASingleConnectionUntilItCloses() throws Exception {
+        RecordingSubscriber route = new RecordingSubscriber(Long.MAX_VALUE);
+        moxyServer.traffic(LISTEN_PORT, Backpressure.buffer(16)).subscribe(route);
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("first".getBytes()));
+            new RetryableAssertion() {
+                protected void assertion() {
+                    assertFalse(route.chunks.isEmpty());
+                }
+            }.performAssertion();
+
+            RecordingSubscriber connection = new RecordingSubscriber(Long.MAX_VALUE);
+            moxyServer.traffic(LISTEN_PORT, route.chunks.get(0).getConnectionId(), Backpressure.buffer(16)).subscribe(connection);
+            SocketUtil.connectToAndSend("localhost", LISTEN_PORT, "other");
+            client.write(ByteBuffer.wrap("second".getBytes()));
+            honeyPotServer.assertDataReceived("other");
+            honeyPotServer.assertDataReceived("second");
+            client.close();
+
+            new RetryableAssertion() {
+                protected void assertion() {
+                    assertTrue(connection.completed);
+                }
+            }.performAssertion();
+            assertEquals("second", connection.data(Direction.CLIENT_TO_SERVER));
+        }
+    }
+
+    @Test
+    public void shouldCompleteRightAwayForAConnectionThatIsNotOpen() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        moxyServer.traffic(LISTEN_PORT, 12345L, Backpressure.drop()).subscribe(subscriber);
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertTrue(subscriber.completed);
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldDropWhatTheSubscriberIsNotReadyFor() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        TrafficStream traffic = moxyServer.traffic(LISTEN_PORT, Backpressure.drop());
+        traffic.subscribe(subscriber);
+
+        sendChunks(4);
+        honeyPotServer.assertAllDataReceived("chunk0chunk1chunk2chunk3");
+
+        assertTrue(traffic.getDroppedChunks() > 0);
+        assertTrue(subscriber.chunks.isEmpty());
+    }
+
+    @Test
+    public void shouldSlowTheRelayDownWhenBlocking() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        TrafficStream traffic = moxyServer.traffic(LISTEN_PORT, Backpressure.block(1));
+        traffic.subscribe(subscriber);
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            for (int i = 0; i < 3; i++) {
+                client.write(ByteBuffer.wrap(("chunk" + i).getBytes()));
+                Thread.sleep(100);
+            }
+            honeyPotServer.assertDataNotReceived("chunk2");
+
+            subscriber.subscription.request(Long.MAX_VALUE);
+            honeyPotServer.assertAllDataReceived("chunk0chunk1chunk2");
+        }
+        assertEquals(0, traffic.getDroppedChunks());
+    }
+
+    @Test
+    public void shouldDropTheChunkOnceTheSubscriberTookTooLongWhenBlocking() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        TrafficStream traffic = moxyServer.traffic(LISTEN_PORT, Backpressure.block(1, 100));
+        traffic.subscribe(subscriber);
+
+        sendChunks(3);
+
+        honeyPotServer.assertAllDataReceived("chunk0chunk1chunk2");
+        assertTrue(traffic.getDroppedChunks() > 0);
+    }
+
+    @Test
+    public void shouldStopTheServerWhileTheRelayIsBlockedOnAStalledSubscriber() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        TrafficStream traffic = moxyServer.traffic(LISTEN_PORT, Backpressure.block(1));
+        traffic.subscribe(subscriber);
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            for (int i = 0; i < 3; i++) {
+                client.write(ByteBuffer.wrap(("chunk" + i).getBytes()));
+                Thread.sleep(100);
+            }
+            honeyPotServer.assertDataNotReceived("chunk2");
+
+            long startedAt = System.currentTimeMillis();
+            moxyServer.stop();
+            assertTrue(System.currentTimeMillis() - startedAt < 2000);
+        }
+        assertTrue(traffic.getDroppedChunks() > 0);
+    }
+
+    @Test
+    public void shouldHoldTheRouteBackWhileAStalledSubscriberRunsTheMemoryBudgetOut() throws Exception {
+        moxyServer.useMemoryBudget(new MemoryBudget(10));
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        moxyServer.traffic(LISTEN_PORT, Backpressure.buffer(16)).subscribe(subscriber);
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            for (int i = 0; i < 4; i++) {
+                client.write(ByteBuffer.wrap(("chunk" + i).getBytes()));
+                Thread.sleep(100);
+            }
+            honeyPotServer.assertDataNotReceived("chunk3");
+            assertTrue(moxyServer.getMemoryStats().getHeldBytes() >= 12);
+
+            subscriber.subscription.cancel();
+            honeyPotServer.assertAllDataReceived("chunk0chunk1chunk2chunk3");
+        }
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(0, moxyServer.getMemoryStats().getHeldBytes());
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldNotAllowStreamingWithoutARouteOrBackpressure() {
+        assertInvalid(() -> moxyServer.traffic(LISTEN_PORT + 1, Backpressure.drop()));
+        assertInvalid(() -> moxyServer.traffic(LISTEN_PORT, null));
+        assertInvalid(() -> Backpressure.buffer(0));
+        assertInvalid(() -> Backpressure.block(1, -1));
+    }
+
+    private void sendChunks(int count) throws Exception {
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            for (int i = 0; i < count; i++) {
+                client.write(ByteBuffer.wrap(("chunk" + i).getBytes()));
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void assertInvalid(Runnable runnable) {
+        try {
+            runnable.run();
+            fail();
+        } catch (IllegalArgumentException e) {
+
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Chunk> {
+        private final long initialDemand;
+        private final List<Chunk> chunks = new CopyOnWriteArrayList<>();
+        private volatile Flow.Subscription subscription;
+        private volatile boolean completed;
+
+        private RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+        }
+
+        public void onNext(Chunk chunk) {
+            chunks.add(chunk);
+        }
+
+        public void onError(Throwable throwable) {
+
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+
+        private String data(Direction direction) {
+            return chunks.stream()
+                    .filter((chunk) -> chunk.getDirection() == direction)
+                    .map((chunk) -> new String(chunk.getData()))
+                    .collect(Collectors.joining());
+        }
+    }
+}
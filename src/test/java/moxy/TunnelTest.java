@@ -0,0 +1,117 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TunnelTest {
+    private static final int HONEY_POT_PORT = 19090;
+    private static final int LISTEN_PORT = 7878;
+    private static final int EXIT_PORT = 7879;
+    private MoxyServer moxyServer;
+    private HoneyPotServer honeyPotServer;
+
+    @Before
+    public void setUp() throws Exception {
+        honeyPotServer = new HoneyPotServer(HONEY_POT_PORT);
+        honeyPotServer.start();
+
+        moxyServer = new MoxyServer();
+        moxyServer.listenOn(LISTEN_PORT).asTunnel(Tunnel.ENTRY).andConnectTo("localhost", EXIT_PORT);
+        moxyServer.listenOn(EXIT_PORT).asTunnel(Tunnel.EXIT).andConnectTo("localhost", HONEY_POT_PORT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        moxyServer.stop();
+        honeyPotServer.stop();
+    }
+
+    @Test
+    public void shouldSendSmallMessagesThroughTheTunnelRightAway() throws IOException {
+        AssertableListener listener = new AssertableListener();
+        moxyServer.addListener(listener);
+        moxyServer.start();
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", LISTEN_PORT))) {
+            client.write(ByteBuffer.wrap("Hello".getBytes()));
+            honeyPotServer.assertAllDataReceived("Hello");
+
+            honeyPotServer.sendData("World");
+            assertEquals("World", read(client, 5));
+        }
+
+        InetSocketAddress exitAddress = new InetSocketAddress("localhost", EXIT_PORT);
+        InetSocketAddress honeyPotAddress = new InetSocketAddress("localhost", HONEY_POT_PORT);
+        listener.assertSentData(LISTEN_PORT, exitAddress, "Hello");
+        listener.assertReceivedData(LISTEN_PORT, exitAddress, "World");
+        listener.assertSentData(EXIT_PORT, honeyPotAddress, "Hello");
+        listener.assertReceivedData(EXIT_PORT, honeyPotAddress, "World");
+
+        RouteStats entry = moxyServer.getStats(LISTEN_PORT);
+        assertEquals(5, entry.getTunnel().getUncompressedBytes(Direction.CLIENT_TO_SERVER));
+        assertEquals(5, entry.getTunnel().getUncompressedBytes(Direction.SERVER_TO_CLIENT));
+        assertTrue(entry.getTunnel().getCompressedBytes(Direction.SERVER_TO_CLIENT) > 0);
+    }
+
+    @Test
+    public void shouldCompressTheDataCrossingTheTunnel() {
+        moxyServer.start();
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            message.append("<message id=\"").append(i).append("\"><body>Hello World</body></message>");
+        }
+
+        SocketUtil.connectToAndSend("localhost", LISTEN_PORT, message.toString());
+
+        honeyPotServer.assertAllDataReceived(message.toString());
+        TunnelStats entry = moxyServer.getStats(LISTEN_PORT).getTunnel();
+        TunnelStats exit = moxyServer.getStats(EXIT_PORT).getTunnel();
+        new RetryableAssertion() {
+            protected void assertion() {
+                assertEquals(message.length(), entry.getUncompressedBytes(Direction.CLIENT_TO_SERVER));
+                assertEquals(entry.getCompressedBytes(Direction.CLIENT_TO_SERVER), exit.getCompressedBytes(Direction.CLIENT_TO_SERVER));
+            }
+        }.performAssertion();
+        assertTrue("Ratio was " + entry.getCompressionRatio(Direction.CLIENT_TO_SERVER), entry.getCompressionRatio(Direction.CLIENT_TO_SERVER) > 5);
+        assertTrue(entry.getCpuNanos(Direction.CLIENT_TO_SERVER) > 0);
+    }
+
+    @Test
+    public void shouldNotAllowAnHttpTunnel() {
+        try {
+            moxyServer.listenOn(8080).asTunnel(Tunnel.ENTRY).asHttp(1).andConnectTo("localhost", HONEY_POT_PORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("A tunnel can not be an HTTP route, the compressed data is not HTTP", e.getMessage());
+        }
+    }
+
+    private static String read(SocketChannel client, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && client.read(buffer) != -1) {
+        }
+        return new String(buffer.array(), 0, buffer.position());
+    }
+}
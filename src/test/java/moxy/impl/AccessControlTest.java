@@ -0,0 +1,124 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.AccessList;
+import moxy.AccessRuleStats;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AccessControlTest {
+    private final AccessControl accessControl = new AccessControl();
+
+    @Test
+    public void shouldLetTheMostSpecificBlockDecide() throws Exception {
+        accessControl.replace(new AccessList()
+                .allow("10.0.0.0/8")
+                .deny("10.1.0.0/16")
+                .allow("10.1.2.3")
+                .otherwise(AccessList.Access.DENY));
+
+        assertTrue(accessControl.admits(client("10.200.0.1")));
+        assertFalse(accessControl.admits(client("10.1.200.1")));
+        assertTrue(accessControl.admits(client("10.1.2.3")));
+        assertFalse(accessControl.admits(client("192.168.0.1")));
+        assertFalse(accessControl.admits(client("10.1.2.4")));
+    }
+
+    @Test
+    public void shouldKeepTheAddressFamiliesApart() throws Exception {
+        accessControl.replace(new AccessList().deny("2001:db8::/32").deny("0.0.0.0/0"));
+
+        assertFalse(accessControl.admits(client("2001:db8:1::1")));
+        assertTrue(accessControl.admits(client("2001:db9::1")));
+        assertFalse(accessControl.admits(client("8.8.8.8")));
+        assertTrue(accessControl.admits(UnixDomainSocketAddress.of("moxy.sock")));
+    }
+
+    @Test
+    public void shouldCountTheConnectionsEachRuleDecidedOn() throws Exception {
+        accessControl.replace(new AccessList().allow("10.0.0.0/8").deny("10.1.0.0/16"));
+
+        accessControl.admits(client("10.0.0.1"));
+        accessControl.admits(client("10.1.0.1"));
+        accessControl.admits(client("10.1.0.2"));
+        accessControl.admits(client("172.16.0.1"));
+
+        List<AccessRuleStats> stats = accessControl.getStats();
+        assertEquals("10.0.0.0/8", stats.get(0).getRule().get().getCidr());
+        assertEquals(1, stats.get(0).getMatches());
+        assertEquals(AccessList.Access.DENY, stats.get(1).getAccess());
+        assertEquals(2, stats.get(1).getMatches());
+        assertFalse(stats.get(2).getRule().isPresent());
+        assertEquals(1, stats.get(2).getMatches());
+    }
+
+    @Test
+    public void shouldStartOverWithAReplacedList() throws Exception {
+        accessControl.replace(new AccessList().deny("10.0.0.0/8"));
+        assertFalse(accessControl.admits(client("10.0.0.1")));
+
+        accessControl.replace(new AccessList().allow("10.0.0.0/8").otherwise(AccessList.Access.DENY));
+        assertTrue(accessControl.admits(client("10.0.0.1")));
+        assertEquals(1, accessControl.getStats().get(0).getMatches());
+
+        accessControl.replace(null);
+        assertTrue(accessControl.admits(client("192.168.0.1")));
+        assertTrue(accessControl.getStats().isEmpty());
+    }
+
+    @Test
+    public void shouldClearTheHostBitsOfABlock() {
+        assertEquals("10.1.0.0/16", new AccessList().allow("10.1.2.3/16").getRules().get(0).getCidr());
+        assertEquals(128, new AccessList().allow("::1").getRules().get(0).getPrefixLength());
+    }
+
+    @Test
+    public void shouldOnlyTakeCidrBlocks() {
+        for (String invalid : new String[]{"localhost", "cafe", "10.0.0.0/33", "2001:db8::/129", "10.0.0/8", null}) {
+            try {
+                new AccessList().allow(invalid);
+                fail(invalid);
+            } catch (IllegalArgumentException e) {
+                assertEquals("Not a CIDR block: " + invalid, e.getMessage());
+            }
+        }
+        try {
+            new AccessList().allow("10.0.0.0/8").deny("10.0.0.0/8");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The CIDR block 10.0.0.0/8 is already in the list", e.getMessage());
+        }
+        for (String[] sameBlock : new String[][]{{"10.0.0.0/8", "10.1.2.3/8"}, {"10.0.0.1", "::ffff:10.0.0.1"}, {"2001:db8::/32", "2001:db8:0:0::1/32"}}) {
+            try {
+                new AccessList().allow(sameBlock[0]).deny(sameBlock[1]);
+                fail(sameBlock[1]);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().endsWith("is already in the list"));
+            }
+        }
+    }
+
+    private static InetSocketAddress client(String address) throws Exception {
+        return new InetSocketAddress(InetAddress.getByName(address), 50000);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.ClientLimits;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClientLimiterTest {
+    private final ClientLimiter limiter = new ClientLimiter();
+
+    @Test
+    public void shouldLetEveryConnectionThroughWithoutLimits() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire(client(1)).isPresent());
+        }
+        assertTrue(limiter.tryAcquire(UnixDomainSocketAddress.of("moxy.sock")).isPresent());
+    }
+
+    @Test
+    public void shouldLetABurstThroughAndThenRefillAtTheRate() throws Exception {
+        limiter.configure(new ClientLimits().withConnectionRate(10, 3));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(client(1)).isPresent());
+        }
+        assertFalse(limiter.tryAcquire(client(1)).isPresent());
+        assertTrue("Other clients have buckets of their own", limiter.tryAcquire(client(2)).isPresent());
+
+        Thread.sleep(150);
+        assertTrue(limiter.tryAcquire(client(1)).isPresent());
+        assertFalse(limiter.tryAcquire(client(1)).isPresent());
+    }
+
+    @Test
+    public void shouldLimitTheConnectionsOpenAtTheSameTime() throws Exception {
+        limiter.configure(new ClientLimits().withMaxConcurrentConnections(2));
+
+        Optional<ClientLimiter.Permit> first = limiter.tryAcquire(client(1));
+        assertTrue(limiter.tryAcquire(client(1)).isPresent());
+        assertFalse(limiter.tryAcquire(client(1)).isPresent());
+
+        first.get().release();
+        first.get().release();
+        assertTrue(limiter.tryAcquire(client(1)).isPresent());
+        assertFalse(limiter.tryAcquire(client(1)).isPresent());
+    }
+
+    @Test
+    public void shouldForgetClientsOnceIdleForLongEnough() throws Exception {
+        limiter.configure(new ClientLimits().withConnectionRate(0.001, 1).withTracking(1024, 50));
+        limiter.tryAcquire(client(1)).get().release();
+        assertFalse(limiter.tryAcquire(client(1)).isPresent());
+
+        Thread.sleep(100);
+
+        assertTrue(limiter.tryAcquire(client(1)).isPresent());
+    }
+
+    @Test
+    public void shouldOnlyRememberSoManyClients() throws Exception {
+        limiter.configure(new ClientLimits().withConnectionRate(0.001, 1).withTracking(16, 60_000));
+
+        for (int i = 0; i < 10_000; i++) {
+            limiter.tryAcquire(client(i));
+        }
+
+        assertTrue("The first client was forgotten and starts over", limiter.tryAcquire(client(0)).isPresent());
+    }
+
+    @Test
+    public void shouldRejectInvalidLimits() {
+        try {
+            new ClientLimits().withConnectionRate(0, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The connection rate needs to be above 0 with a burst of at least 1, but was given: 0.0/s with a burst of 1", e.getMessage());
+        }
+        try {
+            new ClientLimits().withMaxConcurrentConnections(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("At least one concurrent connection is required, but was given: 0", e.getMessage());
+        }
+    }
+
+    private static InetSocketAddress client(int number) throws Exception {
+        return new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, (byte) (number >> 8), (byte) number}), 50000);
+    }
+}
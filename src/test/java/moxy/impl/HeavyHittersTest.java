@@ -0,0 +1,92 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.HeavyHitter;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHittersTest {
+    private final HeavyHitters heavyHitters = new HeavyHitters();
+
+    @Test
+    public void shouldFindTheHeavyHittersAmongManyClients() throws Exception {
+        heavyHitters.configure(3, 60_000);
+        for (int i = 0; i < 20_000; i++) {
+            heavyHitters.connected(client(i));
+            if (i % 100 == 0) {
+                heavyHitters.connected(client(1_000_001));
+                heavyHitters.connected(client(1_000_001));
+                heavyHitters.connected(client(1_000_001));
+                heavyHitters.connected(client(1_000_002));
+                heavyHitters.connected(client(1_000_002));
+                heavyHitters.connected(client(1_000_003)).relayed(1024);
+            }
+        }
+
+        List<HeavyHitter> top = heavyHitters.getByConnections();
+
+        assertEquals(List.of("10.15.66.65", "10.15.66.66", "10.15.66.67"), top.stream().map(HeavyHitter::getAddress).collect(Collectors.toList()));
+        assertTrue(top.get(0).getConnections() >= 600);
+        assertTrue(top.get(1).getConnections() >= 400);
+        assertEquals("10.15.66.67", heavyHitters.getByBytes().get(0).getAddress());
+        assertTrue(heavyHitters.getByBytes().get(0).getBytes() >= 200 * 1024);
+    }
+
+    @Test
+    public void shouldHalveTheCountsEveryWindow() throws Exception {
+        heavyHitters.configure(1, 200);
+        HeavyHitters.Client client = heavyHitters.connected(client(1));
+        client.relayed(1000);
+
+        Thread.sleep(300);
+
+        assertEquals(500, heavyHitters.getByBytes().get(0).getBytes());
+        assertTrue(heavyHitters.getByConnections().isEmpty());
+    }
+
+    @Test
+    public void shouldAddUpTheBytesOfAConnectionUntilItIsClosed() throws Exception {
+        heavyHitters.configure(1, 60_000);
+        HeavyHitters.Client client = heavyHitters.connected(client(1));
+        client.relayed(100);
+        client.relayed(200);
+        client.relayed(300);
+
+        assertEquals(100, heavyHitters.getByBytes().get(0).getBytes());
+        client.closed();
+        assertEquals(600, heavyHitters.getByBytes().get(0).getBytes());
+    }
+
+    @Test
+    public void shouldOnlyTrackClientsWithAnAddressOnceConfigured() throws Exception {
+        heavyHitters.connected(client(1)).relayed(1000);
+        assertTrue(heavyHitters.getByConnections().isEmpty());
+
+        heavyHitters.configure(1, 60_000);
+        heavyHitters.connected(UnixDomainSocketAddress.of("moxy.sock")).relayed(1000);
+        assertTrue(heavyHitters.getByBytes().isEmpty());
+    }
+
+    private static InetSocketAddress client(int number) throws Exception {
+        return new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, (byte) (number >> 16), (byte) (number >> 8), (byte) number}), 50000);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.MemoryBudget;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InFlightBudgetTest {
+    private final InFlightBudget memory = new InFlightBudget();
+
+    @Test
+    public void shouldOnlyCountTheDataHeldWithoutABudget() {
+        InFlightBudget.Account connection = memory.newAccount().newAccount();
+
+        connection.reserve(1024);
+        connection.awaitRoom();
+
+        assertEquals(1024, memory.getHeldBytes());
+        assertEquals(0, memory.getPauses());
+        connection.release(1024);
+        assertEquals(0, memory.getHeldBytes());
+        assertEquals(1024, memory.getPeakHeldBytes());
+    }
+
+    @Test
+    public void shouldPauseAnAccountHoldingDataUntilBackDownToTheLowWatermark() throws Exception {
+        memory.configure(new MemoryBudget(100).withWatermarks(0.8, 0.5));
+        InFlightBudget.Account connection = memory.newAccount().newAccount();
+        connection.reserve(80);
+        CountDownLatch resumed = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            connection.awaitRoom();
+            resumed.countDown();
+        });
+        thread.start();
+
+        connection.release(20);
+        assertFalse(resumed.await(200, TimeUnit.MILLISECONDS));
+        connection.release(10);
+        assertTrue(resumed.await(1, TimeUnit.SECONDS));
+        assertEquals(1, memory.getPauses());
+        assertEquals(1, memory.getResumes());
+    }
+
+    @Test
+    public void shouldLetAnAccountHoldingNothingThroughUnderPressure() {
+        memory.configure(new MemoryBudget(100));
+        InFlightBudget.Account route = memory.newAccount();
+        route.newAccount().reserve(100);
+
+        route.newAccount().awaitRoom();
+
+        assertEquals(0, memory.getPauses());
+    }
+
+    @Test
+    public void shouldPauseTheConnectionsOfARouteHoldingData() throws Exception {
+        memory.configure(new MemoryBudget(100));
+        InFlightBudget.Account route = memory.newAccount();
+        route.reserve(100);
+        CountDownLatch resumed = new CountDownLatch(1);
+        new Thread(() -> {
+            route.newAccount().awaitRoom();
+            resumed.countDown();
+        }).start();
+
+        assertFalse(resumed.await(200, TimeUnit.MILLISECONDS));
+        route.release(100);
+        assertTrue(resumed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldResumeOnceTheBudgetIsRemoved() throws Exception {
+        memory.configure(new MemoryBudget(100));
+        InFlightBudget.Account connection = memory.newAccount().newAccount();
+        connection.reserve(100);
+        CountDownLatch resumed = new CountDownLatch(1);
+        new Thread(() -> {
+            connection.awaitRoom();
+            resumed.countDown();
+        }).start();
+
+        assertFalse(resumed.await(200, TimeUnit.MILLISECONDS));
+        memory.configure(null);
+        assertTrue(resumed.await(1, TimeUnit.SECONDS));
+        assertEquals(0, memory.getMaxBytes());
+    }
+
+    @Test
+    public void shouldRejectInvalidBudgets() {
+        try {
+            new MemoryBudget(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The memory budget needs at least 1 byte, but was given: 0", e.getMessage());
+        }
+        try {
+            new MemoryBudget(100).withWatermarks(0.5, 0.5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The watermarks need 0 <= low < high <= 1, but were given: high 0.5, low 0.5", e.getMessage());
+        }
+    }
+}
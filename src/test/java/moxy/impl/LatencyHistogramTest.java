@@ -0,0 +1,70 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void shouldKeepEveryValueWithinItsBucketPrecision() {
+        for (long value : new long[]{0, 1, 127, 128, 129, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value + " fell below its bucket", LatencyHistogram.lowestValueOf(index) <= value);
+            assertTrue(value + " fell above its bucket", LatencyHistogram.highestValueOf(index) >= value);
+            assertTrue(value + " got a bucket too wide",
+                    LatencyHistogram.highestValueOf(index) - LatencyHistogram.lowestValueOf(index) <= value / 64);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldReportPercentiles() {
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertWithinPrecision(500_000, snapshot.getPercentileNanos(50));
+        assertWithinPrecision(990_000, snapshot.getPercentileNanos(99));
+        assertWithinPrecision(1_000_000, snapshot.getPercentileNanos(100));
+        assertWithinPrecision(1000, snapshot.getMinNanos());
+        assertWithinPrecision(1_000_000, snapshot.getMaxNanos());
+        assertEquals(500_500, snapshot.getMeanNanos(), 0.001);
+    }
+
+    @Test
+    public void shouldStartANewIntervalOnEachCall() {
+        histogram.record(100);
+        histogram.record(200);
+        assertEquals(2, histogram.interval().getCount());
+
+        histogram.record(5000);
+        LatencyHistogram.Snapshot interval = histogram.interval();
+        assertEquals(1, interval.getCount());
+        assertWithinPrecision(5000, interval.getMinNanos());
+        assertEquals(5000, interval.getMeanNanos(), 0.001);
+
+        assertEquals(0, histogram.interval().getCount());
+        assertEquals(3, histogram.snapshot().getCount());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 64);
+    }
+}
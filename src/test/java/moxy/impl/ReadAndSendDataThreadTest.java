@@ -0,0 +1,133 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import moxy.CloseReason;
+import moxy.ConnectionSummary;
+import moxy.Direction;
+import moxy.EventType;
+import moxy.MoxyListener;
+import moxy.impl.conditions.ConditionedWriter;
+import moxy.impl.conditions.RouteConditions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReadAndSendDataThreadTest {
+    private static final int LISTEN_PORT = 7878;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel input;
+    private SocketChannel output;
+    private SocketChannel routeServer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        input = server.accept();
+        output = SocketChannel.open(server.getLocalAddress());
+        routeServer = server.accept();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (SocketChannel channel : new SocketChannel[]{client, input, output, routeServer}) {
+            channel.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void shouldRelayFromTheReadBufferWithoutCopyingOrDispatchingWhenNobodyListens() throws Exception {
+        DispatchListener dispatchListener = new DispatchListener();
+        AtomicReference<ConnectionSummary> summary = new AtomicReference<>();
+        List<byte[]> dataSeen = new CopyOnWriteArrayList<>();
+        dispatchListener.addListener(LISTEN_PORT, EnumSet.of(EventType.CONNECTION_CLOSED), new MoxyListener() {
+            public void connectionClosed(long connectionId, int listenPort, SocketAddress remoteAddress, ConnectionSummary connectionSummary) {
+                summary.set(connectionSummary);
+            }
+        });
+        dispatchListener.addListener(LISTEN_PORT + 1, EnumSet.allOf(EventType.class), new MoxyListener() {
+            public void sentData(long connectionId, int listenPort, SocketAddress remoteAddress, byte[] data) {
+                dataSeen.add(data);
+            }
+        });
+        ConnectionDispatch dispatch = dispatchListener.forConnection(LISTEN_PORT);
+
+        List<ByteBuffer> dispatched = new CopyOnWriteArrayList<>();
+        List<ByteBuffer> written = new CopyOnWriteArrayList<>();
+        ConnectionWatch watch = new ConnectionWatch();
+        ConditionedWriter writer = new ConditionedWriter(new RouteConditions(), Direction.CLIENT_TO_SERVER, watch, () -> {
+        }, () -> {
+        }) {
+            public void write(SocketChannel output, ByteBuffer data, long readAtNanos) throws IOException {
+                written.add(data);
+                super.write(output, data, readAtNanos);
+            }
+        };
+        ReadAndSendDataThread thread = new ReadAndSendDataThread(input, output, watch, writer) {
+            protected void sentData(ByteBuffer data) {
+                dispatched.add(data);
+                dispatch.sentData(LISTEN_PORT, routeServer.socket().getLocalSocketAddress(), data);
+            }
+        };
+        thread.start();
+
+        send("hello ");
+        assertEquals("hello ", receive(6));
+        send("world");
+        assertEquals("world", receive(5));
+        client.close();
+        thread.join(5000);
+        dispatch.connectionClosed(LISTEN_PORT, client.socket().getLocalSocketAddress(), CloseReason.CLIENT_CLOSED);
+
+        assertEquals(2, dispatched.size());
+        assertEquals(2, written.size());
+        for (int i = 0; i < dispatched.size(); i++) {
+            assertSame("the buffer the data was read into is dispatched", dispatched.get(0), dispatched.get(i));
+            assertSame("the buffer the data was read into is written", dispatched.get(0), written.get(i));
+        }
+        assertTrue(dataSeen.isEmpty());
+        assertEquals(11, summary.get().getBytes(Direction.CLIENT_TO_SERVER));
+    }
+
+    private void send(String data) throws IOException {
+        client.write(ByteBuffer.wrap(data.getBytes()));
+    }
+
+    private String receive(int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (routeServer.read(buffer) == -1) {
+                break;
+            }
+        }
+        return new String(buffer.array(), 0, buffer.position());
+    }
+}
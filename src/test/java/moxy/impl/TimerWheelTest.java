@@ -0,0 +1,80 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+    private TimerWheel timerWheel = new TimerWheel(5, 8);
+
+    @Test
+    public void shouldRunTasksInDeadlineOrderEvenWhenTheyWrapAroundTheWheel() throws Exception {
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+
+        timerWheel.schedule(() -> { ran.add(3); done.countDown(); }, 120);
+        timerWheel.schedule(() -> { ran.add(1); done.countDown(); }, 10);
+        timerWheel.schedule(() -> { ran.add(2); done.countDown(); }, 60);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), ran);
+    }
+
+    @Test
+    public void shouldNotRunCancelledTasks() throws Exception {
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        TimerWheel.Timeout cancelled = timerWheel.schedule(() -> ran.add(1), 20);
+        timerWheel.schedule(done::countDown, 50);
+
+        assertTrue(cancelled.cancel());
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(ran.isEmpty());
+    }
+
+    @Test
+    public void shouldNotRunTasksEarly() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        TimerWheel.Timeout timeout = timerWheel.schedule(done::countDown, 100);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertFalse("a task that already ran can not be cancelled", timeout.cancel());
+        assertEquals(0, timerWheel.getPendingCount());
+    }
+
+    @Test
+    public void shouldCancelEverythingScheduledBeforeAShutdownButKeepWorkingAfterwards() throws Exception {
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        timerWheel.schedule(() -> ran.add(1), 50);
+        timerWheel.shutdown();
+        timerWheel.schedule(done::countDown, 100);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(ran.isEmpty());
+        assertEquals(0, timerWheel.getPendingCount());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.buffer;
+
+import moxy.DirectBuffers;
+import moxy.RetryableAssertion;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BufferAllocatorTest {
+    private final BufferAllocator allocator = new BufferAllocator();
+
+    @Test
+    public void shouldHandOutHeapBuffersUntilConfigured() {
+        PooledBuffer buffer = allocator.allocate();
+
+        assertFalse(buffer.buffer().isDirect());
+        assertEquals(BufferAllocator.HEAP_BUFFER_SIZE, buffer.buffer().capacity());
+        assertEquals(0, allocator.getAllocations());
+    }
+
+    @Test
+    public void shouldCutTheSlabsIntoChunks() {
+        allocator.configure(new DirectBuffers(8192).withSlabs(1024, 4096));
+
+        PooledBuffer buffer = allocator.allocate();
+
+        assertTrue(buffer.buffer().isDirect());
+        assertEquals(1024, buffer.buffer().capacity());
+        assertEquals(4096, allocator.getReservedBytes());
+        assertEquals(1024, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void shouldReuseAReleasedChunk() {
+        allocator.configure(new DirectBuffers(8192).withSlabs(1024, 4096));
+        PooledBuffer first = allocator.allocate();
+        ByteBuffer chunk = first.buffer();
+        chunk.put((byte) 1);
+
+        first.release();
+        PooledBuffer second = allocator.allocate();
+
+        assertSame(chunk, second.buffer());
+        assertEquals(0, second.buffer().position());
+        assertEquals(1024, allocator.getUsedBytes());
+        assertEquals(2, allocator.getAllocations());
+    }
+
+    @Test
+    public void shouldOnlyReleaseOnceEveryHolderReleased() {
+        allocator.configure(new DirectBuffers(8192).withSlabs(1024, 4096));
+        PooledBuffer buffer = allocator.allocate().retain();
+
+        buffer.release();
+        assertEquals(1024, allocator.getUsedBytes());
+        buffer.release();
+        assertEquals(0, allocator.getUsedBytes());
+
+        try {
+            buffer.release();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("The buffer was already released", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldFallBackToTheHeapOnceTheCapIsReached() {
+        allocator.configure(new DirectBuffers(2048).withSlabs(1024, 4096));
+
+        allocator.allocate();
+        allocator.allocate();
+        PooledBuffer third = allocator.allocate();
+
+        assertFalse(third.buffer().isDirect());
+        assertEquals(2048, allocator.getReservedBytes());
+        assertEquals(1, allocator.getFallbacks());
+    }
+
+    @Test
+    public void shouldHandTheChunksReleasedByOneThreadToAnother() throws InterruptedException {
+        allocator.configure(new DirectBuffers(1024).withSlabs(1024, 1024));
+        Thread thread = new Thread(() -> allocator.allocate().release());
+        thread.start();
+        thread.join();
+
+        assertTrue(allocator.allocate().buffer().isDirect());
+        assertEquals(0, allocator.getFallbacks());
+    }
+
+    @Test
+    public void shouldCountTheBuffersThatWereNeverReleased() {
+        allocator.configure(new DirectBuffers(8192).withSlabs(1024, 4096).withLeakDetection());
+        allocator.allocate();
+        allocator.allocate().release();
+
+        new RetryableAssertion() {
+            protected void assertion() {
+                System.gc();
+                assertEquals(1, allocator.getLeaks());
+            }
+        }.performAssertion();
+    }
+
+    @Test
+    public void shouldNotAllowASlabThatIsNotAWholeNumberOfChunks() {
+        try {
+            new DirectBuffers(8192).withSlabs(1024, 1500);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("A slab needs to hold a whole number of chunks, but was given: 1500 for chunks of 1024", e.getMessage());
+        }
+    }
+}
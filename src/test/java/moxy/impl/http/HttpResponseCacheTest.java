@@ -0,0 +1,103 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpResponseCacheTest {
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedResponsesOnceFull() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(1200);
+        HttpHead response = head("HTTP/1.1 200 OK", "Cache-Control: max-age=60");
+        int entrySize = response.toBytes().length + 200;
+
+        for (int i = 0; i < 1200 / entrySize; i++) {
+            cache.store(get("/" + i), response, new byte[200]);
+        }
+        assertNotNull(cache.lookup(get("/0")));
+
+        cache.store(get("/new"), response, new byte[200]);
+
+        assertNotNull(cache.lookup(get("/0")));
+        assertNull(cache.lookup(get("/1")));
+        assertNotNull(cache.lookup(get("/new")));
+        assertTrue(cache.getCurrentBytes() <= 1200);
+        assertEquals(1, cache.getCounters().getEvictions());
+    }
+
+    @Test
+    public void shouldNotStoreResponsesLargerThanAQuarterOfTheCache() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(1000);
+
+        cache.store(get("/big"), head("HTTP/1.1 200 OK", "Cache-Control: max-age=60"), new byte[300]);
+
+        assertNull(cache.lookup(get("/big")));
+    }
+
+    @Test
+    public void shouldOnlyStoreResponsesThatAreAllowedToBeShared() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(1000);
+
+        assertTrue(cache.isStorable(get("/"), head("HTTP/1.1 200 OK", "Cache-Control: public, max-age=60")));
+        assertTrue(cache.isStorable(get("/"), head("HTTP/1.1 200 OK", "ETag: \"abc\"")));
+        assertFalse(cache.isStorable(get("/"), head("HTTP/1.1 200 OK")));
+        assertFalse(cache.isStorable(get("/"), head("HTTP/1.1 200 OK", "Cache-Control: private, max-age=60")));
+        assertFalse(cache.isStorable(get("/"), head("HTTP/1.1 200 OK", "Cache-Control: no-store")));
+        assertFalse(cache.isStorable(get("/"), head("HTTP/1.1 500 Oops", "Cache-Control: max-age=60")));
+        assertFalse(cache.isStorable(get("/"), head("HTTP/1.1 200 OK", "Cache-Control: max-age=60", "Set-Cookie: a=b")));
+        assertFalse(cache.isStorable(get("/", "Authorization: Basic abc"), head("HTTP/1.1 200 OK", "Cache-Control: max-age=60")));
+    }
+
+    @Test
+    public void shouldKeepTrackOfHowLongAResponseIsFresh() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(1000);
+        cache.store(get("/fresh"), head("HTTP/1.1 200 OK", "Cache-Control: max-age=60"), new byte[0]);
+        cache.store(get("/aged"), head("HTTP/1.1 200 OK", "Cache-Control: max-age=60", "Age: 60"), new byte[0]);
+        cache.store(get("/revalidate"), head("HTTP/1.1 200 OK", "Cache-Control: no-cache", "ETag: \"1\""), new byte[0]);
+
+        long now = System.currentTimeMillis();
+        assertTrue(cache.lookup(get("/fresh")).isFresh(now));
+        assertFalse(cache.lookup(get("/aged")).isFresh(now));
+        assertFalse(cache.lookup(get("/revalidate")).isFresh(now));
+    }
+
+    @Test
+    public void shouldOnlyMatchRequestsWithTheSameVaryingHeaders() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(1000);
+        cache.store(get("/", "Accept-Encoding: gzip"), head("HTTP/1.1 200 OK", "Cache-Control: max-age=60", "Vary: Accept-Encoding"), new byte[0]);
+
+        assertNotNull(cache.lookup(get("/", "Accept-Encoding: gzip")));
+        assertNull(cache.lookup(get("/", "Accept-Encoding: br")));
+    }
+
+    private static HttpHead get(String target, String... headers) throws HttpParseException {
+        return head("GET " + target + " HTTP/1.1", headers);
+    }
+
+    private static HttpHead head(String startLine, String... headers) throws HttpParseException {
+        StringBuilder head = new StringBuilder(startLine).append("\r\n");
+        for (String header : headers) {
+            head.append(header).append("\r\n");
+        }
+        byte[] bytes = head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+        return HttpHead.parse(bytes, 0, bytes.length);
+    }
+}
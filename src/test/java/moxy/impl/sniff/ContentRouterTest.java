@@ -0,0 +1,115 @@
+/**
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package moxy.impl.sniff;
+
+import moxy.ContentMatcher;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContentRouterTest {
+    private static final SocketAddress API = new InetSocketAddress("localhost", 1);
+    private static final SocketAddress WEB = new InetSocketAddress("localhost", 2);
+    private static final SocketAddress REDIS = new InetSocketAddress("localhost", 3);
+    private ContentRouter router;
+
+    @Before
+    public void setUp() throws Exception {
+        router = new ContentRouter(1000);
+        router.addHttpHost("api.example.com", API);
+        router.addHttpHost("*.example.com", WEB);
+        router.addPrefix("*1\r\n".getBytes(), REDIS);
+    }
+
+    @Test
+    public void shouldWaitForTheHostHeaderToArrive() {
+        assertEquals(SniffResult.NEED_MORE, route("GET / HTTP/1.1\r\nAccept: */*\r\nHo"));
+        assertEquals(API, route("GET / HTTP/1.1\r\nAccept: */*\r\nHost: api.example.com\r\n").getAddress());
+    }
+
+    @Test
+    public void shouldPreferExactHostsOverWildcards() {
+        assertEquals(API, route("GET / HTTP/1.1\r\nhost: Api.Example.com.\r\n").getAddress());
+        assertEquals(WEB, route("GET / HTTP/1.1\r\nhost: www.example.com:80\r\n").getAddress());
+        assertEquals(SniffResult.NO_MATCH, route("GET / HTTP/1.1\r\nhost: example.com\r\n"));
+    }
+
+    @Test
+    public void shouldGiveUpOnHttpRequestsWithoutAHost() {
+        assertEquals(SniffResult.NO_MATCH, route("GET / HTTP/1.0\r\nAccept: */*\r\n\r\n"));
+    }
+
+    @Test
+    public void shouldMatchPrefixesOnceEnoughBytesArrive() {
+        assertEquals(SniffResult.NEED_MORE, route("*1"));
+        assertEquals(REDIS, route("*1\r\n$4\r\nPING\r\n").getAddress());
+        assertEquals(SniffResult.NO_MATCH, route("+OK\r\n"));
+    }
+
+    @Test
+    public void shouldFindTheServerNameOfATlsClientHello() {
+        ByteBuffer clientHello = clientHello("secure.example.com");
+
+        assertEquals("secure.example.com", TlsServerNameSniffer.sniff(clientHello));
+        assertNull(TlsServerNameSniffer.sniff(clientHello.duplicate().limit(20)));
+        assertEquals(TlsServerNameSniffer.NOT_TLS, TlsServerNameSniffer.sniff(ByteBuffer.wrap("GET /".getBytes())));
+    }
+
+    @Test
+    public void shouldAskCustomMatchersOnceTheyHaveEnoughBytes() {
+        router.addMatcher(new ContentMatcher() {
+            public SocketAddress match(ByteBuffer firstBytes) {
+                return firstBytes.get(4) == 'X' ? API : null;
+            }
+
+            public int minimumBytes() {
+                return 5;
+            }
+        });
+
+        assertEquals(SniffResult.NEED_MORE, route("1234"));
+        assertEquals(API, route("1234X").getAddress());
+        assertEquals(SniffResult.NO_MATCH, route("1234Y"));
+    }
+
+    private SniffResult route(String data) {
+        return router.route(ByteBuffer.wrap(data.getBytes()));
+    }
+
+    private static ByteBuffer clientHello(String serverName) {
+        byte[] name = serverName.getBytes();
+        ByteBuffer extension = ByteBuffer.allocate(9 + name.length);
+        extension.putShort((short) 0).putShort((short) (5 + name.length));
+        extension.putShort((short) (3 + name.length)).put((byte) 0).putShort((short) name.length).put(name);
+
+        ByteBuffer hello = ByteBuffer.allocate(512);
+        hello.put((byte) 0x16).put((byte) 3).put((byte) 1).putShort((short) 0);
+        hello.put((byte) 1).put((byte) 0).putShort((short) 0);
+        hello.put((byte) 3).put((byte) 3).put(new byte[32]);
+        hello.put((byte) 0);
+        hello.putShort((short) 2).putShort((short) 0x1301);
+        hello.put((byte) 1).put((byte) 0);
+        hello.putShort((short) extension.capacity()).put(extension.array());
+
+        int length = hello.position();
+        hello.putShort(3, (short) (length - 5));
+        hello.putShort(7, (short) (length - 9));
+        return hello.flip();
+    }
+}